@@ -0,0 +1,561 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.integration.ip.tcp.connection.AbstractServerConnectionFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Starts the server on a random port and drives simulated clients through login, chat at a fixed total rate and
+ * logout. Every client sends to the next one, the latency is from the moment a message was scheduled to be sent
+ * until its recipient read it, so a stalled sender counts against the server (no coordinated omission).
+ * <p>
+ * Run with {@code ./gradlew loadBenchmark -Pbenchmark.clients=1000 -Pbenchmark.rate=20000}, results are printed and
+ * written as JSON to {@code build/reports/load-benchmark}.
+ * <p>
+ * {@code -Pbenchmark.partitions=1,2,4,8} runs once per inbound dispatch partition count against a fresh server, to
+ * show how throughput and latency scale as decoding and handling spread over more cores.
+ * <p>
+ * {@code -Pbenchmark.acks=false,true} runs each of those with fire and forget chat and again with at-least-once
+ * delivery, clients acknowledging every {@code benchmark.ack-every} messages. The benchmark fails when the throughput
+ * with acks falls more than {@code benchmark.ack-overhead-limit} percent (10 by default) below fire and forget, and
+ * when none of the chat responses of a run with acks carried an id.
+ * <p>
+ * {@code -Pbenchmark.pooled=false,true} runs each of those with and without pooled frame buffers and logs the heap
+ * allocation rate of both. The rate covers every thread in the JVM, the simulated clients allocate the same in each.
+ * <p>
+ * {@code -Pbenchmark.mode=reactor} runs against the Reactor Netty engine instead of the blocking one, to compare
+ * messages per CPU second and live threads. CPU time is the whole process's, clients included, which costs the same
+ * in every mode.
+ */
+public class ChatLoadBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger( ChatLoadBenchmark.class );
+
+    // "message":"t=<scheduled nanos>"
+    private static final byte[] TIMESTAMP_MARKER = "\"t=".getBytes( StandardCharsets.US_ASCII );
+
+    private static final byte[] ID_PREFIX = "{\"id\":".getBytes( StandardCharsets.US_ASCII );
+
+    // nanoTime may be negative, so no negative number can mean "not a chat response"
+    private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    private final int clients;
+    private final int rate;
+    private final int warmupSeconds;
+    private final int durationSeconds;
+    private final String mode;
+    private final int partitions;
+    private final boolean acks;
+    private final int ackEvery;
+    private final boolean pooled;
+    private final Path output;
+
+    private final Recorder latency = new Recorder( TimeUnit.MINUTES.toMicros( 1 ), 3 );
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong identified = new AtomicLong();
+
+    private volatile boolean sending = true;
+
+    ChatLoadBenchmark(
+            int clients, int rate, int warmupSeconds, int durationSeconds, String mode, int partitions, boolean acks, int ackEvery,
+            boolean pooled, Path output ) {
+
+        this.clients = clients;
+        this.rate = rate;
+        this.warmupSeconds = warmupSeconds;
+        this.durationSeconds = durationSeconds;
+        this.mode = mode;
+        this.partitions = partitions;
+        this.acks = acks;
+        this.ackEvery = ackEvery;
+        this.pooled = pooled;
+        this.output = output;
+
+    }
+
+    public static void main( String[] args ) throws Exception {
+
+        var overheadLimit = Double.parseDouble( System.getProperty( "benchmark.ack-overhead-limit", "10" ) );
+        var failures = new ArrayList<String>();
+        for( var partitions : System.getProperty( "benchmark.partitions", "0" ).split( "," ) ) {
+
+            // acks -> pooled -> allocation rate of the run
+            var allocation = new LinkedHashMap<Boolean, Map<Boolean, Double>>();
+            for( var pooled : System.getProperty( "benchmark.pooled", "true" ).split( "," ) ) {
+
+                // acks -> throughput of the run
+                var throughput = new LinkedHashMap<Boolean, Double>();
+                for( var acks : System.getProperty( "benchmark.acks", "false" ).split( "," ) ) {
+
+                    var benchmark =
+                            new ChatLoadBenchmark(
+                                    Integer.getInteger( "benchmark.clients", 100 ),
+                                    Integer.getInteger( "benchmark.rate", 10_000 ),
+                                    Integer.getInteger( "benchmark.warmup", 5 ),
+                                    Integer.getInteger( "benchmark.duration", 30 ),
+                                    System.getProperty( "benchmark.mode", "net" ),
+                                    Integer.parseInt( partitions.trim() ),
+                                    Boolean.parseBoolean( acks.trim() ),
+                                    Integer.getInteger( "benchmark.ack-every", 16 ),
+                                    Boolean.parseBoolean( pooled.trim() ),
+                                    Path.of( System.getProperty( "benchmark.output", "build/reports/load-benchmark" ) ) );
+
+                    var results = benchmark.run();
+                    throughput.put( benchmark.acks, (Double) results.get( "throughput" ) );
+                    allocation.computeIfAbsent( benchmark.acks, k -> new LinkedHashMap<>() ).put( benchmark.pooled, (Double) results.get( "allocationMBps" ) );
+
+                }
+
+                if( throughput.containsKey( false ) && throughput.containsKey( true ) ) {
+
+                    var overhead = 100 * ( 1 - throughput.get( true ) / throughput.get( false ) );
+                    log.warn( "partitions [{}], pooled [{}] : acks cost {}% of fire and forget throughput, limit {}%", partitions.trim(), pooled.trim(), "%.1f".formatted( overhead ), overheadLimit );
+                    if( overhead > overheadLimit ) {
+
+                        failures.add( "partitions " + partitions.trim() + ", pooled " + pooled.trim() + " : " + "%.1f".formatted( overhead ) + "%" );
+
+                    }
+
+                }
+
+            }
+
+            allocation.forEach( ( acks, rates ) -> {
+
+                if( rates.containsKey( false ) && rates.containsKey( true ) ) {
+
+                    log.warn( "partitions [{}], acks [{}] : pooled buffers allocate {} MB/s, unpooled {} MB/s", partitions.trim(), acks,
+                            "%.1f".formatted( rates.get( true ) ), "%.1f".formatted( rates.get( false ) ) );
+
+                }
+
+            } );
+
+        }
+
+        if( !failures.isEmpty() ) {
+
+            throw new IllegalStateException( "at-least-once throughput overhead above " + overheadLimit + "% for " + List.copyOf( failures ) );
+        }
+
+    }
+
+    Map<String, Object> run() throws Exception {
+
+        var data = Files.createTempDirectory( "chat-load-benchmark" );
+        // command line arguments, properties() would only set defaults that application.yaml overrides
+        try( var context = new SpringApplicationBuilder( TcpDemoApplication.class )
+                .run(
+                        "--tcp.server.mode=" + this.mode,
+                        "--tcp.server.dispatch.partitions=" + this.partitions,
+                        "--tcp.server.delivery.acks=" + this.acks,
+                        "--tcp.server.buffers.pooled=" + this.pooled,
+                        "--tcp.server.delivery.directory=" + data.resolve( "delivery" ),
+                        // every message counts, the limits would throttle the clients instead of the server
+                        "--tcp.server.limits.connection.frames-per-second=0",
+                        "--tcp.server.limits.user.frames-per-second=0",
+                        "--tcp.server.drain.enabled=false",
+                        "--tcp.server.port=0",
+                        "--server.port=0",
+                        "--tcp.server.offline.directory=" + data.resolve( "offline" ),
+                        "--tcp.server.history.directory=" + data.resolve( "history" ),
+                        "--tcp.server.audit.file=" + data.resolve( "audit/audit.log" ),
+                        "--logging.level.org.springframework.integration=WARN",
+                        "--logging.level.com.broadcom.tanzulabs.tcpdemo=WARN" ) ) {
+
+            var serverConnectionFactory = context.getBean( AbstractServerConnectionFactory.class );
+            for( int i = 0; i < 100 && !serverConnectionFactory.isListening(); i++ ) {
+
+                Thread.sleep( 100 );
+
+            }
+
+            var results = drive( serverConnectionFactory.getPort() );
+
+            // an acks run without ids measured fire and forget, its overhead would read as zero
+            if( this.acks && (long) results.get( "received" ) > 0 && (long) results.get( "identified" ) == 0 ) {
+
+                throw new IllegalStateException( "run : acks were requested but no chat response carried an id" );
+            }
+
+            report( results );
+
+            return results;
+        }
+
+    }
+
+    private Map<String, Object> drive( int port ) throws Exception {
+
+        var simulated = new ArrayList<SimulatedClient>( this.clients );
+        for( int i = 0; i < this.clients; i++ ) {
+
+            simulated.add( new SimulatedClient( i, new Socket( "localhost", port ) ) );
+
+        }
+
+        // everyone is logged in before the first chat, nothing lands in the offline store
+        var loggedIn = new CountDownLatch( this.clients );
+        var readers = new ArrayList<Thread>( this.clients );
+        for( var client : simulated ) {
+
+            readers.add( Thread.ofVirtual().name( "reader-" + client.index ).start( () -> client.read( loggedIn ) ) );
+            client.send( "{\"type\":\"command\",\"action\":\"login\",\"payload\":{\"username\":\"load-%d\"}}".formatted( client.index ) );
+
+        }
+        if( !loggedIn.await( 60, TimeUnit.SECONDS ) ) {
+
+            throw new IllegalStateException( "clients did not log in within 60s" );
+        }
+
+        var intervalNanos = TimeUnit.SECONDS.toNanos( 1 ) * this.clients / Math.max( 1, this.rate );
+        var start = System.nanoTime();
+        var senders = new ArrayList<Thread>( this.clients );
+        for( var client : simulated ) {
+
+            // spread the first sends over one interval so clients do not fire in lockstep
+            var first = start + intervalNanos * client.index / this.clients;
+            senders.add( Thread.ofVirtual().name( "sender-" + client.index ).start( () -> client.chat( first, intervalNanos ) ) );
+
+        }
+
+        Thread.sleep( TimeUnit.SECONDS.toMillis( this.warmupSeconds ) );
+        this.latency.reset();
+        var sentBefore = this.sent.get();
+        var receivedBefore = this.received.get();
+        var identifiedBefore = this.identified.get();
+        var allocatedBefore = allocatedBytes();
+        var gcBefore = gcMillis();
+        var cpuBefore = cpuNanos();
+        var measureStart = System.nanoTime();
+
+        Thread.sleep( TimeUnit.SECONDS.toMillis( this.durationSeconds ) );
+
+        Histogram histogram = this.latency.getIntervalHistogram();
+        var elapsedSeconds = ( System.nanoTime() - measureStart ) / 1e9;
+        var sentCount = this.sent.get() - sentBefore;
+        var receivedCount = this.received.get() - receivedBefore;
+        var identifiedCount = this.identified.get() - identifiedBefore;
+        var allocated = allocatedBytes() - allocatedBefore;
+        var gcPause = gcMillis() - gcBefore;
+        var cpuSeconds = ( cpuNanos() - cpuBefore ) / 1e9;
+        var threads = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        this.sending = false;
+        for( var sender : senders ) {
+
+            sender.join();
+
+        }
+        for( var client : simulated ) {
+
+            client.send( "{\"type\":\"command\",\"action\":\"logout\",\"payload\":{\"username\":\"load-%d\"}}".formatted( client.index ) );
+            client.close();
+
+        }
+        for( var reader : readers ) {
+
+            reader.join( 1000 );
+
+        }
+
+        var latencyMicros = new LinkedHashMap<String, Object>();
+        latencyMicros.put( "p50", histogram.getValueAtPercentile( 50.0 ) );
+        latencyMicros.put( "p99", histogram.getValueAtPercentile( 99.0 ) );
+        latencyMicros.put( "p999", histogram.getValueAtPercentile( 99.9 ) );
+        latencyMicros.put( "max", histogram.getMaxValue() );
+        latencyMicros.put( "mean", histogram.getMean() );
+
+        var results = new LinkedHashMap<String, Object>();
+        results.put( "version", System.getProperty( "benchmark.version", "unknown" ) );
+        results.put( "timestamp", Instant.now().toString() );
+        results.put( "mode", this.mode );
+        results.put( "partitions", this.partitions );
+        results.put( "acks", this.acks );
+        results.put( "ackEvery", this.acks ? this.ackEvery : 0 );
+        results.put( "processors", Runtime.getRuntime().availableProcessors() );
+        results.put( "clients", this.clients );
+        results.put( "targetRate", this.rate );
+        results.put( "warmupSeconds", this.warmupSeconds );
+        results.put( "durationSeconds", this.durationSeconds );
+        results.put( "sent", sentCount );
+        results.put( "received", receivedCount );
+        results.put( "identified", identifiedCount );
+        results.put( "throughput", receivedCount / elapsedSeconds );
+        results.put( "pooled", this.pooled );
+        results.put( "allocationMBps", allocated / elapsedSeconds / ( 1024 * 1024 ) );
+        results.put( "gcMillis", gcPause );
+        results.put( "cpuSeconds", cpuSeconds );
+        results.put( "receivedPerCpuSecond", cpuSeconds > 0 ? receivedCount / cpuSeconds : 0 );
+        results.put( "liveThreads", threads );
+        results.put( "latencyMicros", latencyMicros );
+
+        return results;
+    }
+
+    private void report( Map<String, Object> results ) throws IOException {
+
+        Files.createDirectories( this.output );
+        var file = this.output.resolve(
+                "results-" + DateTimeFormatter.ofPattern( "yyyyMMdd-HHmmss" ).format( LocalDateTime.now() ) + "-" + this.mode + "-p" + this.partitions + ( this.acks ? "-acks" : "" ) + ( this.pooled ? "-pooled" : "" ) + ".json" );
+        var json = new ObjectMapper().enable( SerializationFeature.INDENT_OUTPUT ).writeValueAsString( results );
+        Files.writeString( file, json );
+
+        System.out.println( json );
+        log.warn( "results written to [{}]", file.toAbsolutePath() );
+
+    }
+
+    // every thread's heap allocations since they started, virtual threads count against their carriers
+    private static long allocatedBytes() {
+
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        return threads.getTotalThreadAllocatedBytes();
+    }
+
+    // process CPU time on all cores
+    private static long cpuNanos() {
+
+        var os = (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+
+        return os.getProcessCpuTime();
+    }
+
+    private static long gcMillis() {
+
+        var total = 0L;
+        for( var collector : ManagementFactory.getGarbageCollectorMXBeans() ) {
+
+            total += Math.max( 0, collector.getCollectionTime() );
+
+        }
+
+        return total;
+    }
+
+    private final class SimulatedClient {
+
+        private final int index;
+
+        private final Socket socket;
+
+        private final OutputStream out;
+
+        SimulatedClient( int index, Socket socket ) throws IOException {
+
+            this.index = index;
+            this.socket = socket;
+            this.socket.setTcpNoDelay( true );
+            this.out = new BufferedOutputStream( socket.getOutputStream() );
+
+        }
+
+        // the sender thread writes chat, the reader acks
+        synchronized void send( String frame ) {
+
+            try {
+
+                this.out.write( frame.getBytes( StandardCharsets.UTF_8 ) );
+                this.out.write( '\r' );
+                this.out.write( '\n' );
+                this.out.flush();
+
+            } catch( IOException e ) {
+
+                throw new IllegalStateException( "client " + this.index + " failed to send", e );
+            }
+
+        }
+
+        void chat( long first, long intervalNanos ) {
+
+            var to = "load-" + ( ( this.index + 1 ) % clients );
+            var next = first;
+            while( sending ) {
+
+                var wait = next - System.nanoTime();
+                if( wait > 0 ) {
+
+                    LockSupport.parkNanos( wait );
+                    continue;
+                }
+
+                send( "{\"type\":\"chat\",\"payload\":{\"to\":\"%s\",\"message\":\"t=%d\"}}".formatted( to, next ) );
+                sent.incrementAndGet();
+
+                // the schedule does not slip when a send is late, the latency of the late messages shows it
+                next += intervalNanos;
+
+            }
+
+        }
+
+        void read( CountDownLatch loggedIn ) {
+
+            var frame = new byte[ 4096 ];
+            try( InputStream in = new BufferedInputStream( this.socket.getInputStream() ) ) {
+
+                var counted = false;
+                var unacked = 0;
+                int length;
+                while( ( length = readFrame( in, frame ) ) >= 0 ) {
+
+                    var scheduled = timestamp( frame, length );
+                    if( scheduled != NO_TIMESTAMP ) {
+
+                        latency.recordValue( Math.max( 0, ( System.nanoTime() - scheduled ) / 1000 ) );
+                        received.incrementAndGet();
+
+                        // cumulative, one ack covers everything read so far
+                        var id = messageId( frame, length );
+                        if( id >= 0 ) {
+
+                            identified.incrementAndGet();
+
+                        }
+                        if( id >= 0 && ++unacked >= ackEvery && sending ) {
+
+                            send( "{\"type\":\"command\",\"action\":\"ack\",\"payload\":{\"id\":%d}}".formatted( id ) );
+                            unacked = 0;
+
+                        }
+
+                    } else if( !counted ) {
+
+                        // the first reply is the login status
+                        counted = true;
+                        loggedIn.countDown();
+
+                    }
+
+                }
+
+            } catch( IOException e ) {
+
+                log.debug( "client [{}] reader closed", this.index, e );
+
+            }
+
+        }
+
+        void close() throws IOException {
+
+            this.socket.shutdownOutput();
+
+        }
+
+    }
+
+    // reads up to CRLF into frame, returns the length or -1 at the end of the stream
+    private static int readFrame( InputStream in, byte[] frame ) throws IOException {
+
+        var length = 0;
+        var previous = -1;
+        int b;
+        while( ( b = in.read() ) != -1 ) {
+
+            if( b == '\n' && previous == '\r' ) {
+
+                return Math.max( 0, length - 1 );
+            }
+
+            // frames longer than the buffer are truncated, only the start carries the timestamp
+            if( length < frame.length ) {
+
+                frame[ length++ ] = (byte) b;
+
+            }
+            previous = b;
+
+        }
+
+        return -1;
+    }
+
+    // the delivery log's id a frame starts with, {"id":<id>,... or -1 when it has none
+    private static long messageId( byte[] frame, int length ) {
+
+        var prefix = ID_PREFIX.length;
+        if( length <= prefix || !Arrays.equals( frame, 0, prefix, ID_PREFIX, 0, prefix ) ) {
+
+            return -1;
+        }
+
+        long value = 0;
+        var p = prefix;
+        while( p < length && frame[ p ] >= '0' && frame[ p ] <= '9' ) {
+
+            value = value * 10 + ( frame[ p++ ] - '0' );
+
+        }
+
+        return value;
+    }
+
+    // the scheduled send time carried in a chat response, NO_TIMESTAMP for any other frame
+    private static long timestamp( byte[] frame, int length ) {
+
+        outer:
+        for( int i = 0; i + TIMESTAMP_MARKER.length <= length; i++ ) {
+
+            for( int j = 0; j < TIMESTAMP_MARKER.length; j++ ) {
+
+                if( frame[ i + j ] != TIMESTAMP_MARKER[ j ] ) {
+
+                    continue outer;
+                }
+
+            }
+
+            long value = 0;
+            var negative = false;
+            var p = i + TIMESTAMP_MARKER.length;
+            if( p < length && frame[ p ] == '-' ) {
+
+                negative = true;
+                p++;
+
+            }
+            while( p < length && frame[ p ] >= '0' && frame[ p ] <= '9' ) {
+
+                value = value * 10 + ( frame[ p++ ] - '0' );
+
+            }
+
+            return negative ? -value : value;
+        }
+
+        return NO_TIMESTAMP;
+    }
+
+}
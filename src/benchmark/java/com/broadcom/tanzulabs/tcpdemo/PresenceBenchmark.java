@@ -0,0 +1,361 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.integration.ip.tcp.connection.AbstractServerConnectionFactory;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.IntStream;
+
+/**
+ * What a mass login costs in presence notifications. {@code benchmark.users} watchers log in first, watcher i
+ * subscribing to the {@code benchmark.watch} users i+1 to i+watch, who are all offline. Then {@code benchmark.users}
+ * users log in at once and every watcher waits until it has heard of all of its users coming online.
+ * <p>
+ * {@code -Pbenchmark.window-millis=0,50,250} compares one frame per change with changes coalesced over a window.
+ * Frames are what the watchers received, changes the users named in them, latency runs from a user sending its login
+ * to a watcher hearing of it.
+ * <p>
+ * Run with {@code ./gradlew presenceBenchmark -Pbenchmark.users=10000}, results are printed and written as JSON to
+ * {@code build/reports/presence-benchmark}. Each side holds two sockets per user, 10k users need an open file limit
+ * above 40k.
+ */
+public class PresenceBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger( PresenceBenchmark.class );
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final String LOGIN_SUCCEEDED = "{\"status\":\"login succeeded!\"}";
+
+    private final int users;
+    private final int watch;
+    private final long windowMillis;
+    private final String mode;
+    private final Path output;
+
+    // when user i sent its login
+    private final AtomicLongArray loginSent;
+
+    private final Recorder latency = new Recorder( TimeUnit.MINUTES.toMicros( 1 ), 3 );
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong changes = new AtomicLong();
+
+    PresenceBenchmark( int users, int watch, long windowMillis, String mode, Path output ) {
+
+        this.users = users;
+        this.watch = watch;
+        this.windowMillis = windowMillis;
+        this.mode = mode;
+        this.output = output;
+        this.loginSent = new AtomicLongArray( users );
+
+    }
+
+    public static void main( String[] args ) throws Exception {
+
+        // window -> frames of the run
+        var frames = new LinkedHashMap<Long, Long>();
+        for( var window : System.getProperty( "benchmark.window-millis", "0,50,250" ).split( "," ) ) {
+
+            var benchmark =
+                    new PresenceBenchmark(
+                            Integer.getInteger( "benchmark.users", 10000 ),
+                            Integer.getInteger( "benchmark.watch", 100 ),
+                            Long.parseLong( window.trim() ),
+                            System.getProperty( "benchmark.mode", "net" ),
+                            Path.of( System.getProperty( "benchmark.output", "build/reports/presence-benchmark" ) ) );
+
+            frames.put( benchmark.windowMillis, (Long) benchmark.run().get( "frames" ) );
+
+        }
+
+        log.warn( "frames : by window in millis {}", frames );
+
+    }
+
+    Map<String, Object> run() throws Exception {
+
+        var data = Files.createTempDirectory( "presence-benchmark" );
+        try( var context = start( data ) ) {
+
+            var port = context.getBean( AbstractServerConnectionFactory.class ).getPort();
+            var sockets = ConcurrentHashMap.<Socket>newKeySet();
+
+            var subscribed = new CountDownLatch( this.users );
+            var heard = new CountDownLatch( this.users );
+            var threads = new ArrayList<Thread>( this.users * 2 );
+            for( int i = 0; i < this.users; i++ ) {
+
+                var index = i;
+                threads.add( Thread.ofVirtual().name( "watcher-" + i ).start( () -> watcher( index, port, sockets, subscribed, heard ) ) );
+
+            }
+            if( !subscribed.await( 2, TimeUnit.MINUTES ) ) {
+
+                throw new IllegalStateException( subscribed.getCount() + " watchers did not subscribe within 2 minutes" );
+            }
+
+            var connected = new CountDownLatch( this.users );
+            var go = new CountDownLatch( 1 );
+            var loggedIn = new CountDownLatch( this.users );
+            for( int i = 0; i < this.users; i++ ) {
+
+                var index = i;
+                threads.add( Thread.ofVirtual().name( "user-" + i ).start( () -> user( index, port, sockets, connected, go, loggedIn ) ) );
+
+            }
+            if( !connected.await( 2, TimeUnit.MINUTES ) ) {
+
+                throw new IllegalStateException( connected.getCount() + " users did not connect within 2 minutes" );
+            }
+
+            // the storm, only the logins themselves are timed
+            var loginStart = System.nanoTime();
+            go.countDown();
+            if( !loggedIn.await( 2, TimeUnit.MINUTES ) ) {
+
+                throw new IllegalStateException( loggedIn.getCount() + " users did not log in within 2 minutes" );
+            }
+            var loginMillis = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - loginStart );
+
+            if( !heard.await( 2, TimeUnit.MINUTES ) ) {
+
+                log.warn( "run : [{}] watchers did not hear of all their users", heard.getCount() );
+
+            }
+            var settledMillis = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - loginStart );
+
+            Histogram histogram = this.latency.getIntervalHistogram();
+            var meterRegistry = context.getBean( MeterRegistry.class );
+
+            var results = new LinkedHashMap<String, Object>();
+            results.put( "version", System.getProperty( "benchmark.version", "unknown" ) );
+            results.put( "timestamp", Instant.now().toString() );
+            results.put( "mode", this.mode );
+            results.put( "processors", Runtime.getRuntime().availableProcessors() );
+            results.put( "users", this.users );
+            results.put( "watch", this.watch );
+            results.put( "windowMillis", this.windowMillis );
+            results.put( "loginMillis", loginMillis );
+            results.put( "settledMillis", settledMillis );
+            results.put( "frames", this.frames.get() );
+            results.put( "changes", this.changes.get() );
+            results.put( "changesPerFrame", this.frames.get() == 0 ? 0 : (double) this.changes.get() / this.frames.get() );
+            results.put( "serverChanges", meterRegistry.get( "tcp.presence.changes" ).counter().count() );
+            results.put( "serverNotifications", meterRegistry.get( "tcp.presence.notifications" ).counter().count() );
+
+            var latencyMicros = new LinkedHashMap<String, Object>();
+            latencyMicros.put( "p50", histogram.getValueAtPercentile( 50.0 ) );
+            latencyMicros.put( "p99", histogram.getValueAtPercentile( 99.0 ) );
+            latencyMicros.put( "max", histogram.getMaxValue() );
+            latencyMicros.put( "mean", histogram.getMean() );
+            results.put( "latencyMicros", latencyMicros );
+
+            // ends the blocked reads
+            for( var socket : sockets ) {
+
+                socket.close();
+
+            }
+            for( var thread : threads ) {
+
+                thread.join( 1000 );
+
+            }
+
+            report( results );
+
+            return results;
+        }
+
+    }
+
+    private ConfigurableApplicationContext start( Path data ) throws InterruptedException {
+
+        // command line arguments, properties() would only set defaults that application.yaml overrides
+        var context = new SpringApplicationBuilder( TcpDemoApplication.class )
+                .run(
+                        "--tcp.server.mode=" + this.mode,
+                        "--tcp.server.port=0",
+                        "--server.port=0",
+                        "--tcp.server.presence.window-millis=" + this.windowMillis,
+                        "--tcp.server.presence.max-users-per-connection=" + this.watch,
+                        // every login counts, the limits would throttle the clients instead of the server
+                        "--tcp.server.limits.connection.frames-per-second=0",
+                        "--tcp.server.limits.user.frames-per-second=0",
+                        "--tcp.server.drain.enabled=false",
+                        "--tcp.server.offline.directory=" + data.resolve( "offline" ),
+                        "--tcp.server.history.directory=" + data.resolve( "history" ),
+                        "--tcp.server.audit.file=" + data.resolve( "audit/audit.log" ),
+                        "--logging.level.org.springframework.integration=WARN",
+                        "--logging.level.com.broadcom.tanzulabs.tcpdemo=WARN" );
+
+        var serverConnectionFactory = context.getBean( AbstractServerConnectionFactory.class );
+        for( int i = 0; i < 100 && !serverConnectionFactory.isListening(); i++ ) {
+
+            Thread.sleep( 100 );
+
+        }
+
+        return context;
+    }
+
+    // log in, subscribe to the next users round the ring and read presence frames until every one of them is online
+    private void watcher( int index, int port, Set<Socket> sockets, CountDownLatch subscribed, CountDownLatch heard ) {
+
+        var watched = IntStream.rangeClosed( 1, this.watch ).mapToObj( offset -> "user-" + ( index + offset ) % this.users ).toList();
+        try( var socket = new Socket( "localhost", port ) ) {
+
+            sockets.add( socket );
+            InputStream in = new BufferedInputStream( socket.getInputStream() );
+            login( socket, in, "watcher-" + index );
+
+            send( socket, "{\"type\":\"command\",\"action\":\"subscribePresence\",\"payload\":{\"users\":%s}}".formatted( MAPPER.writeValueAsString( watched ) ) );
+            readFrame( in );
+            subscribed.countDown();
+
+            var remaining = new HashSet<>( watched );
+            String frame;
+            while( !remaining.isEmpty() && !( frame = readFrame( in ) ).isEmpty() ) {
+
+                var received = System.nanoTime();
+                this.frames.incrementAndGet();
+                for( var user : MAPPER.readTree( frame ).path( "payload" ).path( "online" ) ) {
+
+                    var username = user.asText();
+                    if( remaining.remove( username ) ) {
+
+                        this.changes.incrementAndGet();
+                        var sent = this.loginSent.get( Integer.parseInt( username.substring( "user-".length() ) ) );
+                        this.latency.recordValue( Math.max( 0, received - sent ) / 1000 );
+
+                    }
+
+                }
+
+            }
+
+            if( remaining.isEmpty() ) {
+
+                heard.countDown();
+
+            }
+
+            // nothing more is due, a frame arriving after the last change would be a bug
+            if( !readFrame( in ).isEmpty() ) {
+
+                log.warn( "watcher : [{}] got a frame after hearing of all its users", index );
+
+            }
+
+        } catch( Exception e ) {
+
+            log.debug( "watcher : [{}] stopped", index, e );
+
+        }
+
+    }
+
+    private void user( int index, int port, Set<Socket> sockets, CountDownLatch connected, CountDownLatch go, CountDownLatch loggedIn ) {
+
+        try( var socket = new Socket( "localhost", port ) ) {
+
+            sockets.add( socket );
+            InputStream in = new BufferedInputStream( socket.getInputStream() );
+            connected.countDown();
+            go.await();
+
+            this.loginSent.set( index, System.nanoTime() );
+            login( socket, in, "user-" + index );
+            loggedIn.countDown();
+
+            // held open until the run ends, closing would log the user out, nothing is sent to the users
+            readFrame( in );
+
+        } catch( Exception e ) {
+
+            log.debug( "user : [{}] stopped", index, e );
+
+        }
+
+    }
+
+    private static void login( Socket socket, InputStream in, String username ) throws IOException {
+
+        send( socket, "{\"type\":\"command\",\"action\":\"login\",\"payload\":{\"username\":\"%s\"}}".formatted( username ) );
+        var reply = readFrame( in );
+        if( !LOGIN_SUCCEEDED.equals( reply ) ) {
+
+            throw new IllegalStateException( "login of " + username + " failed : " + reply );
+        }
+
+    }
+
+    private static void send( Socket socket, String frame ) throws IOException {
+
+        socket.getOutputStream().write( ( frame + "\r\n" ).getBytes( StandardCharsets.UTF_8 ) );
+        socket.getOutputStream().flush();
+
+    }
+
+    // empty at the end of the stream
+    private static String readFrame( InputStream in ) throws IOException {
+
+        var frame = new StringBuilder();
+        int b;
+        while( ( b = in.read() ) != -1 ) {
+
+            if( b == '\n' && !frame.isEmpty() && frame.charAt( frame.length() - 1 ) == '\r' ) {
+
+                frame.setLength( frame.length() - 1 );
+                break;
+            }
+
+            frame.append( (char) b );
+
+        }
+
+        return frame.toString();
+    }
+
+    private void report( Map<String, Object> results ) throws IOException {
+
+        Files.createDirectories( this.output );
+        var file = this.output.resolve(
+                "results-" + DateTimeFormatter.ofPattern( "yyyyMMdd-HHmmss" ).format( LocalDateTime.now() ) + "-" + this.mode + "-window-" + this.windowMillis + ".json" );
+        var json = MAPPER.copy().enable( SerializationFeature.INDENT_OUTPUT ).writeValueAsString( results );
+        Files.writeString( file, json );
+
+        System.out.println( json );
+        log.warn( "results written to [{}]", file.toAbsolutePath() );
+
+    }
+
+}
@@ -0,0 +1,344 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.integration.ip.tcp.connection.AbstractServerConnectionFactory;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * How long a node takes to get all of its clients back after a restart. Logs {@code benchmark.clients} clients in,
+ * each in one of ten rooms, then closes the server, which drains, and starts a new one on the same port and data
+ * directory. Every client waits the {@code afterMillis} it was told and reconnects, retrying with a jittered
+ * exponential backoff while the port is refused, and logs in again.
+ * <p>
+ * {@code -Pbenchmark.jitter=false,true} compares everyone coming back at once with coming back spread over
+ * {@code benchmark.reconnect-min-millis} to {@code benchmark.reconnect-max-millis}. Recovery is the time from the
+ * start of the drain until the last client is logged in, the login latency after the reconnect shows how hard the
+ * storm hit the new node.
+ * <p>
+ * Run with {@code ./gradlew reconnectBenchmark -Pbenchmark.clients=5000}, results are printed and written as JSON to
+ * {@code build/reports/reconnect-benchmark}.
+ */
+public class ReconnectStormBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger( ReconnectStormBenchmark.class );
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final String LOGIN_SUCCEEDED = "{\"status\":\"login succeeded!\"}";
+
+    private final int clients;
+    private final String mode;
+    private final boolean jitter;
+    private final long reconnectMinMillis;
+    private final long reconnectMaxMillis;
+    private final boolean snapshot;
+    private final Path output;
+
+    private final Recorder loginLatency = new Recorder( TimeUnit.MINUTES.toMicros( 1 ), 3 );
+    private final AtomicLong refused = new AtomicLong();
+    private final AtomicLong lastLogin = new AtomicLong();
+
+    ReconnectStormBenchmark(
+            int clients, String mode, boolean jitter, long reconnectMinMillis, long reconnectMaxMillis, boolean snapshot, Path output ) {
+
+        this.clients = clients;
+        this.mode = mode;
+        this.jitter = jitter;
+        this.reconnectMinMillis = reconnectMinMillis;
+        this.reconnectMaxMillis = reconnectMaxMillis;
+        this.snapshot = snapshot;
+        this.output = output;
+
+    }
+
+    public static void main( String[] args ) throws Exception {
+
+        // jitter -> recovery of the run
+        var recovery = new LinkedHashMap<Boolean, Long>();
+        for( var jitter : System.getProperty( "benchmark.jitter", "false,true" ).split( "," ) ) {
+
+            var benchmark =
+                    new ReconnectStormBenchmark(
+                            Integer.getInteger( "benchmark.clients", 1000 ),
+                            System.getProperty( "benchmark.mode", "net" ),
+                            Boolean.parseBoolean( jitter.trim() ),
+                            Long.getLong( "benchmark.reconnect-min-millis", 500 ),
+                            Long.getLong( "benchmark.reconnect-max-millis", 5000 ),
+                            Boolean.parseBoolean( System.getProperty( "benchmark.snapshot", "true" ) ),
+                            Path.of( System.getProperty( "benchmark.output", "build/reports/reconnect-benchmark" ) ) );
+
+            recovery.put( benchmark.jitter, (Long) benchmark.run().get( "recoveryMillis" ) );
+
+        }
+
+        if( recovery.containsKey( false ) && recovery.containsKey( true ) ) {
+
+            log.warn( "recovery : everyone at once {}ms, jittered {}ms", recovery.get( false ), recovery.get( true ) );
+
+        }
+
+    }
+
+    Map<String, Object> run() throws Exception {
+
+        var data = Files.createTempDirectory( "reconnect-benchmark" );
+        var first = start( data, 0 );
+        var port = first.getBean( AbstractServerConnectionFactory.class ).getPort();
+
+        var loggedIn = new CountDownLatch( this.clients );
+        var told = new CountDownLatch( this.clients );
+        var back = new CountDownLatch( this.clients );
+        var threads = new ArrayList<Thread>( this.clients );
+        for( int i = 0; i < this.clients; i++ ) {
+
+            var index = i;
+            threads.add( Thread.ofVirtual().name( "client-" + i ).start( () -> client( index, port, loggedIn, told, back ) ) );
+
+        }
+        if( !loggedIn.await( 60, TimeUnit.SECONDS ) ) {
+
+            throw new IllegalStateException( "clients did not log in within 60s" );
+        }
+
+        var drainStart = System.nanoTime();
+        first.close();
+        var drainMillis = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - drainStart );
+        if( !told.await( 10, TimeUnit.SECONDS ) ) {
+
+            log.warn( "run : [{}] clients were not told to reconnect", told.getCount() );
+
+        }
+
+        var restartStart = System.nanoTime();
+        try( var second = start( data, port ) ) {
+
+            var restartMillis = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - restartStart );
+            if( !back.await( 5, TimeUnit.MINUTES ) ) {
+
+                throw new IllegalStateException( back.getCount() + " clients did not come back within 5 minutes" );
+            }
+
+            Histogram histogram = this.loginLatency.getIntervalHistogram();
+            var restored = second.getBeanProvider( SessionSnapshot.class ).getIfAvailable() == null
+                    ? 0
+                    : second.getBean( MeterRegistry.class ).get( "tcp.snapshot.restored" ).counter().count();
+
+            var results = new LinkedHashMap<String, Object>();
+            results.put( "version", System.getProperty( "benchmark.version", "unknown" ) );
+            results.put( "timestamp", Instant.now().toString() );
+            results.put( "mode", this.mode );
+            results.put( "processors", Runtime.getRuntime().availableProcessors() );
+            results.put( "clients", this.clients );
+            results.put( "jitter", this.jitter );
+            results.put( "reconnectMinMillis", this.jitter ? this.reconnectMinMillis : 0 );
+            results.put( "reconnectMaxMillis", this.jitter ? this.reconnectMaxMillis : 0 );
+            results.put( "drainMillis", drainMillis );
+            results.put( "restartMillis", restartMillis );
+            results.put( "recoveryMillis", TimeUnit.NANOSECONDS.toMillis( this.lastLogin.get() - drainStart ) );
+            results.put( "refusedConnects", this.refused.get() );
+            results.put( "roomsRestored", restored );
+
+            var latencyMicros = new LinkedHashMap<String, Object>();
+            latencyMicros.put( "p50", histogram.getValueAtPercentile( 50.0 ) );
+            latencyMicros.put( "p99", histogram.getValueAtPercentile( 99.0 ) );
+            latencyMicros.put( "max", histogram.getMaxValue() );
+            latencyMicros.put( "mean", histogram.getMean() );
+            results.put( "loginLatencyMicros", latencyMicros );
+
+            for( var thread : threads ) {
+
+                thread.join( 1000 );
+
+            }
+
+            report( results );
+
+            return results;
+        }
+
+    }
+
+    private ConfigurableApplicationContext start( Path data, int port ) throws InterruptedException {
+
+        // command line arguments, properties() would only set defaults that application.yaml overrides
+        var context = new SpringApplicationBuilder( TcpDemoApplication.class )
+                .run(
+                        "--tcp.server.mode=" + this.mode,
+                        "--tcp.server.port=" + port,
+                        "--server.port=0",
+                        "--tcp.server.drain.reconnect-min-millis=" + ( this.jitter ? this.reconnectMinMillis : 0 ),
+                        "--tcp.server.drain.reconnect-max-millis=" + ( this.jitter ? this.reconnectMaxMillis : 0 ),
+                        "--tcp.server.snapshot.enabled=" + this.snapshot,
+                        "--tcp.server.snapshot.file=" + data.resolve( "snapshot/sessions.json" ),
+                        "--tcp.server.offline.directory=" + data.resolve( "offline" ),
+                        "--tcp.server.history.directory=" + data.resolve( "history" ),
+                        "--tcp.server.audit.file=" + data.resolve( "audit/audit.log" ),
+                        "--logging.level.org.springframework.integration=WARN",
+                        "--logging.level.com.broadcom.tanzulabs.tcpdemo=WARN" );
+
+        var serverConnectionFactory = context.getBean( AbstractServerConnectionFactory.class );
+        for( int i = 0; i < 100 && !serverConnectionFactory.isListening(); i++ ) {
+
+            Thread.sleep( 100 );
+
+        }
+
+        return context;
+    }
+
+    // log in and join a room, wait for the reconnect notice and the close, come back when told and log in again
+    private void client( int index, int port, CountDownLatch loggedIn, CountDownLatch told, CountDownLatch back ) {
+
+        var username = "storm-" + index;
+        try {
+
+            long afterMillis;
+            try( var socket = new Socket( "localhost", port ) ) {
+
+                InputStream in = new BufferedInputStream( socket.getInputStream() );
+                login( socket, in, username );
+                send( socket, "{\"type\":\"chat\",\"action\":\"join\",\"payload\":{\"room\":\"room-%d\"}}".formatted( index % 10 ) );
+                readFrame( in );
+                loggedIn.countDown();
+
+                afterMillis = awaitNotice( in );
+                told.countDown();
+
+            }
+
+            Thread.sleep( afterMillis );
+
+            var backoff = 50L;
+            while( true ) {
+
+                Socket socket;
+                try {
+
+                    socket = new Socket( "localhost", port );
+
+                } catch( IOException e ) {
+
+                    // the new node is not listening yet
+                    this.refused.incrementAndGet();
+                    Thread.sleep( ThreadLocalRandom.current().nextLong( backoff / 2, backoff + 1 ) );
+                    backoff = Math.min( backoff * 2, 2000 );
+
+                    continue;
+                }
+
+                try( socket ) {
+
+                    var start = System.nanoTime();
+                    login( socket, new BufferedInputStream( socket.getInputStream() ), username );
+                    var end = System.nanoTime();
+                    this.loginLatency.recordValue( ( end - start ) / 1000 );
+                    this.lastLogin.accumulateAndGet( end, Math::max );
+                    back.countDown();
+
+                }
+
+                return;
+            }
+
+        } catch( Exception e ) {
+
+            log.warn( "client : [{}] failed", username, e );
+
+        }
+
+    }
+
+    // the notice, or 0 when the connection closed without one
+    private static long awaitNotice( InputStream in ) throws IOException {
+
+        String frame;
+        while( !( frame = readFrame( in ) ).isEmpty() ) {
+
+            var node = MAPPER.readTree( frame );
+            if( "reconnect".equals( node.path( "status" ).asText() ) ) {
+
+                return node.path( "afterMillis" ).asLong();
+            }
+
+        }
+
+        return 0;
+    }
+
+    private static void login( Socket socket, InputStream in, String username ) throws IOException {
+
+        send( socket, "{\"type\":\"command\",\"action\":\"login\",\"payload\":{\"username\":\"%s\"}}".formatted( username ) );
+        var reply = readFrame( in );
+        if( !LOGIN_SUCCEEDED.equals( reply ) ) {
+
+            throw new IllegalStateException( "login of " + username + " failed : " + reply );
+        }
+
+    }
+
+    private static void send( Socket socket, String frame ) throws IOException {
+
+        socket.getOutputStream().write( ( frame + "\r\n" ).getBytes( StandardCharsets.UTF_8 ) );
+        socket.getOutputStream().flush();
+
+    }
+
+    // empty at the end of the stream
+    private static String readFrame( InputStream in ) throws IOException {
+
+        var frame = new StringBuilder();
+        int b;
+        while( ( b = in.read() ) != -1 ) {
+
+            if( b == '\n' && !frame.isEmpty() && frame.charAt( frame.length() - 1 ) == '\r' ) {
+
+                frame.setLength( frame.length() - 1 );
+                break;
+            }
+
+            frame.append( (char) b );
+
+        }
+
+        return frame.toString();
+    }
+
+    private void report( Map<String, Object> results ) throws IOException {
+
+        Files.createDirectories( this.output );
+        var file = this.output.resolve(
+                "results-" + DateTimeFormatter.ofPattern( "yyyyMMdd-HHmmss" ).format( LocalDateTime.now() ) + "-" + this.mode + ( this.jitter ? "-jitter" : "" ) + ".json" );
+        var json = MAPPER.copy().enable( SerializationFeature.INDENT_OUTPUT ).writeValueAsString( results );
+        Files.writeString( file, json );
+
+        System.out.println( json );
+        log.warn( "results written to [{}]", file.toAbsolutePath() );
+
+    }
+
+}
@@ -0,0 +1,379 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.integration.ip.tcp.connection.AbstractServerConnectionFactory;
+
+import javax.net.SocketFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * What TLS costs a connection and a message. Starts the server with and without {@code tcp.server.tls}, using a
+ * self-signed certificate generated for the run, then
+ * <ul>
+ *     <li>opens connections from {@code benchmark.threads} threads for {@code benchmark.duration} seconds, each one
+ *     sending a ping, reading the pong and closing. With TLS this runs twice, once with every client handshake a full
+ *     one and once with clients resuming the session of their previous connection.</li>
+ *     <li>sends {@code benchmark.messages} pings one after the other over a single connection and records the round
+ *     trip of each, the difference with and without TLS is the per-message cost of the encryption.</li>
+ * </ul>
+ * Run with {@code ./gradlew tlsBenchmark -Pbenchmark.mode=nio}, results are printed and written as JSON to
+ * {@code build/reports/tls-benchmark}.
+ */
+public class TlsBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger( TlsBenchmark.class );
+
+    private static final String PASSWORD = "changeit";
+
+    private static final byte[] PING = "{\"type\":\"command\",\"action\":\"ping\"}\r\n".getBytes( StandardCharsets.UTF_8 );
+
+    private final boolean tls;
+    private final String mode;
+    private final int threads;
+    private final int warmupSeconds;
+    private final int durationSeconds;
+    private final int messages;
+    private final Path output;
+
+    TlsBenchmark( boolean tls, String mode, int threads, int warmupSeconds, int durationSeconds, int messages, Path output ) {
+
+        this.tls = tls;
+        this.mode = mode;
+        this.threads = threads;
+        this.warmupSeconds = warmupSeconds;
+        this.durationSeconds = durationSeconds;
+        this.messages = messages;
+        this.output = output;
+
+    }
+
+    public static void main( String[] args ) throws Exception {
+
+        // tls -> results of the run
+        var runs = new LinkedHashMap<Boolean, Map<String, Object>>();
+        for( var tls : System.getProperty( "benchmark.tls", "false,true" ).split( "," ) ) {
+
+            var benchmark =
+                    new TlsBenchmark(
+                            Boolean.parseBoolean( tls.trim() ),
+                            System.getProperty( "benchmark.mode", "net" ),
+                            Integer.getInteger( "benchmark.threads", 8 ),
+                            Integer.getInteger( "benchmark.warmup", 5 ),
+                            Integer.getInteger( "benchmark.duration", 15 ),
+                            Integer.getInteger( "benchmark.messages", 100_000 ),
+                            Path.of( System.getProperty( "benchmark.output", "build/reports/tls-benchmark" ) ) );
+
+            runs.put( benchmark.tls, benchmark.run() );
+
+        }
+
+        if( runs.containsKey( false ) && runs.containsKey( true ) ) {
+
+            var plain = runs.get( false );
+            var secure = runs.get( true );
+            log.warn( "connections/s : plaintext {}, tls full handshake {}, tls resumed {}",
+                    "%.0f".formatted( (Double) plain.get( "connectionsPerSecond" ) ),
+                    "%.0f".formatted( (Double) secure.get( "connectionsPerSecond" ) ),
+                    "%.0f".formatted( (Double) secure.get( "resumedConnectionsPerSecond" ) ) );
+            log.warn( "ping round trip : plaintext {}us, tls {}us mean",
+                    "%.1f".formatted( (Double) plain.get( "roundTripMeanMicros" ) ),
+                    "%.1f".formatted( (Double) secure.get( "roundTripMeanMicros" ) ) );
+
+        }
+
+    }
+
+    Map<String, Object> run() throws Exception {
+
+        var data = Files.createTempDirectory( "tls-benchmark" );
+        var keyStore = generateKeyStore( data );
+        // command line arguments, properties() would only set defaults that application.yaml overrides
+        try( var context = new SpringApplicationBuilder( TcpDemoApplication.class )
+                .run(
+                        "--tcp.server.mode=" + this.mode,
+                        "--tcp.server.tls.enabled=" + this.tls,
+                        "--tcp.server.tls.key-store=file:" + keyStore,
+                        "--tcp.server.tls.key-store-password=" + PASSWORD,
+                        // every connection and ping counts, the limits would throttle the clients instead of the server
+                        "--tcp.server.limits.connection.frames-per-second=0",
+                        "--tcp.server.limits.user.frames-per-second=0",
+                        "--tcp.server.drain.enabled=false",
+                        "--tcp.server.port=0",
+                        "--server.port=0",
+                        "--tcp.server.offline.directory=" + data.resolve( "offline" ),
+                        "--tcp.server.history.directory=" + data.resolve( "history" ),
+                        "--tcp.server.audit.file=" + data.resolve( "audit/audit.log" ),
+                        "--logging.level.org.springframework.integration=WARN",
+                        "--logging.level.com.broadcom.tanzulabs.tcpdemo=WARN" ) ) {
+
+            var serverConnectionFactory = context.getBean( AbstractServerConnectionFactory.class );
+            for( int i = 0; i < 100 && !serverConnectionFactory.isListening(); i++ ) {
+
+                Thread.sleep( 100 );
+
+            }
+
+            var port = serverConnectionFactory.getPort();
+            var results = new LinkedHashMap<String, Object>();
+            results.put( "version", System.getProperty( "benchmark.version", "unknown" ) );
+            results.put( "timestamp", Instant.now().toString() );
+            results.put( "mode", this.mode );
+            results.put( "tls", this.tls );
+            results.put( "processors", Runtime.getRuntime().availableProcessors() );
+            results.put( "threads", this.threads );
+            results.put( "durationSeconds", this.durationSeconds );
+
+            if( this.tls ) {
+
+                // a fresh client context per connection has no session to offer, every handshake is a full one
+                var trustManagers = trustManagers( keyStore );
+                results.put( "connectionsPerSecond", connect( port, () -> clientContext( trustManagers ).getSocketFactory() ) );
+
+                var shared = clientContext( trustManagers ).getSocketFactory();
+                results.put( "resumedConnectionsPerSecond", connect( port, () -> shared ) );
+
+                results.putAll( roundTrips( port, shared ) );
+
+            } else {
+
+                results.put( "connectionsPerSecond", connect( port, SocketFactory::getDefault ) );
+                results.putAll( roundTrips( port, SocketFactory.getDefault() ) );
+
+            }
+
+            report( results );
+
+            return results;
+        }
+
+    }
+
+    // connect, ping, read the pong and close, as fast as the threads can go
+    private double connect( int port, SocketFactorySource sockets ) throws Exception {
+
+        var connections = new AtomicLong();
+        var failure = new AtomicReference<Exception>();
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos( this.warmupSeconds + this.durationSeconds );
+        var workers = new ArrayList<Thread>( this.threads );
+        for( int i = 0; i < this.threads; i++ ) {
+
+            workers.add( Thread.ofPlatform().name( "connect-" + i ).start( () -> {
+
+                var pong = new byte[ 64 ];
+                while( System.nanoTime() < deadline && failure.get() == null ) {
+
+                    try( var socket = sockets.get().createSocket( "localhost", port ) ) {
+
+                        // reset rather than linger in TIME_WAIT, thousands of closes a second would run out of ephemeral ports
+                        socket.setSoLinger( true, 0 );
+                        socket.setTcpNoDelay( true );
+                        socket.getOutputStream().write( PING );
+                        socket.getOutputStream().flush();
+                        if( readFrame( new BufferedInputStream( socket.getInputStream() ), pong ) < 0 ) {
+
+                            throw new IllegalStateException( "connection closed before the pong" );
+                        }
+
+                        connections.incrementAndGet();
+
+                    } catch( Exception e ) {
+
+                        failure.compareAndSet( null, e );
+
+                    }
+
+                }
+
+            } ) );
+
+        }
+
+        Thread.sleep( TimeUnit.SECONDS.toMillis( this.warmupSeconds ) );
+        var before = connections.get();
+        var start = System.nanoTime();
+
+        for( var worker : workers ) {
+
+            worker.join();
+
+        }
+        if( failure.get() != null ) {
+
+            throw new IllegalStateException( "connect failed", failure.get() );
+        }
+
+        return ( connections.get() - before ) / ( ( System.nanoTime() - start ) / 1e9 );
+    }
+
+    // one connection, one ping in flight at a time, the first tenth of the pings warm up
+    private Map<String, Object> roundTrips( int port, SocketFactory sockets ) throws IOException {
+
+        var histogram = new Histogram( TimeUnit.SECONDS.toMicros( 10 ), 3 );
+        try( var socket = sockets.createSocket( "localhost", port ) ) {
+
+            socket.setTcpNoDelay( true );
+            if( socket instanceof SSLSocket ssl ) {
+
+                ssl.startHandshake();
+
+            }
+
+            OutputStream out = socket.getOutputStream();
+            InputStream in = new BufferedInputStream( socket.getInputStream() );
+            var pong = new byte[ 64 ];
+            var warmup = this.messages / 10;
+            for( int i = 0; i < warmup + this.messages; i++ ) {
+
+                var start = System.nanoTime();
+                out.write( PING );
+                out.flush();
+                if( readFrame( in, pong ) < 0 ) {
+
+                    throw new IllegalStateException( "connection closed before the pong" );
+                }
+                if( i >= warmup ) {
+
+                    histogram.recordValue( ( System.nanoTime() - start ) / 1000 );
+
+                }
+
+            }
+
+        }
+
+        var results = new LinkedHashMap<String, Object>();
+        results.put( "messages", this.messages );
+        results.put( "roundTripMeanMicros", histogram.getMean() );
+        results.put( "roundTripP50Micros", histogram.getValueAtPercentile( 50.0 ) );
+        results.put( "roundTripP99Micros", histogram.getValueAtPercentile( 99.0 ) );
+        results.put( "roundTripMaxMicros", histogram.getMaxValue() );
+
+        return results;
+    }
+
+    private void report( Map<String, Object> results ) throws IOException {
+
+        Files.createDirectories( this.output );
+        var file = this.output.resolve(
+                "results-" + DateTimeFormatter.ofPattern( "yyyyMMdd-HHmmss" ).format( LocalDateTime.now() ) + "-" + this.mode + ( this.tls ? "-tls" : "" ) + ".json" );
+        var json = new ObjectMapper().enable( SerializationFeature.INDENT_OUTPUT ).writeValueAsString( results );
+        Files.writeString( file, json );
+
+        System.out.println( json );
+        log.warn( "results written to [{}]", file.toAbsolutePath() );
+
+    }
+
+    // the same key store the TLS tests generate, the benchmark source set cannot see theirs
+    private static Path generateKeyStore( Path directory ) throws Exception {
+
+        var keyStore = directory.resolve( "server.p12" );
+        var certificate = directory.resolve( "server.cer" );
+        keytool( "-genkeypair", "-alias", "server", "-keyalg", "EC", "-groupname", "secp256r1", "-dname", "CN=localhost",
+                "-ext", "SAN=dns:localhost,ip:127.0.0.1", "-validity", "1",
+                "-storetype", "PKCS12", "-keystore", keyStore.toString(), "-storepass", PASSWORD, "-keypass", PASSWORD );
+        keytool( "-exportcert", "-alias", "server", "-keystore", keyStore.toString(), "-storepass", PASSWORD, "-file", certificate.toString() );
+        keytool( "-importcert", "-noprompt", "-alias", "server", "-file", certificate.toString(),
+                "-storetype", "PKCS12", "-keystore", directory.resolve( "trust.p12" ).toString(), "-storepass", PASSWORD );
+
+        return keyStore;
+    }
+
+    private static TrustManager[] trustManagers( Path keyStore ) throws Exception {
+
+        var trusted = KeyStore.getInstance( "PKCS12" );
+        try( var in = Files.newInputStream( keyStore.resolveSibling( "trust.p12" ) ) ) {
+
+            trusted.load( in, PASSWORD.toCharArray() );
+
+        }
+
+        var trustManagerFactory = TrustManagerFactory.getInstance( TrustManagerFactory.getDefaultAlgorithm() );
+        trustManagerFactory.init( trusted );
+
+        return trustManagerFactory.getTrustManagers();
+    }
+
+    private static SSLContext clientContext( TrustManager[] trustManagers ) throws Exception {
+
+        var context = SSLContext.getInstance( "TLSv1.3" );
+        context.init( null, trustManagers, null );
+
+        return context;
+    }
+
+    private static void keytool( String... arguments ) throws Exception {
+
+        var command = new ArrayList<>( List.of( Path.of( System.getProperty( "java.home" ), "bin", "keytool" ).toString() ) );
+        command.addAll( List.of( arguments ) );
+
+        var process = new ProcessBuilder( command ).redirectErrorStream( true ).start();
+        var output = new String( process.getInputStream().readAllBytes(), StandardCharsets.UTF_8 );
+        if( !process.waitFor( 30, TimeUnit.SECONDS ) || process.exitValue() != 0 ) {
+
+            throw new IllegalStateException( "keytool " + arguments[ 0 ] + " failed : " + output );
+        }
+
+    }
+
+    // reads one \r\n terminated frame into the buffer, -1 at the end of the stream
+    private static int readFrame( InputStream in, byte[] frame ) throws IOException {
+
+        var length = 0;
+        var previous = -1;
+        int b;
+        while( ( b = in.read() ) != -1 ) {
+
+            if( b == '\n' && previous == '\r' ) {
+
+                return length - 1;
+            }
+
+            // anything past the buffer is read and dropped, only the length counts
+            if( length < frame.length ) {
+
+                frame[ length ] = (byte) b;
+
+            }
+            length++;
+            previous = b;
+
+        }
+
+        return -1;
+    }
+
+    @FunctionalInterface
+    private interface SocketFactorySource {
+
+        SocketFactory get() throws Exception;
+
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chat messages per second through the reply encoding with and without the audit stream. A sample rate of 0 is the
+ * baseline without the stream, 1.0 audits every message. The drops reported at teardown are events the writer
+ * could not keep up with.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Threads( 4 )
+public class AuditStreamBenchmark {
+
+    @Param( { "0.0", "0.1", "1.0" } )
+    double chatSampleRate;
+
+    Path directory;
+
+    AuditStream auditStream;
+
+    ResponseEncoder responseEncoder = new ResponseEncoder();
+
+    @Setup( Level.Trial )
+    public void setup() throws IOException {
+
+        this.directory = Files.createTempDirectory( "audit" );
+        this.auditStream =
+                new AuditStream(
+                        this.directory.resolve( "audit.log" ), 65536, 64L * 1024 * 1024, 2,
+                        new double[] { 1.0, 1.0, this.chatSampleRate, 1.0 }, new SimpleMeterRegistry() );
+        this.auditStream.start();
+
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown() throws IOException {
+
+        this.auditStream.stop();
+        System.out.printf( "%naudit events dropped: %d%n", this.auditStream.getDropped() );
+        OfflineMessageStoreBenchmark.delete( this.directory );
+
+    }
+
+    @Benchmark
+    public byte[] chatMessage() {
+
+        var reply = this.responseEncoder.chatResponse( "client1", "Hello from client1, how is everyone doing today?" );
+        this.auditStream.chat( AuditStream.Event.CHAT, "connection-1", "client1", "client2" );
+
+        return reply;
+    }
+
+}
@@ -0,0 +1,110 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to read a page of 100 messages from a conversation of millions, interleaved one to one with another
+ * conversation in the log. Cold reads start with an empty block cache, the segment files are still in the OS page
+ * cache so this is the cost of the reads and parsing, not of the disk. Warm reads find every block cached.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+public class ChatHistoryBenchmark {
+
+    static final int PAGE = 100;
+
+    @Param( { "1000000" } )
+    int messages;
+
+    // latest is the newest page, middle is half way back through the conversation
+    @Param( { "latest", "middle" } )
+    String page;
+
+    Path directory;
+
+    ChatHistory history;
+
+    long before;
+
+    @Setup( Level.Trial )
+    public void setup() throws IOException {
+
+        this.directory = Files.createTempDirectory( "chat-history" );
+        this.history = new ChatHistory( this.directory, 64 * 1024 * 1024, Long.MAX_VALUE, 64, 64 * 1024, 1024, 500, 65536, new SimpleMeterRegistry() );
+        this.history.start();
+
+        // timestamps run ahead of the clock when a conversation gets more than one message a millisecond
+        var first = System.currentTimeMillis();
+        for( int i = 0; i < this.messages; i++ ) {
+
+            append( i % 2 == 0 ? "alice" : "bob", i % 2 == 0 ? "bob" : "alice", "message " + i + " of a conversation with millions of them" );
+            append( "carol", "dave", "message " + i + " of the conversation in between" );
+
+        }
+        this.history.flush().join();
+
+        var last = this.history.history( "alice", "bob", Long.MAX_VALUE, 1 ).getFirst().timestamp();
+        this.before = "middle".equals( this.page ) ? first + ( last - first ) / 2 : Long.MAX_VALUE;
+
+    }
+
+    private void append( String from, String to, String message ) {
+
+        while( !this.history.append( from, to, message ) ) {
+
+            Thread.onSpinWait();
+
+        }
+
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown() throws IOException {
+
+        this.history.stop();
+        OfflineMessageStoreBenchmark.delete( this.directory );
+
+    }
+
+    @State( Scope.Thread )
+    public static class ColdCache {
+
+        @Setup( Level.Invocation )
+        public void evict( ChatHistoryBenchmark benchmark ) {
+
+            benchmark.history.evictCache();
+
+        }
+
+    }
+
+    @Benchmark
+    public List<ChatHistory.Entry> cold( ColdCache cold ) {
+
+        return this.history.history( "alice", "bob", this.before, PAGE );
+    }
+
+    @Benchmark
+    public List<ChatHistory.Entry> warm() {
+
+        return this.history.history( "alice", "bob", this.before, PAGE );
+    }
+
+}
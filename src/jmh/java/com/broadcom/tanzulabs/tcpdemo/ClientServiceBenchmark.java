@@ -0,0 +1,100 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookup latency of the session indexes as the number of logged in sessions grows.
+ * The legacy benchmark reproduces the previous full scan for comparison.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+public class ClientServiceBenchmark {
+
+    @Param( { "10000", "100000", "1000000" } )
+    int sessions;
+
+    ClientService clientService;
+
+    Map<String, String> legacyClientUsernames;
+
+    String[] usernames;
+    String[] connectionIds;
+
+    int next;
+
+    @Setup( Level.Trial )
+    public void setup() {
+
+        this.clientService = new ClientService();
+        this.legacyClientUsernames = new ConcurrentHashMap<>( this.sessions );
+        this.usernames = new String[ this.sessions ];
+        this.connectionIds = new String[ this.sessions ];
+
+        for( int i = 0; i < this.sessions; i++ ) {
+
+            this.connectionIds[ i ] = "connection-" + i;
+            this.usernames[ i ] = "user-" + i;
+
+            this.clientService.registerConnection( this.connectionIds[ i ] );
+            this.clientService.login( this.connectionIds[ i ], this.usernames[ i ] );
+            this.legacyClientUsernames.put( this.connectionIds[ i ], this.usernames[ i ] );
+
+        }
+
+    }
+
+    private int nextIndex() {
+
+        var index = this.next++;
+        if( this.next == this.sessions ) {
+
+            this.next = 0;
+
+        }
+
+        return index;
+    }
+
+    @Benchmark
+    public Optional<String> getConnection() {
+
+        return this.clientService.getConnection( this.usernames[ nextIndex() ] );
+    }
+
+    @Benchmark
+    public Optional<String> getUsername() {
+
+        return this.clientService.getUsername( this.connectionIds[ nextIndex() ] );
+    }
+
+    @Benchmark
+    public boolean isUserLoggedIn() {
+
+        return this.clientService.isUserLoggedIn( this.usernames[ nextIndex() ] );
+    }
+
+    @Benchmark
+    public Optional<String> legacyGetConnection() {
+
+        var username = this.usernames[ nextIndex() ];
+        return this.legacyClientUsernames.entrySet().stream()
+                .filter( e -> e.getValue().equals( username ) )
+                .map( Map.Entry::getKey )
+                .findFirst();
+    }
+
+}
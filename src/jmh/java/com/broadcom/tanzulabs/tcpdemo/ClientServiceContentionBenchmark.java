@@ -0,0 +1,170 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link ClientService} with many threads at once. Lookups run on their own and next to threads that connect, log in,
+ * log out and disconnect, which all take the session lock. The {@code readWrite} group shows how much the writers
+ * slow down the lock free lookups.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+public class ClientServiceContentionBenchmark {
+
+    @Param( { "100000" } )
+    int sessions;
+
+    ClientService clientService;
+
+    String[] usernames;
+    String[] connectionIds;
+
+    // hands every writer thread its own range of connection ids
+    final AtomicInteger writers = new AtomicInteger();
+
+    @Setup( Level.Trial )
+    public void setup() {
+
+        this.clientService = new ClientService();
+        this.usernames = new String[ this.sessions ];
+        this.connectionIds = new String[ this.sessions ];
+
+        for( int i = 0; i < this.sessions; i++ ) {
+
+            this.connectionIds[ i ] = "connection-" + i;
+            this.usernames[ i ] = "user-" + i;
+
+            this.clientService.registerConnection( this.connectionIds[ i ] );
+            this.clientService.login( this.connectionIds[ i ], this.usernames[ i ] );
+
+        }
+
+    }
+
+    @State( Scope.Thread )
+    public static class Cursor {
+
+        int next;
+
+        int sessions;
+
+        @Setup( Level.Trial )
+        public void setup( ClientServiceContentionBenchmark benchmark ) {
+
+            // threads start apart so they do not walk the same keys in lockstep
+            this.sessions = benchmark.sessions;
+            this.next = ThreadLocalRandom.current().nextInt( this.sessions );
+
+        }
+
+        int nextIndex() {
+
+            var index = this.next++;
+            if( this.next == this.sessions ) {
+
+                this.next = 0;
+
+            }
+
+            return index;
+        }
+
+    }
+
+    @State( Scope.Thread )
+    public static class Churn {
+
+        static final int CONNECTIONS = 1024;
+
+        String[] connectionIds;
+        String[] usernames;
+
+        int next;
+
+        @Setup( Level.Trial )
+        public void setup( ClientServiceContentionBenchmark benchmark ) {
+
+            var writer = benchmark.writers.getAndIncrement();
+            this.connectionIds = new String[ CONNECTIONS ];
+            this.usernames = new String[ CONNECTIONS ];
+            for( int i = 0; i < CONNECTIONS; i++ ) {
+
+                this.connectionIds[ i ] = "churn-" + writer + "-" + i;
+                this.usernames[ i ] = "churn-user-" + writer + "-" + i;
+
+            }
+
+        }
+
+    }
+
+    @Benchmark
+    @Threads( 8 )
+    public Optional<String> getConnection( Cursor cursor ) {
+
+        return this.clientService.getConnection( this.usernames[ cursor.nextIndex() ] );
+    }
+
+    @Benchmark
+    @Threads( 8 )
+    public Optional<String> getUsername( Cursor cursor ) {
+
+        return this.clientService.getUsername( this.connectionIds[ cursor.nextIndex() ] );
+    }
+
+    // a full session, register, login, logout and remove, every step but the first takes the session lock
+    @Benchmark
+    @Threads( 8 )
+    public boolean session( Churn churn ) {
+
+        return cycle( churn );
+    }
+
+    @Benchmark
+    @Group( "readWrite" )
+    @GroupThreads( 6 )
+    public Optional<String> readWriteLookup( Cursor cursor ) {
+
+        return this.clientService.getConnection( this.usernames[ cursor.nextIndex() ] );
+    }
+
+    @Benchmark
+    @Group( "readWrite" )
+    @GroupThreads( 2 )
+    public boolean readWriteSession( Churn churn ) {
+
+        return cycle( churn );
+    }
+
+    private boolean cycle( Churn churn ) {
+
+        var index = churn.next++ & ( Churn.CONNECTIONS - 1 );
+        var connectionId = churn.connectionIds[ index ];
+        var username = churn.usernames[ index ];
+
+        this.clientService.registerConnection( connectionId );
+        var loggedIn = this.clientService.login( connectionId, username ).succeeded();
+        this.clientService.logout( connectionId, username );
+        this.clientService.removeConnection( connectionId );
+
+        return loggedIn;
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import com.jayway.jsonpath.Predicate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+import org.springframework.integration.json.JsonPathUtils;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the single pass {@link FrameDecoder} with the previous pipeline, which evaluated
+ * {@code #jsonPath(payload, ...)} through SpEL three times per frame.
+ * Run with {@code ./gradlew jmh} and add the gc profiler to see allocation per frame.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+public class FrameDecoderBenchmark {
+
+    static final byte[] CHAT_FRAME =
+            """
+            {
+                "type": "chat",
+                "action": "sendMessage",
+                "payload": {
+                    "to": "client2",
+                    "message": "Hello from client1"
+                 }
+            }
+            """.getBytes( StandardCharsets.UTF_8 );
+
+    FrameDecoder frameDecoder;
+
+    Message<byte[]> message;
+
+    StandardEvaluationContext evaluationContext;
+    Expression typeExpression;
+    Expression actionExpression;
+    Expression payloadExpression;
+
+    @Setup( Level.Trial )
+    public void setup() throws Exception {
+
+        this.frameDecoder = new FrameDecoder();
+        this.message = MessageBuilder.withPayload( CHAT_FRAME ).build();
+
+        this.evaluationContext = new StandardEvaluationContext();
+        this.evaluationContext.registerFunction( "jsonPath",
+                JsonPathUtils.class.getMethod( "evaluate", Object.class, String.class, Predicate[].class ) );
+
+        var parser = new SpelExpressionParser();
+        this.typeExpression = parser.parseExpression( "#jsonPath(payload, '$.type')" );
+        this.actionExpression = parser.parseExpression( "#jsonPath(payload, '$.action')" );
+        this.payloadExpression = parser.parseExpression( "#jsonPath(payload, '$.payload')" );
+
+    }
+
+    @Benchmark
+    public Frame streamingDecoder() throws Exception {
+
+        return this.frameDecoder.decode( CHAT_FRAME );
+    }
+
+    @Benchmark
+    public void jsonPathThreePass( Blackhole blackhole ) {
+
+        blackhole.consume( this.typeExpression.getValue( this.evaluationContext, this.message ) );
+        blackhole.consume( this.actionExpression.getValue( this.evaluationContext, this.message ) );
+        blackhole.consume( this.payloadExpression.getValue( this.evaluationContext, this.message ) );
+
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.core.serializer.Deserializer;
+import org.springframework.integration.ip.tcp.serializer.AbstractByteArraySerializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frames per second through serialize and deserialize for each framing mode and message size, with frames read
+ * into a new byte[] each or into pooled buffers. The gc profiler shows what each allocates per frame.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+public class FramingBenchmark {
+
+    @Param( { "crlf", "length-header", "stx-etx" } )
+    String framing;
+
+    @Param( { "1024", "65536" } )
+    int messageSize;
+
+    @Param( { "false", "true" } )
+    boolean pooled;
+
+    AbstractByteArraySerializer serializer;
+
+    BatchingSerializer framer;
+
+    Deserializer<?> deserializer;
+
+    byte[] message;
+    byte[] wire;
+
+    ByteArrayOutputStream out;
+
+    @Setup( Level.Trial )
+    public void setup() throws IOException {
+
+        this.serializer = Framing.of( this.framing ).serializer( this.messageSize + 16, -1 );
+
+        var pool = this.pooled ? new BufferPool( 256, 128 * 1024, 16, false, false, new SimpleMeterRegistry() ) : null;
+        this.framer = new BatchingSerializer( this.serializer, pool );
+        this.deserializer = this.pooled ? new PooledFrameDeserializer( Framing.of( this.framing ), this.messageSize + 16, pool ) : this.serializer;
+
+        this.message = new byte[ this.messageSize ];
+        Arrays.fill( this.message, (byte) 'a' );
+
+        this.out = new ByteArrayOutputStream( this.messageSize + 16 );
+        this.serializer.serialize( this.message, this.out );
+        this.wire = this.out.toByteArray();
+
+    }
+
+    @Benchmark
+    public int serialize() throws IOException {
+
+        this.out.reset();
+        this.framer.serialize( this.message, this.out );
+
+        return this.out.size();
+    }
+
+    @Benchmark
+    public int deserialize() throws IOException {
+
+        var frame = this.deserializer.deserialize( new ByteArrayInputStream( this.wire ) );
+        if( frame instanceof PooledBuffer buffer ) {
+
+            var length = buffer.length();
+            buffer.release();
+
+            return length;
+        }
+
+        return ( (byte[]) frame ).length;
+    }
+
+}
@@ -0,0 +1,108 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolving the target channel from the {@code type} header, configured like {@code headerRouter} in
+ * {@link TcpConfig}. The untimed router records into a registry without meters, the timed one into prometheus, the
+ * difference is what the route timer costs. Channel names resolve through a map instead of the bean factory.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+public class HeaderRouterBenchmark {
+
+    TimedHeaderValueRouter untimed;
+
+    TimedHeaderValueRouter timed;
+
+    Message<?> chatMessage;
+
+    Message<?> commandMessage;
+
+    Message<?> unknownMessage;
+
+    @Setup( Level.Trial )
+    public void setup() {
+
+        var pipelineMetrics =
+                new PipelineMetrics(
+                        new PrometheusMeterRegistry( PrometheusConfig.DEFAULT ),
+                        Map.of(
+                                "command", Set.of( "login", "logout" ),
+                                "chat", Set.of( "sendMessage", "join", "leave", "broadcast" ) ) );
+
+        this.untimed = router( PipelineMetrics.noop() );
+        this.timed = router( pipelineMetrics );
+
+        this.chatMessage = MessageBuilder.withPayload( "" ).setHeader( "type", "chat" ).setHeader( "action", "sendMessage" ).build();
+        this.commandMessage = MessageBuilder.withPayload( "" ).setHeader( "type", "command" ).setHeader( "action", "login" ).build();
+        this.unknownMessage = MessageBuilder.withPayload( "" ).setHeader( "type", "presence" ).build();
+
+    }
+
+    private static TimedHeaderValueRouter router( PipelineMetrics pipelineMetrics ) {
+
+        Map<String, MessageChannel> channels = Map.of( "commandChannel", new DirectChannel(), "chatChannel", new DirectChannel() );
+
+        var router = new TimedHeaderValueRouter( "type", pipelineMetrics );
+        router.setResolutionRequired( false );
+        router.setChannelMapping( "command", "commandChannel" );
+        router.setChannelMapping( "chat", "chatChannel" );
+        router.setChannelResolver( channels::get );
+
+        return router;
+    }
+
+    @Benchmark
+    public Collection<MessageChannel> chat() {
+
+        return this.untimed.determineTargetChannels( this.chatMessage );
+    }
+
+    @Benchmark
+    public Collection<MessageChannel> command() {
+
+        return this.untimed.determineTargetChannels( this.commandMessage );
+    }
+
+    // unmapped types fall through to no channel, the path a client sending garbage takes
+    @Benchmark
+    public Collection<MessageChannel> unmapped() {
+
+        return this.untimed.determineTargetChannels( this.unknownMessage );
+    }
+
+    @Benchmark
+    public Collection<MessageChannel> timedChat() {
+
+        return this.timed.determineTargetChannels( this.chatMessage );
+    }
+
+    @Benchmark
+    @Threads( 4 )
+    public Collection<MessageChannel> timedChatContended() {
+
+        return this.timed.determineTargetChannels( this.chatMessage );
+    }
+
+}
@@ -0,0 +1,69 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bytes on the wire and CPU per message for each {@link MessageEncoding}. Encoding is what the server does for a
+ * chat reply, build it as JSON then transcode it for the recipient, decoding is one inbound chat frame.
+ * The frame sizes are printed once per trial, run with {@code ./gradlew jmh -Pjmh.includes=MessageEncoding}.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+public class MessageEncodingBenchmark {
+
+    static final byte[] CHAT_FRAME =
+            "{\"type\":\"chat\",\"action\":\"sendMessage\",\"payload\":{\"to\":\"client2\",\"message\":\"Hello from client1, how is everyone doing today?\"}}"
+                    .getBytes( StandardCharsets.UTF_8 );
+
+    @Param( { "json", "smile", "cbor" } )
+    String encoding;
+
+    String from = "client1";
+
+    String message = "Hello from client1, how is everyone doing today?";
+
+    MessageEncoding messageEncoding;
+
+    ResponseEncoder responseEncoder = new ResponseEncoder();
+
+    FrameDecoder frameDecoder = new FrameDecoder();
+
+    byte[] inboundFrame;
+
+    @Setup( Level.Trial )
+    public void setup() throws Exception {
+
+        this.messageEncoding = MessageEncoding.of( this.encoding );
+        this.inboundFrame = this.messageEncoding.fromJson( CHAT_FRAME );
+
+        var reply = this.messageEncoding.fromJson( this.responseEncoder.chatResponse( this.from, this.message ) );
+        System.out.printf( "%nwire bytes [%s] : chat reply %d, chat frame %d%n", this.encoding, reply.length, this.inboundFrame.length );
+
+    }
+
+    @Benchmark
+    public byte[] encodeChatResponse() throws Exception {
+
+        // a fresh reply every time, as a one to one chat produces, a broadcast transcodes once per encoding instead
+        return this.messageEncoding.fromJson( this.responseEncoder.chatResponse( this.from, this.message ) );
+    }
+
+    @Benchmark
+    public Frame decodeChatFrame() throws Exception {
+
+        return this.frameDecoder.decode( this.inboundFrame );
+    }
+
+}
@@ -0,0 +1,191 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Append throughput until the messages are forced to disk, and the time to replay a backlog of 100k messages
+ * to a connection that accepts writes as fast as they come.
+ * <p>
+ * Nobody logs in during the append runs, so once each of the 16 recipients holds 100k messages, after 160
+ * invocations, every append also drops that recipient's oldest message. Most of a measurement is that steady state.
+ */
+public class OfflineMessageStoreBenchmark {
+
+    static final int APPENDS = 10_000;
+
+    static final byte[] MESSAGE = new ResponseEncoder().chatResponse( "client1", "Hello from client1, how is everyone doing today?" );
+
+    @State( Scope.Benchmark )
+    public static class AppendState {
+
+        @Param( { "true", "false" } )
+        boolean fsync;
+
+        Path directory;
+
+        ExecutorService executor;
+
+        OfflineMessageStore store;
+
+        int recipient;
+
+        @Setup( Level.Trial )
+        public void setup() throws IOException {
+
+            this.directory = Files.createTempDirectory( "offline-append" );
+            this.executor = Executors.newVirtualThreadPerTaskExecutor();
+            var outboundWriter = new OutboundWriter( this.executor, 1024, 64, OutboundWriter.Overflow.BLOCK, 1000, new SimpleMeterRegistry() );
+            this.store = new OfflineMessageStore(
+                    this.directory, 100_000, 16, Long.MAX_VALUE, Duration.ofDays( 1 ), 4 * 1024 * 1024, 65536, this.fsync, outboundWriter );
+            this.store.start();
+            for( int i = 0; i < 16; i++ ) {
+
+                this.store.remember( "client" + i );
+
+            }
+
+        }
+
+        @TearDown( Level.Trial )
+        public void tearDown() throws IOException {
+
+            this.store.stop();
+            this.executor.shutdownNow();
+            delete( this.directory );
+
+        }
+
+    }
+
+    @State( Scope.Benchmark )
+    public static class ReplayState {
+
+        static final int BACKLOG = 100_000;
+
+        Path directory;
+
+        ExecutorService executor;
+
+        OfflineMessageStore store;
+
+        final AtomicLong written = new AtomicLong();
+
+        @Setup( Level.Trial )
+        public void setup() throws IOException {
+
+            this.directory = Files.createTempDirectory( "offline-replay" );
+            this.executor = Executors.newVirtualThreadPerTaskExecutor();
+            var outboundWriter = new OutboundWriter( this.executor, 1024, 64, OutboundWriter.Overflow.BLOCK, 1000, new SimpleMeterRegistry() );
+            outboundWriter.register( new RoomBroadcastBenchmark.CountingConnection( "connection-0", this.written ) );
+            this.store = new OfflineMessageStore(
+                    this.directory, BACKLOG, 1, Long.MAX_VALUE, Duration.ofDays( 1 ), 4 * 1024 * 1024, 65536, false, outboundWriter );
+            this.store.start();
+            this.store.remember( "client2" );
+
+        }
+
+        @Setup( Level.Invocation )
+        public void fill() {
+
+            for( int i = 0; i < BACKLOG; i++ ) {
+
+                while( !this.store.append( "client2", MESSAGE ) ) {
+
+                    Thread.onSpinWait();
+
+                }
+
+            }
+            this.store.flush().join();
+            this.written.set( 0 );
+
+        }
+
+        @TearDown( Level.Trial )
+        public void tearDown() throws IOException {
+
+            this.store.stop();
+            this.executor.shutdownNow();
+            delete( this.directory );
+
+        }
+
+    }
+
+    @Benchmark
+    @BenchmarkMode( Mode.Throughput )
+    @OutputTimeUnit( TimeUnit.SECONDS )
+    @OperationsPerInvocation( APPENDS )
+    public void append( AppendState state ) {
+
+        for( int i = 0; i < APPENDS; i++ ) {
+
+            // spread over a few recipients, spin if the writer falls behind the queue
+            while( !state.store.append( "client" + ( state.recipient++ & 15 ), MESSAGE ) ) {
+
+                Thread.onSpinWait();
+
+            }
+
+        }
+
+        state.store.flush().join();
+
+    }
+
+    @Benchmark
+    @BenchmarkMode( Mode.SingleShotTime )
+    @OutputTimeUnit( TimeUnit.MILLISECONDS )
+    @Warmup( iterations = 3 )
+    @Measurement( iterations = 10 )
+    public long replay100k( ReplayState state ) {
+
+        state.store.deliver( "client2", "connection-0" );
+        while( state.written.get() < ReplayState.BACKLOG ) {
+
+            Thread.onSpinWait();
+
+        }
+
+        return state.written.get();
+    }
+
+    static void delete( Path directory ) throws IOException {
+
+        try( Stream<Path> paths = Files.walk( directory ) ) {
+
+            for( var path : paths.sorted( Comparator.reverseOrder() ).toList() ) {
+
+                Files.deleteIfExists( path );
+
+            }
+
+        }
+
+    }
+
+}
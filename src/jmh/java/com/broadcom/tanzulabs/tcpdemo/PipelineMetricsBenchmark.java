@@ -0,0 +1,90 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Everything the instrumentation adds to one chat message against the prometheus registry the application runs
+ * with: the clock reads around each stage plus the decode, route, handle and outbound write recordings.
+ * The budget is 1 µs per message, {@code contended} shows the same with four threads recording at once.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+public class PipelineMetricsBenchmark {
+
+    PipelineMetrics pipelineMetrics;
+
+    Timer outboundWrite;
+
+    DistributionSummary outboundFrameSize;
+
+    @Setup
+    public void setup() {
+
+        var meterRegistry = new PrometheusMeterRegistry( PrometheusConfig.DEFAULT );
+        this.pipelineMetrics =
+                new PipelineMetrics(
+                        meterRegistry,
+                        Map.of(
+                                "command", Set.of( "login", "logout" ),
+                                "chat", Set.of( "sendMessage", "join", "leave", "broadcast" ) ) );
+
+        // registered like OutboundWriter registers them
+        this.outboundWrite = Timer.builder( "tcp.outbound.write" ).register( meterRegistry );
+        this.outboundFrameSize = DistributionSummary.builder( "tcp.outbound.frame.size" )
+                .baseUnit( "bytes" )
+                .publishPercentileHistogram()
+                .minimumExpectedValue( 16.0 )
+                .maximumExpectedValue( 1024.0 * 1024 )
+                .register( meterRegistry );
+
+    }
+
+    @Benchmark
+    public long perMessage() {
+
+        return record();
+    }
+
+    @Benchmark
+    @Threads( 4 )
+    public long contended() {
+
+        return record();
+    }
+
+    private long record() {
+
+        var start = System.nanoTime();
+        this.pipelineMetrics.recordDecode( 120, System.nanoTime() - start );
+
+        start = System.nanoTime();
+        this.pipelineMetrics.recordRoute( "chat", System.nanoTime() - start );
+
+        start = System.nanoTime();
+        this.pipelineMetrics.recordHandle( "chat", "sendMessage", System.nanoTime() - start );
+
+        start = System.nanoTime();
+        var elapsed = System.nanoTime() - start;
+        this.outboundWrite.record( elapsed, TimeUnit.NANOSECONDS );
+        this.outboundFrameSize.record( 96 );
+
+        return elapsed;
+    }
+
+}
@@ -0,0 +1,67 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of encoding one chat reply. The gc profiler is enabled in build.gradle, compare
+ * {@code gc.alloc.rate.norm} (bytes allocated per reply) between the two benchmarks.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+public class ResponseEncoderBenchmark {
+
+    String from = "client1";
+
+    String message = "Hello from client1, how is everyone doing today?";
+
+    ResponseEncoder responseEncoder = new ResponseEncoder();
+
+    // how replies were built before, a formatted text block that was then encoded again on the way out
+    @Benchmark
+    public byte[] formattedChatResponse() {
+
+        return
+                """
+                {
+                    "type": "chatResponse",
+                    "payload": {
+                        "from": "%s",
+                        "message": "%s"
+                    }
+                }
+                """.formatted( this.from, this.message ).getBytes( StandardCharsets.UTF_8 );
+    }
+
+    @Benchmark
+    public byte[] encodedChatResponse() {
+
+        return this.responseEncoder.chatResponse( this.from, this.message );
+    }
+
+    @Benchmark
+    public byte[] formattedStatus() {
+
+        return
+                """
+                {
+                    'status': 'login %s!'
+                }
+                """.formatted( "succeeded" ).getBytes( StandardCharsets.UTF_8 );
+    }
+
+    @Benchmark
+    public byte[] encodedStatus() {
+
+        return ResponseEncoder.LOGIN_SUCCEEDED;
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency of one room broadcast, from encoding the frame until every member's writer has flushed it.
+ * Connections are no-op sinks, so this is the cost of the fan-out itself.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+public class RoomBroadcastBenchmark {
+
+    static final String ROOM = "room";
+    static final String SENDER = "connection-0";
+
+    @Param( { "100", "1000", "10000" } )
+    int members;
+
+    RoomService roomService;
+
+    ResponseEncoder responseEncoder = new ResponseEncoder();
+
+    OutboundWriter outboundWriter;
+
+    ExecutorService executor;
+
+    final AtomicLong written = new AtomicLong();
+
+    long expected;
+
+    @Setup( Level.Trial )
+    public void setup() {
+
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.roomService = new RoomService();
+        this.outboundWriter = new OutboundWriter( this.executor, 1024, 64, OutboundWriter.Overflow.BLOCK, 1000, new SimpleMeterRegistry() );
+
+        for( int i = 0; i < this.members; i++ ) {
+
+            var connectionId = "connection-" + i;
+            this.roomService.registerConnection( connectionId );
+            this.roomService.join( ROOM, connectionId );
+            this.outboundWriter.register( new CountingConnection( connectionId, this.written ) );
+
+        }
+
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown() {
+
+        this.executor.shutdownNow();
+
+    }
+
+    @Benchmark
+    public long broadcast() {
+
+        var frame = this.responseEncoder.roomChatResponse( ROOM, "sender", "hello room" );
+
+        this.outboundWriter.broadcast( this.roomService.getMembers( ROOM ), SENDER, frame );
+
+        // wait for every member to be written
+        this.expected += this.members - 1;
+        while( this.written.get() < this.expected ) {
+
+            Thread.onSpinWait();
+
+        }
+
+        return this.expected;
+    }
+
+    record CountingConnection( String connectionId, AtomicLong written ) implements OutboundConnection {
+
+        @Override
+        public String getConnectionId() {
+
+            return this.connectionId;
+        }
+
+        @Override
+        public void write( List<byte[]> frames ) {
+
+            this.written.addAndGet( frames.size() );
+
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+}
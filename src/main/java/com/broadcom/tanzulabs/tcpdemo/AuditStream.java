@@ -0,0 +1,488 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Structured connection, login, chat and error events, one JSON object per line in a rolling file of their own.
+ * <p>
+ * Producers copy the event's references into a preallocated slot of a ring buffer and return, nothing is allocated
+ * or formatted on the calling thread. When the ring is full the event is dropped and counted rather than waited for.
+ * A single writer thread encodes the slots and writes them, rolling {@code audit.log} to {@code audit.log.1} ...
+ * once it passes {@code maxFileSize}, and parks while the ring is empty. Each category is sampled at its own rate.
+ * Events that cannot be written because the file failed are counted as dropped too, the file is reopened a second later.
+ */
+public class AuditStream implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger( AuditStream.class );
+
+    public enum Category { CONNECTION, LOGIN, CHAT, ERROR }
+
+    public enum Event {
+
+        CONNECTION_OPEN( "connection.open", Category.CONNECTION ),
+        CONNECTION_CLOSE( "connection.close", Category.CONNECTION ),
+        LOGIN( "login", Category.LOGIN ),
+        LOGIN_FAILED( "login.failed", Category.LOGIN ),
+        LOGOUT( "logout", Category.LOGIN ),
+        CHAT( "chat", Category.CHAT ),
+        BROADCAST( "broadcast", Category.CHAT ),
+        ERROR( "error", Category.ERROR );
+
+        private final byte[] encoded;
+
+        private final Category category;
+
+        Event( String name, Category category ) {
+
+            this.encoded = ( "{\"event\":\"" + name + "\",\"ts\":" ).getBytes( StandardCharsets.US_ASCII );
+            this.category = category;
+
+        }
+
+        public Category category() {
+
+            return this.category;
+        }
+
+    }
+
+    private static final byte[] CONNECTION_FIELD = ",\"connectionId\":".getBytes( StandardCharsets.US_ASCII );
+    private static final byte[] USER_FIELD = ",\"user\":".getBytes( StandardCharsets.US_ASCII );
+    private static final byte[] DETAIL_FIELD = ",\"detail\":".getBytes( StandardCharsets.US_ASCII );
+    private static final byte[] LINE_END = "}\n".getBytes( StandardCharsets.US_ASCII );
+
+    private static final long REOPEN_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos( 1 );
+
+    // set in claimed once stopped, no sequence is handed out after it
+    private static final long CLOSED = Long.MIN_VALUE;
+
+    private final Path file;
+    private final long maxFileSize;
+    private final int maxFiles;
+
+    // indexed by Category ordinal
+    private final double[] sampleRates;
+
+    private final Slot[] slots;
+    private final int mask;
+
+    // next sequence to hand out to a producer, with CLOSED set once stopped
+    private final AtomicLong claimed = new AtomicLong();
+
+    // every sequence below this has been written, producers may reuse those slots
+    private volatile long consumed;
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile boolean running;
+
+    // set while the writer is parked with nothing to write, so a producer wakes it
+    private volatile boolean idle;
+
+    private volatile Thread writer;
+
+    /**
+     * @param ringSize rounded up to a power of two
+     * @param sampleRates the fraction of events kept per {@link Category}, 0 turns a category off
+     */
+    public AuditStream( Path file, int ringSize, long maxFileSize, int maxFiles, double[] sampleRates, MeterRegistry meterRegistry ) {
+
+        if( sampleRates.length != Category.values().length ) {
+
+            throw new IllegalArgumentException( "one sample rate per category expected" );
+        }
+
+        this.file = file;
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = maxFiles;
+        this.sampleRates = sampleRates.clone();
+
+        var size = Integer.highestOneBit( Math.max( 2, ringSize - 1 ) ) << 1;
+        this.slots = new Slot[ size ];
+        Arrays.setAll( this.slots, i -> new Slot() );
+        this.mask = size - 1;
+
+        FunctionCounter.builder( "tcp.audit.events.dropped", this.dropped, AtomicLong::get )
+                .description( "Audit events discarded because the ring buffer was full or the audit file could not be written" )
+                .register( meterRegistry );
+
+    }
+
+    public void connectionOpened( String connectionId ) {
+
+        publish( Event.CONNECTION_OPEN, connectionId, null, null );
+
+    }
+
+    public void connectionClosed( String connectionId ) {
+
+        publish( Event.CONNECTION_CLOSE, connectionId, null, null );
+
+    }
+
+    public void login( String connectionId, String username, boolean succeeded ) {
+
+        publish( succeeded ? Event.LOGIN : Event.LOGIN_FAILED, connectionId, username, null );
+
+    }
+
+    public void logout( String connectionId, String username ) {
+
+        publish( Event.LOGOUT, connectionId, username, null );
+
+    }
+
+    /**
+     * @param to the recipient, or the room for broadcasts
+     */
+    public void chat( Event event, String connectionId, String from, String to ) {
+
+        publish( event, connectionId, from, to );
+
+    }
+
+    public void error( String connectionId, String detail ) {
+
+        publish( Event.ERROR, connectionId, null, detail );
+
+    }
+
+    public long getDropped() {
+
+        return this.dropped.get();
+    }
+
+    private void publish( Event event, String connectionId, String username, String detail ) {
+
+        if( !this.running || !sampled( event.category() ) ) {
+
+            return;
+        }
+
+        long sequence;
+        do {
+
+            // stopped meanwhile, the writer may already be gone
+            sequence = this.claimed.get();
+            if( ( sequence & CLOSED ) != 0 ) {
+
+                return;
+            }
+
+            if( sequence - this.consumed >= this.slots.length ) {
+
+                this.dropped.incrementAndGet();
+
+                return;
+            }
+
+        } while( !this.claimed.compareAndSet( sequence, sequence + 1 ) );
+
+        var slot = this.slots[ (int) ( sequence & this.mask ) ];
+        slot.timestamp = System.currentTimeMillis();
+        slot.event = event;
+        slot.connectionId = connectionId;
+        slot.username = username;
+        slot.detail = detail;
+
+        // volatile write, makes the fields above visible to the writer
+        slot.sequence = sequence;
+        if( this.idle ) {
+
+            LockSupport.unpark( this.writer );
+
+        }
+
+    }
+
+    private boolean sampled( Category category ) {
+
+        var rate = this.sampleRates[ category.ordinal() ];
+
+        return rate >= 1.0 || ( rate > 0.0 && ThreadLocalRandom.current().nextDouble() < rate );
+    }
+
+    @Override
+    public void start() {
+
+        try {
+
+            Files.createDirectories( this.file.toAbsolutePath().getParent() );
+
+        } catch( IOException e ) {
+
+            throw new UncheckedIOException( "could not create audit directory for " + this.file, e );
+        }
+
+        this.claimed.set( this.claimed.get() & ~CLOSED );
+        this.running = true;
+        // assigned before it runs, a producer must never find the writer idle but not yet known
+        this.writer = Thread.ofPlatform().name( "audit-writer" ).daemon().unstarted( this::run );
+        this.writer.start();
+        log.info( "start : audit events written to [{}]", this.file );
+
+    }
+
+    @Override
+    public void stop() {
+
+        if( this.writer == null ) {
+
+            return;
+        }
+
+        // every sequence claimed before this is still written, none is claimed after it
+        this.running = false;
+        this.claimed.getAndUpdate( sequence -> sequence | CLOSED );
+        LockSupport.unpark( this.writer );
+        try {
+
+            this.writer.join();
+
+        } catch( InterruptedException e ) {
+
+            Thread.currentThread().interrupt();
+
+        }
+
+    }
+
+    @Override
+    public boolean isRunning() {
+
+        return this.running;
+    }
+
+    private void run() {
+
+        var buffer = new ResponseEncoder.Buffer( 512 );
+        var cursor = this.consumed;
+        OutputStream out = null;
+        var size = 0L;
+        var dirty = false;
+        var reopenAt = System.nanoTime();
+        while( true ) {
+
+            var slot = this.slots[ (int) ( cursor & this.mask ) ];
+            if( slot.sequence != cursor ) {
+
+                if( dirty ) {
+
+                    try {
+
+                        out.flush();
+
+                    } catch( IOException e ) {
+
+                        failed( out, e );
+                        out = null;
+                        reopenAt = System.nanoTime() + REOPEN_INTERVAL_NANOS;
+
+                    }
+                    dirty = false;
+
+                }
+
+                // everything claimed before stop has been written
+                if( this.claimed.get() == ( cursor | CLOSED ) ) {
+
+                    break;
+                }
+
+                // checked again once idle is visible, an event published in between must not be missed
+                this.idle = true;
+                if( slot.sequence != cursor && this.claimed.get() != ( cursor | CLOSED ) ) {
+
+                    LockSupport.park( this );
+
+                }
+                this.idle = false;
+
+                continue;
+            }
+
+            buffer.reset();
+            encode( slot, buffer );
+            slot.clear();
+            this.consumed = ++cursor;
+
+            if( out == null && System.nanoTime() - reopenAt >= 0 ) {
+
+                try {
+
+                    out = open();
+                    size = Files.size( this.file );
+
+                } catch( IOException e ) {
+
+                    log.warn( "run : could not open [{}], audit events are dropped for now", this.file, e );
+                    reopenAt = System.nanoTime() + REOPEN_INTERVAL_NANOS;
+
+                }
+
+            }
+
+            if( out == null ) {
+
+                this.dropped.incrementAndGet();
+                continue;
+            }
+
+            try {
+
+                buffer.writeTo( out );
+                size += buffer.size();
+                dirty = true;
+
+                if( size >= this.maxFileSize ) {
+
+                    dirty = false;
+                    out.close();
+                    out = null;
+                    roll();
+                    out = open();
+                    size = 0;
+
+                }
+
+            } catch( IOException e ) {
+
+                this.dropped.incrementAndGet();
+                failed( out, e );
+                out = null;
+                dirty = false;
+                reopenAt = System.nanoTime() + REOPEN_INTERVAL_NANOS;
+
+            }
+
+        }
+
+        if( out != null ) {
+
+            try {
+
+                out.close();
+
+            } catch( IOException e ) {
+
+                log.error( "run : closing [{}] failed", this.file, e );
+
+            }
+
+        }
+
+    }
+
+    private void failed( OutputStream out, IOException e ) {
+
+        log.error( "failed : writing [{}] failed, audit events are dropped until it is reopened", this.file, e );
+        if( out != null ) {
+
+            try {
+
+                out.close();
+
+            } catch( IOException ignored ) {
+
+                // already failed, the stream is abandoned either way
+
+            }
+
+        }
+
+    }
+
+    private static void encode( Slot slot, ResponseEncoder.Buffer buffer ) {
+
+        buffer.write( slot.event.encoded );
+        buffer.writeLong( slot.timestamp );
+        buffer.write( CONNECTION_FIELD );
+        buffer.writeString( slot.connectionId );
+        if( slot.username != null ) {
+
+            buffer.write( USER_FIELD );
+            buffer.writeString( slot.username );
+
+        }
+        if( slot.detail != null ) {
+
+            buffer.write( DETAIL_FIELD );
+            buffer.writeString( slot.detail );
+
+        }
+        buffer.write( LINE_END );
+
+    }
+
+    private OutputStream open() throws IOException {
+
+        return new BufferedOutputStream(
+                Files.newOutputStream( this.file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND ),
+                64 * 1024 );
+    }
+
+    // audit.log -> audit.log.1 -> ... -> audit.log.<maxFiles>, the oldest is deleted
+    private void roll() throws IOException {
+
+        Files.deleteIfExists( rolled( this.maxFiles ) );
+        for( int i = this.maxFiles - 1; i >= 1; i-- ) {
+
+            var source = rolled( i );
+            if( Files.exists( source ) ) {
+
+                Files.move( source, rolled( i + 1 ), StandardCopyOption.REPLACE_EXISTING );
+
+            }
+
+        }
+        Files.move( this.file, rolled( 1 ), StandardCopyOption.REPLACE_EXISTING );
+
+    }
+
+    private Path rolled( int index ) {
+
+        return this.file.resolveSibling( this.file.getFileName() + "." + index );
+    }
+
+    static final class Slot {
+
+        // the sequence this slot was last published for
+        volatile long sequence = -1;
+
+        long timestamp;
+        Event event;
+        String connectionId;
+        String username;
+        String detail;
+
+        void clear() {
+
+            this.event = null;
+            this.connectionId = null;
+            this.username = null;
+            this.detail = null;
+
+        }
+
+    }
+
+}
@@ -0,0 +1,141 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import org.springframework.core.serializer.Deserializer;
+import org.springframework.core.serializer.Serializer;
+import org.springframework.integration.ip.tcp.serializer.AbstractByteArraySerializer;
+import org.springframework.integration.ip.tcp.serializer.SoftEndOfStreamException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per connection framing that looks at the first byte a client sends to pick the framing:
+ * 0x02 is STX, 0x00 is the high byte of a length header (frames under 16 MB) and anything else is CRLF text.
+ * Replies use the detected framing, CRLF until the client has sent something.
+ */
+public class AutoDetectFraming implements Serializer<byte[]>, Deserializer<Object> {
+
+    private static final int STX = 0x02;
+
+    private final Serializers serializers;
+
+    private volatile Framing detected;
+
+    public AutoDetectFraming( Serializers serializers ) {
+
+        this.serializers = serializers;
+
+    }
+
+    @Override
+    public Object deserialize( InputStream inputStream ) throws IOException {
+
+        var framing = this.detected;
+        if( framing != null ) {
+
+            return this.serializers.reader( framing ).deserialize( inputStream );
+        }
+
+        int first = inputStream.read();
+        if( first < 0 ) {
+
+            throw new SoftEndOfStreamException( "Stream closed before the first frame" );
+        }
+
+        framing = switch( first ) {
+            case STX -> Framing.STX_ETX;
+            case 0x00 -> Framing.LENGTH_HEADER;
+            default -> Framing.CRLF;
+        };
+        this.detected = framing;
+
+        var replayed = new SequenceInputStream( new ByteArrayInputStream( new byte[] { (byte) first } ), inputStream );
+
+        return this.serializers.reader( framing ).deserialize( replayed );
+    }
+
+    @Override
+    public void serialize( byte[] object, OutputStream outputStream ) throws IOException {
+
+        var framing = this.detected;
+        this.serializers.get( framing != null ? framing : Framing.CRLF ).serialize( object, outputStream );
+
+    }
+
+    public Framing getDetected() {
+
+        return this.detected;
+    }
+
+    /**
+     * The shared, thread safe serializers the per connection instances delegate to, and what reads each framing,
+     * the serializers themselves or {@link PooledFrameDeserializer}s.
+     */
+    public record Serializers(
+            AbstractByteArraySerializer crlf, AbstractByteArraySerializer lengthHeader, AbstractByteArraySerializer stxEtx,
+            Map<Framing, Deserializer<?>> readers ) {
+
+        public static Serializers of( int maxFrameSize, int poolSize ) {
+
+            return of( maxFrameSize, poolSize, null );
+        }
+
+        /**
+         * @param bufferPool reads frames into pooled buffers, null reads them into a new byte[] each
+         */
+        public static Serializers of( int maxFrameSize, int poolSize, BufferPool bufferPool ) {
+
+            var crlf = Framing.CRLF.serializer( maxFrameSize, poolSize );
+            var lengthHeader = Framing.LENGTH_HEADER.serializer( maxFrameSize, poolSize );
+            var stxEtx = Framing.STX_ETX.serializer( maxFrameSize, poolSize );
+
+            var readers = new EnumMap<Framing, Deserializer<?>>( Framing.class );
+            if( bufferPool != null ) {
+
+                for( var framing : List.of( Framing.CRLF, Framing.LENGTH_HEADER, Framing.STX_ETX ) ) {
+
+                    readers.put( framing, new PooledFrameDeserializer( framing, maxFrameSize, bufferPool ) );
+
+                }
+
+            } else {
+
+                readers.put( Framing.CRLF, crlf );
+                readers.put( Framing.LENGTH_HEADER, lengthHeader );
+                readers.put( Framing.STX_ETX, stxEtx );
+
+            }
+
+            return new Serializers( crlf, lengthHeader, stxEtx, readers );
+        }
+
+        AbstractByteArraySerializer get( Framing framing ) {
+
+            return switch( framing ) {
+                case CRLF -> this.crlf;
+                case LENGTH_HEADER -> this.lengthHeader;
+                case STX_ETX -> this.stxEtx;
+                case AUTO -> throw new IllegalArgumentException( "auto is not a wire framing" );
+            };
+        }
+
+        Deserializer<?> reader( Framing framing ) {
+
+            var reader = this.readers.get( framing );
+            if( reader == null ) {
+
+                throw new IllegalArgumentException( framing + " is not a wire framing" );
+            }
+
+            return reader;
+        }
+
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import org.springframework.core.serializer.Serializer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Frames a single payload with the delegate, or every frame of a {@link FrameBatch} into one buffer
+ * that reaches the socket as a single write.
+ * <p>
+ * With a {@link BufferPool} single frames are framed into a pooled buffer too, so the frame and its delimiter
+ * or header go out in one write, and the buffer is released as soon as the write returns.
+ */
+public class BatchingSerializer implements Serializer<Object> {
+
+    private final Serializer<byte[]> delegate;
+
+    private final BufferPool pool;
+
+    public BatchingSerializer( Serializer<byte[]> delegate ) {
+
+        this( delegate, null );
+
+    }
+
+    public BatchingSerializer( Serializer<byte[]> delegate, BufferPool pool ) {
+
+        this.delegate = delegate;
+        this.pool = pool;
+
+    }
+
+    @Override
+    public void serialize( Object object, OutputStream outputStream ) throws IOException {
+
+        switch( object ) {
+            case byte[] frame when this.pool != null -> writePooled( List.of( frame ), frame.length + 8, outputStream );
+            case byte[] frame -> this.delegate.serialize( frame, outputStream );
+            case String text -> serialize( text.getBytes( StandardCharsets.UTF_8 ), outputStream );
+            case FrameBatch batch -> {
+
+                var size = 0;
+                for( var frame : batch.frames() ) {
+
+                    size += frame.length + 8;
+
+                }
+
+                if( this.pool != null ) {
+
+                    writePooled( batch.frames(), size, outputStream );
+
+                    return;
+                }
+
+                var buffer = new ByteArrayOutputStream( size );
+                for( var frame : batch.frames() ) {
+
+                    this.delegate.serialize( frame, buffer );
+
+                }
+
+                buffer.writeTo( outputStream );
+
+            }
+            default -> throw new IllegalArgumentException( "cannot serialize " + object.getClass().getName() );
+        }
+
+    }
+
+    private void writePooled( List<byte[]> frames, int size, OutputStream outputStream ) throws IOException {
+
+        var buffer = this.pool.acquire( size );
+        try {
+
+            var framed = buffer.outputStream();
+            for( var frame : frames ) {
+
+                this.delegate.serialize( frame, framed );
+
+            }
+
+            buffer.writeTo( outputStream );
+
+        } finally {
+
+            buffer.release();
+
+        }
+
+    }
+
+}
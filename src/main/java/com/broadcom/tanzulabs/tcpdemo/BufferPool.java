@@ -0,0 +1,198 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Buffers for reading and framing frames, in power of two size classes from {@code minSize} to {@code maxSize}, so
+ * steady traffic reuses the same memory instead of allocating a byte[] per frame. Each class keeps at most
+ * {@code buffersPerClass} released buffers, larger requests are allocated and left to the GC.
+ * <p>
+ * With leak detection every acquire records where it happened. A {@link PooledBuffer} collected without being
+ * released is logged at error with that stack trace, and {@link #getOutstandingAllocations()} lists what is still
+ * held, for tests to assert on. It costs a stack trace per frame, so it is meant for tests.
+ */
+public class BufferPool {
+
+    private static final Logger log = LoggerFactory.getLogger( BufferPool.class );
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final int minShift;
+    private final int maxSize;
+    private final boolean direct;
+    private final boolean leakDetection;
+
+    private final BlockingQueue<ByteBuffer>[] classes;
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    // leak detection only, buffer -> where it was acquired
+    private final Map<PooledBuffer.Leak, Throwable> tracked = new ConcurrentHashMap<>();
+
+    private final Counter acquired;
+    private final Counter allocated;
+    private final Counter leaked;
+
+    @SuppressWarnings( "unchecked" )
+    public BufferPool( int minSize, int maxSize, int buffersPerClass, boolean direct, boolean leakDetection, MeterRegistry meterRegistry ) {
+
+        this.minShift = shift( minSize );
+        this.maxSize = 1 << shift( Math.max( minSize, maxSize ) );
+        this.direct = direct;
+        this.leakDetection = leakDetection;
+
+        this.classes = new BlockingQueue[ shift( this.maxSize ) - this.minShift + 1 ];
+        for( int i = 0; i < this.classes.length; i++ ) {
+
+            this.classes[ i ] = new ArrayBlockingQueue<>( Math.max( 1, buffersPerClass ) );
+
+        }
+
+        Gauge.builder( "tcp.buffers.outstanding", this.outstanding, AtomicInteger::get )
+                .description( "Pooled buffers acquired and not yet released" )
+                .register( meterRegistry );
+        Gauge.builder( "tcp.buffers.pooled", this, BufferPool::getPooledBytes )
+                .description( "Bytes held in released buffers waiting for reuse" )
+                .baseUnit( "bytes" )
+                .register( meterRegistry );
+        this.acquired = Counter.builder( "tcp.buffers.acquired" )
+                .description( "Buffers handed out" )
+                .register( meterRegistry );
+        this.allocated = Counter.builder( "tcp.buffers.allocated" )
+                .description( "Buffers that had to be allocated, the pool was empty or the size too large" )
+                .register( meterRegistry );
+        this.leaked = Counter.builder( "tcp.buffers.leaked" )
+                .description( "Buffers garbage collected without being released, counted with leak detection on" )
+                .register( meterRegistry );
+
+    }
+
+    /**
+     * A cleared buffer of at least {@code capacity} bytes, owned by the caller until it is released.
+     */
+    public PooledBuffer acquire( int capacity ) {
+
+        this.acquired.increment();
+        this.outstanding.incrementAndGet();
+
+        var index = classOf( capacity );
+        ByteBuffer buffer = null;
+        if( index < this.classes.length ) {
+
+            buffer = this.classes[ index ].poll();
+
+        }
+
+        if( buffer == null ) {
+
+            this.allocated.increment();
+            var size = index < this.classes.length ? 1 << ( index + this.minShift ) : capacity;
+            buffer = this.direct ? ByteBuffer.allocateDirect( size ) : ByteBuffer.allocate( size );
+
+        }
+
+        var pooled = new PooledBuffer( this, buffer.clear() );
+        if( this.leakDetection ) {
+
+            var leak = pooled.track();
+            this.tracked.put( leak, new Throwable( "buffer of " + capacity + " bytes acquired here" ) );
+            CLEANER.register( pooled, () -> collected( leak ) );
+
+        }
+
+        return pooled;
+    }
+
+    // called once per buffer when its last reference is released
+    void recycle( PooledBuffer pooled, ByteBuffer buffer ) {
+
+        this.outstanding.decrementAndGet();
+        if( pooled.leak() != null ) {
+
+            this.tracked.remove( pooled.leak() );
+
+        }
+
+        var capacity = buffer.capacity();
+        if( capacity > this.maxSize || Integer.bitCount( capacity ) != 1 || buffer.isDirect() != this.direct ) {
+
+            return;
+        }
+
+        var index = shift( capacity ) - this.minShift;
+        if( index >= 0 ) {
+
+            this.classes[ index ].offer( buffer );
+
+        }
+
+    }
+
+    public int getOutstanding() {
+
+        return this.outstanding.get();
+    }
+
+    /**
+     * Where the buffers still held were acquired, empty unless leak detection is on.
+     */
+    public List<Throwable> getOutstandingAllocations() {
+
+        return List.copyOf( this.tracked.values() );
+    }
+
+    public boolean isDirect() {
+
+        return this.direct;
+    }
+
+    long getPooledBytes() {
+
+        var bytes = 0L;
+        for( int i = 0; i < this.classes.length; i++ ) {
+
+            bytes += (long) this.classes[ i ].size() << ( i + this.minShift );
+
+        }
+
+        return bytes;
+    }
+
+    private void collected( PooledBuffer.Leak leak ) {
+
+        var site = this.tracked.remove( leak );
+        if( site != null ) {
+
+            this.outstanding.decrementAndGet();
+            this.leaked.increment();
+            log.error( "collected : a buffer was garbage collected without being released", site );
+
+        }
+
+    }
+
+    private int classOf( int capacity ) {
+
+        return capacity <= 1 << this.minShift ? 0 : shift( capacity ) - this.minShift;
+    }
+
+    // log2 of the next power of two
+    private static int shift( int size ) {
+
+        return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros( size - 1 );
+    }
+
+}
@@ -0,0 +1,838 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Keeps the direct chat messages of every conversation so clients can page back through them with the
+ * {@code history} chat action.
+ * <p>
+ * Messages go to one append-only log of segment files holding
+ * {@code [int length][int crc][long previous][long timestamp][short from length][from][short to length][to][message]}
+ * records, where {@code previous} is the log offset of the conversation's message before it. Each conversation keeps
+ * its latest offset and a sparse index of every {@code indexInterval}th message's timestamp and offset in memory, a
+ * page is read by finding the first indexed message at or after {@code before} and following the previous offsets
+ * back from there. Log reads go through an LRU cache of fixed size blocks, so paging through a conversation someone
+ * just read only goes to the files for the block still being appended to, which is never cached.
+ * <p>
+ * A single writer thread appends in arrival order and publishes a message to readers once it is written. Timestamps
+ * are milliseconds, strictly increasing per conversation so a page's oldest timestamp is an exact cursor for the next.
+ * The log is not forced, history is a convenience and not a delivery guarantee. Once the segments outgrow
+ * {@code maxBytes} the oldest are deleted and conversations lose their oldest messages with them.
+ */
+public class ChatHistory implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger( ChatHistory.class );
+
+    private static final int RECORD_HEADER = Integer.BYTES + Integer.BYTES;
+
+    // previous, timestamp and both name lengths
+    private static final int RECORD_FIXED = Long.BYTES + Long.BYTES + Short.BYTES + Short.BYTES;
+
+    private static final int MAX_BATCH = 1024;
+
+    private static final long NONE = -1;
+
+    private final Path directory;
+    private final long segmentSize;
+    private final long maxBytes;
+    private final int indexInterval;
+    private final int blockSize;
+    private final int maxLimit;
+
+    private final BlockingQueue<Operation> operations;
+
+    // conversation key -> its latest offset and sparse index
+    private final Map<String, Conversation> conversations = new ConcurrentHashMap<>();
+
+    // segment base offset -> segment, the last one is written to
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+
+    private final BlockCache cache;
+
+    private final Counter dropped;
+    private final Counter hits;
+    private final Counter misses;
+    private final Timer reads;
+
+    // offset of the oldest message still in the log
+    private volatile long start;
+
+    // writer thread only
+    private final CRC32C crc = new CRC32C();
+    private final List<Written> unpublished = new ArrayList<>();
+    private ByteBuffer buffer = ByteBuffer.allocate( 64 * 1024 );
+    private Segment active;
+
+    private volatile boolean running;
+
+    private Thread writer;
+
+    public ChatHistory(
+            Path directory, long segmentSize, long maxBytes, int indexInterval, int blockSize, int cacheBlocks, int maxLimit,
+            int queueCapacity, MeterRegistry meterRegistry ) {
+
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxBytes = maxBytes;
+        this.indexInterval = indexInterval;
+        this.blockSize = blockSize;
+        this.maxLimit = maxLimit;
+        this.operations = new LinkedBlockingQueue<>( queueCapacity );
+        this.cache = new BlockCache( cacheBlocks );
+
+        this.dropped = Counter.builder( "tcp.history.dropped" )
+                .description( "Messages not kept because the history writer was behind" )
+                .register( meterRegistry );
+        this.hits = Counter.builder( "tcp.history.cache" )
+                .tag( "result", "hit" )
+                .description( "Log blocks read from the cache or the segment files" )
+                .register( meterRegistry );
+        this.misses = Counter.builder( "tcp.history.cache" )
+                .tag( "result", "miss" )
+                .description( "Log blocks read from the cache or the segment files" )
+                .register( meterRegistry );
+        this.reads = Timer.builder( "tcp.history.read" )
+                .description( "Time to read one page of a conversation" )
+                .register( meterRegistry );
+
+    }
+
+    /**
+     * One message of a conversation.
+     */
+    public record Entry( String from, String message, long timestamp ) { }
+
+    /**
+     * Queue a message for the conversation of its sender and recipient, never blocks.
+     *
+     * @return false if the writer is not keeping up and the message is not kept
+     */
+    public boolean append( String from, String to, String message ) {
+
+        if( !this.operations.offer( new Append( from, to, message, System.currentTimeMillis() ) ) ) {
+
+            this.dropped.increment();
+            log.debug( "append : writer is behind, message from [{}] to [{}] not kept", from, to );
+
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * The latest messages between the two users sent before the timestamp, oldest first.
+     *
+     * @param before exclusive, {@link Long#MAX_VALUE} for the latest messages
+     * @param limit capped at {@code maxLimit}
+     */
+    public List<Entry> history( String user, String with, long before, int limit ) {
+
+        var conversation = this.conversations.get( key( user, with ) );
+        if( conversation == null || limit <= 0 ) {
+
+            return List.of();
+        }
+
+        var started = System.nanoTime();
+        var size = Math.min( limit, this.maxLimit );
+        var page = new ArrayList<Entry>( size );
+        try {
+
+            var offset = conversation.startingAt( before );
+            while( offset >= this.start && page.size() < size ) {
+
+                var record = read( offset );
+                if( record.timestamp() < before ) {
+
+                    page.add( new Entry( record.from(), record.message(), record.timestamp() ) );
+
+                }
+                offset = record.previous();
+
+            }
+
+        } catch( IOException | RuntimeException e ) {
+
+            // the segment was deleted under us, the page ends where the log does
+            log.debug( "history : page between [{}] and [{}] cut short, {}", user, with, e.toString() );
+
+        }
+
+        Collections.reverse( page );
+        this.reads.record( System.nanoTime() - started, TimeUnit.NANOSECONDS );
+
+        return page;
+    }
+
+    /**
+     * Completes once everything queued before it has been written and can be read.
+     */
+    public CompletableFuture<Void> flush() {
+
+        var flush = new Flush( new CompletableFuture<>() );
+        try {
+
+            this.operations.put( flush );
+
+        } catch( InterruptedException e ) {
+
+            Thread.currentThread().interrupt();
+            flush.done().completeExceptionally( e );
+
+        }
+
+        return flush.done();
+    }
+
+    // drops every cached block, for benchmarks of reads that go to the segment files
+    void evictCache() {
+
+        this.cache.clear();
+
+    }
+
+    @Override
+    public void start() {
+
+        try {
+
+            Files.createDirectories( this.directory );
+            load();
+
+        } catch( IOException e ) {
+
+            throw new UncheckedIOException( "could not open chat history at " + this.directory, e );
+        }
+
+        this.running = true;
+        this.writer = Thread.ofPlatform().name( "chat-history-writer" ).start( this::run );
+        log.info( "start : chat history at [{}] holds [{}] conversations", this.directory, this.conversations.size() );
+
+    }
+
+    @Override
+    public void stop() {
+
+        if( this.writer == null ) {
+
+            return;
+        }
+
+        this.running = false;
+        try {
+
+            this.writer.join();
+
+        } catch( InterruptedException e ) {
+
+            Thread.currentThread().interrupt();
+
+        }
+
+        this.segments.values().forEach( Segment::close );
+        this.segments.clear();
+        this.conversations.clear();
+        this.cache.clear();
+
+    }
+
+    @Override
+    public boolean isRunning() {
+
+        return this.running;
+    }
+
+    private void run() {
+
+        var batch = new ArrayList<Operation>( MAX_BATCH );
+        var flushes = new ArrayList<Flush>();
+        while( this.running || !this.operations.isEmpty() ) {
+
+            try {
+
+                var first = this.operations.poll( 100, TimeUnit.MILLISECONDS );
+                if( first == null ) {
+
+                    continue;
+                }
+
+                batch.add( first );
+
+            } catch( InterruptedException e ) {
+
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            this.operations.drainTo( batch, MAX_BATCH - 1 );
+            try {
+
+                for( var operation : batch ) {
+
+                    switch( operation ) {
+                        case Append append -> append( append );
+                        case Flush flush -> flushes.add( flush );
+                    }
+
+                }
+
+                write();
+
+            } catch( IOException | RuntimeException e ) {
+
+                log.error( "run : [{}] history operations failed", batch.size(), e );
+
+                // the next message of these conversations links to the last one actually written
+                this.unpublished.forEach( written -> written.conversation().rewind() );
+                this.buffer.clear();
+                this.unpublished.clear();
+
+            }
+
+            flushes.forEach( flush -> flush.done().complete( null ) );
+
+            batch.clear();
+            flushes.clear();
+
+        }
+
+    }
+
+    private void append( Append append ) throws IOException {
+
+        var conversation = this.conversations.computeIfAbsent( key( append.from(), append.to() ), k -> new Conversation() );
+
+        var from = append.from().getBytes( StandardCharsets.UTF_8 );
+        var to = append.to().getBytes( StandardCharsets.UTF_8 );
+        var message = append.message() == null ? new byte[ 0 ] : append.message().getBytes( StandardCharsets.UTF_8 );
+        var length = RECORD_FIXED + from.length + to.length + message.length;
+
+        // a record never spans two segments
+        var pending = this.active.size + this.buffer.position();
+        if( pending > 0 && pending + RECORD_HEADER + length > this.segmentSize ) {
+
+            write();
+            roll();
+
+        }
+
+        ensure( RECORD_HEADER + length );
+
+        var timestamp = Math.max( append.timestamp(), conversation.lastTimestamp + 1 );
+        var offset = this.active.base + this.active.size + this.buffer.position();
+        var position = this.buffer.position();
+        this.buffer.putInt( length );
+        this.buffer.putInt( 0 );
+        this.buffer.putLong( conversation.lastOffset );
+        this.buffer.putLong( timestamp );
+        this.buffer.putShort( (short) from.length );
+        this.buffer.put( from );
+        this.buffer.putShort( (short) to.length );
+        this.buffer.put( to );
+        this.buffer.put( message );
+
+        this.crc.reset();
+        this.crc.update( this.buffer.array(), position + RECORD_HEADER, length );
+        this.buffer.putInt( position + Integer.BYTES, (int) this.crc.getValue() );
+
+        conversation.lastOffset = offset;
+        conversation.lastTimestamp = timestamp;
+        this.unpublished.add( new Written( conversation, offset, timestamp ) );
+
+    }
+
+    // writes the buffered records and only then lets readers find them
+    private void write() throws IOException {
+
+        this.buffer.flip();
+        while( this.buffer.hasRemaining() ) {
+
+            this.active.size += this.active.channel.write( this.buffer, this.active.size );
+
+        }
+        this.buffer.clear();
+
+        for( var written : this.unpublished ) {
+
+            written.conversation().publish( written.offset(), written.timestamp(), this.indexInterval );
+
+        }
+        this.unpublished.clear();
+
+    }
+
+    private void roll() throws IOException {
+
+        this.active.sealed = true;
+        this.active = Segment.create( this.directory, this.active.base + this.active.size );
+        this.segments.put( this.active.base, this.active );
+
+        var total = 0L;
+        for( var segment : this.segments.values() ) {
+
+            total += segment.size;
+
+        }
+
+        var removed = false;
+        while( total > this.maxBytes && this.segments.size() > 1 ) {
+
+            var oldest = this.segments.pollFirstEntry().getValue();
+            this.start = this.segments.firstKey();
+            total -= oldest.size;
+            oldest.delete();
+            removed = true;
+
+        }
+
+        if( removed ) {
+
+            var start = this.start;
+            this.conversations.values().removeIf( conversation -> conversation.truncate( start ) );
+
+        }
+
+    }
+
+    private void ensure( int length ) {
+
+        if( this.buffer.remaining() < length ) {
+
+            var larger = ByteBuffer.allocate( Math.max( this.buffer.capacity() * 2, this.buffer.position() + length ) );
+            this.buffer = larger.put( this.buffer.flip() );
+
+        }
+
+    }
+
+    private Record read( long offset ) throws IOException {
+
+        var segment = this.segments.floorEntry( offset ).getValue();
+        var position = offset - segment.base;
+
+        var header = new byte[ RECORD_HEADER ];
+        read( segment, position, header, header.length );
+        var length = ByteBuffer.wrap( header ).getInt();
+
+        var body = new byte[ length ];
+        read( segment, position + RECORD_HEADER, body, length );
+
+        var record = ByteBuffer.wrap( body );
+        var previous = record.getLong();
+        var timestamp = record.getLong();
+        var fromLength = record.getShort();
+        var from = new String( body, record.position(), fromLength, StandardCharsets.UTF_8 );
+        record.position( record.position() + fromLength );
+        var toLength = record.getShort();
+        record.position( record.position() + toLength );
+        var message = new String( body, record.position(), record.remaining(), StandardCharsets.UTF_8 );
+
+        return new Record( previous, timestamp, from, message );
+    }
+
+    // copies bytes of a segment out of the blocks they fall into
+    private void read( Segment segment, long position, byte[] target, int length ) throws IOException {
+
+        var copied = 0;
+        while( copied < length ) {
+
+            var index = ( position + copied ) / this.blockSize;
+            var block = block( segment, index );
+            var from = (int) ( position + copied - index * this.blockSize );
+            var count = Math.min( length - copied, block.length - from );
+            if( count <= 0 ) {
+
+                throw new IOException( "record at " + ( segment.base + position ) + " runs past the end of the log" );
+            }
+
+            System.arraycopy( block, from, target, copied, count );
+            copied += count;
+
+        }
+
+    }
+
+    private byte[] block( Segment segment, long index ) throws IOException {
+
+        var key = segment.base + index * this.blockSize;
+        var block = this.cache.get( key );
+        if( block != null ) {
+
+            this.hits.increment();
+
+            return block;
+        }
+
+        this.misses.increment();
+
+        // a block still being appended to is read but not cached, sealed first so the size read after it is final
+        var sealed = segment.sealed;
+        var size = segment.size;
+        var position = index * this.blockSize;
+        block = new byte[ (int) Math.min( this.blockSize, size - position ) ];
+        var target = ByteBuffer.wrap( block );
+        while( target.hasRemaining() ) {
+
+            if( segment.channel.read( target, position + target.position() ) < 0 ) {
+
+                throw new IOException( "segment " + segment.path + " ended early" );
+            }
+
+        }
+
+        if( block.length == this.blockSize || sealed ) {
+
+            this.cache.put( key, block );
+
+        }
+
+        return block;
+    }
+
+    // rebuild the conversations from the segments left by the last run
+    private void load() throws IOException {
+
+        List<Path> paths;
+        try( Stream<Path> files = Files.list( this.directory ) ) {
+
+            paths = files.filter( p -> p.getFileName().toString().endsWith( ".log" ) ).sorted().toList();
+
+        }
+
+        for( var path : paths ) {
+
+            var segment = Segment.open( path );
+            if( this.active != null ) {
+
+                this.active.sealed = true;
+
+            }
+            this.segments.put( segment.base, segment );
+            this.active = segment;
+            scan( segment );
+
+        }
+
+        if( this.active == null ) {
+
+            this.active = Segment.create( this.directory, 0 );
+            this.segments.put( this.active.base, this.active );
+
+        }
+
+        this.start = this.segments.firstKey();
+
+    }
+
+    // indexes every intact record, a torn or corrupt tail is cut off
+    private void scan( Segment segment ) throws IOException {
+
+        var fileSize = segment.channel.size();
+        var input = ByteBuffer.allocate( 1024 * 1024 );
+        var position = 0L;
+        var header = ByteBuffer.allocate( RECORD_HEADER );
+        while( position + RECORD_HEADER <= fileSize ) {
+
+            header.clear();
+            segment.channel.read( header, position );
+            var length = header.getInt( 0 );
+            if( length < RECORD_FIXED || position + RECORD_HEADER + length > fileSize ) {
+
+                break;
+            }
+
+            if( input.capacity() < length ) {
+
+                input = ByteBuffer.allocate( length );
+
+            }
+            input.clear().limit( length );
+            while( input.hasRemaining() ) {
+
+                segment.channel.read( input, position + RECORD_HEADER + input.position() );
+
+            }
+
+            this.crc.reset();
+            this.crc.update( input.array(), 0, length );
+            if( (int) this.crc.getValue() != header.getInt( Integer.BYTES ) ) {
+
+                break;
+            }
+
+            var timestamp = input.getLong( Long.BYTES );
+            var fromLength = input.getShort( RECORD_FIXED - Short.BYTES - Short.BYTES );
+            var from = new String( input.array(), RECORD_FIXED - Short.BYTES, fromLength, StandardCharsets.UTF_8 );
+            var toLength = input.getShort( RECORD_FIXED - Short.BYTES + fromLength );
+            var to = new String( input.array(), RECORD_FIXED + fromLength, toLength, StandardCharsets.UTF_8 );
+
+            var conversation = this.conversations.computeIfAbsent( key( from, to ), k -> new Conversation() );
+            conversation.lastOffset = segment.base + position;
+            conversation.lastTimestamp = timestamp;
+            conversation.publish( segment.base + position, timestamp, this.indexInterval );
+
+            position += RECORD_HEADER + length;
+
+        }
+
+        if( position < fileSize ) {
+
+            log.warn( "load : [{}] bytes past the last intact record of [{}] cut off", fileSize - position, segment.path );
+            segment.channel.truncate( position );
+
+        }
+        segment.size = position;
+
+    }
+
+    // both directions of a conversation share one key
+    static String key( String user, String with ) {
+
+        return user.compareTo( with ) <= 0 ? user + '\u0000' + with : with + '\u0000' + user;
+    }
+
+    sealed interface Operation permits Append, Flush { }
+
+    record Append( String from, String to, String message, long timestamp ) implements Operation { }
+
+    record Flush( CompletableFuture<Void> done ) implements Operation { }
+
+    record Written( Conversation conversation, long offset, long timestamp ) { }
+
+    record Record( long previous, long timestamp, String from, String message ) { }
+
+    /**
+     * The latest offset and the sparse index of one conversation. The writer publishes written messages,
+     * readers look up where a page starts.
+     */
+    static final class Conversation {
+
+        // writer thread only, may be ahead of what is published
+        long lastOffset = NONE;
+        long lastTimestamp = Long.MIN_VALUE;
+
+        private long tail = NONE;
+        private int count;
+
+        // every indexInterval'th message, timestamps ascending
+        private long[] timestamps = new long[ 4 ];
+        private long[] offsets = new long[ 4 ];
+        private int indexed;
+
+        synchronized void publish( long offset, long timestamp, int indexInterval ) {
+
+            if( this.count % indexInterval == 0 ) {
+
+                if( this.indexed == this.timestamps.length ) {
+
+                    this.timestamps = Arrays.copyOf( this.timestamps, this.indexed * 2 );
+                    this.offsets = Arrays.copyOf( this.offsets, this.indexed * 2 );
+
+                }
+
+                this.timestamps[ this.indexed ] = timestamp;
+                this.offsets[ this.indexed ] = offset;
+                this.indexed++;
+
+            }
+
+            this.tail = offset;
+            this.count++;
+
+        }
+
+        // the offset to walk back from, at most indexInterval messages before one older than the timestamp
+        synchronized long startingAt( long before ) {
+
+            var low = 0;
+            var high = this.indexed;
+            while( low < high ) {
+
+                var middle = ( low + high ) >>> 1;
+                if( this.timestamps[ middle ] < before ) {
+
+                    low = middle + 1;
+
+                } else {
+
+                    high = middle;
+
+                }
+
+            }
+
+            return low == this.indexed ? this.tail : this.offsets[ low ];
+        }
+
+        synchronized void rewind() {
+
+            this.lastOffset = this.tail;
+
+        }
+
+        // drops index entries below the log's new start, true once nothing of the conversation is left
+        synchronized boolean truncate( long start ) {
+
+            if( this.tail < start ) {
+
+                return true;
+            }
+
+            var first = 0;
+            while( first < this.indexed && this.offsets[ first ] < start ) {
+
+                first++;
+
+            }
+
+            if( first > 0 ) {
+
+                System.arraycopy( this.timestamps, first, this.timestamps, 0, this.indexed - first );
+                System.arraycopy( this.offsets, first, this.offsets, 0, this.indexed - first );
+                this.indexed -= first;
+
+            }
+
+            return false;
+        }
+
+    }
+
+    /**
+     * One segment file, named after the log offset of its first byte.
+     */
+    static final class Segment {
+
+        private final Path path;
+
+        private final long base;
+
+        private final FileChannel channel;
+
+        // written by the writer thread, read by readers to bound their reads
+        private volatile long size;
+
+        private volatile boolean sealed;
+
+        private Segment( Path path, long base, FileChannel channel ) {
+
+            this.path = path;
+            this.base = base;
+            this.channel = channel;
+
+        }
+
+        static Segment create( Path directory, long base ) throws IOException {
+
+            return open( directory.resolve( "%020d.log".formatted( base ) ) );
+        }
+
+        static Segment open( Path path ) throws IOException {
+
+            var name = path.getFileName().toString();
+            var channel = FileChannel.open( path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE );
+
+            return new Segment( path, Long.parseLong( name.substring( 0, name.indexOf( '.' ) ) ), channel );
+        }
+
+        void close() {
+
+            try {
+
+                this.channel.close();
+
+            } catch( IOException e ) {
+
+                log.warn( "close : could not close [{}]", this.path, e );
+
+            }
+
+        }
+
+        void delete() {
+
+            close();
+            try {
+
+                Files.deleteIfExists( this.path );
+
+            } catch( IOException e ) {
+
+                log.warn( "delete : could not remove [{}]", this.path, e );
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Recently read blocks of the log by their offset, least recently read evicted first.
+     */
+    static final class BlockCache {
+
+        private final LinkedHashMap<Long, byte[]> blocks;
+
+        BlockCache( int capacity ) {
+
+            this.blocks = new LinkedHashMap<>( 16, 0.75f, true ) {
+
+                @Override
+                protected boolean removeEldestEntry( Map.Entry<Long, byte[]> eldest ) {
+
+                    return size() > capacity;
+                }
+
+            };
+
+        }
+
+        synchronized byte[] get( long offset ) {
+
+            return this.blocks.get( offset );
+        }
+
+        synchronized void put( long offset, byte[] block ) {
+
+            this.blocks.put( offset, block );
+
+        }
+
+        synchronized void clear() {
+
+            this.blocks.clear();
+
+        }
+
+    }
+
+}
@@ -4,108 +4,203 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
+import java.util.Collections;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 @Component
-public class ClientService {
+public class ClientService implements SessionDirectory {
 
     private static final Logger log = LoggerFactory.getLogger( ClientService.class );
 
+    private static final String NOT_LOGGED_IN = "";
+
     // could be database
+    // connectionId -> username ("" until the connection logs in)
     private final Map<String, String> clientUsernames = new ConcurrentHashMap<>();
 
+    // username -> connectionId, the reverse of clientUsernames for logged in connections only
+    private final Map<String, String> usernameConnections = new ConcurrentHashMap<>();
+
+    // Lookups are lock free, every mutation touching both maps holds this lock so the two indexes
+    // never disagree. A ReentrantLock rather than synchronized keeps virtual threads from pinning.
+    private final Lock sessionLock = new ReentrantLock();
+
+    @Override
     public void registerConnection( String connectionId ) {
 
-        if( !this.clientUsernames.containsKey( connectionId ) ) {
+        if( this.clientUsernames.putIfAbsent( connectionId, NOT_LOGGED_IN ) == null ) {
 
-            this.clientUsernames.put( connectionId, "" );
-            log.info( "registerConnection : client [{}] registered!", connectionId );
+            log.debug( "registerConnection : client [{}] registered!", connectionId );
 
         } else {
 
-            log.info( "registerConnection : client [{}] already registered!", connectionId );
+            log.debug( "registerConnection : client [{}] already registered!", connectionId );
         }
 
     }
 
+    @Override
     public void removeConnection( String connectionId ) {
 
-        if( this.clientUsernames.containsKey( connectionId ) ) {
+        this.sessionLock.lock();
+        try {
 
-            this.clientUsernames.remove( connectionId );
-            log.info( "removeConnection : client [{}] unregistered!", connectionId );
+            var username = this.clientUsernames.remove( connectionId );
+            if( username != null ) {
 
-        } else {
+                if( !username.isEmpty() ) {
 
-            log.info( "removeConnection : client [{}] not found!", connectionId );
+                    this.usernameConnections.remove( username, connectionId );
 
-        }
+                }
+
+                log.debug( "removeConnection : client [{}] unregistered!", connectionId );
 
+            } else {
+
+                log.debug( "removeConnection : client [{}] not found!", connectionId );
+
+            }
+
+        } finally {
+
+            this.sessionLock.unlock();
+        }
 
     }
 
-    public boolean login( String connectionId, String username ) {
+    @Override
+    public Login login( String connectionId, String username ) {
 
-        if( this.clientUsernames.containsKey( connectionId ) ) {
+        if( username == null || username.isEmpty() ) {
 
-            this.clientUsernames.put( connectionId, username );
-            log.info( "login : user [{}] logged in at connectionId [{}]!", username, connectionId );
+            log.debug( "login : client [{}] sent an empty username!", connectionId );
 
-            return true;
+            return Login.FAILED;
+        }
 
-        } else {
+        this.sessionLock.lock();
+        try {
+
+            var current = this.clientUsernames.get( connectionId );
+            if( current == null ) {
+
+                log.debug( "login : client [{}] not connected for user [{}]!", connectionId, username );
+
+                return Login.FAILED;
+            }
+
+            // the connection switches users, release the previous name
+            if( !current.isEmpty() && !current.equals( username ) ) {
+
+                this.usernameConnections.remove( current, connectionId );
+
+            }
+
+            // the same user logged in elsewhere, the latest login wins and the old connection is logged out
+            var previousConnectionId = this.usernameConnections.put( username, connectionId );
+            if( previousConnectionId != null && !previousConnectionId.equals( connectionId ) ) {
 
-            log.info( "login : client [{}] not connected for user [{}]!", connectionId, username );
+                this.clientUsernames.replace( previousConnectionId, username, NOT_LOGGED_IN );
+                log.debug( "login : user [{}] moved from connectionId [{}]!", username, previousConnectionId );
 
-            return false;
+            }
+
+            this.clientUsernames.put( connectionId, username );
+            log.debug( "login : user [{}] logged in at connectionId [{}]!", username, connectionId );
+
+            return new Login( true, current.isEmpty() ? null : current, previousConnectionId != null );
+
+        } finally {
+
+            this.sessionLock.unlock();
         }
 
     }
 
+    @Override
     public boolean logout( String connectionId, String username ) {
 
-        if( this.clientUsernames.containsKey( connectionId ) ) {
+        this.sessionLock.lock();
+        try {
 
-            this.clientUsernames.put( connectionId, "" );
-            log.info( "logout : user [{}] logged out at connectionId [{}]!", username, connectionId );
+            var current = this.clientUsernames.get( connectionId );
+            if( current == null ) {
 
-            return true;
+                log.debug( "logout : client [{}] not connected for user [{}]!", connectionId, username );
 
-        } else {
+                return false;
+            }
+
+            if( current.isEmpty() || !current.equals( username ) ) {
+
+                log.debug( "logout : user [{}] is not logged in at connectionId [{}]!", username, connectionId );
+
+                return false;
+            }
+
+            this.usernameConnections.remove( username, connectionId );
+            this.clientUsernames.put( connectionId, NOT_LOGGED_IN );
+            log.debug( "logout : user [{}] logged out at connectionId [{}]!", username, connectionId );
 
-            log.info( "logout : client [{}] not connected for user [{}]!", connectionId, username );
+            return true;
+
+        } finally {
 
-            return false;
+            this.sessionLock.unlock();
         }
 
     }
 
+    @Override
     public Optional<String> getConnection( String username ) {
 
-        return this.clientUsernames.entrySet().stream()
-                .filter( e -> e.getValue().equals( username ) )
-                .map( Map.Entry::getKey )
-                .findFirst();
+        return Optional.ofNullable( this.usernameConnections.get( username ) );
+    }
+
+    @Override
+    public Optional<String> getUsername( String connectionId ) {
+
+        return Optional.ofNullable( this.clientUsernames.get( connectionId ) )
+                .filter( username -> !username.isEmpty() );
+    }
+
+    @Override
+    public int getConnectionCount() {
+
+        return this.clientUsernames.size();
+    }
+
+    @Override
+    public int getLoggedInCount() {
+
+        return this.usernameConnections.size();
     }
 
-    public Optional<String> getUsername(String connectionId ) {
+    /**
+     * A live view of the users logged in at this node.
+     */
+    @Override
+    public Set<String> getLoggedInUsers() {
 
-        return this.clientUsernames.entrySet().stream()
-                .filter( e -> e.getKey().equals( connectionId ) )
-                .map( Map.Entry::getValue )
-                .findFirst();
+        return Collections.unmodifiableSet( this.usernameConnections.keySet() );
     }
 
+    @Override
     public boolean isClientConnected( String connectionId ) {
 
         return this.clientUsernames.containsKey( connectionId );
     }
 
+    @Override
     public boolean isUserLoggedIn( String username ) {
 
-        return this.clientUsernames.containsValue( username );
+        return this.usernameConnections.containsKey( username );
     }
 
 }
@@ -0,0 +1,231 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One frame on the link between cluster nodes, the sending node followed by a batch of entries:
+ * {@code [utf node] ([byte kind][entry])*}. Strings are written with {@link DataOutputStream#writeUTF}, chat frames
+ * as {@code [utf to][int length][bytes]}. The transport adds its own length header.
+ * <p>
+ * On the link every frame is sealed with the shared secret: {@code [long epoch][long sequence][frame][mac]}, the
+ * HMAC-SHA256 covering all that precedes it, see {@link #seal} and {@link #unseal}. The epoch and sequence let the
+ * receiver refuse a recorded frame played back at it.
+ */
+public record ClusterFrame( String node, List<ClusterFrame.Entry> entries ) {
+
+    public sealed interface Entry permits Online, Offline, Reset, Chat { }
+
+    // the sending node logged the user in
+    public record Online( String username ) implements Entry { }
+
+    // the sending node logged the user out
+    public record Offline( String username ) implements Entry { }
+
+    // forget every user of the sending node, a snapshot of Online entries follows
+    public record Reset() implements Entry { }
+
+    // a chat reply for a user logged in at the receiving node, already encoded for the client
+    public record Chat( String to, byte[] frame ) implements Entry { }
+
+    /**
+     * Where a frame was sealed in its sender's stream.
+     *
+     * @param epoch when the sending node started, a restarted node starts a later epoch
+     * @param sequence counts up from 1 on each link within an epoch
+     */
+    public record Position( long epoch, long sequence ) {
+
+        /**
+         * @return whether this position was sealed after the other one, frames that are not are replays
+         */
+        public boolean follows( Position other ) {
+
+            return this.epoch > other.epoch || this.epoch == other.epoch && this.sequence > other.sequence;
+        }
+
+    }
+
+    // an opened frame with the position its sender sealed it at
+    public record Sealed( Position position, byte[] frame ) { }
+
+    public static final Reset RESET = new Reset();
+
+    private static final byte ONLINE = 1;
+    private static final byte OFFLINE = 2;
+    private static final byte RESET_KIND = 3;
+    private static final byte CHAT = 4;
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int MAC_LENGTH = 32;
+    private static final int POSITION_LENGTH = 2 * Long.BYTES;
+
+    public static SecretKeySpec secret( String value ) {
+
+        return new SecretKeySpec( value.getBytes( StandardCharsets.UTF_8 ), MAC_ALGORITHM );
+    }
+
+    /**
+     * @return the position and encoded frame followed by their HMAC under the secret
+     */
+    public static byte[] seal( byte[] frame, Position position, SecretKeySpec secret ) {
+
+        var sealed = new byte[ POSITION_LENGTH + frame.length + MAC_LENGTH ];
+        ByteBuffer.wrap( sealed )
+                .putLong( position.epoch() )
+                .putLong( position.sequence() )
+                .put( frame );
+
+        var mac = mac( secret );
+        mac.update( sealed, 0, POSITION_LENGTH + frame.length );
+        try {
+
+            mac.doFinal( sealed, POSITION_LENGTH + frame.length );
+
+        } catch( GeneralSecurityException e ) {
+
+            throw new IllegalStateException( e );
+        }
+
+        return sealed;
+    }
+
+    /**
+     * @return the encoded frame without its HMAC, with the position it was sealed at
+     * @throws IllegalArgumentException if the frame was not sealed with the secret
+     */
+    public static Sealed unseal( byte[] sealed, SecretKeySpec secret ) {
+
+        if( sealed.length < POSITION_LENGTH + MAC_LENGTH ) {
+
+            throw new IllegalArgumentException( "cluster frame is shorter than its position and mac" );
+        }
+
+        var length = sealed.length - MAC_LENGTH;
+        var mac = mac( secret );
+        mac.update( sealed, 0, length );
+        if( !MessageDigest.isEqual( mac.doFinal(), Arrays.copyOfRange( sealed, length, sealed.length ) ) ) {
+
+            throw new IllegalArgumentException( "cluster frame is not signed with the shared secret" );
+        }
+
+        var position = ByteBuffer.wrap( sealed );
+
+        return new Sealed( new Position( position.getLong(), position.getLong() ), Arrays.copyOfRange( sealed, POSITION_LENGTH, length ) );
+    }
+
+    private static Mac mac( SecretKeySpec secret ) {
+
+        try {
+
+            var mac = Mac.getInstance( MAC_ALGORITHM );
+            mac.init( secret );
+
+            return mac;
+        } catch( GeneralSecurityException e ) {
+
+            throw new IllegalStateException( e );
+        }
+
+    }
+
+    public byte[] encode() {
+
+        var bytes = new ByteArrayOutputStream( 64 * this.entries.size() + 32 );
+        try( var out = new DataOutputStream( bytes ) ) {
+
+            out.writeUTF( this.node );
+            for( var entry : this.entries ) {
+
+                switch( entry ) {
+                    case Online online -> {
+
+                        out.writeByte( ONLINE );
+                        out.writeUTF( online.username() );
+
+                    }
+                    case Offline offline -> {
+
+                        out.writeByte( OFFLINE );
+                        out.writeUTF( offline.username() );
+
+                    }
+                    case Reset reset -> out.writeByte( RESET_KIND );
+                    case Chat chat -> {
+
+                        out.writeByte( CHAT );
+                        out.writeUTF( chat.to() );
+                        out.writeInt( chat.frame().length );
+                        out.write( chat.frame() );
+
+                    }
+                }
+
+            }
+
+        } catch( IOException e ) {
+
+            throw new UncheckedIOException( e );
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the bytes are not a complete frame
+     */
+    public static ClusterFrame decode( byte[] bytes ) {
+
+        try( var in = new DataInputStream( new ByteArrayInputStream( bytes ) ) ) {
+
+            var node = in.readUTF();
+            var entries = new ArrayList<Entry>();
+            while( in.available() > 0 ) {
+
+                var kind = in.readByte();
+                switch( kind ) {
+                    case ONLINE -> entries.add( new Online( in.readUTF() ) );
+                    case OFFLINE -> entries.add( new Offline( in.readUTF() ) );
+                    case RESET_KIND -> entries.add( RESET );
+                    case CHAT -> {
+
+                        var to = in.readUTF();
+                        var length = in.readInt();
+                        if( length < 0 || length > in.available() ) {
+
+                            throw new IllegalArgumentException( "chat entry length [" + length + "] exceeds the frame" );
+                        }
+
+                        var frame = new byte[ length ];
+                        in.readFully( frame );
+                        entries.add( new Chat( to, frame ) );
+
+                    }
+                    default -> throw new IllegalArgumentException( "unknown cluster entry kind [" + kind + "]" );
+                }
+
+            }
+
+            return new ClusterFrame( node, entries );
+
+        } catch( IOException e ) {
+
+            throw new IllegalArgumentException( "truncated cluster frame", e );
+        }
+
+    }
+
+}
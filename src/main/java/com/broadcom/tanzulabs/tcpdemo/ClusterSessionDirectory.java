@@ -0,0 +1,707 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.integration.ip.IpHeaders;
+import org.springframework.integration.ip.tcp.connection.TcpConnection;
+import org.springframework.integration.ip.tcp.connection.TcpConnectionCloseEvent;
+import org.springframework.integration.ip.tcp.connection.TcpListener;
+import org.springframework.integration.ip.tcp.connection.TcpNetClientConnectionFactory;
+import org.springframework.integration.ip.tcp.connection.TcpNetServerConnectionFactory;
+import org.springframework.integration.ip.tcp.serializer.ByteArrayLengthHeaderSerializer;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.GenericMessage;
+import org.springframework.messaging.support.MessageBuilder;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * A {@link SessionDirectory} spanning several nodes. Sessions stay in the local {@link ClientService}. Logins and
+ * logouts are announced to every peer so each node knows where remote users are connected, and chat for a remote
+ * user is forwarded to its node, which delivers it through {@code deliveryChannel}.
+ * <p>
+ * The nodes form a full mesh over Spring Integration IP with length-prefixed {@link ClusterFrame}s: every node
+ * listens on its cluster port and keeps one outbound connection per peer. A virtual thread per peer drains that
+ * peer's queue into frames of up to {@code maxBatch} entries. Every new outbound connection starts with a snapshot of
+ * the local users, so a restarted peer catches up without further bookkeeping, and when a peer's inbound connection
+ * closes everything known about it is dropped.
+ * <p>
+ * Offline messages stay on the node that stored them. A user logged in on two nodes stays logged in on both, each
+ * node delivers to its own session.
+ */
+public class ClusterSessionDirectory implements SessionDirectory, TcpListener, SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger( ClusterSessionDirectory.class );
+
+    /**
+     * The recipient of a forwarded chat frame on {@code deliveryChannel}.
+     */
+    public static final String TO_HEADER = "to";
+
+    private static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    private static final long RECONNECT_INTERVAL_MILLIS = 1000;
+
+    private final String nodeId;
+    private final String bindAddress;
+    private final int port;
+    private final int queueCapacity;
+    private final int maxBatch;
+
+    // signs and checks every frame on the links
+    private final SecretKeySpec secret;
+
+    // sealed into every frame this node sends, frames from an earlier run of a node come with an earlier epoch
+    private final long epoch = System.currentTimeMillis();
+
+    private final ClientService local;
+
+    private final MessageChannel deliveryChannel;
+
+    // node -> outbound link
+    private final Map<String, Peer> peers;
+
+    // username -> nodes, users logged in at other nodes, a user may be logged in at several of them
+    private final Map<String, Set<String>> remoteUsers = new ConcurrentHashMap<>();
+
+    // inbound connectionId -> node, learned from the first frame on the connection
+    private final Map<String, String> inboundNodes = new ConcurrentHashMap<>();
+
+    // node -> the last frame taken from it, kept when its links close so a recording cannot be played back later
+    private final Map<String, ClusterFrame.Position> received = new ConcurrentHashMap<>();
+
+    private final Counter forwarded;
+    private final Counter lost;
+
+    private volatile Consumer<String> remoteLoginListener = username -> {};
+
+    private volatile boolean running;
+
+    private TcpNetServerConnectionFactory server;
+
+    /**
+     * @param bindAddress the interface the cluster port listens on, empty for all of them
+     * @param peers the other nodes by node id, see {@link #peers(String)}
+     * @param secret shared by every node, required as the links are plaintext
+     * @throws IllegalArgumentException if the secret is empty
+     */
+    public ClusterSessionDirectory(
+            String nodeId, String bindAddress, int port, Map<String, InetSocketAddress> peers, String secret, int queueCapacity,
+            int maxBatch, ClientService local, MessageChannel deliveryChannel, MeterRegistry meterRegistry ) {
+
+        if( secret == null || secret.isEmpty() ) {
+
+            throw new IllegalArgumentException( "tcp.cluster.secret must be set, without it any host reaching the cluster port can announce users and inject chat" );
+        }
+
+        this.nodeId = nodeId;
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.secret = ClusterFrame.secret( secret );
+        this.queueCapacity = queueCapacity;
+        this.maxBatch = maxBatch;
+        this.local = local;
+        this.deliveryChannel = deliveryChannel;
+
+        var links = new LinkedHashMap<String, Peer>();
+        peers.forEach( ( node, address ) -> {
+
+            if( !node.equals( nodeId ) ) {
+
+                links.put( node, new Peer( node, address ) );
+
+            }
+
+        });
+        this.peers = links;
+
+        Gauge.builder( "tcp.cluster.remote-users", this.remoteUsers, Map::size )
+                .description( "Users logged in at other nodes" )
+                .register( meterRegistry );
+        this.forwarded = Counter.builder( "tcp.cluster.forwarded" )
+                .description( "Chat messages queued for another node" )
+                .register( meterRegistry );
+        this.lost = Counter.builder( "tcp.cluster.lost" )
+                .description( "Forwarded chat messages lost with a failed link" )
+                .register( meterRegistry );
+
+    }
+
+    /**
+     * Parses {@code node-b=host:port,node-c=host:port}.
+     */
+    public static Map<String, InetSocketAddress> peers( String value ) {
+
+        var peers = new LinkedHashMap<String, InetSocketAddress>();
+        Arrays.stream( value.split( "," ) )
+                .map( String::trim )
+                .filter( peer -> !peer.isEmpty() )
+                .forEach( peer -> {
+
+                    var separator = peer.indexOf( '=' );
+                    var colon = peer.lastIndexOf( ':' );
+                    if( separator < 1 || colon < separator ) {
+
+                        throw new IllegalArgumentException( "cluster peer [" + peer + "] is not node=host:port" );
+                    }
+
+                    peers.put(
+                            peer.substring( 0, separator ),
+                            InetSocketAddress.createUnresolved( peer.substring( separator + 1, colon ), Integer.parseInt( peer.substring( colon + 1 ) ) ) );
+
+                });
+
+        return peers;
+    }
+
+    @Override
+    public void registerConnection( String connectionId ) {
+
+        this.local.registerConnection( connectionId );
+
+    }
+
+    @Override
+    public void removeConnection( String connectionId ) {
+
+        var username = this.local.getUsername( connectionId );
+        this.local.removeConnection( connectionId );
+        username.ifPresent( this::announceIfGone );
+
+    }
+
+    @Override
+    public Login login( String connectionId, String username ) {
+
+        var login = this.local.login( connectionId, username );
+        if( !login.succeeded() ) {
+
+            return login;
+        }
+
+        var wasOnline = login.wasOnline() || this.remoteUsers.containsKey( username );
+        if( login.previous() != null && !login.previous().equals( username ) ) {
+
+            announceIfGone( login.previous() );
+
+        }
+        announce( new ClusterFrame.Online( username ) );
+
+        return new Login( true, login.previous(), wasOnline );
+    }
+
+    @Override
+    public boolean logout( String connectionId, String username ) {
+
+        if( !this.local.logout( connectionId, username ) ) {
+
+            return false;
+        }
+
+        announceIfGone( username );
+
+        return true;
+    }
+
+    @Override
+    public Optional<String> getConnection( String username ) {
+
+        return this.local.getConnection( username );
+    }
+
+    @Override
+    public Optional<String> getUsername( String connectionId ) {
+
+        return this.local.getUsername( connectionId );
+    }
+
+    @Override
+    public int getConnectionCount() {
+
+        return this.local.getConnectionCount();
+    }
+
+    @Override
+    public Set<String> getLoggedInUsers() {
+
+        return this.local.getLoggedInUsers();
+    }
+
+    @Override
+    public int getLoggedInCount() {
+
+        return this.local.getLoggedInCount();
+    }
+
+    @Override
+    public boolean isClientConnected( String connectionId ) {
+
+        return this.local.isClientConnected( connectionId );
+    }
+
+    @Override
+    public boolean isUserLoggedIn( String username ) {
+
+        return this.local.isUserLoggedIn( username ) || this.remoteUsers.containsKey( username );
+    }
+
+    /**
+     * @return the other nodes the user is logged in at, empty for local and unknown users
+     */
+    public Set<String> getNodes( String username ) {
+
+        var nodes = this.remoteUsers.get( username );
+
+        return nodes != null ? Set.copyOf( nodes ) : Set.of();
+    }
+
+    // every node the user is logged in at delivers to its own session
+    @Override
+    public boolean forward( String username, byte[] frame ) {
+
+        var queued = false;
+        for( var node : getNodes( username ) ) {
+
+            var peer = this.peers.get( node );
+            if( peer == null || !peer.queue.offer( new ClusterFrame.Chat( username, frame ) ) ) {
+
+                log.debug( "forward : user [{}] not reachable at node [{}]", username, node );
+                continue;
+            }
+
+            this.forwarded.increment();
+            queued = true;
+
+        }
+
+        return queued;
+    }
+
+    /**
+     * Told the name of every user another node announces as logged in, on the thread reading the cluster link.
+     */
+    public void setRemoteLoginListener( Consumer<String> remoteLoginListener ) {
+
+        this.remoteLoginListener = remoteLoginListener;
+
+    }
+
+    public String getNodeId() {
+
+        return this.nodeId;
+    }
+
+    public int getPort() {
+
+        return this.server != null ? this.server.getPort() : this.port;
+    }
+
+    public boolean isListening() {
+
+        return this.server != null && this.server.isListening();
+    }
+
+    // the user may still be logged in at another local connection
+    private void announceIfGone( String username ) {
+
+        if( !this.local.isUserLoggedIn( username ) ) {
+
+            announce( new ClusterFrame.Offline( username ) );
+
+        }
+
+    }
+
+    private void announce( ClusterFrame.Entry entry ) {
+
+        for( var peer : this.peers.values() ) {
+
+            // a lost presence change is repaired by sending the peer a new snapshot
+            if( !peer.queue.offer( entry ) ) {
+
+                peer.resync = true;
+
+            }
+
+        }
+
+    }
+
+    // frames from the other nodes
+    @Override
+    public boolean onMessage( Message<?> message ) {
+
+        var connectionId = message.getHeaders().get( IpHeaders.CONNECTION_ID, String.class );
+        ClusterFrame frame;
+        try {
+
+            var sealed = ClusterFrame.unseal( (byte[]) message.getPayload(), this.secret );
+            frame = ClusterFrame.decode( sealed.frame() );
+            accept( frame.node(), sealed.position() );
+
+        } catch( RuntimeException e ) {
+
+            // whoever sent it is not one of ours, not speaking the protocol or replaying, either way it is not heard again
+            log.warn( "onMessage : discarded a malformed, unsigned or replayed cluster frame, closing connection [{}]", connectionId, e );
+            if( connectionId != null ) {
+
+                this.server.closeConnection( connectionId );
+
+            }
+
+            return false;
+        }
+
+        if( connectionId != null ) {
+
+            this.inboundNodes.put( connectionId, frame.node() );
+
+        }
+
+        for( var entry : frame.entries() ) {
+
+            switch( entry ) {
+                case ClusterFrame.Online online -> {
+
+                    joined( online.username(), frame.node() );
+                    this.remoteLoginListener.accept( online.username() );
+
+                }
+                case ClusterFrame.Offline offline -> left( offline.username(), frame.node() );
+                case ClusterFrame.Reset reset -> forget( frame.node() );
+                case ClusterFrame.Chat chat -> deliver( chat );
+            }
+
+        }
+
+        return false;
+    }
+
+    private void accept( String node, ClusterFrame.Position position ) {
+
+        var last = this.received.compute( node, ( key, previous ) -> previous == null || position.follows( previous ) ? position : previous );
+        if( last != position ) {
+
+            throw new IllegalArgumentException( "cluster frame " + position + " from node [" + node + "] is not after " + last );
+        }
+
+    }
+
+    private void deliver( ClusterFrame.Chat chat ) {
+
+        try {
+
+            this.deliveryChannel.send( MessageBuilder.withPayload( chat.frame() ).setHeader( TO_HEADER, chat.to() ).build() );
+
+        } catch( RuntimeException e ) {
+
+            log.debug( "deliver : forwarded message for user [{}] not delivered", chat.to(), e );
+
+        }
+
+    }
+
+    private void joined( String username, String node ) {
+
+        this.remoteUsers.compute( username, ( key, nodes ) -> {
+
+            var joined = nodes != null ? nodes : ConcurrentHashMap.<String>newKeySet();
+            joined.add( node );
+
+            return joined;
+        });
+
+    }
+
+    // only the announcing node is dropped, the user is forgotten once no node has it
+    private void left( String username, String node ) {
+
+        this.remoteUsers.computeIfPresent( username, ( key, nodes ) -> {
+
+            nodes.remove( node );
+
+            return nodes.isEmpty() ? null : nodes;
+        });
+
+    }
+
+    private void forget( String node ) {
+
+        this.remoteUsers.keySet().forEach( username -> left( username, node ) );
+
+    }
+
+    private void onEvent( Object event ) {
+
+        if( event instanceof TcpConnectionCloseEvent close ) {
+
+            var node = this.inboundNodes.remove( close.getConnectionId() );
+            if( node != null ) {
+
+                log.info( "onEvent : node [{}] disconnected, its users are no longer reachable", node );
+                forget( node );
+
+            }
+
+        }
+
+    }
+
+    @Override
+    public void start() {
+
+        this.server = new TcpNetServerConnectionFactory( this.port );
+        if( !this.bindAddress.isEmpty() ) {
+
+            this.server.setLocalAddress( this.bindAddress );
+
+        }
+        this.server.setSerializer( serializer() );
+        this.server.setDeserializer( serializer() );
+        this.server.setTaskExecutor( new VirtualThreadTaskExecutor( "tcp-cluster-" ) );
+        this.server.setApplicationEventPublisher( this::onEvent );
+        this.server.registerListener( this );
+        this.server.start();
+
+        this.running = true;
+        this.peers.values().forEach( Peer::start );
+        log.info( "start : node [{}] listening on cluster port [{}:{}] with peers {}", this.nodeId, this.bindAddress, this.port, this.peers.keySet() );
+
+    }
+
+    @Override
+    public void stop() {
+
+        this.running = false;
+        this.peers.values().forEach( Peer::stop );
+        if( this.server != null ) {
+
+            this.server.stop();
+
+        }
+
+    }
+
+    @Override
+    public boolean isRunning() {
+
+        return this.running;
+    }
+
+    private static ByteArrayLengthHeaderSerializer serializer() {
+
+        var serializer = new ByteArrayLengthHeaderSerializer();
+        serializer.setMaxMessageSize( MAX_FRAME_SIZE );
+
+        return serializer;
+    }
+
+    private final class Peer implements Runnable {
+
+        private final String node;
+
+        private final TcpNetClientConnectionFactory factory;
+
+        private final BlockingQueue<ClusterFrame.Entry> queue;
+
+        // set when a presence change did not fit the queue
+        private volatile boolean resync;
+
+        // the connection the last snapshot went out on, only touched by the sender thread
+        private String connectionId;
+
+        // the last frame sealed for this peer, only touched by the sender thread
+        private long sequence;
+
+        private Thread sender;
+
+        Peer( String node, InetSocketAddress address ) {
+
+            this.node = node;
+            this.queue = new ArrayBlockingQueue<>( queueCapacity );
+
+            this.factory = new TcpNetClientConnectionFactory( address.getHostString(), address.getPort() );
+            this.factory.setSerializer( serializer() );
+            this.factory.setDeserializer( serializer() );
+            this.factory.setConnectTimeout( 5 );
+            this.factory.setTaskExecutor( new VirtualThreadTaskExecutor( "tcp-cluster-" + node + "-" ) );
+
+            // nothing is sent back on this connection
+            this.factory.registerListener( message -> false );
+
+        }
+
+        void start() {
+
+            this.factory.start();
+            this.sender = Thread.ofVirtual().name( "cluster-peer-" + this.node ).start( this );
+
+        }
+
+        void stop() {
+
+            if( this.sender != null ) {
+
+                this.sender.interrupt();
+                try {
+
+                    this.sender.join( RECONNECT_INTERVAL_MILLIS );
+
+                } catch( InterruptedException e ) {
+
+                    Thread.currentThread().interrupt();
+
+                }
+
+            }
+            this.factory.stop();
+
+        }
+
+        @Override
+        public void run() {
+
+            var batch = new ArrayList<ClusterFrame.Entry>( maxBatch );
+            while( running ) {
+
+                try {
+
+                    TcpConnection connection = this.factory.getConnection();
+                    if( !connection.getConnectionId().equals( this.connectionId ) || this.resync ) {
+
+                        snapshot( batch );
+                        send( connection, batch );
+                        if( !connection.getConnectionId().equals( this.connectionId ) ) {
+
+                            log.info( "run : connected to node [{}]", this.node );
+                            this.connectionId = connection.getConnectionId();
+
+                        }
+
+                    }
+
+                    var first = this.queue.poll( RECONNECT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS );
+                    if( first == null ) {
+
+                        continue;
+                    }
+
+                    batch.add( first );
+                    this.queue.drainTo( batch, maxBatch - 1 );
+                    send( connection, batch );
+
+                } catch( InterruptedException e ) {
+
+                    Thread.currentThread().interrupt();
+
+                    return;
+                } catch( Exception e ) {
+
+                    failed( batch, e );
+                    if( !pause() ) {
+
+                        return;
+                    }
+
+                }
+
+            }
+
+        }
+
+        // queued presence changes are older than the snapshot, only chat is kept
+        private void snapshot( List<ClusterFrame.Entry> batch ) {
+
+            this.resync = false;
+
+            var queued = new ArrayList<ClusterFrame.Entry>();
+            this.queue.drainTo( queued );
+
+            batch.add( ClusterFrame.RESET );
+            for( var username : local.getLoggedInUsers() ) {
+
+                batch.add( new ClusterFrame.Online( username ) );
+
+            }
+            for( var entry : queued ) {
+
+                if( entry instanceof ClusterFrame.Chat ) {
+
+                    batch.add( entry );
+
+                }
+
+            }
+
+        }
+
+        private void send( TcpConnection connection, List<ClusterFrame.Entry> batch ) throws Exception {
+
+            // snapshots can be far larger than a batch
+            for( int from = 0; from < batch.size(); from += maxBatch ) {
+
+                var frame = new ClusterFrame( nodeId, batch.subList( from, Math.min( batch.size(), from + maxBatch ) ) ).encode();
+                connection.send( new GenericMessage<>( ClusterFrame.seal( frame, new ClusterFrame.Position( epoch, ++this.sequence ), secret ) ) );
+
+            }
+            batch.clear();
+
+        }
+
+        private void failed( List<ClusterFrame.Entry> batch, Exception e ) {
+
+            var chats = batch.stream().filter( ClusterFrame.Chat.class::isInstance ).count();
+            lost.increment( chats );
+            batch.clear();
+
+            if( this.connectionId != null ) {
+
+                log.info( "run : link to node [{}] failed, {} forwarded messages lost", this.node, chats, e );
+                this.connectionId = null;
+
+            } else {
+
+                log.debug( "run : node [{}] not reachable", this.node, e );
+
+            }
+
+        }
+
+        private boolean pause() {
+
+            try {
+
+                Thread.sleep( RECONNECT_INTERVAL_MILLIS );
+
+                return true;
+            } catch( InterruptedException e ) {
+
+                Thread.currentThread().interrupt();
+
+                return false;
+            }
+
+        }
+
+    }
+
+}
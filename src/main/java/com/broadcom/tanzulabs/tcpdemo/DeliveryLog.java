@@ -0,0 +1,788 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Write-ahead log of the chat messages their recipients have not acknowledged yet, for at-least-once delivery.
+ * <p>
+ * Every message gets an id, is appended to the log and only then written to the recipient's connection as
+ * {@code {"id":<id>,"type":"chatResponse",...}}. Recipients acknowledge cumulatively with the {@code ack} command,
+ * everything up to that id is dropped. Whatever is still unacknowledged when the user logs in is sent again, so a
+ * message written to a dying socket is redelivered rather than lost, and a recipient may see an id twice.
+ * <p>
+ * A single writer thread applies appends and acks in arrival order and forces the log once per drained batch, before
+ * any message of the batch is written (group commit). When that fails nothing is sent, the records stay buffered and
+ * the commit is retried until it succeeds. A connection is only sent what its outbound queue has room for, the rest
+ * follows as acks come in. The log is one active segment of
+ * {@code [int length][int crc][byte kind][long id][short recipient length][recipient][frame]} records, once it
+ * outgrows {@code segmentSize} and is at least half dead the unacknowledged messages are copied to a fresh segment
+ * and the old one is deleted. Appends are refused while the unacknowledged messages add up to {@code maxUnackedBytes}.
+ */
+public class DeliveryLog implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger( DeliveryLog.class );
+
+    private static final byte APPEND = 1;
+    private static final byte ACK = 2;
+
+    // opens every segment, ids keep counting up when everything before was acknowledged
+    private static final byte NEXT_ID = 3;
+
+    private static final int RECORD_HEADER = Integer.BYTES + Integer.BYTES;
+
+    private static final int MAX_BATCH = 1024;
+
+    private static final long RETRY_MILLIS = 1000;
+
+    private final Path directory;
+    private final int maxUnackedPerUser;
+    private final long maxUnackedBytes;
+    private final long segmentSize;
+    private final boolean fsync;
+    private final SessionDirectory sessionDirectory;
+    private final OutboundWriter outboundWriter;
+
+    private final ResponseEncoder responseEncoder = new ResponseEncoder();
+
+    private final BlockingQueue<Operation> operations;
+
+    // recipient -> unacknowledged messages, published by the writer for callers
+    private final Map<String, Integer> unackedCounts = new ConcurrentHashMap<>();
+    private final AtomicLong unacked = new AtomicLong();
+
+    // log bytes of the unacknowledged messages, roughly what they hold on the heap
+    private final AtomicLong unackedBytes = new AtomicLong();
+
+    private final Counter redelivered;
+    private final Counter dropped;
+    private final Counter refused;
+    private final Counter commitFailures;
+    private final Timer commits;
+
+    // writer thread only
+    private final Map<String, Recipient> recipients = new HashMap<>();
+    private final CRC32C crc = new CRC32C();
+    private ByteBuffer buffer = ByteBuffer.allocateDirect( 64 * 1024 );
+    private long nextId = 1;
+    private long segmentSequence;
+    private long segmentBytes;
+    private boolean dirty;
+    private FileChannel segment;
+
+    private volatile boolean running;
+
+    private Thread writer;
+
+    public DeliveryLog(
+            Path directory, int maxUnackedPerUser, long maxUnackedBytes, long segmentSize, int queueCapacity, boolean fsync,
+            SessionDirectory sessionDirectory, OutboundWriter outboundWriter, MeterRegistry meterRegistry ) {
+
+        this.directory = directory;
+        this.maxUnackedPerUser = maxUnackedPerUser;
+        this.maxUnackedBytes = maxUnackedBytes;
+        this.segmentSize = segmentSize;
+        this.fsync = fsync;
+        this.sessionDirectory = sessionDirectory;
+        this.outboundWriter = outboundWriter;
+        this.operations = new LinkedBlockingQueue<>( queueCapacity );
+
+        Gauge.builder( "tcp.delivery.unacked", this.unacked, AtomicLong::get )
+                .description( "Chat messages waiting for their recipient's ack" )
+                .register( meterRegistry );
+        Gauge.builder( "tcp.delivery.unacked.bytes", this.unackedBytes, AtomicLong::get )
+                .description( "Log bytes of the chat messages waiting for their recipient's ack" )
+                .baseUnit( "bytes" )
+                .register( meterRegistry );
+        this.redelivered = Counter.builder( "tcp.delivery.redelivered" )
+                .description( "Unacknowledged messages sent again after the recipient logged in" )
+                .register( meterRegistry );
+        this.dropped = Counter.builder( "tcp.delivery.dropped" )
+                .description( "Unacknowledged messages discarded past the per user limit" )
+                .register( meterRegistry );
+        this.refused = Counter.builder( "tcp.delivery.refused" )
+                .description( "Messages not logged because the unacknowledged ones reached max-unacked-bytes" )
+                .register( meterRegistry );
+        this.commitFailures = Counter.builder( "tcp.delivery.commit.failures" )
+                .description( "Batches that could not be made durable and were held back for a retry" )
+                .register( meterRegistry );
+        this.commits = Timer.builder( "tcp.delivery.commit" )
+                .description( "Time to write and force one batch of log records" )
+                .register( meterRegistry );
+
+    }
+
+    /**
+     * Log a message for the recipient and send it once it is durable, never blocks.
+     *
+     * @return false if the writer is not keeping up or too much is unacknowledged, and the message was not logged
+     */
+    public boolean append( String recipient, byte[] frame ) {
+
+        if( this.unackedBytes.get() >= this.maxUnackedBytes ) {
+
+            log.debug( "append : [{}] bytes unacknowledged, message for [{}] not logged", this.unackedBytes.get(), recipient );
+            this.refused.increment();
+
+            return false;
+        }
+
+        if( !this.operations.offer( new Append( recipient, frame ) ) ) {
+
+            log.debug( "append : writer is behind, message for [{}] not logged", recipient );
+
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Drop the recipient's messages up to and including the id.
+     */
+    public void ack( String recipient, long id ) {
+
+        // acks are cumulative, a later one covers this
+        if( !this.operations.offer( new Ack( recipient, id ) ) ) {
+
+            log.debug( "ack : writer is behind, ack [{}] for [{}] skipped", id, recipient );
+
+        }
+
+    }
+
+    /**
+     * Send everything unacknowledged to the connection the recipient is logged in at now, after any appends already queued.
+     */
+    public void deliver( String recipient ) {
+
+        if( this.unackedCounts.containsKey( recipient ) && !this.operations.offer( new Deliver( recipient ) ) ) {
+
+            log.warn( "deliver : writer is behind, redelivery for [{}] deferred", recipient );
+
+        }
+
+    }
+
+    public int getUnacked( String recipient ) {
+
+        return this.unackedCounts.getOrDefault( recipient, 0 );
+    }
+
+    /**
+     * Completes once everything queued before it has been logged, forced and sent.
+     */
+    public CompletableFuture<Void> flush() {
+
+        var flush = new Flush( new CompletableFuture<>() );
+        try {
+
+            this.operations.put( flush );
+
+        } catch( InterruptedException e ) {
+
+            Thread.currentThread().interrupt();
+            flush.done().completeExceptionally( e );
+
+        }
+
+        return flush.done();
+    }
+
+    @Override
+    public void start() {
+
+        try {
+
+            Files.createDirectories( this.directory );
+            load();
+
+        } catch( IOException e ) {
+
+            throw new UncheckedIOException( "could not open delivery log at " + this.directory, e );
+        }
+
+        this.running = true;
+        this.writer = Thread.ofPlatform().name( "delivery-log-writer" ).start( this::run );
+        log.info( "start : delivery log at [{}] holds [{}] unacknowledged messages", this.directory, this.unacked.get() );
+
+    }
+
+    @Override
+    public void stop() {
+
+        if( this.writer == null ) {
+
+            return;
+        }
+
+        this.running = false;
+        try {
+
+            this.writer.join();
+
+        } catch( InterruptedException e ) {
+
+            Thread.currentThread().interrupt();
+
+        }
+
+        try {
+
+            this.segment.close();
+
+        } catch( IOException e ) {
+
+            log.warn( "stop : could not close the delivery log", e );
+
+        }
+        this.recipients.clear();
+
+    }
+
+    @Override
+    public boolean isRunning() {
+
+        return this.running;
+    }
+
+    // started before the inbound adapter reads anything and stopped after it, so no chat arrives once the writer is gone
+    @Override
+    public int getPhase() {
+
+        return Integer.MIN_VALUE / 2;
+    }
+
+    private void run() {
+
+        var batch = new ArrayList<Operation>( MAX_BATCH );
+        var touched = new LinkedHashSet<Recipient>();
+        var flushes = new ArrayList<Flush>();
+        var failing = false;
+        while( this.running || !this.operations.isEmpty() ) {
+
+            try {
+
+                // a failed commit is retried even when nothing new arrives
+                var first = this.operations.poll( failing ? RETRY_MILLIS : 100, TimeUnit.MILLISECONDS );
+                if( first == null && !failing ) {
+
+                    continue;
+                }
+
+                if( first != null ) {
+
+                    batch.add( first );
+                    this.operations.drainTo( batch, MAX_BATCH - 1 );
+
+                }
+
+            } catch( InterruptedException e ) {
+
+                Thread.currentThread().interrupt();
+                break;
+            }
+
+            for( var operation : batch ) {
+
+                try {
+
+                    switch( operation ) {
+                        case Append append -> touched.add( append( append ) );
+                        case Ack ack -> ack( ack, touched );
+                        case Deliver deliver -> redeliver( deliver, touched );
+                        case Flush flush -> flushes.add( flush );
+                    }
+
+                } catch( RuntimeException e ) {
+
+                    log.error( "run : delivery log operation [{}] failed", operation, e );
+
+                }
+
+            }
+
+            batch.clear();
+
+            // nothing goes out before it is durable, what a failed commit held back waits for the next one
+            try {
+
+                commit();
+                if( failing ) {
+
+                    log.info( "run : the delivery log is durable again" );
+                    failing = false;
+
+                }
+
+            } catch( IOException e ) {
+
+                if( !failing ) {
+
+                    log.error( "run : writing the delivery log failed, sends are held back until it succeeds", e );
+                    failing = true;
+
+                }
+                this.commitFailures.increment();
+
+                continue;
+            }
+
+            touched.forEach( this::send );
+            touched.forEach( this::publish );
+
+            try {
+
+                rollIfFull();
+
+            } catch( IOException e ) {
+
+                log.error( "run : compacting the delivery log failed", e );
+
+            }
+
+            flushes.forEach( flush -> flush.done().complete( null ) );
+
+            touched.clear();
+            flushes.clear();
+
+        }
+
+        if( failing ) {
+
+            log.error( "run : stopped with [{}] recipients' messages not durable", touched.size() );
+            flushes.forEach( flush -> flush.done().completeExceptionally( new IOException( "the delivery log could not be written" ) ) );
+
+        }
+
+    }
+
+    private Recipient append( Append append ) {
+
+        var recipient = this.recipients.computeIfAbsent( append.recipient(), Recipient::new );
+        var bytes = recipient.bytes;
+        var id = this.nextId++;
+        record( APPEND, id, append.recipient(), append.frame() );
+        recipient.add( new Unacked( id, append.frame() ) );
+        this.unacked.incrementAndGet();
+
+        // the oldest go first, logged as acknowledged so a restart does not bring them back
+        while( recipient.unacked.size() > this.maxUnackedPerUser ) {
+
+            var oldest = recipient.unacked.peekFirst();
+            recipient.acknowledge( oldest.id() );
+            record( ACK, oldest.id(), recipient.name, null );
+            this.unacked.decrementAndGet();
+            this.dropped.increment();
+
+        }
+        this.unackedBytes.addAndGet( recipient.bytes - bytes );
+
+        return recipient;
+    }
+
+    private void ack( Ack ack, LinkedHashSet<Recipient> touched ) {
+
+        var recipient = this.recipients.get( ack.recipient() );
+        if( recipient == null ) {
+
+            return;
+        }
+
+        var bytes = recipient.bytes;
+        var acknowledged = recipient.acknowledge( ack.id() );
+        if( acknowledged > 0 ) {
+
+            record( ACK, ack.id(), recipient.name, null );
+            this.unacked.addAndGet( -acknowledged );
+            this.unackedBytes.addAndGet( recipient.bytes - bytes );
+
+            // room in the window, send what is waiting
+            touched.add( recipient );
+
+        }
+
+    }
+
+    private void redeliver( Deliver deliver, LinkedHashSet<Recipient> touched ) {
+
+        var recipient = this.recipients.get( deliver.recipient() );
+        if( recipient == null ) {
+
+            return;
+        }
+
+        this.redelivered.increment( recipient.sent );
+        recipient.sent = 0;
+        touched.add( recipient );
+
+    }
+
+    // writes what the connection's queue has room for, in id order, picking up after what was sent before
+    private void send( Recipient recipient ) {
+
+        if( recipient.sent >= recipient.unacked.size() ) {
+
+            return;
+        }
+
+        var connectionId = this.sessionDirectory.getConnection( recipient.name );
+        if( connectionId.isEmpty() ) {
+
+            return;
+        }
+
+        var pending = recipient.unacked.iterator();
+        for( int i = 0; i < recipient.sent; i++ ) {
+
+            pending.next();
+
+        }
+
+        while( pending.hasNext() && this.outboundWriter.remainingCapacity( connectionId.get() ) > 0 ) {
+
+            var message = pending.next();
+            if( !this.outboundWriter.write( connectionId.get(), this.responseEncoder.withId( message.id(), message.frame() ) ) ) {
+
+                break;
+            }
+
+            recipient.sent++;
+
+        }
+
+    }
+
+    private void publish( Recipient recipient ) {
+
+        if( recipient.unacked.isEmpty() ) {
+
+            this.recipients.remove( recipient.name );
+            this.unackedCounts.remove( recipient.name );
+
+        } else {
+
+            this.unackedCounts.put( recipient.name, recipient.unacked.size() );
+
+        }
+
+    }
+
+    private void record( byte kind, long id, String recipient, byte[] frame ) {
+
+        var name = recipient == null ? new byte[ 0 ] : recipient.getBytes( StandardCharsets.UTF_8 );
+        var frameLength = frame == null ? 0 : frame.length;
+        var length = 1 + Long.BYTES + Short.BYTES + name.length + frameLength;
+        ensure( RECORD_HEADER + length );
+
+        var start = this.buffer.position();
+        this.buffer.position( start + RECORD_HEADER );
+        this.buffer.put( kind ).putLong( id ).putShort( (short) name.length ).put( name );
+        if( frame != null ) {
+
+            this.buffer.put( frame );
+
+        }
+
+        this.crc.reset();
+        this.crc.update( this.buffer.slice( start + RECORD_HEADER, length ) );
+        this.buffer.putInt( start, length ).putInt( start + Integer.BYTES, (int) this.crc.getValue() );
+
+    }
+
+    private void ensure( int required ) {
+
+        if( this.buffer.remaining() >= required ) {
+
+            return;
+        }
+
+        try {
+
+            drain();
+
+        } catch( IOException e ) {
+
+            // stays buffered, the commit reports it and retries
+            log.debug( "ensure : could not drain the delivery log buffer, {}", e.getMessage() );
+
+        }
+
+        if( this.buffer.remaining() < required ) {
+
+            var grown = ByteBuffer.allocateDirect( Math.max( this.buffer.position() + required, this.buffer.capacity() * 2 ) );
+            this.buffer = grown.put( this.buffer.flip() );
+
+        }
+
+    }
+
+    // hands the buffered records to the file, without forcing them, whatever could not be written stays buffered
+    private void drain() throws IOException {
+
+        this.buffer.flip();
+        try {
+
+            while( this.buffer.hasRemaining() ) {
+
+                this.segmentBytes += this.segment.write( this.buffer );
+                this.dirty = true;
+
+            }
+
+        } finally {
+
+            this.buffer.compact();
+
+        }
+
+    }
+
+    private void commit() throws IOException {
+
+        var start = System.nanoTime();
+        drain();
+        if( this.dirty && this.fsync ) {
+
+            this.segment.force( false );
+            this.commits.record( System.nanoTime() - start, TimeUnit.NANOSECONDS );
+
+        }
+        this.dirty = false;
+
+    }
+
+    // copying costs about what is live, so the segment has to be mostly dead for that to pay off
+    private void rollIfFull() throws IOException {
+
+        if( this.segmentBytes >= this.segmentSize && this.segmentBytes >= 2 * this.unackedBytes.get() ) {
+
+            roll();
+
+        }
+
+    }
+
+    // a fresh segment holding only what is still unacknowledged, then the old ones go
+    private void roll() throws IOException {
+
+        var previous = this.segment;
+        var obsolete = segments();
+
+        this.segmentSequence++;
+        this.segment = FileChannel.open( segmentPath( this.segmentSequence ), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE );
+        this.segmentBytes = 0;
+
+        record( NEXT_ID, this.nextId, null, null );
+        for( var recipient : this.recipients.values() ) {
+
+            for( var message : recipient.unacked ) {
+
+                record( APPEND, message.id(), recipient.name, message.frame() );
+
+            }
+
+        }
+        drain();
+        this.segment.force( false );
+        this.dirty = false;
+
+        if( previous != null ) {
+
+            previous.close();
+
+        }
+        for( var path : obsolete ) {
+
+            Files.deleteIfExists( path );
+
+        }
+
+        log.debug( "roll : [{}] unacknowledged messages carried into segment [{}]", this.unacked.get(), this.segmentSequence );
+
+    }
+
+    // rebuild the unacknowledged messages from the segments left by the last run, then compact them
+    private void load() throws IOException {
+
+        for( var path : segments() ) {
+
+            var name = path.getFileName().toString();
+            this.segmentSequence = Math.max( this.segmentSequence, Long.parseLong( name.substring( 0, name.indexOf( '.' ) ) ) );
+
+            var records = ByteBuffer.wrap( Files.readAllBytes( path ) );
+            while( records.remaining() >= RECORD_HEADER ) {
+
+                var length = records.getInt( records.position() );
+                var checksum = records.getInt( records.position() + Integer.BYTES );
+                if( length <= 0 || records.remaining() - RECORD_HEADER < length ) {
+
+                    break;
+                }
+
+                var body = records.slice( records.position() + RECORD_HEADER, length );
+                this.crc.reset();
+                this.crc.update( body.duplicate() );
+                if( (int) this.crc.getValue() != checksum ) {
+
+                    log.warn( "load : torn record at [{}] of [{}], the rest is ignored", records.position(), path );
+                    break;
+                }
+
+                apply( body );
+                records.position( records.position() + RECORD_HEADER + length );
+
+            }
+
+        }
+
+        this.recipients.values().removeIf( recipient -> recipient.unacked.isEmpty() );
+        for( var recipient : this.recipients.values() ) {
+
+            recipient.sent = 0;
+            this.unacked.addAndGet( recipient.unacked.size() );
+            this.unackedBytes.addAndGet( recipient.bytes );
+            this.unackedCounts.put( recipient.name, recipient.unacked.size() );
+
+        }
+
+        roll();
+
+    }
+
+    private void apply( ByteBuffer body ) {
+
+        var kind = body.get();
+        var id = body.getLong();
+        var name = new byte[ Short.toUnsignedInt( body.getShort() ) ];
+        body.get( name );
+        var recipient = new String( name, StandardCharsets.UTF_8 );
+
+        switch( kind ) {
+            case APPEND -> {
+
+                var frame = new byte[ body.remaining() ];
+                body.get( frame );
+                this.recipients.computeIfAbsent( recipient, Recipient::new ).add( new Unacked( id, frame ) );
+                this.nextId = Math.max( this.nextId, id + 1 );
+
+            }
+            case ACK -> {
+
+                var acknowledged = this.recipients.get( recipient );
+                if( acknowledged != null ) {
+
+                    acknowledged.acknowledge( id );
+
+                }
+
+            }
+            case NEXT_ID -> this.nextId = Math.max( this.nextId, id );
+            default -> log.warn( "load : unknown record kind [{}] skipped", kind );
+        }
+
+    }
+
+    private List<Path> segments() throws IOException {
+
+        try( Stream<Path> files = Files.list( this.directory ) ) {
+
+            return files.filter( p -> p.getFileName().toString().endsWith( ".wal" ) ).sorted().toList();
+        }
+
+    }
+
+    private Path segmentPath( long sequence ) {
+
+        return this.directory.resolve( "%016d.wal".formatted( sequence ) );
+    }
+
+    sealed interface Operation permits Append, Ack, Deliver, Flush { }
+
+    record Append( String recipient, byte[] frame ) implements Operation { }
+
+    record Ack( String recipient, long id ) implements Operation { }
+
+    record Deliver( String recipient ) implements Operation { }
+
+    record Flush( CompletableFuture<Void> done ) implements Operation { }
+
+    record Unacked( long id, byte[] frame ) { }
+
+    /**
+     * One user's unacknowledged messages, oldest first. Only touched by the writer thread.
+     */
+    static final class Recipient {
+
+        final String name;
+
+        final ArrayDeque<Unacked> unacked = new ArrayDeque<>();
+
+        // header, kind, id and name of each of its append records
+        final int recordOverhead;
+
+        // log bytes of the unacked append records
+        long bytes;
+
+        // how many at the head of unacked were written to the user's current connection
+        int sent;
+
+        Recipient( String name ) {
+
+            this.name = name;
+            this.recordOverhead = RECORD_HEADER + 1 + Long.BYTES + Short.BYTES + name.getBytes( StandardCharsets.UTF_8 ).length;
+
+        }
+
+        void add( Unacked message ) {
+
+            this.unacked.add( message );
+            this.bytes += this.recordOverhead + message.frame().length;
+
+        }
+
+        int acknowledge( long id ) {
+
+            var acknowledged = 0;
+            while( !this.unacked.isEmpty() && this.unacked.peekFirst().id() <= id ) {
+
+                this.bytes -= this.recordOverhead + this.unacked.removeFirst().frame().length;
+                acknowledged++;
+
+            }
+            this.sent = Math.max( 0, this.sent - acknowledged );
+
+            return acknowledged;
+        }
+
+    }
+
+}
@@ -0,0 +1,76 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import java.util.List;
+
+/**
+ * A decoded inbound frame, {@code { "type": ..., "action": ..., "payload": { ... } }}. The {@link FrameDecoder} picks
+ * the payload record from the action, a field the action does not use is skipped and one the frame leaves out is null.
+ */
+public record Frame( String type, String action, Payload payload ) {
+
+    public sealed interface Payload permits Session, Chat, Batch, History, Presence, Ack, None { }
+
+    /**
+     * {@code login} and {@code logout}.
+     *
+     * @param encoding the {@link MessageEncoding} a login asks its replies in, JSON when absent
+     */
+    public record Session( String username, String encoding ) implements Payload { }
+
+    /**
+     * {@code sendMessage} to a user, also a chat frame without an action, and {@code join}, {@code leave} and
+     * {@code broadcast} in a room.
+     */
+    public record Chat( String to, String room, String message ) implements Payload { }
+
+    /**
+     * {@code sendBatch}.
+     *
+     * @param entries the messages, in the order they were sent
+     */
+    public record Batch( List<Entry> entries ) implements Payload { }
+
+    /**
+     * {@code history}.
+     *
+     * @param with the other user of the conversation to page through
+     * @param before the page holds messages older than this timestamp, the latest when absent
+     * @param limit the most messages the page holds
+     */
+    public record History( String with, Long before, Integer limit ) implements Payload { }
+
+    /**
+     * {@code subscribePresence} and {@code unsubscribePresence}.
+     */
+    public record Presence( List<String> users ) implements Payload { }
+
+    /**
+     * {@code ack}.
+     *
+     * @param id acknowledges this message along with every one before it
+     */
+    public record Ack( Long id ) implements Payload { }
+
+    // ping, pong and actions without a payload of their own
+    public record None() implements Payload { }
+
+    public static final None NONE = new None();
+
+    public record Entry( String to, String message ) {
+
+        // an element of the entries array that was not an object
+        public static final Entry EMPTY = new Entry( null, null );
+
+    }
+
+    /**
+     * The payload as the record its action decodes to.
+     *
+     * @throws ClassCastException if the frame's action carries another payload
+     */
+    public <T extends Payload> T payload( Class<T> type ) {
+
+        return type.cast( this.payload );
+    }
+
+}
@@ -0,0 +1,8 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import java.util.List;
+
+/**
+ * Several frames for one connection that go out in a single write and flush, see {@link BatchingSerializer}.
+ */
+public record FrameBatch( List<byte[]> frames ) { }
@@ -0,0 +1,304 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import org.springframework.integration.handler.AbstractReplyProducingMessageHandler;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandlingException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses each inbound frame once with a streaming parser into a {@link Frame}, in whichever {@link MessageEncoding}
+ * the frame starts with. The {@code type} and {@code action} are also copied to headers for the router.
+ * <p>
+ * The payload's fields are collected as they come, the action may follow them, and handed to the payload record of
+ * the action once the frame is read.
+ */
+public class FrameDecoder extends AbstractReplyProducingMessageHandler {
+
+    private final PipelineMetrics pipelineMetrics;
+
+    public FrameDecoder() {
+
+        this( PipelineMetrics.noop() );
+
+    }
+
+    public FrameDecoder( PipelineMetrics pipelineMetrics ) {
+
+        this.pipelineMetrics = pipelineMetrics;
+
+    }
+
+    @Override
+    protected Object handleRequestMessage( Message<?> requestMessage ) {
+
+        var payload = requestMessage.getPayload() instanceof String text ? text.getBytes( StandardCharsets.UTF_8 ) : requestMessage.getPayload();
+        Frame frame;
+        var start = System.nanoTime();
+        try {
+
+            frame = switch( payload ) {
+                case byte[] bytes -> decode( bytes );
+                case PooledBuffer buffer -> decode( buffer );
+                default -> {
+
+                    this.pipelineMetrics.recordDecodeError();
+
+                    throw new MessageHandlingException( requestMessage, "unsupported frame payload" );
+                }
+            };
+
+        } catch( IOException e ) {
+
+            // the frame travels on with the failure, the pipeline error handler releases it
+            this.pipelineMetrics.recordDecodeError();
+
+            throw new MessageHandlingException( requestMessage, "failed to decode frame", e );
+        }
+        var size = payload instanceof PooledBuffer buffer ? buffer.length() : ( (byte[]) payload ).length;
+        this.pipelineMetrics.recordDecode( size, System.nanoTime() - start );
+
+        // everything was copied out into Strings, the pooled bytes can go back
+        PooledBuffer.release( payload );
+
+        return getMessageBuilderFactory()
+                .withPayload( frame )
+                .copyHeaders( requestMessage.getHeaders() )
+                .setHeader( "type", frame.type() )
+                .setHeader( "action", frame.action() )
+                .build();
+    }
+
+    public Frame decode( byte[] bytes ) throws IOException {
+
+        try( JsonParser parser = MessageEncoding.detect( bytes ).createParser( bytes ) ) {
+
+            return decode( parser );
+        }
+
+    }
+
+    public Frame decode( PooledBuffer buffer ) throws IOException {
+
+        if( buffer.hasArray() ) {
+
+            var encoding = MessageEncoding.detect( buffer.array(), buffer.arrayOffset(), buffer.length() );
+            try( JsonParser parser = encoding.createParser( buffer.array(), buffer.arrayOffset(), buffer.length() ) ) {
+
+                return decode( parser );
+            }
+
+        }
+
+        // direct memory, the encoding is told from a copy of the first bytes
+        var readable = buffer.readable();
+        var head = new byte[ Math.min( 3, readable.remaining() ) ];
+        readable.get( 0, head );
+        try( JsonParser parser = MessageEncoding.detect( head ).createParser( new ByteBufferBackedInputStream( readable ) ) ) {
+
+            return decode( parser );
+        }
+
+    }
+
+    private Frame decode( JsonParser parser ) throws IOException {
+
+        if( parser.nextToken() != JsonToken.START_OBJECT ) {
+
+            throw new JsonParseException( parser, "frame is not an object" );
+        }
+
+        String type = null;
+        String action = null;
+        var fields = Fields.ABSENT;
+
+        while( parser.nextToken() == JsonToken.FIELD_NAME ) {
+
+            var field = parser.currentName();
+            parser.nextToken();
+
+            switch( field ) {
+                case "type" -> type = stringValue( parser );
+                case "action" -> action = stringValue( parser );
+                case "payload" -> fields = decodePayload( parser );
+                default -> parser.skipChildren();
+            }
+
+        }
+
+        return new Frame( type, action, payload( action, fields ) );
+
+    }
+
+    // a chat frame without an action is a sendMessage
+    private static Frame.Payload payload( String action, Fields fields ) {
+
+        return switch( action == null ? "sendMessage" : action ) {
+            case "sendMessage", "join", "leave", "broadcast" -> new Frame.Chat( fields.to, fields.room, fields.message );
+            case "login", "logout" -> new Frame.Session( fields.username, fields.encoding );
+            case "sendBatch" -> new Frame.Batch( fields.entries );
+            case "history" -> new Frame.History( fields.with, fields.before, fields.limit );
+            case "subscribePresence", "unsubscribePresence" -> new Frame.Presence( fields.users );
+            case "ack" -> new Frame.Ack( fields.id );
+            default -> Frame.NONE;
+        };
+    }
+
+    private Fields decodePayload( JsonParser parser ) throws IOException {
+
+        if( parser.currentToken() != JsonToken.START_OBJECT ) {
+
+            parser.skipChildren();
+
+            return Fields.ABSENT;
+        }
+
+        var fields = new Fields();
+        while( parser.nextToken() == JsonToken.FIELD_NAME ) {
+
+            var field = parser.currentName();
+            parser.nextToken();
+
+            switch( field ) {
+                case "username" -> fields.username = stringValue( parser );
+                case "to" -> fields.to = stringValue( parser );
+                case "message" -> fields.message = stringValue( parser );
+                case "room" -> fields.room = stringValue( parser );
+                case "encoding" -> fields.encoding = stringValue( parser );
+                case "entries" -> fields.entries = decodeEntries( parser );
+                case "id" -> fields.id = parser.currentToken() == JsonToken.VALUE_NUMBER_INT ? parser.getLongValue() : null;
+                case "with" -> fields.with = stringValue( parser );
+                case "before" -> fields.before = parser.currentToken() == JsonToken.VALUE_NUMBER_INT ? parser.getLongValue() : null;
+                case "limit" -> fields.limit = parser.currentToken() == JsonToken.VALUE_NUMBER_INT ? parser.getIntValue() : null;
+                case "users" -> fields.users = decodeUsers( parser );
+                default -> parser.skipChildren();
+            }
+
+        }
+
+        return fields;
+    }
+
+    // an array of usernames, anything in it that is not a string is skipped
+    private List<String> decodeUsers( JsonParser parser ) throws IOException {
+
+        if( parser.currentToken() != JsonToken.START_ARRAY ) {
+
+            parser.skipChildren();
+
+            return null;
+        }
+
+        var users = new ArrayList<String>();
+        JsonToken token;
+        while( ( token = parser.nextToken() ) != JsonToken.END_ARRAY ) {
+
+            if( token == null ) {
+
+                throw new JsonParseException( parser, "users array is not closed" );
+            }
+
+            if( token == JsonToken.VALUE_STRING ) {
+
+                users.add( parser.getText() );
+
+            } else {
+
+                parser.skipChildren();
+
+            }
+
+        }
+
+        return users;
+    }
+
+    private List<Frame.Entry> decodeEntries( JsonParser parser ) throws IOException {
+
+        if( parser.currentToken() != JsonToken.START_ARRAY ) {
+
+            parser.skipChildren();
+
+            return null;
+        }
+
+        var entries = new ArrayList<Frame.Entry>();
+        JsonToken token;
+        while( ( token = parser.nextToken() ) != JsonToken.END_ARRAY ) {
+
+            if( token == null ) {
+
+                throw new JsonParseException( parser, "entries array is not closed" );
+            }
+
+            // anything but an object still takes its place, so the reply's results line up with what was sent
+            if( token != JsonToken.START_OBJECT ) {
+
+                parser.skipChildren();
+                entries.add( Frame.Entry.EMPTY );
+
+                continue;
+            }
+
+            String to = null;
+            String message = null;
+            while( parser.nextToken() == JsonToken.FIELD_NAME ) {
+
+                var field = parser.currentName();
+                parser.nextToken();
+
+                switch( field ) {
+                    case "to" -> to = stringValue( parser );
+                    case "message" -> message = stringValue( parser );
+                    default -> parser.skipChildren();
+                }
+
+            }
+            entries.add( new Frame.Entry( to, message ) );
+
+        }
+
+        return entries;
+    }
+
+    // a string field sent as an object or array is consumed whole, otherwise its members would be read as ours
+    private static String stringValue( JsonParser parser ) throws IOException {
+
+        if( parser.currentToken() == JsonToken.START_OBJECT || parser.currentToken() == JsonToken.START_ARRAY ) {
+
+            parser.skipChildren();
+
+            return null;
+        }
+
+        return parser.getValueAsString();
+    }
+
+    // every payload field of every action, until the action is known
+    private static final class Fields {
+
+        // a frame without a payload object, never written to
+        static final Fields ABSENT = new Fields();
+
+        String username;
+        String to;
+        String message;
+        String room;
+        String encoding;
+        List<Frame.Entry> entries;
+        Long id;
+        String with;
+        Long before;
+        Integer limit;
+        List<String> users;
+
+    }
+
+}
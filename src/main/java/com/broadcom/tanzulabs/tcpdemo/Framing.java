@@ -0,0 +1,85 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import org.springframework.integration.ip.tcp.serializer.AbstractByteArraySerializer;
+import org.springframework.integration.ip.tcp.serializer.AbstractPooledBufferByteArraySerializer;
+import org.springframework.integration.ip.tcp.serializer.ByteArrayCrLfSerializer;
+import org.springframework.integration.ip.tcp.serializer.ByteArrayLengthHeaderSerializer;
+import org.springframework.integration.ip.tcp.serializer.ByteArrayStxEtxSerializer;
+
+import java.util.Arrays;
+
+/**
+ * How frames are delimited on the wire, selected with {@code tcp.server.framing}.
+ */
+public enum Framing {
+
+    // frames end with \r\n, the payload cannot contain \r\n
+    CRLF( "crlf" ),
+
+    // a 4 byte big endian length precedes the payload, which may contain any bytes
+    LENGTH_HEADER( "length-header" ),
+
+    // frames are wrapped in 0x02 ... 0x03, the payload cannot contain 0x03
+    STX_ETX( "stx-etx" ),
+
+    // detected per connection from the first byte the client sends
+    AUTO( "auto" );
+
+    private final String value;
+
+    Framing( String value ) {
+
+        this.value = value;
+
+    }
+
+    public static Framing of( String value ) {
+
+        return Arrays.stream( values() )
+                .filter( f -> f.value.equalsIgnoreCase( value ) )
+                .findFirst()
+                .orElseThrow( () -> new IllegalArgumentException( "unknown framing [" + value + "]" ) );
+    }
+
+    /**
+     * @param maxFrameSize the largest frame accepted
+     * @param poolSize the number of read buffers kept for reuse, -1 for unbounded, 0 to allocate per read
+     */
+    public AbstractByteArraySerializer serializer( int maxFrameSize, int poolSize ) {
+
+        AbstractByteArraySerializer serializer = switch( this ) {
+            case CRLF -> new ByteArrayCrLfSerializer();
+            case LENGTH_HEADER -> new ByteArrayLengthHeaderSerializer( ByteArrayLengthHeaderSerializer.HEADER_SIZE_INT );
+            case STX_ETX -> new ByteArrayStxEtxSerializer();
+            case AUTO -> throw new IllegalStateException( "auto framing is resolved per connection" );
+        };
+
+        serializer.setMaxMessageSize( maxFrameSize );
+
+        // the length header deserializer reads straight into an exactly sized payload array,
+        // the delimiter scanning ones need a scratch buffer of maxFrameSize which we pool
+        if( poolSize != 0 && serializer instanceof AbstractPooledBufferByteArraySerializer pooled ) {
+
+            pooled.setPoolSize( poolSize );
+
+        }
+
+        return serializer;
+    }
+
+    /**
+     * Whether frames may contain any byte, as binary {@link MessageEncoding}s need. Auto detecting servers decide per
+     * connection, see {@link ServerFraming#getFraming(String)}.
+     */
+    public boolean carriesBinary() {
+
+        return this == LENGTH_HEADER;
+    }
+
+    @Override
+    public String toString() {
+
+        return this.value;
+    }
+
+}
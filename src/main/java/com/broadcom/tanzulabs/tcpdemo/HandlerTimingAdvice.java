@@ -0,0 +1,42 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import org.springframework.integration.handler.advice.AbstractRequestHandlerAdvice;
+import org.springframework.messaging.Message;
+
+/**
+ * Times a handler by the {@code type} and {@code action} headers the {@link FrameDecoder} set on its message.
+ */
+public class HandlerTimingAdvice extends AbstractRequestHandlerAdvice {
+
+    private final PipelineMetrics pipelineMetrics;
+
+    public HandlerTimingAdvice( PipelineMetrics pipelineMetrics ) {
+
+        this.pipelineMetrics = pipelineMetrics;
+
+    }
+
+    @Override
+    protected Object doInvoke( ExecutionCallback callback, Object target, Message<?> message ) {
+
+        var start = System.nanoTime();
+        try {
+
+            return callback.execute();
+
+        } catch( RuntimeException e ) {
+
+            this.pipelineMetrics.recordHandleError();
+
+            throw e;
+
+        } finally {
+
+            var headers = message.getHeaders();
+            this.pipelineMetrics.recordHandle( headers.get( "type" ), headers.get( "action" ), System.nanoTime() - start );
+
+        }
+
+    }
+
+}
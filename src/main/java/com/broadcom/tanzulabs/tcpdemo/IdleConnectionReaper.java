@@ -0,0 +1,389 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.event.EventListener;
+import org.springframework.integration.ip.IpHeaders;
+import org.springframework.integration.ip.tcp.connection.TcpConnectionCloseEvent;
+import org.springframework.integration.ip.tcp.connection.TcpConnectionOpenEvent;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.ChannelInterceptor;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Closes connections nothing has been read from for {@code idleTimeout}, so half open sockets do not keep their
+ * session and reader thread forever. A connection idle for {@code heartbeat} is sent a {@code ping} status first,
+ * any frame in return, usually the {@code pong} command, keeps it open.
+ * <p>
+ * Connections wait in a hashed timing wheel of {@code wheelSize} slots, one slot per tick, at the slot of their next
+ * check. An inbound frame only records the time it was read, nothing moves in the wheel. When a slot comes due each
+ * connection in it is checked against its last read and either pinged, closed or moved to the slot of its new
+ * check, so every tick touches only the connections due then, never all of them.
+ */
+public class IdleConnectionReaper implements ChannelInterceptor, SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger( IdleConnectionReaper.class );
+
+    private final long idleTimeoutNanos;
+    private final long heartbeatNanos;
+    private final long tickNanos;
+
+    private final List<Queue<Tracked>> wheel;
+    private final int mask;
+
+    // connectionId -> tracked connection
+    private final Map<String, Tracked> connections = new ConcurrentHashMap<>();
+
+    // sends the ping, false if it could not be queued
+    private final BiPredicate<String, byte[]> heartbeatSender;
+
+    private final Consumer<String> closeConnection;
+
+    private final LongSupplier nanoTime;
+
+    private final Counter pinged;
+    private final Counter reaped;
+
+    // held to pick a slot and add to it, and by the reaper to take up a slot, so nothing is added to a slot the
+    // reaper has already passed. A ReentrantLock rather than synchronized keeps virtual threads from pinning.
+    private final Lock wheelLock = new ReentrantLock();
+
+    // the last tick whose slot has been taken up for processing, only the reaper advances it, under wheelLock
+    private long processedTick;
+
+    private volatile boolean running;
+
+    private Thread reaper;
+
+    /**
+     * @param idleTimeout {@link Duration#ZERO} keeps idle connections open
+     * @param heartbeat {@link Duration#ZERO} closes idle connections without pinging them first
+     * @param wheelSize rounded up to a power of two
+     */
+    public IdleConnectionReaper(
+            Duration idleTimeout, Duration heartbeat, Duration tick, int wheelSize,
+            BiPredicate<String, byte[]> heartbeatSender, Consumer<String> closeConnection, MeterRegistry meterRegistry ) {
+
+        this( idleTimeout, heartbeat, tick, wheelSize, heartbeatSender, closeConnection, meterRegistry, System::nanoTime );
+
+    }
+
+    IdleConnectionReaper(
+            Duration idleTimeout, Duration heartbeat, Duration tick, int wheelSize,
+            BiPredicate<String, byte[]> heartbeatSender, Consumer<String> closeConnection, MeterRegistry meterRegistry,
+            LongSupplier nanoTime ) {
+
+        if( !idleTimeout.isZero() && !heartbeat.isZero() && heartbeat.compareTo( idleTimeout ) >= 0 ) {
+
+            throw new IllegalArgumentException( "heartbeat must be shorter than the idle timeout" );
+        }
+
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+        this.heartbeatNanos = heartbeat.toNanos();
+        this.tickNanos = tick.toNanos();
+        this.heartbeatSender = heartbeatSender;
+        this.closeConnection = closeConnection;
+        this.nanoTime = nanoTime;
+
+        var size = Integer.highestOneBit( Math.max( 2, wheelSize - 1 ) ) << 1;
+        this.wheel = new ArrayList<>( size );
+        for( int i = 0; i < size; i++ ) {
+
+            this.wheel.add( new ConcurrentLinkedQueue<>() );
+
+        }
+        this.mask = size - 1;
+        this.processedTick = tickOf( nanoTime.getAsLong() );
+
+        Gauge.builder( "tcp.idle.tracked", this.connections, Map::size )
+                .description( "Connections watched for idleness" )
+                .register( meterRegistry );
+        this.pinged = Counter.builder( "tcp.idle.pinged" )
+                .description( "Heartbeat pings sent to idle connections" )
+                .register( meterRegistry );
+        this.reaped = Counter.builder( "tcp.idle.closed" )
+                .description( "Connections closed for being idle past the timeout" )
+                .register( meterRegistry );
+
+    }
+
+    @EventListener
+    public void open( TcpConnectionOpenEvent event ) {
+
+        register( event.getConnectionId() );
+
+    }
+
+    @EventListener
+    public void close( TcpConnectionCloseEvent event ) {
+
+        unregister( event.getConnectionId() );
+
+    }
+
+    public void register( String connectionId ) {
+
+        if( this.idleTimeoutNanos == 0 ) {
+
+            return;
+        }
+
+        var tracked = new Tracked( connectionId, this.nanoTime.getAsLong() );
+        this.connections.put( connectionId, tracked );
+        schedule( tracked, nextCheck( tracked ) );
+
+    }
+
+    public void unregister( String connectionId ) {
+
+        var tracked = this.connections.remove( connectionId );
+        if( tracked != null ) {
+
+            // dropped from the wheel when its slot comes up
+            tracked.removed = true;
+
+        }
+
+    }
+
+    /**
+     * Records a frame read from the connection.
+     */
+    public void touch( String connectionId ) {
+
+        var tracked = this.connections.get( connectionId );
+        if( tracked != null ) {
+
+            tracked.lastRead = this.nanoTime.getAsLong();
+            if( tracked.pinged ) {
+
+                tracked.pinged = false;
+
+            }
+
+        }
+
+    }
+
+    // every inbound frame passes here before it is filtered or decoded
+    @Override
+    public Message<?> preSend( Message<?> message, MessageChannel channel ) {
+
+        var connectionId = message.getHeaders().get( IpHeaders.CONNECTION_ID, String.class );
+        if( connectionId != null ) {
+
+            touch( connectionId );
+
+        }
+
+        return message;
+    }
+
+    public int getTrackedCount() {
+
+        return this.connections.size();
+    }
+
+    /**
+     * Processes every slot that has come due by {@code now}.
+     */
+    void expire( long now ) {
+
+        var due = tickOf( now );
+        for( var tick = this.processedTick + 1; tick <= due; tick++ ) {
+
+            // from here on nothing is scheduled into this slot, a check due within this tick goes to the next one
+            this.wheelLock.lock();
+            try {
+
+                this.processedTick = tick;
+
+            } finally {
+
+                this.wheelLock.unlock();
+
+            }
+
+            var slot = this.wheel.get( (int) ( tick & this.mask ) );
+            for( int n = slot.size(); n > 0; n-- ) {
+
+                var tracked = slot.poll();
+                if( tracked == null ) {
+
+                    break;
+                }
+
+                if( !tracked.removed ) {
+
+                    check( tracked, now );
+
+                }
+
+            }
+
+        }
+
+    }
+
+    private void check( Tracked tracked, long now ) {
+
+        var nextCheck = nextCheck( tracked );
+        if( nextCheck > now ) {
+
+            // read from since it was scheduled
+            schedule( tracked, nextCheck );
+
+            return;
+        }
+
+        var idle = now - tracked.lastRead;
+        if( idle >= this.idleTimeoutNanos ) {
+
+            log.debug( "check : connection [{}] idle for {}ms, closing", tracked.connectionId, TimeUnit.NANOSECONDS.toMillis( idle ) );
+            this.connections.remove( tracked.connectionId, tracked );
+            tracked.removed = true;
+            this.reaped.increment();
+            this.closeConnection.accept( tracked.connectionId );
+
+            return;
+        }
+
+        tracked.pinged = true;
+        if( this.heartbeatSender.test( tracked.connectionId, ResponseEncoder.PING ) ) {
+
+            this.pinged.increment();
+
+        }
+        schedule( tracked, nextCheck( tracked ) );
+
+    }
+
+    // the heartbeat while unanswered pings are outstanding, the timeout after
+    private long nextCheck( Tracked tracked ) {
+
+        return tracked.lastRead + ( this.heartbeatNanos > 0 && !tracked.pinged ? this.heartbeatNanos : this.idleTimeoutNanos );
+    }
+
+    private void schedule( Tracked tracked, long at ) {
+
+        // never into a slot that has already been taken up, it would wait a full turn of the wheel
+        this.wheelLock.lock();
+        try {
+
+            var tick = Math.max( tickOf( at ), this.processedTick + 1 );
+            this.wheel.get( (int) ( tick & this.mask ) ).add( tracked );
+
+        } finally {
+
+            this.wheelLock.unlock();
+
+        }
+
+    }
+
+    private long tickOf( long nanos ) {
+
+        return Math.floorDiv( nanos, this.tickNanos );
+    }
+
+    @Override
+    public void start() {
+
+        this.running = true;
+        if( this.idleTimeoutNanos == 0 ) {
+
+            return;
+        }
+
+        this.reaper = Thread.ofPlatform().name( "idle-reaper" ).daemon().start( this::run );
+        log.info( "start : closing connections idle for {}s", TimeUnit.NANOSECONDS.toSeconds( this.idleTimeoutNanos ) );
+
+    }
+
+    @Override
+    public void stop() {
+
+        this.running = false;
+        if( this.reaper != null ) {
+
+            LockSupport.unpark( this.reaper );
+            try {
+
+                this.reaper.join();
+
+            } catch( InterruptedException e ) {
+
+                Thread.currentThread().interrupt();
+
+            }
+
+        }
+
+    }
+
+    @Override
+    public boolean isRunning() {
+
+        return this.running;
+    }
+
+    private void run() {
+
+        while( this.running ) {
+
+            try {
+
+                expire( this.nanoTime.getAsLong() );
+
+            } catch( RuntimeException e ) {
+
+                log.warn( "run : reaping idle connections failed", e );
+
+            }
+
+            LockSupport.parkNanos( this.tickNanos );
+
+        }
+
+    }
+
+    static final class Tracked {
+
+        final String connectionId;
+
+        volatile long lastRead;
+
+        // a ping went out and nothing has been read since
+        volatile boolean pinged;
+
+        volatile boolean removed;
+
+        Tracked( String connectionId, long lastRead ) {
+
+            this.connectionId = connectionId;
+            this.lastRead = lastRead;
+
+        }
+
+    }
+
+}
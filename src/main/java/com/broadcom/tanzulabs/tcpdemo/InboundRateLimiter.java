@@ -0,0 +1,369 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.integration.core.MessageSelector;
+import org.springframework.integration.ip.IpHeaders;
+import org.springframework.messaging.Message;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket limits per connection and per logged in user, checked on the raw frame before it is decoded so a
+ * rejected frame costs two map lookups and a compare and set.
+ * <p>
+ * Each bucket is a single {@code AtomicLong} holding the time the next frame is due (the generic cell rate
+ * algorithm, equivalent to a token bucket of {@code burst} tokens refilled at {@code framesPerSecond}). A frame over
+ * the limit is handled by the {@link Policy}: dropped, held on the reading thread until it conforms, which pushes
+ * back on the client through TCP, or the connection is closed.
+ * <p>
+ * A refilled bucket behaves like a new one, so buckets that refilled are dropped every {@code SWEEP_INTERVAL}
+ * whether or not their connection or user is still around. That also clears the bucket of a frame read after its
+ * connection was removed.
+ */
+public class InboundRateLimiter implements MessageSelector {
+
+    private static final Logger log = LoggerFactory.getLogger( InboundRateLimiter.class );
+
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos( 10 );
+
+    public enum Policy {
+
+        // discard the frame
+        DROP( "drop" ),
+
+        // wait on the reading thread until the frame conforms
+        THROTTLE( "throttle" ),
+
+        // discard the frame and close the connection
+        CLOSE( "close" );
+
+        private final String value;
+
+        Policy( String value ) {
+
+            this.value = value;
+
+        }
+
+        public static Policy of( String value ) {
+
+            return Arrays.stream( values() )
+                    .filter( p -> p.value.equalsIgnoreCase( value ) )
+                    .findFirst()
+                    .orElseThrow( () -> new IllegalArgumentException( "unknown limits policy [" + value + "]" ) );
+        }
+
+        @Override
+        public String toString() {
+
+            return this.value;
+        }
+
+    }
+
+    /**
+     * @param framesPerSecond 0 turns the limit off
+     */
+    public record Limit( double framesPerSecond, int burst ) {
+
+        public static final Limit NONE = new Limit( 0, 0 );
+
+        boolean enabled() {
+
+            return this.framesPerSecond > 0;
+        }
+
+        long intervalNanos() {
+
+            return (long) ( TimeUnit.SECONDS.toNanos( 1 ) / this.framesPerSecond );
+        }
+
+    }
+
+    private final Limit connectionLimit;
+    private final Limit userLimit;
+    private final Policy policy;
+
+    private final SessionDirectory sessionDirectory;
+
+    private final Consumer<String> closeConnection;
+
+    private final LongSupplier nanoTime;
+
+    // connectionId -> bucket
+    private final Map<String, Bucket> connections = new ConcurrentHashMap<>();
+
+    // username -> bucket, shared by every connection the user logs in from
+    private final Map<String, Bucket> users = new ConcurrentHashMap<>();
+
+    // connections already being closed for exceeding a limit
+    private final Set<String> closing = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong nextSweep;
+
+    private final Counter connectionRejected;
+    private final Counter userRejected;
+    private final Counter closed;
+    private final Timer throttled;
+
+    public InboundRateLimiter(
+            Limit connectionLimit, Limit userLimit, Policy policy, SessionDirectory sessionDirectory, Consumer<String> closeConnection,
+            MeterRegistry meterRegistry ) {
+
+        this( connectionLimit, userLimit, policy, sessionDirectory, closeConnection, meterRegistry, System::nanoTime );
+
+    }
+
+    InboundRateLimiter(
+            Limit connectionLimit, Limit userLimit, Policy policy, SessionDirectory sessionDirectory, Consumer<String> closeConnection,
+            MeterRegistry meterRegistry, LongSupplier nanoTime ) {
+
+        this.connectionLimit = connectionLimit;
+        this.userLimit = userLimit;
+        this.policy = policy;
+        this.sessionDirectory = sessionDirectory;
+        this.closeConnection = closeConnection;
+        this.nanoTime = nanoTime;
+        this.nextSweep = new AtomicLong( nanoTime.getAsLong() + SWEEP_INTERVAL_NANOS );
+
+        this.connectionRejected = rejected( meterRegistry, "connection" );
+        this.userRejected = rejected( meterRegistry, "user" );
+        this.closed = Counter.builder( "tcp.limits.connections.closed" )
+                .description( "Connections closed for exceeding a rate limit" )
+                .register( meterRegistry );
+        this.throttled = Timer.builder( "tcp.limits.throttled" )
+                .description( "Time frames over a rate limit were held on the reading thread" )
+                .register( meterRegistry );
+
+    }
+
+    private Counter rejected( MeterRegistry meterRegistry, String scope ) {
+
+        return Counter.builder( "tcp.limits.rejected" )
+                .description( "Inbound frames over a rate limit" )
+                .tag( "scope", scope )
+                .tag( "policy", this.policy.toString() )
+                .register( meterRegistry );
+    }
+
+    @Override
+    public boolean accept( Message<?> message ) {
+
+        var connectionId = message.getHeaders().get( IpHeaders.CONNECTION_ID, String.class );
+        if( connectionId == null ) {
+
+            return true;
+        }
+
+        var now = this.nanoTime.getAsLong();
+        var connection = this.connectionLimit.enabled()
+                ? bucket( this.connections, connectionId, this.connectionLimit, now )
+                : null;
+        var user = this.userLimit.enabled()
+                ? this.sessionDirectory.getUsername( connectionId ).map( u -> bucket( this.users, u, this.userLimit, now ) ).orElse( null )
+                : null;
+
+        if( this.policy == Policy.THROTTLE ) {
+
+            return throttle( connection, user );
+        }
+
+        if( connection != null && !connection.tryAcquire( now ) ) {
+
+            this.connectionRejected.increment();
+
+            return reject( connectionId );
+        }
+        if( user != null && !user.tryAcquire( now ) ) {
+
+            this.userRejected.increment();
+
+            return reject( connectionId );
+        }
+
+        return true;
+    }
+
+    // a new bucket is the only way the maps grow, so that is where the refilled ones are swept
+    private Bucket bucket( Map<String, Bucket> buckets, String key, Limit limit, long now ) {
+
+        var bucket = buckets.get( key );
+        if( bucket != null ) {
+
+            return bucket;
+        }
+
+        sweep( now );
+
+        return buckets.computeIfAbsent( key, k -> new Bucket( limit ) );
+    }
+
+    private void sweep( long now ) {
+
+        var due = this.nextSweep.get();
+        if( now - due < 0 || !this.nextSweep.compareAndSet( due, now + SWEEP_INTERVAL_NANOS ) ) {
+
+            return;
+        }
+
+        this.connections.values().removeIf( bucket -> bucket.isFull( now ) );
+        this.users.values().removeIf( bucket -> bucket.isFull( now ) );
+
+    }
+
+    private boolean reject( String connectionId ) {
+
+        // whichever limit it exceeded, the connection is closed once
+        if( this.policy == Policy.CLOSE && this.closing.add( connectionId ) ) {
+
+            log.info( "accept : connection [{}] exceeded its rate limit, closing", connectionId );
+            this.closed.increment();
+            this.closeConnection.accept( connectionId );
+
+        }
+
+        return false;
+    }
+
+    private boolean throttle( Bucket connection, Bucket user ) {
+
+        var now = this.nanoTime.getAsLong();
+        var connectionDelay = connection != null ? connection.reserve( now ) : 0;
+        var userDelay = user != null ? user.reserve( now ) : 0;
+        var delay = Math.max( connectionDelay, userDelay );
+        if( delay <= 0 ) {
+
+            return true;
+        }
+
+        if( connectionDelay > 0 ) {
+
+            this.connectionRejected.increment();
+
+        } else {
+
+            this.userRejected.increment();
+
+        }
+
+        try {
+
+            TimeUnit.NANOSECONDS.sleep( delay );
+            this.throttled.record( delay, TimeUnit.NANOSECONDS );
+
+            return true;
+        } catch( InterruptedException e ) {
+
+            Thread.currentThread().interrupt();
+
+            return false;
+        }
+
+    }
+
+    /**
+     * Drops the connection's bucket, and the user's once it has refilled. A user still over the limit keeps theirs,
+     * reconnecting does not reset it, until a later sweep finds it refilled.
+     */
+    public void removeConnection( String connectionId, String username ) {
+
+        this.connections.remove( connectionId );
+        this.closing.remove( connectionId );
+
+        var now = this.nanoTime.getAsLong();
+        if( username != null ) {
+
+            this.users.computeIfPresent( username, ( u, bucket ) -> bucket.isFull( now ) ? null : bucket );
+
+        }
+        sweep( now );
+
+    }
+
+    int getConnectionBucketCount() {
+
+        return this.connections.size();
+    }
+
+    int getUserBucketCount() {
+
+        return this.users.size();
+    }
+
+    static final class Bucket {
+
+        private final long interval;
+
+        // how far ahead of now the next due time may run, the burst
+        private final long tolerance;
+
+        // the time the next frame is due at the configured rate
+        private final AtomicLong due;
+
+        Bucket( Limit limit ) {
+
+            this.interval = limit.intervalNanos();
+            this.tolerance = this.interval * Math.max( 0, limit.burst() - 1 );
+            this.due = new AtomicLong( Long.MIN_VALUE );
+
+        }
+
+        boolean tryAcquire( long now ) {
+
+            while( true ) {
+
+                var current = this.due.get();
+                var start = Math.max( current, now );
+                if( start - now > this.tolerance ) {
+
+                    return false;
+                }
+
+                if( this.due.compareAndSet( current, start + this.interval ) ) {
+
+                    return true;
+                }
+
+            }
+
+        }
+
+        /**
+         * Takes a token whether or not one is available.
+         *
+         * @return nanos to wait before the frame conforms, 0 if it does now
+         */
+        long reserve( long now ) {
+
+            while( true ) {
+
+                var current = this.due.get();
+                var start = Math.max( current, now );
+                if( this.due.compareAndSet( current, start + this.interval ) ) {
+
+                    return Math.max( 0, start - now - this.tolerance );
+                }
+
+            }
+
+        }
+
+        boolean isFull( long now ) {
+
+            return this.due.get() <= now;
+        }
+
+    }
+
+}
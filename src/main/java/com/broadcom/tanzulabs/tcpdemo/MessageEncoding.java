@@ -0,0 +1,126 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * How a connection's frames are encoded, chosen with the {@code encoding} field of its login command.
+ * <p>
+ * Replies are built as JSON by {@link ResponseEncoder}, and stored and forwarded between nodes as JSON, a binary
+ * encoding is only applied on the way out to a connection that asked for it. Inbound frames announce their encoding
+ * in their first bytes, so decoding needs no per connection state.
+ */
+public enum MessageEncoding {
+
+    JSON( "json", new JsonFactory() ),
+
+    // Jackson Smile, frames start with the ":)\n" header
+    SMILE( "smile", new SmileFactory() ),
+
+    // RFC 8949, frames start with a map
+    CBOR( "cbor", new CBORFactory() );
+
+    private final String value;
+
+    private final JsonFactory factory;
+
+    MessageEncoding( String value, JsonFactory factory ) {
+
+        this.value = value;
+        this.factory = factory;
+
+    }
+
+    public static MessageEncoding of( String value ) {
+
+        return Arrays.stream( values() )
+                .filter( e -> e.value.equalsIgnoreCase( value ) )
+                .findFirst()
+                .orElseThrow( () -> new IllegalArgumentException( "unknown encoding [" + value + "]" ) );
+    }
+
+    /**
+     * Tells the encoding from the first bytes of a frame, JSON text never starts with a CBOR map byte or the Smile header.
+     */
+    public static MessageEncoding detect( byte[] frame ) {
+
+        return detect( frame, 0, frame.length );
+    }
+
+    public static MessageEncoding detect( byte[] frame, int offset, int length ) {
+
+        if( length >= 3 && frame[ offset ] == ':' && frame[ offset + 1 ] == ')' && frame[ offset + 2 ] == '\n' ) {
+
+            return SMILE;
+        }
+
+        // major type 5 is a map, 0xd9 starts the self describe tag 55799
+        var first = length > 0 ? frame[ offset ] & 0xFF : 0;
+        if( ( first & 0xE0 ) == 0xA0 || first == 0xD9 ) {
+
+            return CBOR;
+        }
+
+        return JSON;
+    }
+
+    public boolean isBinary() {
+
+        return this != JSON;
+    }
+
+    public JsonParser createParser( byte[] frame ) throws IOException {
+
+        return this.factory.createParser( frame );
+    }
+
+    public JsonParser createParser( byte[] frame, int offset, int length ) throws IOException {
+
+        return this.factory.createParser( frame, offset, length );
+    }
+
+    public JsonParser createParser( InputStream frame ) throws IOException {
+
+        return this.factory.createParser( frame );
+    }
+
+    /**
+     * Re-encodes a JSON frame token by token, without building a tree. Every call transcodes, a caller sending one
+     * frame to many connections keeps the result per encoding, see {@link OutboundWriter#broadcast}.
+     */
+    public byte[] fromJson( byte[] json ) throws IOException {
+
+        if( this == JSON ) {
+
+            return json;
+        }
+
+        var out = new ByteArrayBuilder( json.length );
+        try( var parser = JSON.factory.createParser( json );
+             var generator = this.factory.createGenerator( out ) ) {
+
+            while( parser.nextToken() != null ) {
+
+                generator.copyCurrentEvent( parser );
+
+            }
+
+        }
+
+        return out.toByteArray();
+    }
+
+    @Override
+    public String toString() {
+
+        return this.value;
+    }
+
+}
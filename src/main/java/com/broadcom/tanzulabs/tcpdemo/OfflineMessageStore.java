@@ -0,0 +1,911 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Keeps chat messages for users that are not logged in and replays them, in order, once they are.
+ * <p>
+ * Every recipient gets a directory of append-only, memory-mapped segment files holding
+ * {@code [int length][long storedAt][payload]} records, the length is written last so a torn record reads as the end
+ * of the segment. Callers only enqueue, a single writer thread applies appends and replays in arrival order and
+ * forces the segments it touched once per drained batch (group commit). A recipient keeps at most
+ * {@code maxMessagesPerUser} messages, the oldest are dropped first, and messages older than the ttl are discarded.
+ * A replayed or dropped record has its length negated in place and is forced with the batch, a crash before that
+ * replays it again. Segments are deleted once every record in them is consumed.
+ * <p>
+ * Only users that logged in once are stored for, remembered across restarts, and the store as a whole holds at most
+ * {@code maxRecipients} backlogs and {@code maxBytes} of records, so made up names cannot fill the disk.
+ */
+public class OfflineMessageStore implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger( OfflineMessageStore.class );
+
+    private static final int RECORD_HEADER = Integer.BYTES + Long.BYTES;
+
+    private static final int MAX_BATCH = 1024;
+
+    // a backlog's first segment, each next one doubles up to the segment size so a few messages map a few pages
+    private static final int INITIAL_SEGMENT_SIZE = 64 * 1024;
+
+    // how long a replay waits for room in the recipient's outbound queue before leaving the rest for later
+    private static final long DELIVERY_STALL_NANOS = TimeUnit.SECONDS.toNanos( 5 );
+
+    // how often backlogs nobody came for are checked for expired messages
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos( 1 );
+
+    private static final String KNOWN_USERS = "known-users";
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final Path directory;
+    private final int maxMessagesPerUser;
+    private final int maxRecipients;
+    private final long maxBytes;
+    private final long ttlMillis;
+    private final int segmentSize;
+    private final boolean fsync;
+    private final OutboundWriter outboundWriter;
+
+    private final BlockingQueue<Operation> operations;
+
+    // recipient -> messages appended but not yet replayed or discarded, read by callers to keep ordering
+    private final Map<String, Integer> pending = new ConcurrentHashMap<>();
+
+    // record bytes appended but not yet replayed or discarded, across all recipients
+    private final AtomicLong storedBytes = new AtomicLong();
+
+    // users that logged in at least once, nothing is stored for anyone else
+    private final Set<String> knownUsers = ConcurrentHashMap.newKeySet();
+
+    // writer thread only
+    private final Map<String, Backlog> backlogs = new HashMap<>();
+
+    // recipient -> replay waiting for room in the connection's outbound queue, writer thread only
+    private final Map<String, Stall> stalled = new HashMap<>();
+
+    private long nextSweep;
+
+    private volatile boolean running;
+
+    private Thread writer;
+
+    public OfflineMessageStore(
+            Path directory, int maxMessagesPerUser, int maxRecipients, long maxBytes, Duration ttl, int segmentSize, int queueCapacity,
+            boolean fsync, OutboundWriter outboundWriter ) {
+
+        this.directory = directory;
+        this.maxMessagesPerUser = maxMessagesPerUser;
+        this.maxRecipients = maxRecipients;
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttl.toMillis();
+        this.segmentSize = segmentSize;
+        this.fsync = fsync;
+        this.outboundWriter = outboundWriter;
+        this.operations = new LinkedBlockingQueue<>( queueCapacity );
+
+    }
+
+    /**
+     * Queue a message for a recipient, never blocks.
+     *
+     * @return false if the recipient never logged in, the store is full or the writer is not keeping up
+     */
+    public boolean append( String recipient, byte[] payload ) {
+
+        if( !this.knownUsers.contains( recipient ) ) {
+
+            log.debug( "append : [{}] never logged in, message not stored", recipient );
+
+            return false;
+        }
+
+        if( !this.pending.containsKey( recipient ) && this.pending.size() >= this.maxRecipients ) {
+
+            log.debug( "append : [{}] users already have messages waiting, message for [{}] not stored", this.maxRecipients, recipient );
+
+            return false;
+        }
+
+        var size = RECORD_HEADER + payload.length;
+        if( this.storedBytes.addAndGet( size ) > this.maxBytes ) {
+
+            this.storedBytes.addAndGet( -size );
+            log.debug( "append : store is full, message for [{}] not stored", recipient );
+
+            return false;
+        }
+
+        this.pending.merge( recipient, 1, Integer::sum );
+        if( !this.operations.offer( new Append( recipient, System.currentTimeMillis(), payload ) ) ) {
+
+            release( recipient, 1, size );
+            log.debug( "append : writer is behind, message for [{}] not stored", recipient );
+
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Replay everything queued for the recipient to the connection, after any appends already queued. Called at
+     * login, the recipient is remembered from then on.
+     */
+    public void deliver( String recipient, String connectionId ) {
+
+        remember( recipient );
+        if( this.pending.containsKey( recipient ) && !this.operations.offer( new Deliver( recipient, connectionId ) ) ) {
+
+            log.warn( "deliver : writer is behind, replay for [{}] deferred", recipient );
+
+        }
+
+    }
+
+    /**
+     * Accept messages for the user from now on, for users that logged in somewhere this store does not see.
+     */
+    public void remember( String username ) {
+
+        if( username != null && this.knownUsers.add( username ) && !this.operations.offer( new Remember( username ) ) ) {
+
+            log.warn( "remember : writer is behind, [{}] is not remembered across a restart", username );
+
+        }
+
+    }
+
+    /**
+     * True while the recipient has messages waiting, new messages must then be appended behind them to stay in order.
+     */
+    public boolean hasPending( String recipient ) {
+
+        return this.pending.containsKey( recipient );
+    }
+
+    public int getPending( String recipient ) {
+
+        return this.pending.getOrDefault( recipient, 0 );
+    }
+
+    public long getStoredBytes() {
+
+        return this.storedBytes.get();
+    }
+
+    /**
+     * Completes once everything queued before it has been written and forced.
+     */
+    public CompletableFuture<Void> flush() {
+
+        var flush = new Flush( new CompletableFuture<>() );
+        try {
+
+            this.operations.put( flush );
+
+        } catch( InterruptedException e ) {
+
+            Thread.currentThread().interrupt();
+            flush.done().completeExceptionally( e );
+
+        }
+
+        return flush.done();
+    }
+
+    @Override
+    public void start() {
+
+        try {
+
+            Files.createDirectories( this.directory );
+            load();
+
+        } catch( IOException e ) {
+
+            throw new UncheckedIOException( "could not open offline store at " + this.directory, e );
+        }
+
+        this.running = true;
+        this.nextSweep = System.nanoTime() + SWEEP_INTERVAL_NANOS;
+        this.writer = Thread.ofPlatform().name( "offline-store-writer" ).start( this::run );
+        log.info( "start : offline store at [{}] holds messages for [{}] users", this.directory, this.backlogs.size() );
+
+    }
+
+    @Override
+    public void stop() {
+
+        if( this.writer == null ) {
+
+            return;
+        }
+
+        this.running = false;
+        try {
+
+            this.writer.join();
+
+        } catch( InterruptedException e ) {
+
+            Thread.currentThread().interrupt();
+
+        }
+
+        this.backlogs.values().forEach( Backlog::close );
+        this.backlogs.clear();
+        this.stalled.clear();
+
+    }
+
+    @Override
+    public boolean isRunning() {
+
+        return this.running;
+    }
+
+    // started before the inbound adapter reads anything and stopped after it, so no chat arrives once the writer is gone
+    @Override
+    public int getPhase() {
+
+        return Integer.MIN_VALUE / 2;
+    }
+
+    private void run() {
+
+        var batch = new ArrayList<Operation>( MAX_BATCH );
+        var touched = new HashSet<Backlog>();
+        var flushes = new ArrayList<Flush>();
+        while( this.running || !this.operations.isEmpty() ) {
+
+            try {
+
+                // stalled replays are retried between batches, so nobody waits on a recipient that is not reading
+                var first = this.operations.poll( this.stalled.isEmpty() ? 100 : 1, TimeUnit.MILLISECONDS );
+                if( first != null ) {
+
+                    batch.add( first );
+                    this.operations.drainTo( batch, MAX_BATCH - 1 );
+
+                }
+
+            } catch( InterruptedException e ) {
+
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            for( var operation : batch ) {
+
+                try {
+
+                    switch( operation ) {
+                        case Append append -> touched.add( append( append ) );
+                        case Deliver deliver -> replay( deliver.recipient(), deliver.connectionId(), touched );
+                        case Remember remember -> persistKnownUser( remember.username() );
+                        case Flush flush -> flushes.add( flush );
+                    }
+
+                } catch( RuntimeException e ) {
+
+                    log.error( "run : offline store operation [{}] failed", operation, e );
+                    if( operation instanceof Append append ) {
+
+                        release( append.recipient(), 1, RECORD_HEADER + append.payload().length );
+
+                    }
+
+                }
+
+            }
+
+            for( var stall : List.copyOf( this.stalled.entrySet() ) ) {
+
+                replay( stall.getKey(), stall.getValue().connectionId(), touched );
+
+            }
+
+            if( System.nanoTime() - this.nextSweep > 0 ) {
+
+                sweep( touched );
+                this.nextSweep = System.nanoTime() + SWEEP_INTERVAL_NANOS;
+
+            }
+
+            // one force per batch for every segment written, instead of one per message
+            if( this.fsync ) {
+
+                touched.forEach( Backlog::force );
+
+            }
+            flushes.forEach( flush -> flush.done().complete( null ) );
+
+            batch.clear();
+            touched.clear();
+            flushes.clear();
+
+        }
+
+    }
+
+    private Backlog append( Append append ) {
+
+        var backlog = this.backlogs.computeIfAbsent( append.recipient(), this::newBacklog );
+        backlog.append( append.storedAt(), append.payload() );
+        trim( append.recipient(), backlog, append.storedAt() );
+
+        return backlog;
+    }
+
+    // writes as much of the backlog as the connection's queue takes now, the rest is retried after the next batch
+    private void replay( String recipient, String connectionId, Set<Backlog> touched ) {
+
+        var backlog = this.backlogs.get( recipient );
+        if( backlog == null ) {
+
+            this.stalled.remove( recipient );
+
+            return;
+        }
+
+        var now = System.currentTimeMillis();
+        var delivered = 0;
+        var expired = 0;
+        var bytes = 0L;
+        var full = false;
+        while( backlog.count() > 0 ) {
+
+            if( isExpired( backlog.headStoredAt(), now ) ) {
+
+                bytes += backlog.skipHead();
+                expired++;
+                continue;
+            }
+
+            var remaining = this.outboundWriter.remainingCapacity( connectionId );
+            if( remaining == 0 ) {
+
+                full = true;
+                break;
+            }
+
+            if( remaining < 0 || !this.outboundWriter.write( connectionId, backlog.headPayload() ) ) {
+
+                log.debug( "replay : connection [{}] is gone, [{}] messages left for [{}]", connectionId, backlog.count(), recipient );
+                break;
+            }
+
+            bytes += backlog.skipHead();
+            delivered++;
+
+        }
+
+        if( delivered + expired > 0 ) {
+
+            release( recipient, delivered + expired, bytes );
+            touched.add( backlog );
+            log.debug( "replay : [{}] messages delivered, [{}] expired for [{}]", delivered, expired, recipient );
+
+        }
+
+        if( backlog.count() == 0 ) {
+
+            backlog.delete();
+            this.backlogs.remove( recipient );
+            touched.remove( backlog );
+
+        }
+
+        stall( recipient, connectionId, full && backlog.count() > 0, delivered > 0 );
+
+    }
+
+    // keeps a replay that found the queue full until it makes no progress for the stall timeout
+    private void stall( String recipient, String connectionId, boolean full, boolean progressed ) {
+
+        if( !full ) {
+
+            this.stalled.remove( recipient );
+
+            return;
+        }
+
+        var previous = this.stalled.get( recipient );
+        var since = progressed || previous == null || !previous.connectionId().equals( connectionId ) ? System.nanoTime() : previous.since();
+        if( System.nanoTime() - since > DELIVERY_STALL_NANOS ) {
+
+            log.debug( "stall : connection [{}] stopped reading, messages left for [{}] until the next login", connectionId, recipient );
+            this.stalled.remove( recipient );
+
+            return;
+        }
+
+        this.stalled.put( recipient, new Stall( connectionId, since ) );
+
+    }
+
+    private void trim( String recipient, Backlog backlog, long now ) {
+
+        var dropped = 0;
+        var bytes = 0L;
+        while( backlog.count() > this.maxMessagesPerUser || ( backlog.count() > 0 && isExpired( backlog.headStoredAt(), now ) ) ) {
+
+            bytes += backlog.skipHead();
+            dropped++;
+
+        }
+
+        if( dropped > 0 ) {
+
+            release( recipient, dropped, bytes );
+
+        }
+
+    }
+
+    // backlogs of users that never come back are only trimmed here, emptied ones are deleted and their mappings let go
+    private void sweep( Set<Backlog> touched ) {
+
+        var now = System.currentTimeMillis();
+        var iterator = this.backlogs.entrySet().iterator();
+        while( iterator.hasNext() ) {
+
+            var entry = iterator.next();
+            var backlog = entry.getValue();
+            trim( entry.getKey(), backlog, now );
+            if( backlog.count() == 0 ) {
+
+                backlog.delete();
+                iterator.remove();
+                touched.remove( backlog );
+                this.stalled.remove( entry.getKey() );
+
+            } else {
+
+                touched.add( backlog );
+
+            }
+
+        }
+
+    }
+
+    private boolean isExpired( long storedAt, long now ) {
+
+        return now - storedAt > this.ttlMillis;
+    }
+
+    private void release( String recipient, int messages, long bytes ) {
+
+        this.pending.computeIfPresent( recipient, ( r, count ) -> count > messages ? count - messages : null );
+        this.storedBytes.addAndGet( -bytes );
+
+    }
+
+    private Backlog newBacklog( String recipient ) {
+
+        return new Backlog( this.directory.resolve( HEX.formatHex( recipient.getBytes( StandardCharsets.UTF_8 ) ) ), this.segmentSize );
+    }
+
+    private void persistKnownUser( String username ) {
+
+        try {
+
+            Files.writeString(
+                    this.directory.resolve( KNOWN_USERS ), HEX.formatHex( username.getBytes( StandardCharsets.UTF_8 ) ) + "\n",
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND );
+
+        } catch( IOException e ) {
+
+            throw new UncheckedIOException( e );
+        }
+
+    }
+
+    // rebuild the in memory state from the segments left by the last run
+    private void load() throws IOException {
+
+        var knownUsers = this.directory.resolve( KNOWN_USERS );
+        if( Files.exists( knownUsers ) ) {
+
+            for( var line : Files.readAllLines( knownUsers ) ) {
+
+                try {
+
+                    this.knownUsers.add( new String( HEX.parseHex( line ), StandardCharsets.UTF_8 ) );
+
+                } catch( IllegalArgumentException e ) {
+
+                    log.warn( "load : ignoring known user [{}]", line );
+
+                }
+
+            }
+
+        }
+
+        var now = System.currentTimeMillis();
+        try( Stream<Path> recipients = Files.list( this.directory ) ) {
+
+            for( var path : recipients.filter( Files::isDirectory ).toList() ) {
+
+                String recipient;
+                try {
+
+                    recipient = new String( HEX.parseHex( path.getFileName().toString() ), StandardCharsets.UTF_8 );
+
+                } catch( IllegalArgumentException e ) {
+
+                    log.warn( "load : ignoring [{}], not a recipient directory", path );
+                    continue;
+                }
+
+                var backlog = Backlog.open( path, this.segmentSize );
+                this.knownUsers.add( recipient );
+                this.pending.put( recipient, backlog.count() );
+                this.storedBytes.addAndGet( backlog.bytes() );
+                trim( recipient, backlog, now );
+                if( backlog.count() == 0 ) {
+
+                    backlog.delete();
+
+                } else {
+
+                    backlog.force();
+                    this.backlogs.put( recipient, backlog );
+
+                }
+
+            }
+
+        }
+
+    }
+
+    sealed interface Operation permits Append, Deliver, Remember, Flush { }
+
+    record Append( String recipient, long storedAt, byte[] payload ) implements Operation { }
+
+    record Deliver( String recipient, String connectionId ) implements Operation { }
+
+    record Remember( String username ) implements Operation { }
+
+    record Flush( CompletableFuture<Void> done ) implements Operation { }
+
+    record Stall( String connectionId, long since ) { }
+
+    /**
+     * The segments of one recipient, oldest first. Only touched by the writer thread.
+     */
+    static final class Backlog {
+
+        private final Path directory;
+
+        private final int segmentSize;
+
+        private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+
+        private int count;
+
+        private long bytes;
+
+        private Backlog( Path directory, int segmentSize ) {
+
+            this.directory = directory;
+            this.segmentSize = segmentSize;
+
+        }
+
+        static Backlog open( Path directory, int segmentSize ) throws IOException {
+
+            var backlog = new Backlog( directory, segmentSize );
+            try( Stream<Path> files = Files.list( directory ) ) {
+
+                for( var path : files.filter( p -> p.getFileName().toString().endsWith( ".seg" ) ).sorted().toList() ) {
+
+                    var segment = Segment.open( path, 0 );
+                    backlog.segments.add( segment );
+                    backlog.count += segment.scan();
+                    backlog.bytes += segment.liveBytes();
+
+                }
+
+            }
+
+            return backlog;
+        }
+
+        int count() {
+
+            return this.count;
+        }
+
+        long bytes() {
+
+            return this.bytes;
+        }
+
+        void append( long storedAt, byte[] payload ) {
+
+            var tail = this.segments.peekLast();
+            if( tail == null || !tail.hasRoom( payload.length ) ) {
+
+                var sequence = tail == null ? 0 : tail.sequence() + 1;
+                var size = tail == null ? Math.min( this.segmentSize, INITIAL_SEGMENT_SIZE ) : (int) Math.min( this.segmentSize, 2L * tail.capacity() );
+                tail = Segment.create( this.directory, sequence, Math.max( size, RECORD_HEADER + payload.length ) );
+                this.segments.add( tail );
+
+            }
+
+            tail.append( storedAt, payload );
+            this.count++;
+            this.bytes += RECORD_HEADER + payload.length;
+
+        }
+
+        long headStoredAt() {
+
+            return head().storedAt();
+        }
+
+        byte[] headPayload() {
+
+            return head().payload();
+        }
+
+        // @return the bytes the record took
+        int skipHead() {
+
+            var size = head().skip();
+            this.count--;
+            this.bytes -= size;
+
+            return size;
+        }
+
+        // the first segment with an unread record, fully read segments in front of it are deleted
+        private Segment head() {
+
+            var head = this.segments.peekFirst();
+            while( head.isExhausted() ) {
+
+                this.segments.removeFirst().delete();
+                head = this.segments.peekFirst();
+
+            }
+
+            return head;
+        }
+
+        void force() {
+
+            this.segments.forEach( Segment::force );
+
+        }
+
+        void close() {
+
+            this.segments.forEach( Segment::close );
+
+        }
+
+        void delete() {
+
+            this.segments.forEach( Segment::delete );
+            this.segments.clear();
+            try {
+
+                Files.deleteIfExists( this.directory );
+
+            } catch( IOException e ) {
+
+                log.warn( "delete : could not remove [{}]", this.directory, e );
+
+            }
+
+        }
+
+    }
+
+    /**
+     * One mapped segment file. The mapping lives until the buffer is collected, the file itself is removed on delete.
+     * A consumed record keeps its place with a negated length, so the read position survives a restart.
+     */
+    static final class Segment {
+
+        private final Path path;
+
+        private final long sequence;
+
+        private final MappedByteBuffer buffer;
+
+        private int readPosition;
+
+        private int writePosition;
+
+        private boolean dirty;
+
+        private Segment( Path path, long sequence, MappedByteBuffer buffer ) {
+
+            this.path = path;
+            this.sequence = sequence;
+            this.buffer = buffer;
+
+        }
+
+        static Segment create( Path directory, long sequence, int size ) {
+
+            try {
+
+                Files.createDirectories( directory );
+
+                return open( directory.resolve( "%016d.seg".formatted( sequence ) ), size );
+
+            } catch( IOException e ) {
+
+                throw new UncheckedIOException( e );
+            }
+
+        }
+
+        static Segment open( Path path, int size ) throws IOException {
+
+            try( var channel = FileChannel.open( path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE ) ) {
+
+                var mapped = channel.map( FileChannel.MapMode.READ_WRITE, 0, Math.max( size, channel.size() ) );
+                var name = path.getFileName().toString();
+
+                return new Segment( path, Long.parseLong( name.substring( 0, name.indexOf( '.' ) ) ), mapped );
+            }
+
+        }
+
+        long sequence() {
+
+            return this.sequence;
+        }
+
+        int capacity() {
+
+            return this.buffer.capacity();
+        }
+
+        // find the first unconsumed record and the end of the records written by the last run
+        int scan() {
+
+            var records = 0;
+            while( this.writePosition + RECORD_HEADER <= this.buffer.capacity() ) {
+
+                var length = this.buffer.getInt( this.writePosition );
+                var size = Math.abs( length );
+                if( length == 0 || size < 0 || this.writePosition + RECORD_HEADER + size > this.buffer.capacity() ) {
+
+                    break;
+                }
+
+                // records are consumed in order, only ones in front of the first live record are negated
+                this.writePosition += RECORD_HEADER + size;
+                if( length > 0 ) {
+
+                    records++;
+
+                } else {
+
+                    this.readPosition = this.writePosition;
+
+                }
+
+            }
+
+            return records;
+        }
+
+        int liveBytes() {
+
+            return this.writePosition - this.readPosition;
+        }
+
+        boolean hasRoom( int payloadLength ) {
+
+            return this.writePosition + RECORD_HEADER + payloadLength <= this.buffer.capacity();
+        }
+
+        void append( long storedAt, byte[] payload ) {
+
+            this.buffer.putLong( this.writePosition + Integer.BYTES, storedAt );
+            this.buffer.put( this.writePosition + RECORD_HEADER, payload );
+            this.buffer.putInt( this.writePosition, payload.length );
+            this.writePosition += RECORD_HEADER + payload.length;
+            this.dirty = true;
+
+        }
+
+        boolean isExhausted() {
+
+            return this.readPosition >= this.writePosition;
+        }
+
+        long storedAt() {
+
+            return this.buffer.getLong( this.readPosition + Integer.BYTES );
+        }
+
+        byte[] payload() {
+
+            var payload = new byte[ this.buffer.getInt( this.readPosition ) ];
+            this.buffer.get( this.readPosition + RECORD_HEADER, payload );
+
+            return payload;
+        }
+
+        int skip() {
+
+            var length = this.buffer.getInt( this.readPosition );
+            this.buffer.putInt( this.readPosition, -length );
+            this.readPosition += RECORD_HEADER + length;
+            this.dirty = true;
+
+            return RECORD_HEADER + length;
+        }
+
+        void force() {
+
+            if( this.dirty ) {
+
+                this.buffer.force();
+                this.dirty = false;
+
+            }
+
+        }
+
+        void close() {
+
+            force();
+
+        }
+
+        void delete() {
+
+            try {
+
+                Files.deleteIfExists( this.path );
+
+            } catch( IOException e ) {
+
+                log.warn( "delete : could not remove [{}]", this.path, e );
+
+            }
+
+        }
+
+    }
+
+}
@@ -0,0 +1,19 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import java.util.List;
+
+/**
+ * The socket side of an {@link OutboundWriter} queue.
+ */
+public interface OutboundConnection {
+
+    String getConnectionId();
+
+    /**
+     * Write and flush the frames in order, with as few writes as the transport allows.
+     */
+    void write( List<byte[]> frames ) throws Exception;
+
+    void close();
+
+}
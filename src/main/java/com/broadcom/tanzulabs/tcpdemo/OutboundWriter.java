@@ -0,0 +1,481 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.integration.ip.IpHeaders;
+import org.springframework.integration.ip.tcp.connection.TcpConnection;
+import org.springframework.integration.ip.tcp.connection.TcpSender;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.messaging.support.GenericMessage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Replaces the synchronous {@code TcpSendingMessageHandler}: replies are queued per connection and written
+ * by a drain task on the executor, so a slow recipient never blocks the thread that produced the reply.
+ * Each drain coalesces up to {@code maxBatch} queued frames into one write and flush.
+ * <p>
+ * Frames are written as JSON unless the connection negotiated a binary {@link MessageEncoding}, they are then
+ * transcoded on the producing thread as they are queued, once per encoding for a {@link #broadcast}.
+ */
+public class OutboundWriter implements TcpSender, MessageHandler {
+
+    private static final Logger log = LoggerFactory.getLogger( OutboundWriter.class );
+
+    public enum Overflow {
+
+        // discard the oldest queued frame to make room
+        DROP_OLDEST( "drop-oldest" ),
+
+        // wait up to the block timeout for room, then discard the new frame
+        BLOCK( "block" ),
+
+        // close the connection, it is not keeping up
+        DISCONNECT( "disconnect" );
+
+        private final String value;
+
+        Overflow( String value ) {
+
+            this.value = value;
+
+        }
+
+        public static Overflow of( String value ) {
+
+            return Arrays.stream( values() )
+                    .filter( o -> o.value.equalsIgnoreCase( value ) )
+                    .findFirst()
+                    .orElseThrow( () -> new IllegalArgumentException( "unknown overflow policy [" + value + "]" ) );
+        }
+
+        @Override
+        public String toString() {
+
+            return this.value;
+        }
+
+    }
+
+    private final Map<String, ConnectionQueue> queues = new ConcurrentHashMap<>();
+
+    private final Executor executor;
+    private final int capacity;
+    private final int maxBatch;
+    private final Overflow overflow;
+    private final long blockTimeoutMillis;
+
+    private final AtomicInteger depth = new AtomicInteger();
+    private final Counter droppedOverflow;
+    private final Counter droppedGone;
+    private final Counter droppedUnencodable;
+    private final Counter droppedFailed;
+    private final Counter droppedUnregistered;
+    private final Counter disconnected;
+    private final Timer writes;
+    private final DistributionSummary frameSize;
+
+    public OutboundWriter( Executor executor, int capacity, int maxBatch, Overflow overflow, long blockTimeoutMillis, MeterRegistry meterRegistry ) {
+
+        this.executor = executor;
+        this.capacity = capacity;
+        this.maxBatch = maxBatch;
+        this.overflow = overflow;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+
+        Gauge.builder( "tcp.outbound.queue.depth", this.depth, AtomicInteger::get )
+                .description( "Frames queued for writing across all connections" )
+                .register( meterRegistry );
+        Gauge.builder( "tcp.outbound.connections", this.queues, Map::size )
+                .description( "Connections with an outbound queue" )
+                .register( meterRegistry );
+        this.droppedOverflow = dropped( meterRegistry, "overflow" );
+        this.droppedGone = dropped( meterRegistry, "gone" );
+        this.droppedUnencodable = dropped( meterRegistry, "encoding" );
+        this.droppedFailed = dropped( meterRegistry, "write-failed" );
+        this.droppedUnregistered = dropped( meterRegistry, "unregister" );
+        this.disconnected = Counter.builder( "tcp.outbound.connections.disconnected" )
+                .description( "Connections closed for not keeping up with their outbound queue" )
+                .register( meterRegistry );
+        this.writes = Timer.builder( "tcp.outbound.write" )
+                .description( "Time to write one coalesced batch of frames to a connection" )
+                .register( meterRegistry );
+        this.frameSize = DistributionSummary.builder( "tcp.outbound.frame.size" )
+                .description( "Size of outbound frames" )
+                .baseUnit( "bytes" )
+                .publishPercentileHistogram()
+                .minimumExpectedValue( 16.0 )
+                .maximumExpectedValue( 1024.0 * 1024 )
+                .register( meterRegistry );
+
+    }
+
+    private Counter dropped( MeterRegistry meterRegistry, String reason ) {
+
+        return Counter.builder( "tcp.outbound.frames.dropped" )
+                .description( "Frames discarded because a connection queue was full, the connection was gone or closed with frames queued" )
+                .tag( "policy", this.overflow.toString() )
+                .tag( "reason", reason )
+                .register( meterRegistry );
+    }
+
+    @Override
+    public void addNewConnection( TcpConnection connection ) {
+
+        register( new TcpOutboundConnection( connection ) );
+
+    }
+
+    @Override
+    public void removeDeadConnection( TcpConnection connection ) {
+
+        unregister( connection.getConnectionId() );
+
+    }
+
+    public void register( OutboundConnection connection ) {
+
+        this.queues.put( connection.getConnectionId(), new ConnectionQueue( connection ) );
+
+    }
+
+    /**
+     * Drops the connection's queue, frames still in it are counted as dropped with reason {@code unregister}.
+     */
+    public void unregister( String connectionId ) {
+
+        var queue = this.queues.remove( connectionId );
+        if( queue == null ) {
+
+            return;
+        }
+
+        // polled one by one so frames a running drain takes meanwhile are not counted twice
+        var cleared = 0;
+        while( queue.frames.poll() != null ) {
+
+            cleared++;
+
+        }
+
+        if( cleared > 0 ) {
+
+            log.debug( "unregister : connection [{}] closed with {} frames queued, dropped", connectionId, cleared );
+            this.depth.addAndGet( -cleared );
+            this.droppedUnregistered.increment( cleared );
+
+        }
+
+    }
+
+    // replies arriving on replyChannel
+    @Override
+    public void handleMessage( Message<?> message ) {
+
+        var connectionId = message.getHeaders().get( IpHeaders.CONNECTION_ID, String.class );
+        if( connectionId == null ) {
+
+            throw new MessageHandlingException( message, "reply has no " + IpHeaders.CONNECTION_ID + " header" );
+        }
+
+        var frame = switch( message.getPayload() ) {
+            case byte[] bytes -> bytes;
+            case String text -> text.getBytes( StandardCharsets.UTF_8 );
+            default -> throw new MessageHandlingException( message, "reply payload must be byte[] or String" );
+        };
+
+        write( connectionId, frame );
+
+    }
+
+    /**
+     * Queue a frame for the connection, applying the overflow policy when its queue is full.
+     *
+     * @return false if the frame was not queued
+     */
+    public boolean write( String connectionId, byte[] frame ) {
+
+        return write( connectionId, frame, null );
+    }
+
+    /**
+     * Queue one frame for every connection but {@code except}, members sharing an encoding share its transcoded bytes.
+     *
+     * @return how many connections it was queued for
+     */
+    public int broadcast( Collection<String> connectionIds, String except, byte[] frame ) {
+
+        var encoded = new EnumMap<MessageEncoding, byte[]>( MessageEncoding.class );
+        encoded.put( MessageEncoding.JSON, frame );
+
+        var queued = 0;
+        for( var connectionId : connectionIds ) {
+
+            if( !connectionId.equals( except ) && write( connectionId, frame, encoded ) ) {
+
+                queued++;
+
+            }
+
+        }
+
+        return queued;
+    }
+
+    // encoded carries what this frame was transcoded to so far, null when it goes to just one connection
+    private boolean write( String connectionId, byte[] frame, Map<MessageEncoding, byte[]> encoded ) {
+
+        var queue = this.queues.get( connectionId );
+        if( queue == null ) {
+
+            log.debug( "write : connection [{}] is gone, frame dropped", connectionId );
+            this.droppedGone.increment();
+
+            return false;
+        }
+
+        var encoding = queue.encoding;
+        var transcoded = encoded != null ? encoded.get( encoding ) : null;
+        if( transcoded != null ) {
+
+            frame = transcoded;
+
+        } else if( encoding.isBinary() ) {
+
+            try {
+
+                frame = encoding.fromJson( frame );
+                if( encoded != null ) {
+
+                    encoded.put( encoding, frame );
+
+                }
+
+            } catch( IOException e ) {
+
+                log.warn( "write : frame for connection [{}] could not be encoded as {}, dropped", connectionId, encoding, e );
+                this.droppedUnencodable.increment();
+
+                return false;
+            }
+
+        }
+
+        return queue.offer( frame );
+    }
+
+    /**
+     * Frames queued from now on are sent in the encoding, until the connection is gone or it is changed again.
+     *
+     * @return false if the connection is gone
+     */
+    public boolean setEncoding( String connectionId, MessageEncoding encoding ) {
+
+        var queue = this.queues.get( connectionId );
+        if( queue == null ) {
+
+            return false;
+        }
+
+        queue.encoding = encoding;
+
+        return true;
+    }
+
+    /**
+     * Room left in the connection's queue, lets bulk producers pace themselves instead of tripping the overflow policy.
+     *
+     * @return -1 if the connection is gone
+     */
+    public int remainingCapacity( String connectionId ) {
+
+        var queue = this.queues.get( connectionId );
+
+        return queue == null ? -1 : queue.frames.remainingCapacity();
+    }
+
+    public int getQueueDepth() {
+
+        return this.depth.get();
+    }
+
+    private final class ConnectionQueue implements Runnable {
+
+        private final OutboundConnection connection;
+
+        private final BlockingQueue<byte[]> frames;
+
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private volatile MessageEncoding encoding = MessageEncoding.JSON;
+
+        ConnectionQueue( OutboundConnection connection ) {
+
+            this.connection = connection;
+            this.frames = new ArrayBlockingQueue<>( capacity );
+
+        }
+
+        boolean offer( byte[] frame ) {
+
+            switch( overflow ) {
+                case DROP_OLDEST -> {
+
+                    while( !this.frames.offer( frame ) ) {
+
+                        if( this.frames.poll() != null ) {
+
+                            depth.decrementAndGet();
+                            droppedOverflow.increment();
+
+                        }
+
+                    }
+
+                }
+                case BLOCK -> {
+
+                    try {
+
+                        if( !this.frames.offer( frame, blockTimeoutMillis, TimeUnit.MILLISECONDS ) ) {
+
+                            droppedOverflow.increment();
+
+                            return false;
+                        }
+
+                    } catch( InterruptedException e ) {
+
+                        Thread.currentThread().interrupt();
+                        droppedOverflow.increment();
+
+                        return false;
+                    }
+
+                }
+                case DISCONNECT -> {
+
+                    if( !this.frames.offer( frame ) ) {
+
+                        log.info( "offer : connection [{}] is not keeping up, disconnecting", this.connection.getConnectionId() );
+                        droppedOverflow.increment();
+                        disconnected.increment();
+                        unregister( this.connection.getConnectionId() );
+                        this.connection.close();
+
+                        return false;
+                    }
+
+                }
+            }
+
+            depth.incrementAndGet();
+            schedule();
+
+            return true;
+        }
+
+        private void schedule() {
+
+            if( this.scheduled.compareAndSet( false, true ) ) {
+
+                executor.execute( this );
+
+            }
+
+        }
+
+        @Override
+        public void run() {
+
+            var batch = new ArrayList<byte[]>( Math.min( maxBatch, capacity ) );
+            try {
+
+                while( true ) {
+
+                    this.frames.drainTo( batch, maxBatch );
+                    if( batch.isEmpty() ) {
+
+                        // release the drain, then take it back if a frame slipped in meanwhile
+                        this.scheduled.set( false );
+                        if( this.frames.isEmpty() || !this.scheduled.compareAndSet( false, true ) ) {
+
+                            return;
+                        }
+
+                        continue;
+                    }
+
+                    depth.addAndGet( -batch.size() );
+                    var start = System.nanoTime();
+                    this.connection.write( batch );
+                    writes.record( System.nanoTime() - start, TimeUnit.NANOSECONDS );
+                    for( var frame : batch ) {
+
+                        frameSize.record( frame.length );
+
+                    }
+                    batch.clear();
+
+                }
+
+            } catch( Exception e ) {
+
+                log.info( "run : write to connection [{}] failed, closing", this.connection.getConnectionId(), e );
+                droppedFailed.increment( batch.size() );
+                unregister( this.connection.getConnectionId() );
+                this.connection.close();
+
+            }
+
+        }
+
+    }
+
+    record TcpOutboundConnection( TcpConnection connection ) implements OutboundConnection {
+
+        @Override
+        public String getConnectionId() {
+
+            return this.connection.getConnectionId();
+        }
+
+        @Override
+        public void write( List<byte[]> frames ) throws Exception {
+
+            Object payload = frames.size() == 1 ? frames.get( 0 ) : new FrameBatch( frames );
+            this.connection.send( new GenericMessage<>( payload ) );
+
+        }
+
+        @Override
+        public void close() {
+
+            this.connection.close();
+
+        }
+
+    }
+
+}
@@ -0,0 +1,226 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.integration.channel.AbstractSubscribableChannel;
+import org.springframework.integration.dispatcher.AbstractDispatcher;
+import org.springframework.integration.dispatcher.MessageDispatcher;
+import org.springframework.integration.ip.IpHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.support.ErrorMessage;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Hands inbound frames from the reading thread to one of {@code partitions} worker threads chosen by connection id,
+ * so decoding and handling spread across cores while the frames of any one connection are still handled one at a
+ * time, in the order they were read.
+ * <p>
+ * Works like Spring Integration's {@code PartitionedChannel}, but each partition queues at most
+ * {@code queueCapacity} frames. A full queue blocks the reading thread, which pushes back on the client through
+ * TCP the same way a slow handler did before. Failures are sent to the {@code errorChannel}, there is no caller
+ * left to throw them to.
+ */
+public class PartitionedDispatchChannel extends AbstractSubscribableChannel implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger( PartitionedDispatchChannel.class );
+
+    private final PartitionDispatcher dispatcher = new PartitionDispatcher();
+
+    private final BlockingQueue<Message<?>>[] queues;
+
+    private final MessageChannel errorChannel;
+
+    private final Counter blocked;
+
+    private volatile boolean running;
+
+    private Thread[] workers;
+
+    @SuppressWarnings( "unchecked" )
+    public PartitionedDispatchChannel( int partitions, int queueCapacity, MessageChannel errorChannel, MeterRegistry meterRegistry ) {
+
+        this.queues = new BlockingQueue[ partitions ];
+        for( int i = 0; i < partitions; i++ ) {
+
+            this.queues[ i ] = new ArrayBlockingQueue<>( queueCapacity );
+
+        }
+        this.errorChannel = errorChannel;
+
+        Gauge.builder( "tcp.dispatch.queue.depth", this.queues, q -> Arrays.stream( q ).mapToInt( BlockingQueue::size ).sum() )
+                .description( "Inbound frames waiting for a dispatch worker" )
+                .register( meterRegistry );
+        this.blocked = Counter.builder( "tcp.dispatch.blocked" )
+                .description( "Times a reading thread waited for room in a full partition queue" )
+                .register( meterRegistry );
+
+    }
+
+    @Override
+    protected MessageDispatcher getDispatcher() {
+
+        return this.dispatcher;
+    }
+
+    public int getPartitionCount() {
+
+        return this.queues.length;
+    }
+
+    int partitionOf( Message<?> message ) {
+
+        var connectionId = message.getHeaders().get( IpHeaders.CONNECTION_ID, String.class );
+        if( connectionId == null ) {
+
+            return 0;
+        }
+
+        // connection ids share long prefixes, spread the high bits before taking the modulus
+        var hash = connectionId.hashCode();
+
+        return Math.floorMod( hash ^ ( hash >>> 16 ), this.queues.length );
+    }
+
+    @Override
+    public void start() {
+
+        this.workers = new Thread[ this.queues.length ];
+        for( int i = 0; i < this.queues.length; i++ ) {
+
+            var queue = this.queues[ i ];
+            this.workers[ i ] = Thread.ofPlatform().name( "inbound-dispatch-" + i ).daemon().start( () -> work( queue ) );
+
+        }
+        this.running = true;
+        log.info( "start : dispatching inbound frames to [{}] partitions", this.queues.length );
+
+    }
+
+    @Override
+    public void stop() {
+
+        this.running = false;
+        if( this.workers != null ) {
+
+            for( var worker : this.workers ) {
+
+                worker.interrupt();
+
+            }
+            for( var worker : this.workers ) {
+
+                try {
+
+                    worker.join();
+
+                } catch( InterruptedException e ) {
+
+                    Thread.currentThread().interrupt();
+
+                    return;
+                }
+
+            }
+
+        }
+
+    }
+
+    @Override
+    public boolean isRunning() {
+
+        return this.running;
+    }
+
+    // started before the inbound adapter reads anything and stopped after it
+    @Override
+    public int getPhase() {
+
+        return Integer.MIN_VALUE / 2;
+    }
+
+    private void work( BlockingQueue<Message<?>> queue ) {
+
+        while( !Thread.currentThread().isInterrupted() ) {
+
+            Message<?> message;
+            try {
+
+                message = queue.take();
+
+            } catch( InterruptedException e ) {
+
+                break;
+            }
+
+            try {
+
+                if( !this.dispatcher.handle( message ) ) {
+
+                    log.warn( "work : no subscriber for channel [{}], frame dropped", getComponentName() );
+
+                }
+
+            } catch( Exception e ) {
+
+                var failure = e instanceof MessagingException me ? me : new MessageHandlingException( message, e );
+                this.errorChannel.send( new ErrorMessage( failure ) );
+
+            }
+
+        }
+
+        if( !queue.isEmpty() ) {
+
+            log.debug( "work : [{}] queued frames discarded on stop", queue.size() );
+            queue.forEach( message -> PooledBuffer.release( message.getPayload() ) );
+            queue.clear();
+
+        }
+
+    }
+
+    private final class PartitionDispatcher extends AbstractDispatcher {
+
+        @Override
+        public boolean dispatch( Message<?> message ) {
+
+            var queue = queues[ partitionOf( message ) ];
+            if( queue.offer( message ) ) {
+
+                return true;
+            }
+
+            blocked.increment();
+            try {
+
+                queue.put( message );
+
+                return true;
+            } catch( InterruptedException e ) {
+
+                Thread.currentThread().interrupt();
+
+                return false;
+            }
+
+        }
+
+        boolean handle( Message<?> message ) {
+
+            return tryOptimizedDispatch( message );
+        }
+
+    }
+
+}
@@ -0,0 +1,171 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters for each stage of the inbound pipeline. Every meter is registered up front for the known frame types and
+ * actions, anything else a client sends is recorded as {@code unknown}, so recording is a map lookup and an
+ * update, never a registry lookup, and tags stay low cardinality.
+ */
+public class PipelineMetrics {
+
+    static final String UNKNOWN = "unknown";
+
+    // frames without an action, chat treats these as direct messages
+    static final String NONE = "none";
+
+    private final MeterRegistry meterRegistry;
+
+    private final Timer decode;
+    private final DistributionSummary inboundFrameSize;
+    private final Counter decodeErrors;
+    private final Counter handleErrors;
+
+    // type -> route timer
+    private final Map<String, Timer> route;
+    private final Timer unknownRoute;
+
+    // type -> action -> handle timer
+    private final Map<String, Map<String, Timer>> handle;
+    private final Timer unknownHandle;
+
+    /**
+     * @param actionsByType the frame types the router knows and the actions each handler understands
+     */
+    public PipelineMetrics( MeterRegistry meterRegistry, Map<String, Set<String>> actionsByType ) {
+
+        this.meterRegistry = meterRegistry;
+
+        this.decode = Timer.builder( "tcp.pipeline.decode" )
+                .description( "Time to parse an inbound frame" )
+                .register( meterRegistry );
+        this.inboundFrameSize = DistributionSummary.builder( "tcp.inbound.frame.size" )
+                .description( "Size of inbound frames" )
+                .baseUnit( "bytes" )
+                .publishPercentileHistogram()
+                .minimumExpectedValue( 16.0 )
+                .maximumExpectedValue( 1024.0 * 1024 )
+                .register( meterRegistry );
+        this.decodeErrors = errors( "decode" );
+        this.handleErrors = errors( "handle" );
+
+        var route = new HashMap<String, Timer>();
+        var handle = new HashMap<String, Map<String, Timer>>();
+        actionsByType.forEach( ( type, actions ) -> {
+
+            route.put( type, newRouteTimer( type ) );
+
+            var timers = new HashMap<String, Timer>();
+            actions.forEach( action -> timers.put( action, newHandleTimer( type, action ) ) );
+            timers.put( NONE, newHandleTimer( type, NONE ) );
+            timers.put( UNKNOWN, newHandleTimer( type, UNKNOWN ) );
+            handle.put( type, Map.copyOf( timers ) );
+
+        });
+        this.route = Map.copyOf( route );
+        this.unknownRoute = newRouteTimer( UNKNOWN );
+        this.handle = Map.copyOf( handle );
+        this.unknownHandle = newHandleTimer( UNKNOWN, UNKNOWN );
+
+    }
+
+    /**
+     * Meters that record nowhere, for decoders and tests that run outside the application.
+     */
+    public static PipelineMetrics noop() {
+
+        return new PipelineMetrics( new CompositeMeterRegistry(), Map.of() );
+    }
+
+    public void bind( SessionDirectory sessionDirectory ) {
+
+        Gauge.builder( "tcp.connections.open", sessionDirectory, SessionDirectory::getConnectionCount )
+                .description( "Open client connections" )
+                .register( this.meterRegistry );
+        Gauge.builder( "tcp.users.logged-in", sessionDirectory, SessionDirectory::getLoggedInCount )
+                .description( "Users logged in at this node" )
+                .register( this.meterRegistry );
+
+    }
+
+    public void recordDecode( int frameBytes, long nanos ) {
+
+        this.inboundFrameSize.record( frameBytes );
+        this.decode.record( nanos, TimeUnit.NANOSECONDS );
+
+    }
+
+    public void recordDecodeError() {
+
+        this.decodeErrors.increment();
+
+    }
+
+    public void recordRoute( Object type, long nanos ) {
+
+        var timer = type == null ? null : this.route.get( type );
+        ( timer == null ? this.unknownRoute : timer ).record( nanos, TimeUnit.NANOSECONDS );
+
+    }
+
+    public void recordHandle( Object type, Object action, long nanos ) {
+
+        handleTimer( type, action ).record( nanos, TimeUnit.NANOSECONDS );
+
+    }
+
+    public void recordHandleError() {
+
+        this.handleErrors.increment();
+
+    }
+
+    private Timer handleTimer( Object type, Object action ) {
+
+        var timers = type == null ? null : this.handle.get( type );
+        if( timers == null ) {
+
+            return this.unknownHandle;
+        }
+
+        var timer = timers.get( action == null ? NONE : action );
+
+        return timer == null ? timers.get( UNKNOWN ) : timer;
+    }
+
+    private Timer newRouteTimer( String type ) {
+
+        return Timer.builder( "tcp.pipeline.route" )
+                .description( "Time to resolve the channel for a decoded frame" )
+                .tag( "type", type )
+                .register( this.meterRegistry );
+    }
+
+    private Timer newHandleTimer( String type, String action ) {
+
+        return Timer.builder( "tcp.pipeline.handle" )
+                .description( "Time spent in the command and chat handlers" )
+                .tag( "type", type )
+                .tag( "action", action )
+                .register( this.meterRegistry );
+    }
+
+    private Counter errors( String stage ) {
+
+        return Counter.builder( "tcp.pipeline.errors" )
+                .description( "Frames that failed in a pipeline stage" )
+                .tag( "stage", stage )
+                .register( this.meterRegistry );
+    }
+
+}
@@ -0,0 +1,223 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A reference counted buffer from a {@link BufferPool}. Whoever acquires or {@link #retain()}s it releases it once,
+ * the last release hands the memory back to the pool. Bytes are appended from the start, growing into a larger
+ * size class when they do not fit.
+ * <p>
+ * An inbound frame travels as a PooledBuffer payload from the deserializer to the {@link FrameDecoder}, which
+ * releases it once parsed. Anything that drops such a message on the way releases it with {@link #release(Object)},
+ * the pipeline error handler does so for frames that failed, whether in the decoder or before it.
+ */
+public final class PooledBuffer {
+
+    private final BufferPool pool;
+
+    private final AtomicInteger references = new AtomicInteger( 1 );
+
+    private ByteBuffer buffer;
+
+    // set with leak detection on, the cleaner must not reach the PooledBuffer itself
+    private Leak leak;
+
+    PooledBuffer( BufferPool pool, ByteBuffer buffer ) {
+
+        this.pool = pool;
+        this.buffer = buffer;
+
+    }
+
+    /**
+     * Releases the payload if it is a PooledBuffer, for handlers that drop messages.
+     */
+    public static void release( Object payload ) {
+
+        if( payload instanceof PooledBuffer pooled ) {
+
+            pooled.release();
+
+        }
+
+    }
+
+    public PooledBuffer retain() {
+
+        if( this.references.getAndIncrement() <= 0 ) {
+
+            throw new IllegalStateException( "buffer was already released" );
+        }
+
+        return this;
+    }
+
+    /**
+     * @return true if this was the last reference and the buffer went back to the pool
+     */
+    public boolean release() {
+
+        var remaining = this.references.decrementAndGet();
+        if( remaining > 0 ) {
+
+            return false;
+        }
+
+        if( remaining < 0 ) {
+
+            throw new IllegalStateException( "buffer was already released" );
+        }
+
+        var released = this.buffer;
+        this.buffer = null;
+        this.pool.recycle( this, released );
+
+        return true;
+    }
+
+    public int length() {
+
+        return this.buffer.position();
+    }
+
+    public boolean hasArray() {
+
+        return this.buffer.hasArray();
+    }
+
+    /**
+     * The backing array of a heap buffer, the bytes are at {@link #arrayOffset()} up to {@link #length()}.
+     */
+    public byte[] array() {
+
+        return this.buffer.array();
+    }
+
+    public int arrayOffset() {
+
+        return this.buffer.arrayOffset();
+    }
+
+    /**
+     * A read only view of the bytes written so far.
+     */
+    public ByteBuffer readable() {
+
+        return this.buffer.asReadOnlyBuffer().flip();
+    }
+
+    public byte get( int index ) {
+
+        return this.buffer.get( index );
+    }
+
+    public void write( int b ) {
+
+        ensure( 1 );
+        this.buffer.put( (byte) b );
+
+    }
+
+    public void write( byte[] source, int offset, int length ) {
+
+        ensure( length );
+        this.buffer.put( source, offset, length );
+
+    }
+
+    /**
+     * Drops a delimiter read before it was recognised, or takes in bytes read straight into {@link #array()}.
+     */
+    public void setLength( int length ) {
+
+        this.buffer.position( length );
+
+    }
+
+    /**
+     * Appends through an OutputStream, for serializers that write to one.
+     */
+    public OutputStream outputStream() {
+
+        return new OutputStream() {
+
+            @Override
+            public void write( int b ) {
+
+                PooledBuffer.this.write( b );
+
+            }
+
+            @Override
+            public void write( byte[] source, int offset, int length ) {
+
+                PooledBuffer.this.write( source, offset, length );
+
+            }
+
+        };
+    }
+
+    /**
+     * Writes the bytes in one call, direct buffers are copied out in chunks.
+     */
+    public void writeTo( OutputStream out ) throws IOException {
+
+        if( this.buffer.hasArray() ) {
+
+            out.write( this.buffer.array(), this.buffer.arrayOffset(), this.buffer.position() );
+
+            return;
+        }
+
+        var readable = readable();
+        var chunk = new byte[ Math.min( 8192, readable.remaining() ) ];
+        while( readable.hasRemaining() ) {
+
+            var length = Math.min( chunk.length, readable.remaining() );
+            readable.get( chunk, 0, length );
+            out.write( chunk, 0, length );
+
+        }
+
+    }
+
+    // moves the bytes into a buffer of the next size class that fits
+    private void ensure( int length ) {
+
+        if( this.buffer.remaining() >= length ) {
+
+            return;
+        }
+
+        var position = this.buffer.position();
+        var larger = this.pool.acquire( Math.max( position + length, this.buffer.capacity() * 2 ) );
+        larger.buffer.put( this.buffer.flip() );
+
+        // swap the memory and hand the old buffer back under the larger one's lease
+        var previous = this.buffer;
+        this.buffer = larger.buffer;
+        larger.buffer = previous.clear();
+        larger.release();
+
+    }
+
+    Leak track() {
+
+        this.leak = new Leak();
+
+        return this.leak;
+    }
+
+    Leak leak() {
+
+        return this.leak;
+    }
+
+    // identity only, what the pool's cleaner keys its allocation sites by
+    static final class Leak { }
+
+}
@@ -0,0 +1,213 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import org.springframework.core.serializer.Deserializer;
+import org.springframework.integration.ip.tcp.serializer.SoftEndOfStreamException;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads frames of a wire {@link Framing} into {@link PooledBuffer}s instead of a new byte[] each, with the same
+ * limits and end of stream handling as the Spring serializers the framing otherwise uses. The caller owns the
+ * returned buffer and has to release it.
+ */
+public class PooledFrameDeserializer implements Deserializer<PooledBuffer> {
+
+    private static final int STX = 0x02;
+    private static final int ETX = 0x03;
+
+    // where delimited frames start, they grow through the size classes from here
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final Framing framing;
+    private final int maxFrameSize;
+    private final BufferPool pool;
+
+    public PooledFrameDeserializer( Framing framing, int maxFrameSize, BufferPool pool ) {
+
+        if( framing == Framing.AUTO ) {
+
+            throw new IllegalArgumentException( "auto is not a wire framing" );
+        }
+
+        this.framing = framing;
+        this.maxFrameSize = maxFrameSize;
+        this.pool = pool;
+
+    }
+
+    @Override
+    public PooledBuffer deserialize( InputStream inputStream ) throws IOException {
+
+        return switch( this.framing ) {
+            case CRLF -> readCrLf( inputStream );
+            case STX_ETX -> readStxEtx( inputStream );
+            case LENGTH_HEADER -> readLengthHeader( inputStream );
+            case AUTO -> throw new IllegalStateException( "auto is not a wire framing" );
+        };
+    }
+
+    private PooledBuffer readCrLf( InputStream in ) throws IOException {
+
+        int b = in.read();
+        if( b < 0 ) {
+
+            throw new SoftEndOfStreamException( "Stream closed between payloads" );
+        }
+
+        var frame = this.pool.acquire( INITIAL_CAPACITY );
+        try {
+
+            var previous = -1;
+            while( true ) {
+
+                if( b == '\n' && previous == '\r' ) {
+
+                    frame.setLength( frame.length() - 1 );
+
+                    return frame;
+                }
+
+                // the \r of the delimiter may take the frame one past the limit
+                if( frame.length() > this.maxFrameSize ) {
+
+                    throw new IOException( "CRLF not found before max message length: " + this.maxFrameSize );
+                }
+
+                frame.write( b );
+                previous = b;
+
+                b = in.read();
+                if( b < 0 ) {
+
+                    throw new IOException( "Socket closed during message assembly" );
+                }
+
+            }
+
+        } catch( IOException | RuntimeException e ) {
+
+            frame.release();
+
+            throw e;
+        }
+
+    }
+
+    private PooledBuffer readStxEtx( InputStream in ) throws IOException {
+
+        int b = in.read();
+        if( b < 0 ) {
+
+            throw new SoftEndOfStreamException( "Stream closed between payloads" );
+        }
+
+        if( b != STX ) {
+
+            throw new IOException( "Expected STX to begin message" );
+        }
+
+        var frame = this.pool.acquire( INITIAL_CAPACITY );
+        try {
+
+            while( ( b = in.read() ) != ETX ) {
+
+                if( b < 0 ) {
+
+                    throw new IOException( "Socket closed during message assembly" );
+                }
+
+                if( frame.length() >= this.maxFrameSize ) {
+
+                    throw new IOException( "ETX not found before max message length: " + this.maxFrameSize );
+                }
+
+                frame.write( b );
+
+            }
+
+            return frame;
+        } catch( IOException | RuntimeException e ) {
+
+            frame.release();
+
+            throw e;
+        }
+
+    }
+
+    private PooledBuffer readLengthHeader( InputStream in ) throws IOException {
+
+        var first = in.read();
+        if( first < 0 ) {
+
+            throw new SoftEndOfStreamException( "Stream closed between payloads" );
+        }
+
+        var length = first << 24;
+        for( int shift = 16; shift >= 0; shift -= 8 ) {
+
+            var b = in.read();
+            if( b < 0 ) {
+
+                throw new IOException( "Stream closed during the length header" );
+            }
+
+            length |= b << shift;
+
+        }
+
+        if( length < 0 || length > this.maxFrameSize ) {
+
+            throw new IOException( "Message length " + length + " exceeds max message length: " + this.maxFrameSize );
+        }
+
+        var frame = this.pool.acquire( length );
+        try {
+
+            var chunk = frame.hasArray() ? null : new byte[ Math.min( 8192, Math.max( 1, length ) ) ];
+            var remaining = length;
+            while( remaining > 0 ) {
+
+                int read;
+                if( chunk == null ) {
+
+                    // straight into the pooled array
+                    read = in.read( frame.array(), frame.arrayOffset() + frame.length(), remaining );
+                    if( read > 0 ) {
+
+                        frame.setLength( frame.length() + read );
+
+                    }
+
+                } else {
+
+                    read = in.read( chunk, 0, Math.min( chunk.length, remaining ) );
+                    if( read > 0 ) {
+
+                        frame.write( chunk, 0, read );
+
+                    }
+
+                }
+
+                if( read < 0 ) {
+
+                    throw new IOException( "Stream closed after " + ( length - remaining ) + " of " + length + " bytes" );
+                }
+
+                remaining -= read;
+
+            }
+
+            return frame;
+        } catch( IOException | RuntimeException e ) {
+
+            frame.release();
+
+            throw e;
+        }
+
+    }
+
+}
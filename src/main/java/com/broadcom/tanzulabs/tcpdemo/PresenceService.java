@@ -0,0 +1,418 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+
+/**
+ * Tells connections when the users they subscribed to log in or out of this node.
+ * <p>
+ * A change is not sent on its own. It is parked with each subscriber, and the first change a subscriber gets starts
+ * a {@code window}, at the end of which everything parked for it goes out as one frame holding the latest state of
+ * every user that changed. Changes that cancel out within the window, a user logging out and straight back in, send
+ * nothing. When N users who all watch each other log in together, each of them gets one frame per window instead of
+ * one per login, O(N) frames per window rather than O(N²) in total.
+ * <p>
+ * Subscribers wait in a queue ordered by when their windows end, one flusher thread sends them. A frame that cannot be
+ * queued leaves its changes parked for another try, the subscriber is only taken to know what it was actually sent.
+ * The retry waits longer than a window, ordering by due time keeps it from holding back windows that end sooner.
+ */
+public class PresenceService implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger( PresenceService.class );
+
+    private static final long RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos( 100 );
+
+    private final long windowNanos;
+    private final int maxUsersPerConnection;
+
+    // watched username -> subscriber connectionIds
+    private final Map<String, Set<String>> subscribers = new ConcurrentHashMap<>();
+
+    // subscriber connectionId -> its subscription
+    private final Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+
+    // subscriptions with changes parked, the one whose window ends first at the head
+    private final BlockingQueue<Subscription> due = new PriorityBlockingQueue<>( 64, ( a, b ) -> Long.compare( a.dueAt - b.dueAt, 0 ) );
+
+    private final Predicate<String> isOnline;
+
+    // whether a connectionId is logged in, only those may subscribe
+    private final Predicate<String> isLoggedIn;
+
+    // sends the frame, false if it could not be queued
+    private final BiPredicate<String, byte[]> sender;
+
+    private final ResponseEncoder responseEncoder;
+
+    private final Counter changes;
+    private final Counter notifications;
+
+    private volatile boolean running;
+
+    // set while the flusher is parked with nothing due, so a new change wakes it
+    private volatile boolean idle;
+
+    private volatile Thread flusher;
+
+    /**
+     * @param window {@link Duration#ZERO} sends every change as soon as the flusher gets to it
+     */
+    public PresenceService(
+            Duration window, int maxUsersPerConnection, Predicate<String> isOnline, Predicate<String> isLoggedIn,
+            BiPredicate<String, byte[]> sender, ResponseEncoder responseEncoder, MeterRegistry meterRegistry ) {
+
+        this.windowNanos = window.toNanos();
+        this.maxUsersPerConnection = maxUsersPerConnection;
+        this.isOnline = isOnline;
+        this.isLoggedIn = isLoggedIn;
+        this.sender = sender;
+        this.responseEncoder = responseEncoder;
+
+        Gauge.builder( "tcp.presence.watched", this.subscribers, Map::size )
+                .description( "Users at least one connection subscribed to" )
+                .register( meterRegistry );
+        this.changes = Counter.builder( "tcp.presence.changes" )
+                .description( "Logins and logouts of watched users" )
+                .register( meterRegistry );
+        this.notifications = Counter.builder( "tcp.presence.notifications" )
+                .description( "Presence frames sent, each carrying every change of one window" )
+                .register( meterRegistry );
+
+    }
+
+    /**
+     * Watch the users as well as those already watched.
+     *
+     * @return whether each of the users is online now, null if the connection is not logged in or would watch more
+     * than the limit
+     */
+    public Map<String, Boolean> subscribe( String connectionId, List<String> users ) {
+
+        // checked inside compute, a connection that logged out or closed must not get a subscription back
+        var subscription = this.subscriptions.compute( connectionId, ( c, existing ) ->
+                existing != null ? existing : this.isLoggedIn.test( c ) ? new Subscription( c ) : null );
+        if( subscription == null ) {
+
+            log.debug( "subscribe : client [{}] is not logged in!", connectionId );
+
+            return null;
+        }
+
+        var added = users.stream().filter( user -> user != null && !user.isEmpty() && !subscription.known.containsKey( user ) ).distinct().count();
+        if( subscription.known.size() + added > this.maxUsersPerConnection ) {
+
+            log.debug( "subscribe : client [{}] would watch more than [{}] users!", connectionId, this.maxUsersPerConnection );
+
+            return null;
+        }
+
+        var current = new LinkedHashMap<String, Boolean>();
+        for( var user : users ) {
+
+            if( user == null || user.isEmpty() ) {
+
+                continue;
+            }
+
+            // membership changes run inside compute so an emptied set is never dropped while someone subscribes
+            this.subscribers.compute( user, ( u, connections ) -> {
+
+                var updated = connections != null ? connections : ConcurrentHashMap.<String>newKeySet();
+                updated.add( connectionId );
+
+                return updated;
+            });
+
+            // the state the subscriber was told, later changes are measured against it
+            var online = this.isOnline.test( user );
+            subscription.known.put( user, online );
+            current.put( user, online );
+
+        }
+
+        // removed while subscribing, whatever removeConnection did not see yet is undone here
+        if( subscription.closed ) {
+
+            subscription.known.keySet().forEach( user -> removeSubscriber( user, connectionId ) );
+
+            return null;
+        }
+
+        return current;
+    }
+
+    /**
+     * Stop watching the users, or everyone when null.
+     */
+    public void unsubscribe( String connectionId, List<String> users ) {
+
+        var subscription = this.subscriptions.get( connectionId );
+        if( subscription == null ) {
+
+            return;
+        }
+
+        for( var user : users != null ? users : List.copyOf( subscription.known.keySet() ) ) {
+
+            if( user != null && subscription.known.remove( user ) != null ) {
+
+                removeSubscriber( user, connectionId );
+
+            }
+
+        }
+
+    }
+
+    public void removeConnection( String connectionId ) {
+
+        var subscription = this.subscriptions.remove( connectionId );
+        if( subscription != null ) {
+
+            subscription.closed = true;
+            subscription.known.keySet().forEach( user -> removeSubscriber( user, connectionId ) );
+
+        }
+
+    }
+
+    /**
+     * The user logged in or out, every subscriber hears of it at the end of its window.
+     */
+    public void changed( String username, boolean online ) {
+
+        var watching = this.subscribers.get( username );
+        if( watching == null ) {
+
+            return;
+        }
+
+        this.changes.increment();
+        for( var connectionId : watching ) {
+
+            var subscription = this.subscriptions.get( connectionId );
+            if( subscription == null ) {
+
+                continue;
+            }
+
+            subscription.pending.put( username, online );
+            schedule( subscription, this.windowNanos );
+
+        }
+
+    }
+
+    int getSubscriberCount( String username ) {
+
+        var watching = this.subscribers.get( username );
+
+        return watching == null ? 0 : watching.size();
+    }
+
+    private void schedule( Subscription subscription, long delayNanos ) {
+
+        if( subscription.scheduled.compareAndSet( false, true ) ) {
+
+            // set before it is queued and left alone until it is taken off, the queue's order depends on it
+            subscription.dueAt = System.nanoTime() + delayNanos;
+            this.due.add( subscription );
+
+            // a flusher parked until a later window ends has to look at this one first
+            if( this.idle || this.due.peek() == subscription ) {
+
+                LockSupport.unpark( this.flusher );
+
+            }
+
+        }
+
+    }
+
+    private void removeSubscriber( String user, String connectionId ) {
+
+        this.subscribers.computeIfPresent( user, ( u, connections ) -> {
+
+            connections.remove( connectionId );
+
+            return connections.isEmpty() ? null : connections;
+        });
+
+    }
+
+    @Override
+    public void start() {
+
+        this.running = true;
+        // assigned before it runs, a change must never find the flusher idle but not yet known
+        this.flusher = Thread.ofPlatform().name( "presence-flusher" ).daemon().unstarted( this::run );
+        this.flusher.start();
+        log.info( "start : presence changes coalesced over {}ms", TimeUnit.NANOSECONDS.toMillis( this.windowNanos ) );
+
+    }
+
+    @Override
+    public void stop() {
+
+        this.running = false;
+        if( this.flusher != null ) {
+
+            LockSupport.unpark( this.flusher );
+            try {
+
+                this.flusher.join();
+
+            } catch( InterruptedException e ) {
+
+                Thread.currentThread().interrupt();
+
+            }
+
+        }
+
+    }
+
+    @Override
+    public boolean isRunning() {
+
+        return this.running;
+    }
+
+    private void run() {
+
+        while( this.running ) {
+
+            var next = this.due.peek();
+            if( next == null ) {
+
+                // checked again once idle is visible, a change queued in between must not be missed
+                this.idle = true;
+                if( this.due.isEmpty() && this.running ) {
+
+                    LockSupport.park( this );
+
+                }
+                this.idle = false;
+
+                continue;
+            }
+
+            var wait = next.dueAt - System.nanoTime();
+            if( wait > 0 ) {
+
+                LockSupport.parkNanos( this, wait );
+
+                continue;
+            }
+
+            // an earlier window may have been queued since the peek, it is due as well
+            var subscription = this.due.poll();
+            try {
+
+                flush( subscription );
+
+            } catch( RuntimeException e ) {
+
+                log.warn( "run : presence for client [{}] not sent", subscription.connectionId, e );
+
+            }
+
+        }
+
+    }
+
+    private void flush( Subscription subscription ) {
+
+        // released first, a change arriving from here on starts the next window
+        subscription.scheduled.set( false );
+        if( subscription.closed ) {
+
+            return;
+        }
+
+        var changed = new HashMap<String, Boolean>();
+        for( var change : subscription.pending.entrySet() ) {
+
+            var user = change.getKey();
+            var online = change.getValue();
+            if( !subscription.pending.remove( user, online ) ) {
+
+                continue;
+            }
+
+            // unsubscribed meanwhile, or back where the subscriber last saw it
+            var known = subscription.known.get( user );
+            if( known == null || known.equals( online ) ) {
+
+                continue;
+            }
+
+            changed.put( user, online );
+
+        }
+
+        if( changed.isEmpty() ) {
+
+            return;
+        }
+
+        if( !this.sender.test( subscription.connectionId, this.responseEncoder.presence( changed ) ) ) {
+
+            // parked again unless a newer change took their place, the subscriber still knows the old state
+            changed.forEach( subscription.pending::putIfAbsent );
+            schedule( subscription, Math.max( this.windowNanos, RETRY_NANOS ) );
+
+            return;
+        }
+
+        this.notifications.increment();
+
+        // only what was sent is known, and only for users still watched
+        changed.forEach( subscription.known::replace );
+
+    }
+
+    private static final class Subscription {
+
+        private final String connectionId;
+
+        // watched username -> online as last told to the subscriber
+        private final Map<String, Boolean> known = new ConcurrentHashMap<>();
+
+        // watched username -> latest state not yet sent
+        private final Map<String, Boolean> pending = new ConcurrentHashMap<>();
+
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private volatile long dueAt;
+
+        private volatile boolean closed;
+
+        Subscription( String connectionId ) {
+
+            this.connectionId = connectionId;
+
+        }
+
+    }
+
+}
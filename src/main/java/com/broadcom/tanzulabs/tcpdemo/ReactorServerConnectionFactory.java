@@ -0,0 +1,520 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.handler.codec.DelimiterBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.ssl.ClientAuth;
+import io.netty.handler.ssl.JdkSslContext;
+import io.netty.handler.ssl.SslHandler;
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.serializer.Serializer;
+import org.springframework.integration.ip.tcp.connection.AbstractServerConnectionFactory;
+import org.springframework.integration.ip.tcp.connection.TcpConnectionSupport;
+import org.springframework.integration.ip.tcp.connection.TcpListener;
+import org.springframework.integration.ip.tcp.connection.TcpSender;
+import org.springframework.messaging.Message;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.Connection;
+import reactor.netty.DisposableServer;
+import reactor.netty.NettyInbound;
+import reactor.netty.NettyOutbound;
+import reactor.netty.resources.LoopResources;
+import reactor.netty.tcp.TcpServer;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * tcp.server.mode=reactor, a Reactor Netty server behind the Spring Integration connection factory contract, so the
+ * inbound adapter, the {@link OutboundWriter}, the connection events and everything listening to them work as in the
+ * other modes.
+ * <p>
+ * A few event loop threads own all the sockets. Netty cuts the frames, and each connection's frames are handed one at
+ * a time to the dispatch executor, as the handlers may block. Reads follow demand: a connection asks for the next
+ * {@code prefetch} frames only as the handlers finish, and asks for none while its socket is not writable, a client
+ * that does not read its replies stops being read from once its outbound buffer passes the high water mark.
+ * Writes from the {@link OutboundWriter} wait for the same writability, so its queue and overflow policy apply as
+ * they do for a blocking socket.
+ */
+public class ReactorServerConnectionFactory extends AbstractServerConnectionFactory implements ServerDrain.Acceptor {
+
+    private static final Logger log = LoggerFactory.getLogger( ReactorServerConnectionFactory.class );
+
+    private static final byte STX = 0x02;
+
+    private final List<TcpSender> senders = new CopyOnWriteArrayList<>();
+
+    private volatile TcpListener listener;
+
+    private Framing framing = Framing.CRLF;
+    private int maxFrameSize = 2048;
+    private int prefetch = 32;
+    private int eventLoopThreads;
+    private int writeBufferLowWaterMark = 32 * 1024;
+    private int writeBufferHighWaterMark = 64 * 1024;
+    private SSLContext sslContext;
+
+    private volatile LoopResources loops;
+    private volatile DisposableServer server;
+    private volatile Scheduler dispatcher;
+
+    public ReactorServerConnectionFactory( int port ) {
+
+        super( port );
+
+    }
+
+    public void setFraming( Framing framing, int maxFrameSize ) {
+
+        if( framing == Framing.AUTO ) {
+
+            throw new IllegalStateException( "tcp.server.framing=auto is not available in reactor mode" );
+        }
+
+        this.framing = framing;
+        this.maxFrameSize = maxFrameSize;
+
+    }
+
+    /**
+     * @param prefetch frames read ahead of the handlers per connection
+     */
+    public void setPrefetch( int prefetch ) {
+
+        this.prefetch = prefetch;
+
+    }
+
+    /**
+     * @param eventLoopThreads 0 for one per core
+     */
+    public void setEventLoopThreads( int eventLoopThreads ) {
+
+        this.eventLoopThreads = eventLoopThreads;
+
+    }
+
+    public void setWriteBufferWaterMarks( int low, int high ) {
+
+        this.writeBufferLowWaterMark = low;
+        this.writeBufferHighWaterMark = high;
+
+    }
+
+    public void setSslContext( SSLContext sslContext ) {
+
+        this.sslContext = sslContext;
+
+    }
+
+    // kept here as well, every new connection is handed to them
+    @Override
+    public void registerListener( TcpListener listener ) {
+
+        super.registerListener( listener );
+        this.listener = listener;
+
+    }
+
+    @Override
+    public void registerSender( TcpSender sender ) {
+
+        super.registerSender( sender );
+        this.senders.add( sender );
+
+    }
+
+    @Override
+    public int getPort() {
+
+        var bound = this.server;
+
+        return bound != null ? bound.port() : super.getPort();
+    }
+
+    @Override
+    public SocketAddress getServerSocketAddress() {
+
+        var bound = this.server;
+
+        return bound != null ? bound.address() : null;
+    }
+
+    // started on the task executor by start()
+    @Override
+    public void run() {
+
+        try {
+
+            this.loops = LoopResources.create( "tcp-reactor", this.eventLoopThreads > 0 ? this.eventLoopThreads : LoopResources.DEFAULT_IO_WORKER_COUNT, true );
+            this.dispatcher = Schedulers.fromExecutor( getTaskExecutor() );
+
+            var tcpServer = TcpServer.create()
+                    .runOn( this.loops )
+                    .port( super.getPort() )
+                    .option( ChannelOption.SO_BACKLOG, getBacklog() )
+                    .childOption( ChannelOption.TCP_NODELAY, true )
+                    .childOption( ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark( this.writeBufferLowWaterMark, this.writeBufferHighWaterMark ) )
+                    .doOnConnection( connection -> connection.addHandlerLast( "frameDecoder", frameDecoder() ) )
+                    .handle( this::handle );
+            if( this.sslContext != null ) {
+
+                var nettySslContext = new JdkSslContext( this.sslContext, false, ClientAuth.NONE );
+                tcpServer = tcpServer.secure( spec -> spec.sslContext( nettySslContext ) );
+
+            }
+
+            this.server = tcpServer.bindNow();
+            setListening( true );
+            log.info( "run : listening on [{}], {} framing", this.server.address(), this.framing );
+            publishServerListeningEvent( this.server.port() );
+
+        } catch( RuntimeException e ) {
+
+            log.error( "run : could not listen on port [{}]", super.getPort(), e );
+
+        }
+
+    }
+
+    // only the server channel, the connections are its children and stay open
+    @Override
+    public void stopAccepting() {
+
+        var bound = this.server;
+        if( bound != null ) {
+
+            bound.channel().close().awaitUninterruptibly();
+
+        }
+
+    }
+
+    @Override
+    public void stop() {
+
+        var bound = this.server;
+        if( bound != null ) {
+
+            bound.disposeNow();
+            this.server = null;
+
+        }
+
+        setListening( false );
+
+        // closes the open connections
+        super.stop();
+
+        var resources = this.loops;
+        if( resources != null ) {
+
+            resources.disposeLater().block();
+            this.loops = null;
+
+        }
+
+    }
+
+    private ChannelHandler frameDecoder() {
+
+        return switch( this.framing ) {
+            case CRLF -> new DelimiterBasedFrameDecoder( this.maxFrameSize, Unpooled.wrappedBuffer( "\r\n".getBytes( StandardCharsets.US_ASCII ) ) );
+            case LENGTH_HEADER -> new LengthFieldBasedFrameDecoder( this.maxFrameSize + 4, 0, 4, 0, 4 );
+            // the leading STX stays on the frame, it is cut off on dispatch
+            case STX_ETX -> new DelimiterBasedFrameDecoder( this.maxFrameSize + 1, Unpooled.wrappedBuffer( new byte[] { 0x03 } ) );
+            case AUTO -> throw new IllegalStateException( "auto framing is resolved per connection" );
+        };
+    }
+
+    private Publisher<Void> handle( NettyInbound inbound, NettyOutbound outbound ) {
+
+        var opened = new AtomicReference<ReactorConnection>();
+        inbound.withConnection( connection -> opened.set( open( connection ) ) );
+        var connection = opened.get();
+
+        // one frame handled at a time, the next ones are read only as demand allows
+        return inbound.receive()
+                .asByteArray()
+                .concatMap( frame -> Mono.fromRunnable( () -> connection.dispatch( frame ) ).subscribeOn( this.dispatcher ).then( Mono.defer( connection::writable ) ), this.prefetch )
+                .doOnError( e -> log.debug( "handle : connection [{}] failed", connection.getConnectionId(), e ) )
+                .onErrorResume( e -> Mono.empty() )
+                .doFinally( signal -> connection.close() )
+                .then();
+    }
+
+    private ReactorConnection open( Connection nettyConnection ) {
+
+        var connection = new ReactorConnection( nettyConnection.channel(), getApplicationEventPublisher() );
+        connection.setMapper( getMapper() );
+        connection.setSerializer( getSerializer() );
+        nettyConnection.addHandlerLast( "writability", connection.writabilityHandler() );
+        nettyConnection.onDispose( connection::close );
+
+        var tcpListener = this.listener;
+        if( tcpListener != null ) {
+
+            connection.registerListener( tcpListener );
+
+        }
+
+        addConnection( connection );
+        this.senders.forEach( sender -> sender.addNewConnection( connection ) );
+        connection.opened();
+
+        return connection;
+    }
+
+    private final class ReactorConnection extends TcpConnectionSupport {
+
+        private final Channel channel;
+
+        private final String connectionId;
+        private final String hostName;
+        private final String hostAddress;
+        private final int port;
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        // completed once the channel is writable again, replaced when it next fills up
+        private final AtomicReference<CompletableFuture<Void>> writability = new AtomicReference<>( CompletableFuture.completedFuture( null ) );
+
+        // the frame the mapper is turning into a message, one at a time per connection
+        private volatile byte[] frame;
+
+        ReactorConnection( Channel channel, ApplicationEventPublisher applicationEventPublisher ) {
+
+            super( applicationEventPublisher );
+            this.channel = channel;
+
+            var remote = (InetSocketAddress) channel.remoteAddress();
+            this.hostName = remote.getHostString();
+            this.hostAddress = remote.getAddress() != null ? remote.getAddress().getHostAddress() : remote.getHostString();
+            this.port = remote.getPort();
+            this.connectionId = this.hostName + ":" + this.port + ":" + ( (InetSocketAddress) channel.localAddress() ).getPort() + ":" + UUID.randomUUID();
+
+        }
+
+        void opened() {
+
+            publishConnectionOpenEvent();
+
+        }
+
+        void dispatch( byte[] received ) {
+
+            var payload = ReactorServerConnectionFactory.this.framing == Framing.STX_ETX && received.length > 0 && received[ 0 ] == STX ? Arrays.copyOfRange( received, 1, received.length ) : received;
+
+            var tcpListener = getListener();
+            if( tcpListener == null ) {
+
+                log.debug( "dispatch : no listener, frame from [{}] dropped", this.connectionId );
+
+                return;
+            }
+
+            try {
+
+                this.frame = payload;
+                var message = getMapper().toMessage( this );
+                this.frame = null;
+                if( message != null ) {
+
+                    tcpListener.onMessage( message );
+
+                }
+
+            } catch( Exception e ) {
+
+                // the frame is lost, not the connection, as when a handler fails in the other modes
+                log.debug( "dispatch : frame from [{}] not handled", this.connectionId, e );
+
+            }
+
+        }
+
+        Mono<Void> writable() {
+
+            return this.channel.isWritable() ? Mono.empty() : Mono.fromFuture( whenWritable() );
+        }
+
+        ChannelHandler writabilityHandler() {
+
+            return new ChannelInboundHandlerAdapter() {
+
+                @Override
+                public void channelWritabilityChanged( ChannelHandlerContext ctx ) throws Exception {
+
+                    if( ctx.channel().isWritable() ) {
+
+                        ReactorConnection.this.writability.get().complete( null );
+
+                    }
+
+                    super.channelWritabilityChanged( ctx );
+
+                }
+
+            };
+        }
+
+        private CompletableFuture<Void> whenWritable() {
+
+            var pending = this.writability.updateAndGet( current -> current.isDone() ? new CompletableFuture<>() : current );
+
+            // checked again, the channel may have drained before the new future was in place
+            if( this.channel.isWritable() || !isOpen() ) {
+
+                pending.complete( null );
+
+            }
+
+            return pending;
+        }
+
+        // called from the OutboundWriter drain task, waits like a blocking socket write while the client is not reading
+        @SuppressWarnings( "unchecked" )
+        @Override
+        public void send( Message<?> message ) {
+
+            if( !isOpen() ) {
+
+                throw new IllegalStateException( "connection [" + this.connectionId + "] is closed" );
+            }
+
+            try {
+
+                whenWritable().get();
+
+            } catch( InterruptedException e ) {
+
+                Thread.currentThread().interrupt();
+
+                throw new IllegalStateException( "interrupted waiting to write to [" + this.connectionId + "]", e );
+            } catch( ExecutionException e ) {
+
+                throw new IllegalStateException( e.getCause() );
+            }
+
+            var buffer = this.channel.alloc().buffer();
+            try( var out = new ByteBufOutputStream( buffer ) ) {
+
+                ( (Serializer<Object>) getSerializer() ).serialize( getMapper().fromMessage( message ), out );
+
+            } catch( Exception e ) {
+
+                buffer.release();
+
+                throw new IllegalStateException( "could not frame the reply to [" + this.connectionId + "]", e );
+            }
+
+            this.channel.writeAndFlush( buffer ).addListener( future -> {
+
+                if( !future.isSuccess() ) {
+
+                    log.debug( "send : write to [{}] failed", this.connectionId, future.cause() );
+                    close();
+
+                }
+
+            });
+
+        }
+
+        @Override
+        public void close() {
+
+            if( !this.closed.compareAndSet( false, true ) ) {
+
+                return;
+            }
+
+            this.channel.close();
+            this.writability.get().complete( null );
+            ReactorServerConnectionFactory.this.senders.forEach( sender -> sender.removeDeadConnection( this ) );
+            super.close();
+
+        }
+
+        @Override
+        public boolean isOpen() {
+
+            return !this.closed.get() && this.channel.isActive();
+        }
+
+        @Override
+        public Object getPayload() {
+
+            return this.frame;
+        }
+
+        // reads are driven by the event loop, there is no reader thread to run
+        @Override
+        public void run() {
+
+        }
+
+        @Override
+        public String getConnectionId() {
+
+            return this.connectionId;
+        }
+
+        @Override
+        public String getHostName() {
+
+            return this.hostName;
+        }
+
+        @Override
+        public String getHostAddress() {
+
+            return this.hostAddress;
+        }
+
+        @Override
+        public int getPort() {
+
+            return this.port;
+        }
+
+        @Override
+        public Object getDeserializerStateKey() {
+
+            return null;
+        }
+
+        @Override
+        public SSLSession getSslSession() {
+
+            var sslHandler = this.channel.pipeline().get( SslHandler.class );
+
+            return sslHandler != null ? sslHandler.engine().getSession() : null;
+        }
+
+    }
+
+}
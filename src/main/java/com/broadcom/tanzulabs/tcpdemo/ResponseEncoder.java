@@ -0,0 +1,526 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes replies as JSON straight into a reusable per thread buffer, the only allocation per reply is the
+ * exactly sized byte[] handed to the {@link OutboundWriter}. Replies that never change are encoded once.
+ * Returned arrays are shared and must not be modified.
+ */
+public class ResponseEncoder {
+
+    // fragments are declared first, the constant replies below are encoded from them
+    private static final byte[] STATUS_PREFIX = ascii( "{\"status\":" );
+    private static final byte[] ID_PREFIX = ascii( "{\"id\":" );
+    private static final byte[] BROADCAST_SENT_PREFIX = ascii( "{\"status\":\"broadcast sent to " );
+    private static final byte[] BROADCAST_SENT_SUFFIX = ascii( "!\"}" );
+    private static final byte[] CHAT_RESPONSE_PREFIX = ascii( "{\"type\":\"chatResponse\",\"payload\":{" );
+    private static final byte[] CHAT_BATCH_RESPONSE_PREFIX = ascii( "{\"type\":\"chatBatchResponse\",\"payload\":{" );
+    private static final byte[] CHAT_HISTORY_PREFIX = ascii( "{\"type\":\"chatHistory\",\"payload\":{\"with\":" );
+    private static final byte[] MESSAGES_FIELD = ascii( ",\"messages\":[" );
+    private static final byte[] TIMESTAMP_FIELD = ascii( ",\"timestamp\":" );
+    private static final byte[] BATCH_STATUS_PREFIX = ascii( "{\"status\":\"batch processed!\",\"results\":[" );
+    private static final byte[] PRESENCE_PREFIX = ascii( "{\"type\":\"presence\",\"payload\":{\"online\":[" );
+    private static final byte[] OFFLINE_FIELD = ascii( "],\"offline\":[" );
+    private static final byte[] RECONNECT_PREFIX = ascii( "{\"status\":\"reconnect\",\"afterMillis\":" );
+    private static final byte[] ARRAY_END = ascii( "]" );
+    private static final byte[] ROOM_FIELD = ascii( "\"room\":" );
+    private static final byte[] FROM_FIELD = ascii( "\"from\":" );
+    private static final byte[] MESSAGE_FIELD = ascii( ",\"message\":" );
+    private static final byte[] OBJECT_END = ascii( "}" );
+    private static final byte[] PAYLOAD_END = ascii( "}}" );
+    private static final byte[] NULL = ascii( "null" );
+    private static final byte[] HEX = ascii( "0123456789abcdef" );
+
+    public static final byte[] LOGIN_SUCCEEDED = constantStatus( "login succeeded!" );
+    public static final byte[] LOGIN_FAILED = constantStatus( "login failed!" );
+    public static final byte[] LOGOUT_SUCCEEDED = constantStatus( "logout succeeded!" );
+    public static final byte[] LOGOUT_FAILED = constantStatus( "logout failed!" );
+    public static final byte[] CHAT_NOT_SENT = constantStatus( "chat not sent!" );
+    public static final byte[] CHAT_QUEUED = constantStatus( "chat queued!" );
+    public static final byte[] JOIN_SUCCEEDED = constantStatus( "join succeeded!" );
+    public static final byte[] JOIN_FAILED = constantStatus( "join failed!" );
+    public static final byte[] LEAVE_SUCCEEDED = constantStatus( "leave succeeded!" );
+    public static final byte[] LEAVE_FAILED = constantStatus( "leave failed!" );
+    public static final byte[] BROADCAST_NOT_SENT = constantStatus( "broadcast not sent!" );
+    public static final byte[] HISTORY_UNAVAILABLE = constantStatus( "history unavailable!" );
+    public static final byte[] SUBSCRIBE_FAILED = constantStatus( "subscribe failed!" );
+    public static final byte[] UNSUBSCRIBE_SUCCEEDED = constantStatus( "unsubscribe succeeded!" );
+    public static final byte[] PING = constantStatus( "ping" );
+    public static final byte[] PONG = constantStatus( "pong" );
+
+    /**
+     * What became of one entry of a {@code sendBatch}.
+     */
+    public enum Delivery {
+
+        // queued for the recipient's connection, here or at the node it is logged in at
+        SENT( "sent" ),
+
+        // stored until the recipient logs in or catches up on its backlog
+        QUEUED( "queued" ),
+
+        NOT_SENT( "not sent" );
+
+        private final String value;
+
+        private final byte[] encoded;
+
+        Delivery( String value ) {
+
+            this.value = value;
+            this.encoded = ascii( "\"" + value + "\"" );
+
+        }
+
+        @Override
+        public String toString() {
+
+            return this.value;
+        }
+
+    }
+
+    // buffers that grew past this are not kept for the next reply
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private static final ThreadLocal<Buffer> BUFFERS = ThreadLocal.withInitial( () -> new Buffer( 256 ) );
+
+    public byte[] broadcastSent( int delivered ) {
+
+        var buffer = acquire();
+        buffer.write( BROADCAST_SENT_PREFIX );
+        buffer.writeInt( delivered );
+        buffer.write( BROADCAST_SENT_SUFFIX );
+
+        return release( buffer );
+    }
+
+    public byte[] chatResponse( String from, String message ) {
+
+        var buffer = acquire();
+        buffer.write( CHAT_RESPONSE_PREFIX );
+        buffer.write( FROM_FIELD );
+        buffer.writeString( from );
+        buffer.write( MESSAGE_FIELD );
+        buffer.writeString( message );
+        buffer.write( PAYLOAD_END );
+
+        return release( buffer );
+    }
+
+    public byte[] roomChatResponse( String room, String from, String message ) {
+
+        var buffer = acquire();
+        buffer.write( CHAT_RESPONSE_PREFIX );
+        buffer.write( ROOM_FIELD );
+        buffer.writeString( room );
+        buffer.write( (byte) ',' );
+        buffer.write( FROM_FIELD );
+        buffer.writeString( from );
+        buffer.write( MESSAGE_FIELD );
+        buffer.writeString( message );
+        buffer.write( PAYLOAD_END );
+
+        return release( buffer );
+    }
+
+    /**
+     * One frame carrying every message of a batch sent to the same recipient.
+     */
+    public byte[] chatBatchResponse( String from, List<String> messages ) {
+
+        var buffer = acquire();
+        buffer.write( CHAT_BATCH_RESPONSE_PREFIX );
+        buffer.write( FROM_FIELD );
+        buffer.writeString( from );
+        buffer.write( MESSAGES_FIELD );
+        for( int i = 0; i < messages.size(); i++ ) {
+
+            if( i > 0 ) {
+
+                buffer.write( (byte) ',' );
+
+            }
+            buffer.writeString( messages.get( i ) );
+
+        }
+        buffer.write( ARRAY_END );
+        buffer.write( PAYLOAD_END );
+
+        return release( buffer );
+    }
+
+    /**
+     * A page of a conversation, {@code {"from":...,"message":...,"timestamp":...}} per message, oldest first.
+     */
+    public byte[] historyResponse( String with, List<ChatHistory.Entry> entries ) {
+
+        var buffer = acquire();
+        buffer.write( CHAT_HISTORY_PREFIX );
+        buffer.writeString( with );
+        buffer.write( MESSAGES_FIELD );
+        for( int i = 0; i < entries.size(); i++ ) {
+
+            if( i > 0 ) {
+
+                buffer.write( (byte) ',' );
+
+            }
+
+            var entry = entries.get( i );
+            buffer.write( (byte) '{' );
+            buffer.write( FROM_FIELD );
+            buffer.writeString( entry.from() );
+            buffer.write( MESSAGE_FIELD );
+            buffer.writeString( entry.message() );
+            buffer.write( TIMESTAMP_FIELD );
+            buffer.writeLong( entry.timestamp() );
+            buffer.write( OBJECT_END );
+
+        }
+        buffer.write( ARRAY_END );
+        buffer.write( PAYLOAD_END );
+
+        return release( buffer );
+    }
+
+    /**
+     * Who of the users is online and who is not, {@code {"online":[...],"offline":[...]}}.
+     */
+    public byte[] presence( Map<String, Boolean> online ) {
+
+        var buffer = acquire();
+        buffer.write( PRESENCE_PREFIX );
+        writeUsers( buffer, online, true );
+        buffer.write( OFFLINE_FIELD );
+        writeUsers( buffer, online, false );
+        buffer.write( ARRAY_END );
+        buffer.write( PAYLOAD_END );
+
+        return release( buffer );
+    }
+
+    private static void writeUsers( Buffer buffer, Map<String, Boolean> online, boolean state ) {
+
+        var first = true;
+        for( var user : online.entrySet() ) {
+
+            if( user.getValue() != state ) {
+
+                continue;
+            }
+
+            if( !first ) {
+
+                buffer.write( (byte) ',' );
+
+            }
+            buffer.writeString( user.getKey() );
+            first = false;
+
+        }
+
+    }
+
+    /**
+     * Sent to every connection while the server drains, the client reconnects once {@code afterMillis} have passed.
+     */
+    public byte[] reconnect( long afterMillis ) {
+
+        var buffer = acquire();
+        buffer.write( RECONNECT_PREFIX );
+        buffer.writeLong( afterMillis );
+        buffer.write( OBJECT_END );
+
+        return release( buffer );
+    }
+
+    /**
+     * The sender's reply to a batch, one result per entry in the order they were sent.
+     */
+    public byte[] batchStatus( Delivery[] results ) {
+
+        var buffer = acquire();
+        buffer.write( BATCH_STATUS_PREFIX );
+        for( int i = 0; i < results.length; i++ ) {
+
+            if( i > 0 ) {
+
+                buffer.write( (byte) ',' );
+
+            }
+            buffer.write( results[ i ].encoded );
+
+        }
+        buffer.write( ARRAY_END );
+        buffer.write( OBJECT_END );
+
+        return release( buffer );
+    }
+
+    /**
+     * The frame with the delivery log's id as its first field, {@code {"id":<id>,...}}.
+     */
+    public byte[] withId( long id, byte[] frame ) {
+
+        var buffer = acquire();
+        buffer.write( ID_PREFIX );
+        buffer.writeLong( id );
+        if( frame.length > 2 ) {
+
+            buffer.write( (byte) ',' );
+
+        }
+        // everything after the frame's opening brace
+        buffer.write( frame, 1, frame.length - 1 );
+
+        return release( buffer );
+    }
+
+    private static Buffer acquire() {
+
+        var buffer = BUFFERS.get();
+        buffer.reset();
+
+        return buffer;
+    }
+
+    private static byte[] release( Buffer buffer ) {
+
+        var bytes = buffer.toByteArray();
+        if( buffer.capacity() > MAX_RETAINED_CAPACITY ) {
+
+            BUFFERS.remove();
+
+        }
+
+        return bytes;
+    }
+
+    private static byte[] constantStatus( String status ) {
+
+        var buffer = new Buffer( 64 );
+        buffer.write( STATUS_PREFIX );
+        buffer.writeString( status );
+        buffer.write( OBJECT_END );
+
+        return buffer.toByteArray();
+    }
+
+    private static byte[] ascii( String value ) {
+
+        return value.getBytes( StandardCharsets.US_ASCII );
+    }
+
+    /**
+     * A growable byte buffer that writes JSON strings as escaped UTF-8 without intermediate Strings.
+     */
+    static final class Buffer {
+
+        private byte[] bytes;
+
+        private int position;
+
+        Buffer( int capacity ) {
+
+            this.bytes = new byte[ capacity ];
+
+        }
+
+        void reset() {
+
+            this.position = 0;
+
+        }
+
+        int capacity() {
+
+            return this.bytes.length;
+        }
+
+        int size() {
+
+            return this.position;
+        }
+
+        byte[] toByteArray() {
+
+            return Arrays.copyOf( this.bytes, this.position );
+        }
+
+        void writeTo( OutputStream out ) throws IOException {
+
+            out.write( this.bytes, 0, this.position );
+
+        }
+
+        void write( byte b ) {
+
+            ensure( 1 );
+            this.bytes[ this.position++ ] = b;
+
+        }
+
+        void write( byte[] source ) {
+
+            write( source, 0, source.length );
+
+        }
+
+        void write( byte[] source, int offset, int length ) {
+
+            ensure( length );
+            System.arraycopy( source, offset, this.bytes, this.position, length );
+            this.position += length;
+
+        }
+
+        void writeInt( int value ) {
+
+            writeLong( value );
+
+        }
+
+        void writeLong( long value ) {
+
+            if( value < 0 ) {
+
+                // Long.MIN_VALUE has no positive counterpart, fall back to the String
+                if( value == Long.MIN_VALUE ) {
+
+                    write( Long.toString( value ).getBytes( StandardCharsets.US_ASCII ) );
+                    return;
+                }
+
+                write( (byte) '-' );
+                value = -value;
+
+            }
+
+            ensure( 19 );
+            var end = this.position + digits( value );
+            var p = end;
+            do {
+
+                this.bytes[ --p ] = (byte) ( '0' + value % 10 );
+                value /= 10;
+
+            } while( value != 0 );
+            this.position = end;
+
+        }
+
+        private static int digits( long value ) {
+
+            var digits = 1;
+            while( value >= 10 ) {
+
+                value /= 10;
+                digits++;
+
+            }
+
+            return digits;
+        }
+
+        void writeString( String value ) {
+
+            if( value == null ) {
+
+                write( NULL );
+                return;
+            }
+
+            var length = value.length();
+
+            // worst case is a control character escaped as six bytes
+            ensure( length * 6 + 2 );
+
+            var out = this.bytes;
+            var p = this.position;
+
+            out[ p++ ] = '"';
+            for( int i = 0; i < length; i++ ) {
+
+                char c = value.charAt( i );
+                if( c < 0x80 ) {
+
+                    if( c >= 0x20 && c != '"' && c != '\\' ) {
+
+                        out[ p++ ] = (byte) c;
+                        continue;
+                    }
+
+                    out[ p++ ] = '\\';
+                    switch( c ) {
+                        case '"' -> out[ p++ ] = '"';
+                        case '\\' -> out[ p++ ] = '\\';
+                        case '\n' -> out[ p++ ] = 'n';
+                        case '\r' -> out[ p++ ] = 'r';
+                        case '\t' -> out[ p++ ] = 't';
+                        case '\b' -> out[ p++ ] = 'b';
+                        case '\f' -> out[ p++ ] = 'f';
+                        default -> {
+
+                            out[ p++ ] = 'u';
+                            out[ p++ ] = '0';
+                            out[ p++ ] = '0';
+                            out[ p++ ] = HEX[ c >> 4 ];
+                            out[ p++ ] = HEX[ c & 0xF ];
+
+                        }
+                    }
+
+                } else if( c < 0x800 ) {
+
+                    out[ p++ ] = (byte) ( 0xC0 | ( c >> 6 ) );
+                    out[ p++ ] = (byte) ( 0x80 | ( c & 0x3F ) );
+
+                } else if( Character.isHighSurrogate( c ) && i + 1 < length && Character.isLowSurrogate( value.charAt( i + 1 ) ) ) {
+
+                    int codePoint = Character.toCodePoint( c, value.charAt( ++i ) );
+                    out[ p++ ] = (byte) ( 0xF0 | ( codePoint >> 18 ) );
+                    out[ p++ ] = (byte) ( 0x80 | ( ( codePoint >> 12 ) & 0x3F ) );
+                    out[ p++ ] = (byte) ( 0x80 | ( ( codePoint >> 6 ) & 0x3F ) );
+                    out[ p++ ] = (byte) ( 0x80 | ( codePoint & 0x3F ) );
+
+                } else if( Character.isSurrogate( c ) ) {
+
+                    // unpaired surrogate, replaced the same way String.getBytes does
+                    out[ p++ ] = '?';
+
+                } else {
+
+                    out[ p++ ] = (byte) ( 0xE0 | ( c >> 12 ) );
+                    out[ p++ ] = (byte) ( 0x80 | ( ( c >> 6 ) & 0x3F ) );
+                    out[ p++ ] = (byte) ( 0x80 | ( c & 0x3F ) );
+
+                }
+
+            }
+            out[ p++ ] = '"';
+
+            this.position = p;
+
+        }
+
+        private void ensure( int additional ) {
+
+            var required = this.position + additional;
+            if( required > this.bytes.length ) {
+
+                this.bytes = Arrays.copyOf( this.bytes, Math.max( required, this.bytes.length * 2 ) );
+
+            }
+
+        }
+
+    }
+
+}
@@ -0,0 +1,132 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Component
+public class RoomService {
+
+    private static final Logger log = LoggerFactory.getLogger( RoomService.class );
+
+    // room -> member connectionIds, sets are concurrent so a broadcast iterates them without locking
+    private final Map<String, Set<String>> roomMembers = new ConcurrentHashMap<>();
+
+    // connectionId -> rooms, so a closing connection leaves its rooms without scanning them all. An entry exists from
+    // open to close, joins and removal run inside its compute so a join racing the close cannot outlive it
+    private final Map<String, Set<String>> connectionRooms = new ConcurrentHashMap<>();
+
+    public void registerConnection( String connectionId ) {
+
+        this.connectionRooms.putIfAbsent( connectionId, ConcurrentHashMap.newKeySet() );
+
+    }
+
+    public boolean join( String room, String connectionId ) {
+
+        if( room == null || room.isEmpty() ) {
+
+            return false;
+        }
+
+        var joined = new boolean[ 1 ];
+        this.connectionRooms.computeIfPresent( connectionId, ( c, rooms ) -> {
+
+            // membership changes run inside compute so an emptied room is never dropped while someone joins it
+            this.roomMembers.compute( room, ( r, members ) -> {
+
+                var updated = members != null ? members : ConcurrentHashMap.<String>newKeySet();
+                updated.add( connectionId );
+
+                return updated;
+            });
+            rooms.add( room );
+            joined[ 0 ] = true;
+
+            return rooms;
+        });
+
+        if( !joined[ 0 ] ) {
+
+            log.debug( "join : client [{}] not connected for room [{}]!", connectionId, room );
+
+            return false;
+        }
+
+        log.debug( "join : client [{}] joined room [{}]!", connectionId, room );
+
+        return true;
+    }
+
+    public boolean leave( String room, String connectionId ) {
+
+        if( room == null ) {
+
+            return false;
+        }
+
+        var removed = new boolean[ 1 ];
+        this.connectionRooms.computeIfPresent( connectionId, ( c, rooms ) -> {
+
+            rooms.remove( room );
+            removed[ 0 ] = removeMember( room, connectionId );
+
+            return rooms;
+        });
+
+        log.debug( "leave : client [{}] left room [{}] {}!", connectionId, room, removed[ 0 ] ? "succeeded" : "failed" );
+
+        return removed[ 0 ];
+    }
+
+    public void removeConnection( String connectionId ) {
+
+        this.connectionRooms.computeIfPresent( connectionId, ( c, rooms ) -> {
+
+            rooms.forEach( room -> removeMember( room, connectionId ) );
+
+            return null;
+        });
+
+    }
+
+    public Set<String> getMembers( String room ) {
+
+        var members = this.roomMembers.get( room );
+
+        return members != null ? Collections.unmodifiableSet( members ) : Set.of();
+    }
+
+    public Set<String> getRooms( String connectionId ) {
+
+        var rooms = this.connectionRooms.get( connectionId );
+
+        return rooms != null ? Collections.unmodifiableSet( rooms ) : Set.of();
+    }
+
+    public boolean isMember( String room, String connectionId ) {
+
+        var members = this.roomMembers.get( room );
+
+        return members != null && members.contains( connectionId );
+    }
+
+    private boolean removeMember( String room, String connectionId ) {
+
+        var removed = new boolean[ 1 ];
+        this.roomMembers.computeIfPresent( room, ( r, members ) -> {
+
+            removed[ 0 ] = members.remove( connectionId );
+
+            return members.isEmpty() ? null : members;
+        });
+
+        return removed[ 0 ];
+    }
+
+}
@@ -0,0 +1,296 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.integration.ip.tcp.connection.TcpConnectionOpenEvent;
+import org.springframework.integration.ip.tcp.connection.TcpNetServerConnectionFactory;
+import org.springframework.integration.ip.tcp.connection.TcpNioServerConnectionFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Takes the server down without every client coming back at once. When the context closes, before any connection
+ * factory or writer is stopped, the listening socket is closed so no client connects to a server on its way out, then
+ * every connection is sent {@code {"status":"reconnect","afterMillis":...}} with a
+ * delay drawn between {@code reconnectMin} and {@code reconnectMax}, so the clients of a restarted node return
+ * spread out instead of as one storm. The outbound queues are then given up to {@code timeout} to flush, the notice
+ * is the last frame of each, and the clients up to {@code closeGrace} to hang up on their own before the factory
+ * closes what is left.
+ * <p>
+ * Connections that slip in before the listening socket is closed, or all new ones when the factory is not an
+ * {@link Acceptor}, are sent the notice as well. With a {@link SessionSnapshot} the rooms of every user logged in on
+ * this node are written out first, while the connections still hold them.
+ * <p>
+ * The snapshot keeps no sessions as such. A session is a login on a TCP connection and both end with the process, a
+ * returning client logs in again on a new connection. What it keeps is the state a login would otherwise have to
+ * rebuild, the rooms, keyed by the username that outlives the connection.
+ */
+public class ServerDrain {
+
+    private static final Logger log = LoggerFactory.getLogger( ServerDrain.class );
+
+    private static final long POLL_MILLIS = 10;
+
+    private final Supplier<List<String>> openConnections;
+    private final Acceptor acceptor;
+    private final OutboundWriter outboundWriter;
+    private final SessionDirectory sessionDirectory;
+    private final RoomService roomService;
+    private final ResponseEncoder responseEncoder;
+    private final SessionSnapshot sessionSnapshot;
+
+    private final long reconnectMinMillis;
+    private final long reconnectMaxMillis;
+    private final long timeoutNanos;
+    private final long closeGraceNanos;
+
+    private final Counter notified;
+
+    private volatile boolean draining;
+
+    /**
+     * @param acceptor null to keep accepting connections while draining
+     * @param sessionSnapshot null to drain without writing a snapshot
+     */
+    public ServerDrain(
+            Supplier<List<String>> openConnections, Acceptor acceptor, OutboundWriter outboundWriter, SessionDirectory sessionDirectory, RoomService roomService,
+            ResponseEncoder responseEncoder, SessionSnapshot sessionSnapshot, Duration reconnectMin, Duration reconnectMax, Duration timeout,
+            Duration closeGrace, MeterRegistry meterRegistry ) {
+
+        if( reconnectMax.compareTo( reconnectMin ) < 0 ) {
+
+            throw new IllegalArgumentException( "reconnect max must not be shorter than reconnect min" );
+        }
+
+        this.openConnections = openConnections;
+        this.acceptor = acceptor;
+        this.outboundWriter = outboundWriter;
+        this.sessionDirectory = sessionDirectory;
+        this.roomService = roomService;
+        this.responseEncoder = responseEncoder;
+        this.sessionSnapshot = sessionSnapshot;
+        this.reconnectMinMillis = reconnectMin.toMillis();
+        this.reconnectMaxMillis = reconnectMax.toMillis();
+        this.timeoutNanos = timeout.toNanos();
+        this.closeGraceNanos = closeGrace.toNanos();
+
+        this.notified = Counter.builder( "tcp.drain.notified" )
+                .description( "Connections told to reconnect later because the server was draining" )
+                .register( meterRegistry );
+
+    }
+
+    // published before the lifecycle beans are stopped, everything is still running
+    @EventListener
+    public void closing( ContextClosedEvent event ) {
+
+        drain();
+
+    }
+
+    @EventListener
+    public void open( TcpConnectionOpenEvent event ) {
+
+        if( this.draining ) {
+
+            notify( event.getConnectionId() );
+
+        }
+
+    }
+
+    public void drain() {
+
+        if( this.draining ) {
+
+            return;
+        }
+        this.draining = true;
+
+        var start = System.nanoTime();
+        snapshot();
+        stopAccepting();
+
+        var connections = this.openConnections.get();
+        for( var connectionId : connections ) {
+
+            notify( connectionId );
+
+        }
+
+        var flushed = await( () -> this.outboundWriter.getQueueDepth() == 0, start + this.timeoutNanos );
+        var closed = await( () -> this.openConnections.get().isEmpty(), System.nanoTime() + this.closeGraceNanos );
+
+        log.info( "drain : [{}] connections told to reconnect in {}-{}ms, queues {}, {} connections left open after {}ms",
+                connections.size(), this.reconnectMinMillis, this.reconnectMaxMillis, flushed ? "flushed" : "not flushed",
+                closed ? 0 : this.openConnections.get().size(), TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ) );
+
+    }
+
+    public boolean isDraining() {
+
+        return this.draining;
+    }
+
+    private void notify( String connectionId ) {
+
+        var afterMillis = ThreadLocalRandom.current().nextLong( this.reconnectMinMillis, this.reconnectMaxMillis + 1 );
+        if( this.outboundWriter.write( connectionId, this.responseEncoder.reconnect( afterMillis ) ) ) {
+
+            this.notified.increment();
+
+        }
+
+    }
+
+    private void stopAccepting() {
+
+        if( this.acceptor == null ) {
+
+            return;
+        }
+
+        try {
+
+            this.acceptor.stopAccepting();
+
+        } catch( IOException e ) {
+
+            log.warn( "stopAccepting : listening socket not closed, new connections are told to reconnect as well", e );
+
+        }
+
+    }
+
+    private void snapshot() {
+
+        if( this.sessionSnapshot == null ) {
+
+            return;
+        }
+
+        // username -> rooms, users in no room have nothing to restore
+        var rooms = new HashMap<String, Set<String>>();
+        for( var username : this.sessionDirectory.getLoggedInUsers() ) {
+
+            this.sessionDirectory.getConnection( username )
+                    .map( this.roomService::getRooms )
+                    .filter( joined -> !joined.isEmpty() )
+                    .ifPresent( joined -> rooms.put( username, Set.copyOf( joined ) ) );
+
+        }
+
+        try {
+
+            this.sessionSnapshot.write( rooms );
+
+        } catch( IOException e ) {
+
+            log.warn( "snapshot : session snapshot not written, the next start will be cold", e );
+
+        }
+
+    }
+
+    private static boolean await( BooleanSupplier condition, long deadline ) {
+
+        while( !condition.getAsBoolean() ) {
+
+            if( System.nanoTime() - deadline >= 0 ) {
+
+                return false;
+            }
+
+            try {
+
+                Thread.sleep( POLL_MILLIS );
+
+            } catch( InterruptedException e ) {
+
+                Thread.currentThread().interrupt();
+
+                return false;
+            }
+
+        }
+
+        return true;
+    }
+
+    /**
+     * A server connection factory that can close its listening socket while its connections stay open.
+     */
+    public interface Acceptor {
+
+        void stopAccepting() throws IOException;
+
+    }
+
+    public static class NetServerConnectionFactory extends TcpNetServerConnectionFactory implements Acceptor {
+
+        private volatile boolean acceptingStopped;
+
+        public NetServerConnectionFactory( int port ) {
+
+            super( port );
+
+        }
+
+        @Override
+        public void stopAccepting() throws IOException {
+
+            var serverSocket = getServerSocket();
+            if( serverSocket != null ) {
+
+                this.acceptingStopped = true;
+                serverSocket.close();
+
+            }
+
+        }
+
+        // the accept loop marks the factory inactive once its socket is closed, it still has connections to stop
+        @Override
+        public boolean isRunning() {
+
+            return super.isRunning() || this.acceptingStopped;
+        }
+
+    }
+
+    public static class NioServerConnectionFactory extends TcpNioServerConnectionFactory implements Acceptor {
+
+        public NioServerConnectionFactory( int port ) {
+
+            super( port );
+
+        }
+
+        // the selector drops the closed channel's key and goes on serving the connections
+        @Override
+        public void stopAccepting() throws IOException {
+
+            var serverChannel = getServerChannel();
+            if( serverChannel != null ) {
+
+                serverChannel.close();
+
+            }
+
+        }
+
+    }
+
+}
@@ -0,0 +1,219 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.serializer.Deserializer;
+import org.springframework.core.serializer.Serializer;
+import org.springframework.integration.ip.tcp.connection.TcpMessageMapper;
+import org.springframework.integration.ip.tcp.connection.TcpNetConnection;
+import org.springframework.integration.ip.tcp.connection.TcpNetConnectionSupport;
+import org.springframework.integration.ip.tcp.connection.TcpNetServerConnectionFactory;
+import org.springframework.integration.ip.tcp.connection.TcpNioConnection;
+import org.springframework.integration.ip.tcp.connection.TcpNioConnectionSupport;
+import org.springframework.integration.ip.tcp.connection.TcpNioServerConnectionFactory;
+import org.springframework.integration.ip.tcp.serializer.AbstractByteArraySerializer;
+
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Applies {@code tcp.server.framing} to the server connection factory of whichever mode is active. With a
+ * {@link BufferPool} frames are read into and framed in pooled buffers.
+ */
+public class ServerFraming {
+
+    private final Framing framing;
+    private final int maxFrameSize;
+    private final int poolSize;
+    private final BufferPool bufferPool;
+
+    // connectionId -> framing of each open auto detecting connection
+    private final Map<String, AutoDetectFraming> autoDetected = new ConcurrentHashMap<>();
+
+    public ServerFraming( Framing framing, int maxFrameSize, int poolSize ) {
+
+        this( framing, maxFrameSize, poolSize, null );
+
+    }
+
+    /**
+     * @param bufferPool null reads every frame into a new byte[]
+     */
+    public ServerFraming( Framing framing, int maxFrameSize, int poolSize, BufferPool bufferPool ) {
+
+        this.framing = framing;
+        this.maxFrameSize = maxFrameSize;
+        this.poolSize = poolSize;
+        this.bufferPool = bufferPool;
+
+    }
+
+    public Framing getFraming() {
+
+        return this.framing;
+    }
+
+    /**
+     * The framing a connection's frames actually use, what was detected for it when auto detecting.
+     */
+    public Framing getFraming( String connectionId ) {
+
+        if( this.framing != Framing.AUTO ) {
+
+            return this.framing;
+        }
+
+        var autoDetectFraming = this.autoDetected.get( connectionId );
+        var detected = autoDetectFraming != null ? autoDetectFraming.getDetected() : null;
+
+        return detected != null ? detected : Framing.CRLF;
+    }
+
+    public void apply( TcpNetServerConnectionFactory factory ) {
+
+        if( this.framing == Framing.AUTO ) {
+
+            factory.setTcpNetConnectionSupport( new AutoDetectNetConnectionSupport( AutoDetectFraming.Serializers.of( this.maxFrameSize, this.poolSize, this.bufferPool ), this.bufferPool, this.autoDetected ) );
+
+        } else {
+
+            var serializer = this.framing.serializer( this.maxFrameSize, this.poolSize );
+            factory.setSerializer( new BatchingSerializer( serializer, this.bufferPool ) );
+            factory.setDeserializer( deserializer( serializer ) );
+
+        }
+
+        factory.setMapper( batchingMapper() );
+
+    }
+
+    public void apply( TcpNioServerConnectionFactory factory ) {
+
+        if( this.framing == Framing.AUTO ) {
+
+            factory.setTcpNioConnectionSupport( new AutoDetectNioConnectionSupport( AutoDetectFraming.Serializers.of( this.maxFrameSize, this.poolSize, this.bufferPool ), this.bufferPool, this.autoDetected ) );
+
+        } else {
+
+            var serializer = this.framing.serializer( this.maxFrameSize, this.poolSize );
+            factory.setSerializer( new BatchingSerializer( serializer, this.bufferPool ) );
+            factory.setDeserializer( deserializer( serializer ) );
+
+        }
+
+        factory.setMapper( batchingMapper() );
+
+    }
+
+    // Netty cuts the inbound frames, only the serializer and mapper are the factory's
+    public void apply( ReactorServerConnectionFactory factory ) {
+
+        factory.setFraming( this.framing, this.maxFrameSize );
+        factory.setSerializer( new BatchingSerializer( this.framing.serializer( this.maxFrameSize, this.poolSize ), this.bufferPool ) );
+        factory.setMapper( batchingMapper() );
+
+    }
+
+    private Deserializer<?> deserializer( AbstractByteArraySerializer serializer ) {
+
+        return this.bufferPool != null ? new PooledFrameDeserializer( this.framing, this.maxFrameSize, this.bufferPool ) : serializer;
+    }
+
+    // FrameBatch payloads have to reach the serializer untouched
+    private static TcpMessageMapper batchingMapper() {
+
+        TcpMessageMapper mapper = new TcpMessageMapper();
+        mapper.setStringToBytes( false );
+
+        return mapper;
+    }
+
+    // The factory hands every connection its shared serializer and deserializer,
+    // auto detecting connections keep their own instance instead, registered while they are open.
+
+    record AutoDetectNetConnectionSupport( AutoDetectFraming.Serializers serializers, BufferPool bufferPool,
+                                          Map<String, AutoDetectFraming> detected ) implements TcpNetConnectionSupport {
+
+        @Override
+        public TcpNetConnection createNewConnection( Socket socket, boolean server, boolean lookupHost,
+                                                     ApplicationEventPublisher applicationEventPublisher, String connectionFactoryName ) {
+
+            var autoDetectFraming = new AutoDetectFraming( this.serializers );
+            var detected = this.detected;
+
+            var connection = new TcpNetConnection( socket, server, lookupHost, applicationEventPublisher, connectionFactoryName ) {
+
+                @Override
+                public void setSerializer( Serializer<?> serializer ) {
+
+                    super.setSerializer( new BatchingSerializer( autoDetectFraming, bufferPool ) );
+
+                }
+
+                @Override
+                public void setDeserializer( Deserializer<?> deserializer ) {
+
+                    super.setDeserializer( autoDetectFraming );
+
+                }
+
+                @Override
+                public void close() {
+
+                    super.close();
+                    detected.remove( getConnectionId() );
+
+                }
+
+            };
+            detected.put( connection.getConnectionId(), autoDetectFraming );
+
+            return connection;
+        }
+
+    }
+
+    record AutoDetectNioConnectionSupport( AutoDetectFraming.Serializers serializers, BufferPool bufferPool,
+                                          Map<String, AutoDetectFraming> detected ) implements TcpNioConnectionSupport {
+
+        @Override
+        public TcpNioConnection createNewConnection( SocketChannel socketChannel, boolean server, boolean lookupHost,
+                                                     ApplicationEventPublisher applicationEventPublisher, String connectionFactoryName ) {
+
+            var autoDetectFraming = new AutoDetectFraming( this.serializers );
+            var detected = this.detected;
+
+            var connection = new TcpNioConnection( socketChannel, server, lookupHost, applicationEventPublisher, connectionFactoryName ) {
+
+                @Override
+                public void setSerializer( Serializer<?> serializer ) {
+
+                    super.setSerializer( new BatchingSerializer( autoDetectFraming, bufferPool ) );
+
+                }
+
+                @Override
+                public void setDeserializer( Deserializer<?> deserializer ) {
+
+                    super.setDeserializer( autoDetectFraming );
+
+                }
+
+                @Override
+                public void close() {
+
+                    super.close();
+                    detected.remove( getConnectionId() );
+
+                }
+
+            };
+            detected.put( connection.getConnectionId(), autoDetectFraming );
+
+            return connection;
+        }
+
+    }
+
+}
@@ -0,0 +1,128 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.integration.ip.tcp.connection.DefaultTcpNetSSLSocketFactorySupport;
+import org.springframework.integration.ip.tcp.connection.DefaultTcpNioSSLConnectionSupport;
+import org.springframework.integration.ip.tcp.connection.TcpNetServerConnectionFactory;
+import org.springframework.integration.ip.tcp.connection.TcpNioServerConnectionFactory;
+import org.springframework.integration.ip.tcp.connection.TcpSSLContextSupport;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.time.Duration;
+
+/**
+ * Applies {@code tcp.server.tls} to the server connection factory of whichever mode is active.
+ * <p>
+ * Every connection shares one SSLContext, so a client that reconnects within the session timeout resumes its
+ * session (TLS 1.3 session tickets, or the server's session cache for TLS 1.2) instead of running a full handshake.
+ * That keeps the reconnect storm after a deploy from turning into a storm of key exchanges.
+ */
+public class ServerTls implements TcpSSLContextSupport {
+
+    private static final Logger log = LoggerFactory.getLogger( ServerTls.class );
+
+    private final Resource keyStore;
+    private final String keyStorePassword;
+    private final String keyStoreType;
+    private final String protocol;
+    private final int sessionCacheSize;
+    private final Duration sessionTimeout;
+
+    private SSLContext sslContext;
+
+    public ServerTls(
+            Resource keyStore, String keyStorePassword, String keyStoreType, String protocol, int sessionCacheSize,
+            Duration sessionTimeout ) {
+
+        this.keyStore = keyStore;
+        this.keyStorePassword = keyStorePassword;
+        this.keyStoreType = keyStoreType;
+        this.protocol = protocol;
+        this.sessionCacheSize = sessionCacheSize;
+        this.sessionTimeout = sessionTimeout;
+
+    }
+
+    /**
+     * Built on first use and shared from then on, the session cache lives in it.
+     */
+    @Override
+    public synchronized SSLContext getSSLContext() throws GeneralSecurityException, IOException {
+
+        if( this.sslContext == null ) {
+
+            var password = this.keyStorePassword.toCharArray();
+            var keys = KeyStore.getInstance( this.keyStoreType );
+            try( var in = this.keyStore.getInputStream() ) {
+
+                keys.load( in, password );
+
+            }
+
+            var keyManagerFactory = KeyManagerFactory.getInstance( KeyManagerFactory.getDefaultAlgorithm() );
+            keyManagerFactory.init( keys, password );
+
+            var context = SSLContext.getInstance( this.protocol );
+            context.init( keyManagerFactory.getKeyManagers(), null, null );
+            context.getServerSessionContext().setSessionCacheSize( this.sessionCacheSize );
+            context.getServerSessionContext().setSessionTimeout( (int) this.sessionTimeout.toSeconds() );
+
+            log.info( "getSSLContext : [{}] with key store [{}], sessions cached [{}] for [{}]", this.protocol, this.keyStore, this.sessionCacheSize, this.sessionTimeout );
+            this.sslContext = context;
+
+        }
+
+        return this.sslContext;
+    }
+
+    public void apply( TcpNetServerConnectionFactory factory ) {
+
+        var support = new DefaultTcpNetSSLSocketFactorySupport( this );
+        initialize( support::afterPropertiesSet );
+        factory.setTcpSocketFactorySupport( support );
+
+    }
+
+    public void apply( TcpNioServerConnectionFactory factory ) {
+
+        // clients are not asked for certificates, so there is no host to verify
+        var support = new DefaultTcpNioSSLConnectionSupport( this, false );
+        initialize( support::afterPropertiesSet );
+        factory.setTcpNioConnectionSupport( support );
+
+    }
+
+    public void apply( ReactorServerConnectionFactory factory ) {
+
+        initialize( () -> factory.setSslContext( getSSLContext() ) );
+
+    }
+
+    // a key store that cannot be read fails the startup rather than the first connection
+    private static void initialize( Initializer initializer ) {
+
+        try {
+
+            initializer.afterPropertiesSet();
+
+        } catch( Exception e ) {
+
+            throw new IllegalStateException( "could not set up TLS : " + e.getMessage(), e );
+        }
+
+    }
+
+    @FunctionalInterface
+    private interface Initializer {
+
+        void afterPropertiesSet() throws Exception;
+
+    }
+
+}
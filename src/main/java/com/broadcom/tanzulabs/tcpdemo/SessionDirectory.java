@@ -0,0 +1,68 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Which connection each user is logged in at. {@link ClientService} keeps the sessions of this node,
+ * {@link ClusterSessionDirectory} adds the users connected to other nodes.
+ */
+public interface SessionDirectory {
+
+    void registerConnection( String connectionId );
+
+    void removeConnection( String connectionId );
+
+    /**
+     * @return what the login changed, {@link Login#FAILED} if the connection is gone or the username empty
+     */
+    Login login( String connectionId, String username );
+
+    boolean logout( String connectionId, String username );
+
+    /**
+     * @return the user's connection on this node
+     */
+    Optional<String> getConnection( String username );
+
+    Optional<String> getUsername( String connectionId );
+
+    int getConnectionCount();
+
+    /**
+     * @return the users logged in on this node
+     */
+    Set<String> getLoggedInUsers();
+
+    int getLoggedInCount();
+
+    boolean isClientConnected( String connectionId );
+
+    /**
+     * @return true if the user is logged in on this or any other known node
+     */
+    boolean isUserLoggedIn( String username );
+
+    /**
+     * Hand a chat frame to the node the user is logged in at.
+     *
+     * @return false if the user is not logged in on another node or the frame could not be queued for it
+     */
+    default boolean forward( String username, byte[] frame ) {
+
+        return false;
+    }
+
+    /**
+     * The outcome of a login, read under the same lock that applied it so a concurrent login cannot blur it.
+     *
+     * @param previous the user the connection was logged in as before, null if none
+     * @param wasOnline whether the user was logged in already, here or on another node
+     */
+    record Login( boolean succeeded, String previous, boolean wasOnline ) {
+
+        public static final Login FAILED = new Login( false, null, false );
+
+    }
+
+}
@@ -0,0 +1,156 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The rooms every user logged in on this node was in when it drained, written to {@code file} on the way down and read back,
+ * once, at startup. A user logging in within {@code maxAge} of the snapshot is put back in their rooms, so clients
+ * returning after a restart do not all send their joins again in the middle of the reconnect storm.
+ * <p>
+ * Each user is restored at their first login only, a later login starts without rooms as it always has.
+ */
+public class SessionSnapshot {
+
+    private static final Logger log = LoggerFactory.getLogger( SessionSnapshot.class );
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    record Snapshot( long takenAt, Map<String, Set<String>> rooms ) { }
+
+    private final Path file;
+    private final long maxAgeMillis;
+
+    // username -> rooms, for the users that have not logged in again yet
+    private final Map<String, Set<String>> restorable = new ConcurrentHashMap<>();
+
+    private final Counter restored;
+
+    private volatile long takenAt;
+
+    public SessionSnapshot( Path file, Duration maxAge, MeterRegistry meterRegistry ) {
+
+        this.file = file;
+        this.maxAgeMillis = maxAge.toMillis();
+        this.restored = Counter.builder( "tcp.snapshot.restored" )
+                .description( "Logins put back in the rooms they were in before the restart" )
+                .register( meterRegistry );
+
+        load();
+
+    }
+
+    /**
+     * Replace the snapshot with the rooms of the users logged in now, the file is swapped in whole.
+     */
+    public void write( Map<String, Set<String>> rooms ) throws IOException {
+
+        var directory = this.file.toAbsolutePath().getParent();
+        Files.createDirectories( directory );
+
+        var temporary = Files.createTempFile( directory, this.file.getFileName().toString(), ".tmp" );
+        try {
+
+            MAPPER.writeValue( temporary.toFile(), new Snapshot( System.currentTimeMillis(), rooms ) );
+            Files.move( temporary, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+
+        } finally {
+
+            Files.deleteIfExists( temporary );
+
+        }
+
+        log.info( "write : rooms of [{}] users written to [{}]", rooms.size(), this.file );
+
+    }
+
+    /**
+     * The rooms the user was in when the snapshot was taken, empty once the snapshot is too old or the user was
+     * already restored.
+     */
+    public Set<String> restore( String username ) {
+
+        if( this.restorable.isEmpty() ) {
+
+            return Set.of();
+        }
+
+        if( System.currentTimeMillis() - this.takenAt > this.maxAgeMillis ) {
+
+            log.debug( "restore : snapshot expired, [{}] users did not come back", this.restorable.size() );
+            this.restorable.clear();
+
+            return Set.of();
+        }
+
+        var rooms = this.restorable.remove( username );
+        if( rooms == null ) {
+
+            return Set.of();
+        }
+
+        this.restored.increment();
+
+        return rooms;
+    }
+
+    int getRestorable() {
+
+        return this.restorable.size();
+    }
+
+    // deleted once read, a crash later on must not bring back rooms that were left since
+    private void load() {
+
+        try {
+
+            var snapshot = MAPPER.readValue( Files.readAllBytes( this.file ), Snapshot.class );
+            Files.delete( this.file );
+
+            var age = System.currentTimeMillis() - snapshot.takenAt();
+            if( age > this.maxAgeMillis ) {
+
+                log.info( "load : snapshot [{}] is {}s old, ignored", this.file, age / 1000 );
+
+                return;
+            }
+
+            this.takenAt = snapshot.takenAt();
+            this.restorable.putAll( snapshot.rooms() );
+            log.info( "load : rooms of [{}] users read from [{}]", snapshot.rooms().size(), this.file );
+
+        } catch( NoSuchFileException e ) {
+
+            log.debug( "load : no snapshot at [{}]", this.file );
+
+        } catch( IOException e ) {
+
+            // a damaged snapshot only costs the warm start
+            log.warn( "load : snapshot [{}] could not be read, starting cold", this.file, e );
+            try {
+
+                Files.deleteIfExists( this.file );
+
+            } catch( IOException ignored ) {
+
+                // read again at the next start, and ignored again
+            }
+
+        }
+
+    }
+
+}
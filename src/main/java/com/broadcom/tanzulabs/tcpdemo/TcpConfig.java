@@ -1,11 +1,22 @@
 package com.broadcom.tanzulabs.tcpdemo;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.context.event.EventListener;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.core.io.Resource;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
 import org.springframework.integration.annotation.EndpointId;
 import org.springframework.integration.annotation.ServiceActivator;
 import org.springframework.integration.channel.DirectChannel;
@@ -13,55 +24,444 @@ import org.springframework.integration.config.EnableIntegration;
 import org.springframework.integration.dsl.IntegrationFlow;
 import org.springframework.integration.ip.IpHeaders;
 import org.springframework.integration.ip.dsl.Tcp;
-import org.springframework.integration.ip.dsl.TcpNetServerConnectionFactorySpec;
-import org.springframework.integration.ip.tcp.TcpSendingMessageHandler;
 import org.springframework.integration.ip.tcp.connection.AbstractServerConnectionFactory;
 import org.springframework.integration.ip.tcp.connection.TcpConnectionCloseEvent;
 import org.springframework.integration.ip.tcp.connection.TcpConnectionOpenEvent;
+import org.springframework.integration.ip.tcp.connection.TcpNetServerConnectionFactory;
+import org.springframework.integration.ip.tcp.connection.TcpNioServerConnectionFactory;
 import org.springframework.integration.router.HeaderValueRouter;
+import org.springframework.integration.util.CompositeExecutor;
 import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.SubscribableChannel;
 import org.springframework.messaging.support.GenericMessage;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.stream.Collectors;
 
 @Configuration
 @EnableIntegration
 public class TcpConfig {
 
+    @Bean
+    public AuditStream auditStream(
+            ObjectProvider<MeterRegistry> meterRegistry,
+            @Value( "${tcp.server.audit.file:data/audit/audit.log}" ) String file,
+            @Value( "${tcp.server.audit.ring-size:65536}" ) int ringSize,
+            @Value( "${tcp.server.audit.max-file-size:67108864}" ) long maxFileSize,
+            @Value( "${tcp.server.audit.max-files:5}" ) int maxFiles,
+            @Value( "${tcp.server.audit.sample.connection:1.0}" ) double connectionSampleRate,
+            @Value( "${tcp.server.audit.sample.login:1.0}" ) double loginSampleRate,
+            @Value( "${tcp.server.audit.sample.chat:0.1}" ) double chatSampleRate,
+            @Value( "${tcp.server.audit.sample.error:1.0}" ) double errorSampleRate ) {
+
+        // in AuditStream.Category order
+        double[] sampleRates = { connectionSampleRate, loginSampleRate, chatSampleRate, errorSampleRate };
+
+        return new AuditStream(
+                Path.of( file ), ringSize, maxFileSize, maxFiles, sampleRates,
+                meterRegistry.getIfAvailable( SimpleMeterRegistry::new ) );
+    }
+
+    @Bean
+    public InboundRateLimiter inboundRateLimiter(
+            SessionDirectory sessionDirectory,
+            AbstractServerConnectionFactory serverConnectionFactory,
+            ObjectProvider<MeterRegistry> meterRegistry,
+            @Value( "${tcp.server.limits.connection.frames-per-second:500}" ) double connectionFramesPerSecond,
+            @Value( "${tcp.server.limits.connection.burst:1000}" ) int connectionBurst,
+            @Value( "${tcp.server.limits.user.frames-per-second:500}" ) double userFramesPerSecond,
+            @Value( "${tcp.server.limits.user.burst:1000}" ) int userBurst,
+            @Value( "${tcp.server.limits.policy:drop}" ) String policy ) {
+
+        return new InboundRateLimiter(
+                new InboundRateLimiter.Limit( connectionFramesPerSecond, connectionBurst ),
+                new InboundRateLimiter.Limit( userFramesPerSecond, userBurst ),
+                InboundRateLimiter.Policy.of( policy ),
+                sessionDirectory, serverConnectionFactory::closeConnection,
+                meterRegistry.getIfAvailable( SimpleMeterRegistry::new ) );
+    }
+
+    // frames are read into and framed in pooled buffers unless tcp.server.buffers.pooled=false
+    @Bean
+    @ConditionalOnProperty( name = "tcp.server.buffers.pooled", havingValue = "true", matchIfMissing = true )
+    public BufferPool bufferPool(
+            ObjectProvider<MeterRegistry> meterRegistry,
+            @Value( "${tcp.server.buffers.min-size:256}" ) int minSize,
+            @Value( "${tcp.server.buffers.max-size:65536}" ) int maxSize,
+            @Value( "${tcp.server.buffers.per-class:1024}" ) int buffersPerClass,
+            @Value( "${tcp.server.buffers.direct:false}" ) boolean direct,
+            @Value( "${tcp.server.buffers.leak-detection:false}" ) boolean leakDetection ) {
+
+        return new BufferPool( minSize, maxSize, buffersPerClass, direct, leakDetection, meterRegistry.getIfAvailable( SimpleMeterRegistry::new ) );
+    }
+
+    @Bean
+    public ServerFraming serverFraming(
+            ObjectProvider<BufferPool> bufferPool,
+            @Value( "${tcp.server.framing:crlf}" ) String framing,
+            @Value( "${tcp.server.max-frame-size:2048}" ) int maxFrameSize,
+            @Value( "${tcp.server.buffer-pool-size:-1}" ) int bufferPoolSize ) {
+
+        return new ServerFraming( Framing.of( framing ), maxFrameSize, bufferPoolSize, bufferPool.getIfAvailable() );
+    }
+
+    // tcp.server.tls.enabled=true encrypts client connections, reconnecting clients resume their sessions
+    @Bean
+    @ConditionalOnProperty( name = "tcp.server.tls.enabled", havingValue = "true" )
+    public ServerTls serverTls(
+            @Value( "${tcp.server.tls.key-store:file:config/server.p12}" ) Resource keyStore,
+            @Value( "${tcp.server.tls.key-store-password:}" ) String keyStorePassword,
+            @Value( "${tcp.server.tls.key-store-type:PKCS12}" ) String keyStoreType,
+            @Value( "${tcp.server.tls.protocol:TLSv1.3}" ) String protocol,
+            @Value( "${tcp.server.tls.session-cache-size:20480}" ) int sessionCacheSize,
+            @Value( "${tcp.server.tls.session-timeout-seconds:86400}" ) long sessionTimeoutSeconds ) {
+
+        return new ServerTls( keyStore, keyStorePassword, keyStoreType, protocol, sessionCacheSize, Duration.ofSeconds( sessionTimeoutSeconds ) );
+    }
+
+    // tcp.server.mode=net, blocking sockets with one platform reader thread per connection
+    @Configuration
+    @ConditionalOnProperty( name = "tcp.server.mode", havingValue = "net", matchIfMissing = true )
+    static class NetServer {
+
+        @Bean
+        public TaskExecutor tcpServerTaskExecutor() {
+
+            return new SimpleAsyncTaskExecutor( "tcp-net-" );
+        }
+
+        @Bean
+        public TcpNetServerConnectionFactory serverConnectionFactory(
+                @Value( "${tcp.server.port:9876}" ) int tcpServerPort, ServerFraming serverFraming, ObjectProvider<ServerTls> serverTls ) {
+
+            TcpNetServerConnectionFactory factory = new ServerDrain.NetServerConnectionFactory( tcpServerPort );
+            factory.setTaskExecutor( tcpServerTaskExecutor() );
+            serverFraming.apply( factory );
+            serverTls.ifAvailable( tls -> tls.apply( factory ) );
+
+            return factory;
+        }
+
+    }
+
+    // tcp.server.mode=nio, a selector hands ready sockets to the io pool, frames are assembled on a second pool
+    // so a slow assembler can never starve the reads it is waiting on
+    @Configuration
+    @ConditionalOnProperty( name = "tcp.server.mode", havingValue = "nio" )
+    static class NioServer {
+
+        @Bean
+        public ThreadPoolTaskExecutor tcpServerIoTaskExecutor( @Value( "${tcp.server.nio.io-threads:4}" ) int ioThreads ) {
+
+            // a full io pool rejects, CompositeExecutor then hands the task to the assembler pool
+            return boundedExecutor( "tcp-nio-io-", ioThreads, new ThreadPoolExecutor.AbortPolicy() );
+        }
+
+        @Bean
+        public ThreadPoolTaskExecutor tcpServerAssemblerTaskExecutor( @Value( "${tcp.server.nio.assembler-threads:16}" ) int assemblerThreads ) {
+
+            // the last resort, a full assembler pool runs the task on the submitting thread rather than dropping the read
+            return boundedExecutor( "tcp-nio-assembler-", assemblerThreads, new ThreadPoolExecutor.CallerRunsPolicy() );
+        }
+
+        @Bean
+        public TcpNioServerConnectionFactory serverConnectionFactory(
+                @Value( "${tcp.server.port:9876}" ) int tcpServerPort,
+                @Value( "${tcp.server.nio.direct-buffers:true}" ) boolean directBuffers,
+                @Qualifier( "tcpServerIoTaskExecutor" ) ThreadPoolTaskExecutor tcpServerIoTaskExecutor,
+                @Qualifier( "tcpServerAssemblerTaskExecutor" ) ThreadPoolTaskExecutor tcpServerAssemblerTaskExecutor,
+                ServerFraming serverFraming, ObjectProvider<ServerTls> serverTls ) {
+
+            TcpNioServerConnectionFactory factory = new ServerDrain.NioServerConnectionFactory( tcpServerPort );
+            factory.setUsingDirectBuffers( directBuffers );
+            factory.setMultiAccept( true );
+            factory.setTaskExecutor( new CompositeExecutor( tcpServerIoTaskExecutor, tcpServerAssemblerTaskExecutor ) );
+            serverFraming.apply( factory );
+
+            // both take over the factory's connection support, an auto detecting TLS connection does not exist yet
+            var tls = serverTls.getIfAvailable();
+            if( tls != null ) {
+
+                if( serverFraming.getFraming() == Framing.AUTO ) {
+
+                    throw new IllegalStateException( "tcp.server.framing=auto cannot be combined with tcp.server.tls in nio mode" );
+                }
+
+                tls.apply( factory );
+
+            }
+
+            return factory;
+        }
+
+        private static ThreadPoolTaskExecutor boundedExecutor( String threadNamePrefix, int threads, RejectedExecutionHandler rejectedExecutionHandler ) {
+
+            ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+            executor.setCorePoolSize( threads );
+            executor.setMaxPoolSize( threads );
+            executor.setQueueCapacity( 0 );
+            executor.setThreadNamePrefix( threadNamePrefix );
+            executor.setRejectedExecutionHandler( rejectedExecutionHandler );
+
+            return executor;
+        }
+
+    }
+
+    // tcp.server.mode=net-virtual, blocking sockets with one virtual reader thread per connection
+    @Configuration
+    @ConditionalOnProperty( name = "tcp.server.mode", havingValue = "net-virtual" )
+    static class NetVirtualServer {
+
+        @Bean
+        public TaskExecutor tcpServerTaskExecutor() {
+
+            return new VirtualThreadTaskExecutor( "tcp-virtual-" );
+        }
+
+        @Bean
+        public TcpNetServerConnectionFactory serverConnectionFactory(
+                @Value( "${tcp.server.port:9876}" ) int tcpServerPort, ServerFraming serverFraming, ObjectProvider<ServerTls> serverTls ) {
+
+            TcpNetServerConnectionFactory factory = new ServerDrain.NetServerConnectionFactory( tcpServerPort );
+            factory.setTaskExecutor( tcpServerTaskExecutor() );
+            serverFraming.apply( factory );
+            serverTls.ifAvailable( tls -> tls.apply( factory ) );
+
+            return factory;
+        }
+
+    }
+
+    // tcp.server.mode=reactor, Reactor Netty event loops own the sockets, frames are handled on virtual threads and
+    // reads follow the handlers' demand and the writability of the socket
+    @Configuration
+    @ConditionalOnProperty( name = "tcp.server.mode", havingValue = "reactor" )
+    static class ReactorServer {
+
+        @Bean
+        public ReactorServerConnectionFactory serverConnectionFactory(
+                @Value( "${tcp.server.port:9876}" ) int tcpServerPort,
+                @Value( "${tcp.server.reactor.event-loop-threads:0}" ) int eventLoopThreads,
+                @Value( "${tcp.server.reactor.prefetch:32}" ) int prefetch,
+                @Value( "${tcp.server.reactor.write-buffer-low-water-mark:32768}" ) int writeBufferLowWaterMark,
+                @Value( "${tcp.server.reactor.write-buffer-high-water-mark:65536}" ) int writeBufferHighWaterMark,
+                ServerFraming serverFraming, ObjectProvider<ServerTls> serverTls ) {
+
+            ReactorServerConnectionFactory factory = new ReactorServerConnectionFactory( tcpServerPort );
+            factory.setTaskExecutor( new VirtualThreadTaskExecutor( "tcp-reactor-dispatch-" ) );
+            factory.setEventLoopThreads( eventLoopThreads );
+            factory.setPrefetch( prefetch );
+            factory.setWriteBufferWaterMarks( writeBufferLowWaterMark, writeBufferHighWaterMark );
+            serverFraming.apply( factory );
+            serverTls.ifAvailable( tls -> tls.apply( factory ) );
+
+            return factory;
+        }
+
+    }
+
+    // tcp.cluster.enabled=true, chat reaches users logged in at the other nodes
+    @Configuration
+    @ConditionalOnProperty( name = "tcp.cluster.enabled", havingValue = "true" )
+    static class Cluster {
+
+        private final Logger log = LoggerFactory.getLogger( Cluster.class );
+
+        @Bean
+        public MessageChannel clusterDeliveryChannel() {
+
+            return new DirectChannel();
+        }
+
+        @Bean
+        @Primary
+        public ClusterSessionDirectory clusterSessionDirectory(
+                ClientService clientService,
+                MessageChannel clusterDeliveryChannel,
+                ObjectProvider<MeterRegistry> meterRegistry,
+                @Value( "${tcp.cluster.node-id:${random.uuid}}" ) String nodeId,
+                @Value( "${tcp.cluster.bind-address:127.0.0.1}" ) String bindAddress,
+                @Value( "${tcp.cluster.port:9877}" ) int port,
+                @Value( "${tcp.cluster.peers:}" ) String peers,
+                @Value( "${tcp.cluster.secret:}" ) String secret,
+                @Value( "${tcp.cluster.queue-capacity:65536}" ) int queueCapacity,
+                @Value( "${tcp.cluster.max-batch:256}" ) int maxBatch ) {
+
+            return new ClusterSessionDirectory(
+                    nodeId, bindAddress, port, ClusterSessionDirectory.peers( peers ), secret, queueCapacity, maxBatch, clientService,
+                    clusterDeliveryChannel, meterRegistry.getIfAvailable( SimpleMeterRegistry::new ) );
+        }
+
+        // chat forwarded by another node, delivered like a local sendMessage
+        @Bean
+        public IntegrationFlow clusterDeliveryHandler(
+                MessageChannel clusterDeliveryChannel, MessageChannel replyChannel, ClientService clientService,
+                OfflineMessageStore offlineMessageStore, ObjectProvider<DeliveryLog> deliveryLogProvider ) {
+
+            var deliveryLog = deliveryLogProvider.getIfAvailable();
+
+            return IntegrationFlow.from( clusterDeliveryChannel )
+                    .handle( byte[].class, (p, h) -> {
+
+                        var to = (String) h.get( ClusterSessionDirectory.TO_HEADER );
+                        if( deliveryLog != null ) {
+
+                            if( !deliveryLog.append( to, p ) ) {
+
+                                log.debug( "handle forwarded message : not logged for [{}]!", to );
+
+                            }
+
+                            return null;
+                        }
+
+                        var sendToConnection = clientService.getConnection( to );
+                        if( sendToConnection.isPresent() && !offlineMessageStore.hasPending( to ) ) {
+
+                            return new GenericMessage<>( p, Map.of( IpHeaders.CONNECTION_ID, sendToConnection.get() ) );
+                        }
+
+                        // logged out since the sending node last heard, or still catching up on its backlog
+                        if( offlineMessageStore.append( to, p ) ) {
+
+                            sendToConnection.ifPresent( recipientConnection -> offlineMessageStore.deliver( to, recipientConnection ) );
+
+                        } else {
+
+                            log.debug( "handle forwarded message : not stored for [{}]!", to );
+
+                        }
+
+                        return null;
+                    })
+                    .channel( replyChannel )
+                    .get();
+        }
+
+    }
+
     @Configuration
     static class ChatServer {
 
         private final Logger log = LoggerFactory.getLogger( ChatServer.class );
 
-        private final ClientService clientService;
+        private final SessionDirectory sessionDirectory;
+
+        private final RoomService roomService;
+
+        private final AuditStream auditStream;
+
+        private final InboundRateLimiter inboundRateLimiter;
+
+        // defined below and sending through the outbound writer, looked up when first needed
+        private final ObjectProvider<PresenceService> presenceService;
+
+        ChatServer(
+                final SessionDirectory sessionDirectory, final RoomService roomService, final AuditStream auditStream,
+                final InboundRateLimiter inboundRateLimiter, final ObjectProvider<PresenceService> presenceService ) {
+
+            this.sessionDirectory = sessionDirectory;
+            this.roomService = roomService;
+            this.auditStream = auditStream;
+            this.inboundRateLimiter = inboundRateLimiter;
+            this.presenceService = presenceService;
+
+        }
+
+        @Bean
+        public PipelineMetrics pipelineMetrics( ObjectProvider<MeterRegistry> meterRegistry ) {
+
+            var actionsByType =
+                    Map.of(
+                            "command", names( Actions.values() ),
+                            "chat", names( ChatActions.values() ) );
+            var metrics = new PipelineMetrics( meterRegistry.getIfAvailable( SimpleMeterRegistry::new ), actionsByType );
+            metrics.bind( this.sessionDirectory );
+
+            return metrics;
+        }
+
+        private static Set<String> names( Enum<?>[] values ) {
+
+            return Arrays.stream( values ).map( Enum::name ).collect( Collectors.toSet() );
+        }
+
+        @Bean
+        public HandlerTimingAdvice handlerTimingAdvice( PipelineMetrics pipelineMetrics ) {
 
-        ChatServer( final ClientService clientService ) {
+            return new HandlerTimingAdvice( pipelineMetrics );
+        }
 
-            this.clientService = clientService;
+        @Bean
+        public FrameDecoder frameDecoder( PipelineMetrics pipelineMetrics ) {
 
+            return new FrameDecoder( pipelineMetrics );
         }
 
+        // tcp.server.dispatch.partitions=0 keeps decoding and handling on the thread that read the frame
         @Bean
-        public TcpNetServerConnectionFactorySpec serverConnectionFactory( @Value( "${tcp.server.port:9876}" ) int tcpServerPort ) {
-            return Tcp.netServer( tcpServerPort );
+        public SubscribableChannel inboundDispatchChannel(
+                MessageChannel pipelineErrorChannel,
+                ObjectProvider<MeterRegistry> meterRegistry,
+                @Value( "${tcp.server.dispatch.partitions:0}" ) int partitions,
+                @Value( "${tcp.server.dispatch.queue-capacity:1024}" ) int queueCapacity ) {
+
+            if( partitions <= 0 ) {
+
+                return new DirectChannel();
+            }
+
+            return new PartitionedDispatchChannel( partitions, queueCapacity, pipelineErrorChannel, meterRegistry.getIfAvailable( SimpleMeterRegistry::new ) );
         }
 
         @Bean
-        public IntegrationFlow inboundFlow( AbstractServerConnectionFactory serverConnectionFactory ) {
+        public IntegrationFlow inboundFlow(
+                AbstractServerConnectionFactory serverConnectionFactory, IdleConnectionReaper idleConnectionReaper,
+                SubscribableChannel inboundDispatchChannel, FrameDecoder frameDecoder, HeaderValueRouter headerRouter ) {
 
             return IntegrationFlow
-                    .from( Tcp.inboundAdapter( serverConnectionFactory ).id( "tcp-request-endpoint" ) )
-                    .enrichHeaders( h -> h.headerExpression("type", "#jsonPath(payload, '$.type')" ) )
-                    .enrichHeaders( h -> h.headerExpression("action", "#jsonPath(payload, '$.action')" ) )
-                    .transform( "#jsonPath(payload, '$.payload')" )
-                    .route( headerRouter() )
+                    .from( Tcp.inboundAdapter( serverConnectionFactory ).id( "tcp-request-endpoint" ).errorChannel( "pipelineErrorChannel" ) )
+                    .intercept( idleConnectionReaper )
+                    // over the limit frames are turned away before any parsing
+                    .filter( this.inboundRateLimiter, e -> e.discardChannel( "discardedFrameChannel" ) )
+                    .channel( inboundDispatchChannel )
+                    .handle( frameDecoder )
+                    .route( headerRouter )
+                    .get();
+        }
+
+        @Bean
+        public MessageChannel discardedFrameChannel() {
+
+            return new DirectChannel();
+        }
+
+        // frames turned away by the rate limiter never reach the decoder, their pooled buffers are released here
+        @Bean
+        public IntegrationFlow discardedFrameHandler( MessageChannel discardedFrameChannel ) {
+
+            return IntegrationFlow.from( discardedFrameChannel )
+                    .handle( message -> PooledBuffer.release( message.getPayload() ) )
                     .get();
         }
 
         @Bean
-        public HeaderValueRouter headerRouter() {
+        public HeaderValueRouter headerRouter( PipelineMetrics pipelineMetrics ) {
 
-            HeaderValueRouter router = new HeaderValueRouter( "type" );
+            HeaderValueRouter router = new TimedHeaderValueRouter( "type", pipelineMetrics );
             router.setResolutionRequired( false );
             router.setChannelMapping("command", "commandChannel" );
             router.setChannelMapping("chat", "chatChannel" );
@@ -69,6 +469,38 @@ public class TcpConfig {
             return router;
         }
 
+        @Bean
+        public MessageChannel pipelineErrorChannel() {
+
+            return new DirectChannel();
+        }
+
+        // frames that failed to decode or handle, the adapter would otherwise log each one at error
+        @Bean
+        public IntegrationFlow pipelineErrorHandler( MessageChannel pipelineErrorChannel ) {
+
+            return IntegrationFlow.from( pipelineErrorChannel )
+                    .handle( message -> {
+
+                        String connectionId = null;
+                        Throwable cause = (Throwable) message.getPayload();
+                        if( cause instanceof MessagingException e && e.getFailedMessage() != null ) {
+
+                            connectionId = e.getFailedMessage().getHeaders().get( IpHeaders.CONNECTION_ID, String.class );
+
+                            // a frame that failed before being decoded still holds its pooled buffer
+                            PooledBuffer.release( e.getFailedMessage().getPayload() );
+
+                        }
+
+                        var rootCause = NestedExceptionUtils.getMostSpecificCause( cause );
+                        this.auditStream.error( connectionId, rootCause.getClass().getSimpleName() + ": " + rootCause.getMessage() );
+                        log.debug( "pipeline error : connection [{}]", connectionId, cause );
+
+                    })
+                    .get();
+        }
+
         @Bean
         public MessageChannel commandChannel() {
 
@@ -81,114 +513,577 @@ public class TcpConfig {
             return new DirectChannel();
         }
 
-        enum Actions { login, logout };
+        enum Actions { login, logout, ping, pong, ack, subscribePresence, unsubscribePresence };
+
+        @Bean
+        public ResponseEncoder responseEncoder() {
+
+            return new ResponseEncoder();
+        }
 
+        // registers and forgets connections through their open and close events
         @Bean
-        public IntegrationFlow commandHandler( MessageChannel commandChannel, MessageChannel replyChannel ) {
+        public IdleConnectionReaper idleConnectionReaper(
+                AbstractServerConnectionFactory serverConnectionFactory,
+                OutboundWriter outboundWriter,
+                ObjectProvider<MeterRegistry> meterRegistry,
+                @Value( "${tcp.server.idle.timeout-seconds:300}" ) long timeoutSeconds,
+                @Value( "${tcp.server.idle.heartbeat-seconds:120}" ) long heartbeatSeconds,
+                @Value( "${tcp.server.idle.tick-millis:1000}" ) long tickMillis,
+                @Value( "${tcp.server.idle.wheel-size:512}" ) int wheelSize ) {
+
+            return new IdleConnectionReaper(
+                    Duration.ofSeconds( timeoutSeconds ), Duration.ofSeconds( heartbeatSeconds ), Duration.ofMillis( tickMillis ), wheelSize,
+                    outboundWriter::write, serverConnectionFactory::closeConnection,
+                    meterRegistry.getIfAvailable( SimpleMeterRegistry::new ) );
+        }
+
+        @Bean
+        public OfflineMessageStore offlineMessageStore(
+                OutboundWriter outboundWriter,
+                @Value( "${tcp.server.offline.directory:data/offline}" ) String directory,
+                @Value( "${tcp.server.offline.max-messages-per-user:10000}" ) int maxMessagesPerUser,
+                @Value( "${tcp.server.offline.max-recipients:10000}" ) int maxRecipients,
+                @Value( "${tcp.server.offline.max-bytes:1073741824}" ) long maxBytes,
+                @Value( "${tcp.server.offline.ttl-seconds:604800}" ) long ttlSeconds,
+                @Value( "${tcp.server.offline.segment-size:4194304}" ) int segmentSize,
+                @Value( "${tcp.server.offline.queue-capacity:65536}" ) int queueCapacity,
+                @Value( "${tcp.server.offline.fsync:true}" ) boolean fsync ) {
+
+            var offlineMessageStore = new OfflineMessageStore(
+                    Path.of( directory ), maxMessagesPerUser, maxRecipients, maxBytes, Duration.ofSeconds( ttlSeconds ), segmentSize,
+                    queueCapacity, fsync, outboundWriter );
+
+            // users logged in at another node are known here too, chat for them is stored once they log out
+            if( this.sessionDirectory instanceof ClusterSessionDirectory clusterSessionDirectory ) {
+
+                clusterSessionDirectory.setRemoteLoginListener( offlineMessageStore::remember );
+
+            }
+
+            return offlineMessageStore;
+        }
+
+        // at-least-once delivery of chat, only created with tcp.server.delivery.acks=true
+        @Bean
+        @ConditionalOnProperty( name = "tcp.server.delivery.acks", havingValue = "true" )
+        public DeliveryLog deliveryLog(
+                OutboundWriter outboundWriter,
+                ObjectProvider<MeterRegistry> meterRegistry,
+                @Value( "${tcp.server.delivery.directory:data/delivery}" ) String directory,
+                @Value( "${tcp.server.delivery.max-unacked-per-user:10000}" ) int maxUnackedPerUser,
+                @Value( "${tcp.server.delivery.max-unacked-bytes:268435456}" ) long maxUnackedBytes,
+                @Value( "${tcp.server.delivery.segment-size:67108864}" ) long segmentSize,
+                @Value( "${tcp.server.delivery.queue-capacity:65536}" ) int queueCapacity,
+                @Value( "${tcp.server.delivery.fsync:true}" ) boolean fsync ) {
+
+            return new DeliveryLog(
+                    Path.of( directory ), maxUnackedPerUser, maxUnackedBytes, segmentSize, queueCapacity, fsync,
+                    this.sessionDirectory, outboundWriter, meterRegistry.getIfAvailable( SimpleMeterRegistry::new ) );
+        }
+
+        // direct chat kept per conversation for the history action, tcp.server.history.enabled=false turns it off
+        @Bean
+        @ConditionalOnProperty( name = "tcp.server.history.enabled", havingValue = "true", matchIfMissing = true )
+        public ChatHistory chatHistory(
+                ObjectProvider<MeterRegistry> meterRegistry,
+                @Value( "${tcp.server.history.directory:data/history}" ) String directory,
+                @Value( "${tcp.server.history.segment-size:67108864}" ) long segmentSize,
+                @Value( "${tcp.server.history.max-bytes:1073741824}" ) long maxBytes,
+                @Value( "${tcp.server.history.index-interval:64}" ) int indexInterval,
+                @Value( "${tcp.server.history.block-size:65536}" ) int blockSize,
+                @Value( "${tcp.server.history.cache-blocks:1024}" ) int cacheBlocks,
+                @Value( "${tcp.server.history.max-limit:500}" ) int maxLimit,
+                @Value( "${tcp.server.history.queue-capacity:65536}" ) int queueCapacity ) {
+
+            return new ChatHistory(
+                    Path.of( directory ), segmentSize, maxBytes, indexInterval, blockSize, cacheBlocks, maxLimit, queueCapacity,
+                    meterRegistry.getIfAvailable( SimpleMeterRegistry::new ) );
+        }
+
+        // rooms of the logged in users written on drain and restored at their next login, tcp.server.snapshot.enabled=true
+        @Bean
+        @ConditionalOnProperty( name = "tcp.server.snapshot.enabled", havingValue = "true" )
+        public SessionSnapshot sessionSnapshot(
+                ObjectProvider<MeterRegistry> meterRegistry,
+                @Value( "${tcp.server.snapshot.file:data/snapshot/sessions.json}" ) String file,
+                @Value( "${tcp.server.snapshot.max-age-seconds:300}" ) long maxAgeSeconds ) {
+
+            return new SessionSnapshot( Path.of( file ), Duration.ofSeconds( maxAgeSeconds ), meterRegistry.getIfAvailable( SimpleMeterRegistry::new ) );
+        }
+
+        // clients are told to come back with jittered delays when the context closes, tcp.server.drain.enabled=false just closes them
+        @Bean
+        @ConditionalOnProperty( name = "tcp.server.drain.enabled", havingValue = "true", matchIfMissing = true )
+        public ServerDrain serverDrain(
+                AbstractServerConnectionFactory serverConnectionFactory,
+                OutboundWriter outboundWriter,
+                ResponseEncoder responseEncoder,
+                ObjectProvider<SessionSnapshot> sessionSnapshot,
+                ObjectProvider<MeterRegistry> meterRegistry,
+                @Value( "${tcp.server.drain.reconnect-min-millis:1000}" ) long reconnectMinMillis,
+                @Value( "${tcp.server.drain.reconnect-max-millis:15000}" ) long reconnectMaxMillis,
+                @Value( "${tcp.server.drain.timeout-seconds:10}" ) long timeoutSeconds,
+                @Value( "${tcp.server.drain.close-grace-millis:500}" ) long closeGraceMillis ) {
+
+            return new ServerDrain(
+                    serverConnectionFactory::getOpenConnectionIds,
+                    serverConnectionFactory instanceof ServerDrain.Acceptor acceptor ? acceptor : null, outboundWriter, this.sessionDirectory, this.roomService, responseEncoder,
+                    sessionSnapshot.getIfAvailable(), Duration.ofMillis( reconnectMinMillis ), Duration.ofMillis( reconnectMaxMillis ),
+                    Duration.ofSeconds( timeoutSeconds ), Duration.ofMillis( closeGraceMillis ),
+                    meterRegistry.getIfAvailable( SimpleMeterRegistry::new ) );
+        }
+
+        // logins and logouts of watched users, coalesced per subscriber over the window
+        @Bean
+        public PresenceService presenceService(
+                OutboundWriter outboundWriter,
+                ResponseEncoder responseEncoder,
+                ObjectProvider<MeterRegistry> meterRegistry,
+                @Value( "${tcp.server.presence.window-millis:200}" ) long windowMillis,
+                @Value( "${tcp.server.presence.max-users-per-connection:1000}" ) int maxUsersPerConnection ) {
+
+            return new PresenceService(
+                    Duration.ofMillis( windowMillis ), maxUsersPerConnection, this.sessionDirectory::isUserLoggedIn,
+                    connectionId -> this.sessionDirectory.getUsername( connectionId ).isPresent(), outboundWriter::write,
+                    responseEncoder, meterRegistry.getIfAvailable( SimpleMeterRegistry::new ) );
+        }
+
+        @Bean
+        public IntegrationFlow commandHandler(
+                MessageChannel commandChannel, MessageChannel replyChannel, OutboundWriter outboundWriter, OfflineMessageStore offlineMessageStore,
+                ObjectProvider<DeliveryLog> deliveryLogProvider, ObjectProvider<SessionSnapshot> sessionSnapshotProvider, ServerFraming serverFraming,
+                ResponseEncoder responseEncoder, PresenceService presenceService, HandlerTimingAdvice handlerTimingAdvice ) {
+
+            var deliveryLog = deliveryLogProvider.getIfAvailable();
+            var sessionSnapshot = sessionSnapshotProvider.getIfAvailable();
 
             return IntegrationFlow.from( commandChannel )
-                    .handle( Map.class, (p, h) -> {
-                        log.info( "handle command message : enter" );
+                    .handle( Frame.class, (p, h) -> {
 
-                        log.info( "message: [{}, {}]", h, p );
+                        log.debug( "handle command message : [{}, {}]", h, p );
 
-                        var response = "";
+                        byte[] response = null;
                         var connectionId = (String) h.get( IpHeaders.CONNECTION_ID );
-                        var action = Actions.valueOf( (String) h.get( "action" ) );
+                        var action = Actions.valueOf( p.action() );
                         switch( action ) {
                             case login:
 
-                                var loggedIn = this.clientService.login( connectionId, (String) p.get( "username" ) );
+                                var credentials = p.payload( Frame.Session.class );
+                                var encoding = negotiateEncoding( credentials.encoding(), serverFraming.getFraming( connectionId ) );
+                                var login = encoding != null ? this.sessionDirectory.login( connectionId, credentials.username() ) : SessionDirectory.Login.FAILED;
+                                var loggedIn = login.succeeded();
+                                this.auditStream.login( connectionId, credentials.username(), loggedIn );
+                                if( loggedIn ) {
+
+                                    // the login reply is the first frame in the new encoding, sent before anything replayed below
+                                    outboundWriter.setEncoding( connectionId, encoding );
+                                    replyChannel.send( new GenericMessage<>( ResponseEncoder.LOGIN_SUCCEEDED, h ) );
+
+                                    // back in the rooms the user was in before the restart, without joining again
+                                    if( sessionSnapshot != null ) {
+
+                                        sessionSnapshot.restore( credentials.username() ).forEach( room -> this.roomService.join( room, connectionId ) );
+
+                                    }
+
+                                    offlineMessageStore.deliver( credentials.username(), connectionId );
+                                    if( deliveryLog != null ) {
+
+                                        deliveryLog.deliver( credentials.username() );
+
+                                    }
+
+                                    // the connection switched users, the previous one is gone unless logged in elsewhere
+                                    var previous = login.previous();
+                                    if( previous != null && !previous.equals( credentials.username() ) && !this.sessionDirectory.isUserLoggedIn( previous ) ) {
+
+                                        presenceService.changed( previous, false );
+
+                                    }
+                                    if( !login.wasOnline() ) {
+
+                                        presenceService.changed( credentials.username(), true );
+
+                                    }
+
+                                }
+
+                                response = loggedIn ? null : ResponseEncoder.LOGIN_FAILED;
+
+                                break;
+
+                            // heartbeats, any frame counts as activity for the idle reaper
+                            case ping:
+
+                                response = ResponseEncoder.PONG;
+
+                                break;
+
+                            case pong:
+
+                                break;
+
+                            // cumulative, acknowledges every message up to the id, nothing is sent back
+                            case ack:
+
+                                var acker = this.sessionDirectory.getUsername( connectionId );
+                                var acked = p.payload( Frame.Ack.class ).id();
+                                if( deliveryLog != null && acker.isPresent() && acked != null ) {
+
+                                    deliveryLog.ack( acker.get(), acked );
+
+                                }
 
-                                response =
-                                        """
-                                        {
-                                            'status': 'login %s!'
-                                        }
-                                        """.formatted( loggedIn ? "succeeded" : "failed" );
+                                break;
+
+                            // replies with the current state of the users, changes follow as presence frames
+                            case subscribePresence:
+
+                                var subscribing = p.payload( Frame.Presence.class );
+                                var watched = subscribing.users() != null ? presenceService.subscribe( connectionId, subscribing.users() ) : null;
+
+                                response = watched != null ? responseEncoder.presence( watched ) : ResponseEncoder.SUBSCRIBE_FAILED;
+
+                                break;
+
+                            // without users stops watching everyone
+                            case unsubscribePresence:
+
+                                presenceService.unsubscribe( connectionId, p.payload( Frame.Presence.class ).users() );
+
+                                response = ResponseEncoder.UNSUBSCRIBE_SUCCEEDED;
 
                                 break;
 
                             case logout:
 
-                                var loggedOut = this.clientService.logout( connectionId, (String) p.get( "username" ) );
+                                var leaving = p.payload( Frame.Session.class );
+                                var loggedOut = this.sessionDirectory.logout( connectionId, leaving.username() );
+                                if( loggedOut ) {
+
+                                    this.roomService.removeConnection( connectionId );
+                                    this.auditStream.logout( connectionId, leaving.username() );
+                                    presenceService.removeConnection( connectionId );
+                                    if( !this.sessionDirectory.isUserLoggedIn( leaving.username() ) ) {
+
+                                        presenceService.changed( leaving.username(), false );
 
-                                response =
-                                        """
-                                        {
-                                            'status': 'logout %s!'
-                                        }
-                                        """.formatted( loggedOut ? "succeeded" : "failed" );
+                                    }
+
+                                }
+
+                                response = loggedOut ? ResponseEncoder.LOGOUT_SUCCEEDED : ResponseEncoder.LOGOUT_FAILED;
 
                                 break;
                         }
 
-                        log.info( "handle command message : exit" );
                         return response;
-                    })
+                    }, e -> e.advice( handlerTimingAdvice ) )
                     .channel( replyChannel )
                     .get();
         }
 
+        // null if the encoding is unknown or binary frames cannot be delimited by the connection's framing
+        private MessageEncoding negotiateEncoding( String requested, Framing framing ) {
+
+            if( requested == null ) {
+
+                return MessageEncoding.JSON;
+            }
+
+            try {
+
+                var encoding = MessageEncoding.of( requested );
+                if( encoding.isBinary() && !framing.carriesBinary() ) {
+
+                    log.debug( "negotiateEncoding : [{}] needs length header framing, connection uses [{}]!", encoding, framing );
+
+                    return null;
+                }
+
+                return encoding;
+            } catch( IllegalArgumentException e ) {
+
+                log.debug( "negotiateEncoding : {}!", e.getMessage() );
+
+                return null;
+            }
+
+        }
+
+        enum ChatActions { sendMessage, sendBatch, join, leave, broadcast, history };
+
         @Bean
-        public IntegrationFlow chatHandler( MessageChannel chatChannel, MessageChannel replyChannel ) {
+        public IntegrationFlow chatHandler(
+                MessageChannel chatChannel, MessageChannel replyChannel, OutboundWriter outboundWriter, ResponseEncoder responseEncoder,
+                OfflineMessageStore offlineMessageStore, ObjectProvider<DeliveryLog> deliveryLogProvider, ObjectProvider<ChatHistory> chatHistoryProvider,
+                HandlerTimingAdvice handlerTimingAdvice,
+                @Value( "${tcp.server.history.default-limit:50}" ) int defaultHistoryLimit ) {
+
+            var deliveryLog = deliveryLogProvider.getIfAvailable();
+            var chatHistory = chatHistoryProvider.getIfAvailable();
 
             return IntegrationFlow.from( chatChannel )
-                    .handle( Map.class, (p, h) -> {
-                        log.info( "handle chat message : enter" );
+                    .handle( Frame.class, (p, h) -> {
 
-                        log.info( "message: [{}, {}]", h, p );
+                        log.debug( "handle chat message : [{}, {}]", h, p );
 
                         var connectionId = (String) h.get( IpHeaders.CONNECTION_ID );
-                        var to = (String) p.get( "to" );
 
-                        var from = this.clientService.getUsername( connectionId );
-                        if( from.isPresent() ) {
+                        var from = this.sessionDirectory.getUsername( connectionId );
+                        if( from.isEmpty() ) {
 
-                            var message = (String) p.get( "message" );
+                            log.debug( "handle chat message : not sent!" );
+                            return ResponseEncoder.CHAT_NOT_SENT;
+                        }
 
-                            var sendToConnection = this.clientService.getConnection( to );
-                            if( sendToConnection.isPresent() ) {
+                        var action = p.action() == null ? ChatActions.sendMessage : ChatActions.valueOf( p.action() );
+                        switch( action ) {
+                            case join:
 
-                                var responsePayload =
-                                        """
-                                        {
-                                            "type": "chatResponse",
-                                            "payload": {
-                                                "from": "%s",
-                                                "message": "%s"
-                                            }
-                                        }
-                                        """.formatted( from.get(), message );
+                                var joined = this.roomService.join( p.payload( Frame.Chat.class ).room(), connectionId );
 
-                                log.info( "handle chat message : exit" );
-                                return new GenericMessage<>( responsePayload, Map.of( IpHeaders.CONNECTION_ID, sendToConnection.get() ) );
-                            }
+                                return joined ? ResponseEncoder.JOIN_SUCCEEDED : ResponseEncoder.JOIN_FAILED;
 
-                        }
+                            case leave:
 
-                        log.info( "error sending chat message!" );
-                        return
-                            """
-                            {
-                                'status': 'chat not sent!'
-                            }
-                            """;
+                                var left = this.roomService.leave( p.payload( Frame.Chat.class ).room(), connectionId );
 
-                    })
+                                return left ? ResponseEncoder.LEAVE_SUCCEEDED : ResponseEncoder.LEAVE_FAILED;
+
+                            case broadcast:
+
+                                var broadcasting = p.payload( Frame.Chat.class );
+                                var room = broadcasting.room();
+                                if( !this.roomService.isMember( room, connectionId ) ) {
+
+                                    log.debug( "handle chat message : broadcast not sent!" );
+                                    return ResponseEncoder.BROADCAST_NOT_SENT;
+                                }
+
+                                // encoded once, every member queue shares the same bytes
+                                var broadcastFrame = responseEncoder.roomChatResponse( room, from.get(), broadcasting.message() );
+
+                                this.auditStream.chat( AuditStream.Event.BROADCAST, connectionId, from.get(), room );
+
+                                var delivered = outboundWriter.broadcast( this.roomService.getMembers( room ), connectionId, broadcastFrame );
+
+                                return responseEncoder.broadcastSent( delivered );
+
+                            case history:
+
+                                var page = p.payload( Frame.History.class );
+                                var with = page.with();
+                                if( chatHistory == null || with == null || with.isEmpty() ) {
+
+                                    log.debug( "handle chat message : history unavailable!" );
+                                    return ResponseEncoder.HISTORY_UNAVAILABLE;
+                                }
+
+                                var before = page.before() == null ? Long.MAX_VALUE : page.before();
+                                var limit = page.limit() == null ? defaultHistoryLimit : page.limit();
+
+                                return responseEncoder.historyResponse( with, chatHistory.history( from.get(), with, before, limit ) );
+
+                            case sendBatch:
+
+                                return sendBatch(
+                                        connectionId, from.get(), p.payload( Frame.Batch.class ).entries(), outboundWriter, responseEncoder, offlineMessageStore, deliveryLog,
+                                        chatHistory );
+
+                            case sendMessage:
+                            default:
+
+                                var chat = p.payload( Frame.Chat.class );
+                                var to = chat.to();
+                                var message = chat.message();
+
+                                if( to == null || to.isEmpty() ) {
+
+                                    log.debug( "handle chat message : not sent!" );
+                                    return ResponseEncoder.CHAT_NOT_SENT;
+                                }
+
+                                var responsePayload = responseEncoder.chatResponse( from.get(), message );
+                                this.auditStream.chat( AuditStream.Event.CHAT, connectionId, from.get(), to );
+
+                                var sendToConnection = this.sessionDirectory.getConnection( to );
+                                if( deliveryLog == null && sendToConnection.isPresent() && !offlineMessageStore.hasPending( to ) ) {
+
+                                    keep( chatHistory, from.get(), to, message );
+
+                                    return new GenericMessage<>( responsePayload, Map.of( IpHeaders.CONNECTION_ID, sendToConnection.get() ) );
+                                }
+
+                                var delivery = sendElsewhere( to, responsePayload, sendToConnection, offlineMessageStore, deliveryLog );
+                                if( delivery != ResponseEncoder.Delivery.NOT_SENT ) {
+
+                                    keep( chatHistory, from.get(), to, message );
+
+                                }
+
+                                return switch( delivery ) {
+                                    case SENT -> null;
+                                    case QUEUED -> ResponseEncoder.CHAT_QUEUED;
+                                    case NOT_SENT -> ResponseEncoder.CHAT_NOT_SENT;
+                                };
+                        }
+
+                    }, e -> e.advice( handlerTimingAdvice ) )
                     .channel( replyChannel )
                     .get();
         }
 
+        // best effort, a message the history writer cannot keep up with is still delivered
+        private static void keep( ChatHistory chatHistory, String from, String to, String message ) {
+
+            if( chatHistory != null ) {
+
+                chatHistory.append( from, to, message );
+
+            }
+
+        }
+
+        // The recipient has no connection here that can take the message now, or every message goes through the
+        // delivery log. It is forwarded when the user is logged in at another node, otherwise it goes behind whatever
+        // is already stored for them.
+        private ResponseEncoder.Delivery sendElsewhere(
+                String to, byte[] frame, Optional<String> sendToConnection, OfflineMessageStore offlineMessageStore, DeliveryLog deliveryLog ) {
+
+            if( sendToConnection.isEmpty() && this.sessionDirectory.forward( to, frame ) ) {
+
+                return ResponseEncoder.Delivery.SENT;
+            }
+
+            // sent by the log once it is durable, or kept there until the user logs in
+            if( deliveryLog != null ) {
+
+                if( deliveryLog.append( to, frame ) ) {
+
+                    return sendToConnection.isPresent() ? ResponseEncoder.Delivery.SENT : ResponseEncoder.Delivery.QUEUED;
+                }
+
+                log.debug( "handle chat message : not logged for [{}]!", to );
+
+                return ResponseEncoder.Delivery.NOT_SENT;
+            }
+
+            if( offlineMessageStore.append( to, frame ) ) {
+
+                sendToConnection.ifPresent( recipientConnection -> offlineMessageStore.deliver( to, recipientConnection ) );
+
+                return ResponseEncoder.Delivery.QUEUED;
+            }
+
+            log.debug( "handle chat message : not sent to [{}]!", to );
+
+            return ResponseEncoder.Delivery.NOT_SENT;
+        }
+
+        // Entries for recipients connected here are grouped by connection and written as one frame each, the rest
+        // take the single message path. With the delivery log every entry is logged and acknowledged on its own.
+        // The sender gets one result per entry.
+        private byte[] sendBatch(
+                String connectionId, String from, List<Frame.Entry> entries, OutboundWriter outboundWriter, ResponseEncoder responseEncoder,
+                OfflineMessageStore offlineMessageStore, DeliveryLog deliveryLog, ChatHistory chatHistory ) {
+
+            if( entries == null || entries.isEmpty() ) {
+
+                log.debug( "handle chat message : empty batch not sent!" );
+                return ResponseEncoder.CHAT_NOT_SENT;
+            }
+
+            var results = new ResponseEncoder.Delivery[ entries.size() ];
+
+            // recipient connection -> indexes of its entries, in the order they were sent
+            var byConnection = new LinkedHashMap<String, List<Integer>>();
+            for( int i = 0; i < entries.size(); i++ ) {
+
+                var to = entries.get( i ).to();
+                if( to == null || to.isEmpty() ) {
+
+                    results[ i ] = ResponseEncoder.Delivery.NOT_SENT;
+
+                    continue;
+                }
+
+                this.auditStream.chat( AuditStream.Event.CHAT, connectionId, from, to );
+
+                var sendToConnection = this.sessionDirectory.getConnection( to );
+                if( deliveryLog == null && sendToConnection.isPresent() && !offlineMessageStore.hasPending( to ) ) {
+
+                    byConnection.computeIfAbsent( sendToConnection.get(), c -> new ArrayList<>() ).add( i );
+
+                    continue;
+                }
+
+                results[ i ] = sendElsewhere( to, responseEncoder.chatResponse( from, entries.get( i ).message() ), sendToConnection, offlineMessageStore, deliveryLog );
+
+            }
+
+            byConnection.forEach( ( recipientConnection, indexes ) -> {
+
+                // a lone message keeps the plain chat response every client understands
+                byte[] frame;
+                if( indexes.size() == 1 ) {
+
+                    frame = responseEncoder.chatResponse( from, entries.get( indexes.get( 0 ) ).message() );
+
+                } else {
+
+                    var messages = new ArrayList<String>( indexes.size() );
+                    for( var index : indexes ) {
+
+                        messages.add( entries.get( index ).message() );
+
+                    }
+                    frame = responseEncoder.chatBatchResponse( from, messages );
+
+                }
+
+                var delivery = outboundWriter.write( recipientConnection, frame ) ? ResponseEncoder.Delivery.SENT : ResponseEncoder.Delivery.NOT_SENT;
+                for( var index : indexes ) {
+
+                    results[ index ] = delivery;
+
+                }
+
+            });
+
+            for( int i = 0; i < entries.size(); i++ ) {
+
+                if( results[ i ] != ResponseEncoder.Delivery.NOT_SENT ) {
+
+                    keep( chatHistory, from, entries.get( i ).to(), entries.get( i ).message() );
+
+                }
+
+            }
+
+            return responseEncoder.batchStatus( results );
+        }
+
         @Bean
         @EndpointId( "reply-tcp-endpoint" )
         @ServiceActivator( inputChannel = "replyChannel" )
-        public TcpSendingMessageHandler outboundMessageHandler( AbstractServerConnectionFactory serverConnectionFactory ) {
+        public OutboundWriter outboundWriter(
+                AbstractServerConnectionFactory serverConnectionFactory,
+                ObjectProvider<MeterRegistry> meterRegistry,
+                @Value( "${tcp.server.outbound.queue-capacity:1024}" ) int queueCapacity,
+                @Value( "${tcp.server.outbound.max-batch:64}" ) int maxBatch,
+                @Value( "${tcp.server.outbound.overflow:drop-oldest}" ) String overflow,
+                @Value( "${tcp.server.outbound.block-timeout-millis:100}" ) long blockTimeoutMillis ) {
 
-            TcpSendingMessageHandler handler = new TcpSendingMessageHandler();
-            handler.setConnectionFactory( serverConnectionFactory );
+            OutboundWriter writer =
+                    new OutboundWriter(
+                            new VirtualThreadTaskExecutor( "tcp-outbound-" ), queueCapacity, maxBatch,
+                            OutboundWriter.Overflow.of( overflow ), blockTimeoutMillis,
+                            meterRegistry.getIfAvailable( SimpleMeterRegistry::new ) );
+            serverConnectionFactory.registerSender( writer );
 
-            return handler;
+            return writer;
         }
 
         @Bean
@@ -200,14 +1095,32 @@ public class TcpConfig {
         @EventListener
         public void open( TcpConnectionOpenEvent event ) {
 
-            this.clientService.registerConnection( event.getConnectionId() );
+            this.sessionDirectory.registerConnection( event.getConnectionId() );
+            this.roomService.registerConnection( event.getConnectionId() );
+            this.auditStream.connectionOpened( event.getConnectionId() );
 
         }
 
         @EventListener
         public void close( TcpConnectionCloseEvent event ) {
 
-            this.clientService.removeConnection( event.getConnectionId() );
+            var username = this.sessionDirectory.getUsername( event.getConnectionId() ).orElse( null );
+            this.sessionDirectory.removeConnection( event.getConnectionId() );
+            this.inboundRateLimiter.removeConnection( event.getConnectionId(), username );
+            this.roomService.removeConnection( event.getConnectionId() );
+            this.auditStream.connectionClosed( event.getConnectionId() );
+
+            var presence = this.presenceService.getIfAvailable();
+            if( presence != null ) {
+
+                presence.removeConnection( event.getConnectionId() );
+                if( username != null && !this.sessionDirectory.isUserLoggedIn( username ) ) {
+
+                    presence.changed( username, false );
+
+                }
+
+            }
 
         }
 
@@ -0,0 +1,37 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import org.springframework.integration.router.HeaderValueRouter;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+
+import java.util.Collection;
+
+/**
+ * A {@link HeaderValueRouter} that times resolving the target channel, tagged by the routed header value.
+ * Sending to the channel is not included, with direct channels that would time the handler as well.
+ */
+public class TimedHeaderValueRouter extends HeaderValueRouter {
+
+    private final String headerName;
+
+    private final PipelineMetrics pipelineMetrics;
+
+    public TimedHeaderValueRouter( String headerName, PipelineMetrics pipelineMetrics ) {
+        super( headerName );
+
+        this.headerName = headerName;
+        this.pipelineMetrics = pipelineMetrics;
+
+    }
+
+    @Override
+    protected Collection<MessageChannel> determineTargetChannels( Message<?> message ) {
+
+        var start = System.nanoTime();
+        var channels = super.determineTargetChannels( message );
+        this.pipelineMetrics.recordRoute( message.getHeaders().get( this.headerName ), System.nanoTime() - start );
+
+        return channels;
+    }
+
+}
@@ -0,0 +1,104 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.chat;
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.login;
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.port;
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.readFrame;
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.send;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Alice drops her connection with a message she never acknowledged and gets it again, with the one sent while she
+ * was away, when she logs back in.
+ */
+class AtLeastOnceTests {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void unacknowledgedMessagesAreRedeliveredAtLogin() throws Exception {
+
+        try( var context = ChatServerFixture.start( this.directory,
+                "tcp.server.delivery.acks=true",
+                "tcp.server.delivery.directory=" + this.directory.resolve( "delivery" ) ) ) {
+
+            var deliveryLog = context.getBean( DeliveryLog.class );
+
+            try( var bob = new Socket( "localhost", port( context ) ) ) {
+
+                login( bob, "bob" );
+
+                try( var alice = new Socket( "localhost", port( context ) ) ) {
+
+                    login( alice, "alice" );
+
+                    chat( bob, "alice", "one" );
+                    chat( bob, "alice", "two" );
+
+                    assertThat( readFrame( alice.getInputStream() ) )
+                            .isEqualTo( "{\"id\":1,\"type\":\"chatResponse\",\"payload\":{\"from\":\"bob\",\"message\":\"one\"}}" );
+                    assertThat( readFrame( alice.getInputStream() ) )
+                            .isEqualTo( "{\"id\":2,\"type\":\"chatResponse\",\"payload\":{\"from\":\"bob\",\"message\":\"two\"}}" );
+
+                    // only the first one is acknowledged before the connection goes
+                    send( alice, "{\"type\":\"command\",\"action\":\"ack\",\"payload\":{\"id\":1}}" );
+                    for( int i = 0; i < 50 && deliveryLog.getUnacked( "alice" ) != 1; i++ ) {
+
+                        Thread.sleep( 100 );
+
+                    }
+                    assertThat( deliveryLog.getUnacked( "alice" ) ).isEqualTo( 1 );
+
+                }
+
+                // waits for the server to notice alice is gone, then bob's message is kept for her
+                var sessionDirectory = context.getBean( SessionDirectory.class );
+                for( int i = 0; i < 50 && sessionDirectory.isUserLoggedIn( "alice" ); i++ ) {
+
+                    Thread.sleep( 100 );
+
+                }
+                chat( bob, "alice", "three" );
+                assertThat( readFrame( bob.getInputStream() ) ).isEqualTo( "{\"status\":\"chat queued!\"}" );
+
+            }
+
+            try( var alice = new Socket( "localhost", port( context ) ) ) {
+
+                send( alice, "{\"type\":\"command\",\"action\":\"login\",\"payload\":{\"username\":\"alice\"}}" );
+
+                // the replay runs on the log's writer thread, it may overtake the login reply
+                var frames = new ArrayList<String>();
+                for( int i = 0; i < 3; i++ ) {
+
+                    frames.add( readFrame( alice.getInputStream() ) );
+
+                }
+                assertThat( frames ).contains( "{\"status\":\"login succeeded!\"}" );
+                assertThat( frames ).filteredOn( frame -> frame.startsWith( "{\"id\":" ) ).containsExactly(
+                        "{\"id\":2,\"type\":\"chatResponse\",\"payload\":{\"from\":\"bob\",\"message\":\"two\"}}",
+                        "{\"id\":3,\"type\":\"chatResponse\",\"payload\":{\"from\":\"bob\",\"message\":\"three\"}}" );
+
+                send( alice, "{\"type\":\"command\",\"action\":\"ack\",\"payload\":{\"id\":3}}" );
+                for( int i = 0; i < 50 && deliveryLog.getUnacked( "alice" ) > 0; i++ ) {
+
+                    Thread.sleep( 100 );
+
+                }
+                assertThat( deliveryLog.getUnacked( "alice" ) ).isZero();
+
+            }
+
+        }
+
+    }
+
+}
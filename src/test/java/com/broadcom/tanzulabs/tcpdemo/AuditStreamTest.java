@@ -0,0 +1,132 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AuditStreamTest {
+
+    @TempDir
+    Path directory;
+
+    ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void writesOneJsonLinePerEvent() throws Exception {
+
+        var file = directory.resolve( "audit.log" );
+        var subject = new AuditStream( file, 16, 1024 * 1024, 2, new double[] { 1.0, 1.0, 1.0, 1.0 }, new SimpleMeterRegistry() );
+        subject.start();
+
+        subject.connectionOpened( "c1" );
+        subject.login( "c1", "client1", true );
+        subject.chat( AuditStream.Event.CHAT, "c1", "client1", "client\"2" );
+        subject.error( null, "JsonParseException: bad frame" );
+        subject.stop();
+
+        var lines = Files.readAllLines( file );
+        assertThat( lines ).hasSize( 4 );
+        assertThat( read( lines.get( 0 ) ) ).containsEntry( "event", "connection.open" ).containsEntry( "connectionId", "c1" ).containsKey( "ts" );
+        assertThat( read( lines.get( 1 ) ) ).containsEntry( "event", "login" ).containsEntry( "user", "client1" );
+        assertThat( read( lines.get( 2 ) ) ).containsEntry( "event", "chat" ).containsEntry( "detail", "client\"2" );
+        assertThat( read( lines.get( 3 ) ) ).containsEntry( "event", "error" ).containsEntry( "connectionId", null );
+
+    }
+
+    @Test
+    void categoriesAreSampled() throws Exception {
+
+        var file = directory.resolve( "audit.log" );
+        var subject = new AuditStream( file, 16, 1024 * 1024, 2, new double[] { 1.0, 1.0, 0.0, 1.0 }, new SimpleMeterRegistry() );
+        subject.start();
+
+        for( int i = 0; i < 100; i++ ) {
+
+            subject.chat( AuditStream.Event.CHAT, "c1", "client1", "client2" );
+
+        }
+        subject.logout( "c1", "client1" );
+        subject.stop();
+
+        assertThat( Files.readAllLines( file ) ).singleElement().satisfies( line -> assertThat( line ).contains( "\"logout\"" ) );
+
+    }
+
+    @Test
+    void rollsPastMaxFileSize() throws Exception {
+
+        var file = directory.resolve( "audit.log" );
+        var subject = new AuditStream( file, 1024, 200, 2, new double[] { 1.0, 1.0, 1.0, 1.0 }, new SimpleMeterRegistry() );
+        subject.start();
+
+        for( int i = 0; i < 50; i++ ) {
+
+            subject.connectionOpened( "connection-" + i );
+
+        }
+        subject.stop();
+
+        assertThat( file.resolveSibling( "audit.log.1" ) ).exists();
+        assertThat( file.resolveSibling( "audit.log.2" ) ).exists();
+        assertThat( file.resolveSibling( "audit.log.3" ) ).doesNotExist();
+        assertThat( Files.size( file.resolveSibling( "audit.log.1" ) ) ).isGreaterThanOrEqualTo( 200 );
+
+    }
+
+    @Test
+    void eventsAreCountedWhileTheFileCannotBeWrittenAndItIsReopened() throws Exception {
+
+        // a directory where the file should be, every open fails until it is gone
+        var file = directory.resolve( "audit.log" );
+        Files.createDirectories( file );
+        var subject = new AuditStream( file, 16, 1024 * 1024, 2, new double[] { 1.0, 1.0, 1.0, 1.0 }, new SimpleMeterRegistry() );
+        subject.start();
+
+        subject.connectionOpened( "c1" );
+        subject.connectionOpened( "c2" );
+        for( int i = 0; i < 50 && subject.getDropped() < 2; i++ ) {
+
+            Thread.sleep( 20 );
+
+        }
+        assertThat( subject.getDropped() ).isEqualTo( 2 );
+
+        Files.delete( file );
+        Thread.sleep( 1100 );
+        subject.connectionOpened( "c3" );
+        subject.stop();
+
+        assertThat( Files.readAllLines( file ) ).singleElement().satisfies( line -> assertThat( line ).contains( "\"c3\"" ) );
+
+    }
+
+    @Test
+    void eventsAfterStopAreIgnored() throws Exception {
+
+        var file = directory.resolve( "audit.log" );
+        var subject = new AuditStream( file, 16, 1024 * 1024, 2, new double[] { 1.0, 1.0, 1.0, 1.0 }, new SimpleMeterRegistry() );
+        subject.start();
+
+        subject.connectionOpened( "c1" );
+        subject.stop();
+        subject.connectionOpened( "c2" );
+
+        assertThat( Files.readAllLines( file ) ).singleElement().satisfies( line -> assertThat( line ).contains( "\"c1\"" ) );
+        assertThat( subject.getDropped() ).isZero();
+
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private Map<String, Object> read( String line ) throws Exception {
+
+        return this.objectMapper.readValue( line, Map.class );
+    }
+
+}
@@ -0,0 +1,188 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.port;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * A JSON, a Smile and a CBOR client chatting through one server, each reading its replies in its own encoding.
+ */
+class BinaryEncodingTests {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void textAndBinaryClientsSideBySide() throws Exception {
+
+        try( var context = start( "length-header" ) ) {
+
+            var port = port( context );
+            try( var json = new Client( port, MessageEncoding.JSON );
+                 var smile = new Client( port, MessageEncoding.SMILE );
+                 var cbor = new Client( port, MessageEncoding.CBOR ) ) {
+
+                json.send( "{\"type\":\"command\",\"action\":\"login\",\"payload\":{\"username\":\"json\"}}" );
+                assertThat( json.read() ).isEqualTo( "{\"status\":\"login succeeded!\"}" );
+
+                // the login itself may already be binary, its reply is the first binary frame
+                smile.send( "{\"type\":\"command\",\"action\":\"login\",\"payload\":{\"username\":\"smile\",\"encoding\":\"smile\"}}" );
+                assertThat( smile.read() ).isEqualTo( "{\"status\":\"login succeeded!\"}" );
+
+                cbor.sendJson( "{\"type\":\"command\",\"action\":\"login\",\"payload\":{\"username\":\"cbor\",\"encoding\":\"cbor\"}}" );
+                assertThat( cbor.read() ).isEqualTo( "{\"status\":\"login succeeded!\"}" );
+
+                json.send( "{\"type\":\"chat\",\"payload\":{\"to\":\"smile\",\"message\":\"from json\"}}" );
+                assertThat( smile.read() ).isEqualTo( "{\"type\":\"chatResponse\",\"payload\":{\"from\":\"json\",\"message\":\"from json\"}}" );
+
+                smile.send( "{\"type\":\"chat\",\"payload\":{\"to\":\"cbor\",\"message\":\"from smile\"}}" );
+                assertThat( cbor.read() ).isEqualTo( "{\"type\":\"chatResponse\",\"payload\":{\"from\":\"smile\",\"message\":\"from smile\"}}" );
+
+                cbor.send( "{\"type\":\"chat\",\"payload\":{\"to\":\"json\",\"message\":\"from cbor\"}}" );
+                assertThat( json.read() ).isEqualTo( "{\"type\":\"chatResponse\",\"payload\":{\"from\":\"cbor\",\"message\":\"from cbor\"}}" );
+
+            }
+
+        }
+
+    }
+
+    @Test
+    void binaryEncodingNeedsLengthHeaderFraming() throws Exception {
+
+        try( var context = start( "crlf" ) ) {
+
+            var port = port( context );
+            try( var socket = new Socket( "localhost", port ) ) {
+
+                socket.getOutputStream().write(
+                        "{\"type\":\"command\",\"action\":\"login\",\"payload\":{\"username\":\"smile\",\"encoding\":\"smile\"}}\r\n"
+                                .getBytes( StandardCharsets.UTF_8 ) );
+
+                var reply = new byte[ "{\"status\":\"login failed!\"}\r\n".length() ];
+                new DataInputStream( socket.getInputStream() ).readFully( reply );
+                assertThat( new String( reply, StandardCharsets.UTF_8 ) ).isEqualTo( "{\"status\":\"login failed!\"}\r\n" );
+
+            }
+
+        }
+
+    }
+
+    @Test
+    void autoFramingDecidesPerConnection() throws Exception {
+
+        try( var context = start( "auto" ) ) {
+
+            var port = port( context );
+            try( var cbor = new Client( port, MessageEncoding.CBOR );
+                 var text = new Socket( "localhost", port ) ) {
+
+                cbor.sendJson( "{\"type\":\"command\",\"action\":\"login\",\"payload\":{\"username\":\"cbor\",\"encoding\":\"cbor\"}}" );
+                assertThat( cbor.read() ).isEqualTo( "{\"status\":\"login succeeded!\"}" );
+
+                // detected as CRLF, which cannot carry binary frames
+                text.getOutputStream().write(
+                        "{\"type\":\"command\",\"action\":\"login\",\"payload\":{\"username\":\"smile\",\"encoding\":\"smile\"}}\r\n"
+                                .getBytes( StandardCharsets.UTF_8 ) );
+
+                var reply = new byte[ "{\"status\":\"login failed!\"}\r\n".length() ];
+                new DataInputStream( text.getInputStream() ).readFully( reply );
+                assertThat( new String( reply, StandardCharsets.UTF_8 ) ).isEqualTo( "{\"status\":\"login failed!\"}\r\n" );
+
+            }
+
+        }
+
+    }
+
+    private ConfigurableApplicationContext start( String framing ) throws InterruptedException {
+
+        return ChatServerFixture.start( this.directory, "tcp.server.framing=" + framing );
+    }
+
+    // sends and reads length header frames in its encoding, and shows them as JSON text
+    static final class Client implements AutoCloseable {
+
+        static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+        final Socket socket;
+
+        final MessageEncoding encoding;
+
+        final DataOutputStream out;
+
+        final DataInputStream in;
+
+        Client( int port, MessageEncoding encoding ) throws IOException {
+
+            this.socket = new Socket( "localhost", port );
+            this.encoding = encoding;
+            this.out = new DataOutputStream( this.socket.getOutputStream() );
+            this.in = new DataInputStream( this.socket.getInputStream() );
+
+        }
+
+        void send( String json ) throws IOException {
+
+            write( this.encoding.fromJson( json.getBytes( StandardCharsets.UTF_8 ) ) );
+
+        }
+
+        void sendJson( String json ) throws IOException {
+
+            write( json.getBytes( StandardCharsets.UTF_8 ) );
+
+        }
+
+        private void write( byte[] frame ) throws IOException {
+
+            this.out.writeInt( frame.length );
+            this.out.write( frame );
+            this.out.flush();
+
+        }
+
+        String read() throws IOException {
+
+            var frame = new byte[ this.in.readInt() ];
+            this.in.readFully( frame );
+            assertThat( MessageEncoding.detect( frame ) ).isEqualTo( this.encoding );
+
+            var text = new StringWriter();
+            try( var parser = this.encoding.createParser( frame );
+                 var generator = JSON_FACTORY.createGenerator( text ) ) {
+
+                while( parser.nextToken() != null ) {
+
+                    generator.copyCurrentEvent( parser );
+
+                }
+
+            }
+
+            return text.toString();
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            this.socket.close();
+
+        }
+
+    }
+
+}
@@ -0,0 +1,107 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BufferPoolTest {
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    BufferPool subject = new BufferPool( 64, 1024, 2, false, true, meterRegistry );
+
+    @Test
+    void releasedBufferIsReused() {
+
+        var first = subject.acquire( 100 );
+        var array = first.array();
+        assertThat( array ).hasSize( 128 );
+        first.release();
+
+        var second = subject.acquire( 120 );
+        assertThat( second.array() ).isSameAs( array );
+        assertThat( second.length() ).isZero();
+        second.release();
+
+        assertThat( meterRegistry.get( "tcp.buffers.acquired" ).counter().count() ).isEqualTo( 2 );
+        assertThat( meterRegistry.get( "tcp.buffers.allocated" ).counter().count() ).isEqualTo( 1 );
+
+    }
+
+    @Test
+    void lastReleaseReturnsTheBuffer() {
+
+        var buffer = subject.acquire( 10 ).retain();
+
+        assertThat( buffer.release() ).isFalse();
+        assertThat( subject.getOutstanding() ).isEqualTo( 1 );
+        assertThat( buffer.release() ).isTrue();
+        assertThat( subject.getOutstanding() ).isZero();
+
+        assertThatThrownBy( buffer::release ).isInstanceOf( IllegalStateException.class );
+
+    }
+
+    @Test
+    void writesGrowIntoLargerSizeClasses() {
+
+        var buffer = subject.acquire( 10 );
+        var text = "x".repeat( 300 ).getBytes( StandardCharsets.US_ASCII );
+        buffer.write( text, 0, text.length );
+
+        assertThat( buffer.length() ).isEqualTo( 300 );
+        assertThat( buffer.array() ).hasSize( 512 );
+        buffer.release();
+
+        // both the outgrown and the final buffer are back in the pool
+        assertThat( subject.getOutstanding() ).isZero();
+        assertThat( subject.getPooledBytes() ).isEqualTo( 64 + 512 );
+
+    }
+
+    @Test
+    void oversizedBuffersAreNotPooled() {
+
+        var buffer = subject.acquire( 5000 );
+        assertThat( buffer.array() ).hasSize( 5000 );
+        buffer.release();
+
+        assertThat( subject.getPooledBytes() ).isZero();
+
+    }
+
+    @Test
+    void outstandingBuffersAreTracedToTheirAcquire() {
+
+        var buffer = subject.acquire( 10 );
+
+        assertThat( subject.getOutstandingAllocations() ).singleElement()
+                .satisfies( site -> assertThat( site.getStackTrace()[ 1 ].getMethodName() ).isEqualTo( "outstandingBuffersAreTracedToTheirAcquire" ) );
+
+        buffer.release();
+        assertThat( subject.getOutstandingAllocations() ).isEmpty();
+
+    }
+
+    @Test
+    void directBuffersRoundTrip() throws Exception {
+
+        var direct = new BufferPool( 64, 1024, 2, true, false, meterRegistry );
+        var buffer = direct.acquire( 10 );
+        var text = "hello".getBytes( StandardCharsets.US_ASCII );
+        buffer.write( text, 0, text.length );
+
+        assertThat( buffer.hasArray() ).isFalse();
+        var out = new ByteArrayOutputStream();
+        buffer.writeTo( out );
+        assertThat( out.toByteArray() ).isEqualTo( text );
+        buffer.release();
+
+    }
+
+}
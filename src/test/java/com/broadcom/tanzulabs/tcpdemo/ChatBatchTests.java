@@ -0,0 +1,79 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.Socket;
+import java.nio.file.Path;
+
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.login;
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.port;
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.readFrame;
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.send;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * A bot fans one {@code sendBatch} frame out to two connected users and one that is offline.
+ */
+class ChatBatchTests {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void batchIsGroupedPerRecipient() throws Exception {
+
+        try( var context = ChatServerFixture.start( this.directory ) ) {
+
+            // only users that logged in once have messages kept for them
+            try( var carol = new Socket( "localhost", port( context ) ) ) {
+
+                login( carol, "carol" );
+                send( carol, "{\"type\":\"command\",\"action\":\"logout\",\"payload\":{\"username\":\"carol\"}}" );
+                assertThat( readFrame( carol.getInputStream() ) ).isEqualTo( "{\"status\":\"logout succeeded!\"}" );
+
+            }
+
+            try( var bot = new Socket( "localhost", port( context ) );
+                 var alice = new Socket( "localhost", port( context ) );
+                 var bob = new Socket( "localhost", port( context ) ) ) {
+
+                login( bot, "bot" );
+                login( alice, "alice" );
+                login( bob, "bob" );
+
+                send( bot,
+                        """
+                        {"type":"chat","action":"sendBatch","payload":{"entries":[\
+                        {"to":"alice","message":"one"},\
+                        {"to":"bob","message":"two"},\
+                        {"to":"alice","message":"three"},\
+                        {"to":"carol","message":"four"},\
+                        {"message":"five"},\
+                        "six"]}}""" );
+
+                assertThat( readFrame( bot.getInputStream() ) )
+                        .isEqualTo( "{\"status\":\"batch processed!\",\"results\":[\"sent\",\"sent\",\"sent\",\"queued\",\"not sent\",\"not sent\"]}" );
+
+                // both of alice's messages in one frame, bob's single one as a plain chat response
+                assertThat( readFrame( alice.getInputStream() ) )
+                        .isEqualTo( "{\"type\":\"chatBatchResponse\",\"payload\":{\"from\":\"bot\",\"messages\":[\"one\",\"three\"]}}" );
+                assertThat( readFrame( bob.getInputStream() ) )
+                        .isEqualTo( "{\"type\":\"chatResponse\",\"payload\":{\"from\":\"bot\",\"message\":\"two\"}}" );
+
+            }
+
+            // carol gets hers when she logs in
+            try( var carol = new Socket( "localhost", port( context ) ) ) {
+
+                login( carol, "carol" );
+                assertThat( readFrame( carol.getInputStream() ) )
+                        .isEqualTo( "{\"type\":\"chatResponse\",\"payload\":{\"from\":\"bot\",\"message\":\"four\"}}" );
+
+            }
+
+        }
+
+    }
+
+}
@@ -0,0 +1,198 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChatHistoryTest {
+
+    @TempDir
+    Path directory;
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    List<ChatHistory> histories = new ArrayList<>();
+
+    @AfterEach
+    void shutdown() {
+
+        histories.forEach( ChatHistory::stop );
+
+    }
+
+    @Test
+    void pagesBackThroughAConversationOldestFirst() {
+
+        var subject = start( 1024 * 1024, Long.MAX_VALUE );
+        for( int i = 0; i < 250; i++ ) {
+
+            // both directions of the conversation, and another conversation in between
+            subject.append( i % 2 == 0 ? "alice" : "bob", i % 2 == 0 ? "bob" : "alice", "message " + i );
+            subject.append( "carol", "dave", "noise " + i );
+
+        }
+        subject.flush().join();
+
+        var latest = subject.history( "alice", "bob", Long.MAX_VALUE, 100 );
+        assertThat( latest ).extracting( ChatHistory.Entry::message ).containsExactlyElementsOf( messages( 150, 250 ) );
+        assertThat( latest.get( 0 ).from() ).isEqualTo( "alice" );
+        assertThat( latest.get( 1 ).from() ).isEqualTo( "bob" );
+
+        var previous = subject.history( "bob", "alice", latest.get( 0 ).timestamp(), 100 );
+        assertThat( previous ).extracting( ChatHistory.Entry::message ).containsExactlyElementsOf( messages( 50, 150 ) );
+
+        var first = subject.history( "alice", "bob", previous.get( 0 ).timestamp(), 100 );
+        assertThat( first ).extracting( ChatHistory.Entry::message ).containsExactlyElementsOf( messages( 0, 50 ) );
+
+        assertThat( subject.history( "alice", "bob", first.get( 0 ).timestamp(), 100 ) ).isEmpty();
+        assertThat( subject.history( "alice", "carol", Long.MAX_VALUE, 100 ) ).isEmpty();
+
+    }
+
+    @Test
+    void timestampsIncreaseWithinAConversation() {
+
+        var subject = start( 1024 * 1024, Long.MAX_VALUE );
+        for( int i = 0; i < 50; i++ ) {
+
+            subject.append( "alice", "bob", "message " + i );
+
+        }
+        subject.flush().join();
+
+        var page = subject.history( "alice", "bob", Long.MAX_VALUE, 50 );
+        for( int i = 1; i < page.size(); i++ ) {
+
+            assertThat( page.get( i ).timestamp() ).isGreaterThan( page.get( i - 1 ).timestamp() );
+
+        }
+
+    }
+
+    @Test
+    void limitIsCapped() {
+
+        var subject = start( 1024 * 1024, Long.MAX_VALUE );
+        for( int i = 0; i < 300; i++ ) {
+
+            subject.append( "alice", "bob", "message " + i );
+
+        }
+        subject.flush().join();
+
+        assertThat( subject.history( "alice", "bob", Long.MAX_VALUE, 1000 ) ).hasSize( 200 );
+
+    }
+
+    @Test
+    void conversationsSurviveARestartAndATornTail() throws Exception {
+
+        var subject = start( 4096, Long.MAX_VALUE );
+        for( int i = 0; i < 100; i++ ) {
+
+            subject.append( "alice", "bob", "message " + i );
+
+        }
+        subject.flush().join();
+        subject.stop();
+
+        // a record cut short by a crash
+        Files.write( lastSegment(), new byte[] { 0, 0, 0, 40, 1, 2, 3 }, StandardOpenOption.APPEND );
+
+        var restarted = start( 4096, Long.MAX_VALUE );
+        assertThat( restarted.history( "alice", "bob", Long.MAX_VALUE, 100 ) ).extracting( ChatHistory.Entry::message )
+                .containsExactlyElementsOf( messages( 0, 100 ) );
+
+        restarted.append( "bob", "alice", "after restart" );
+        restarted.flush().join();
+        assertThat( restarted.history( "alice", "bob", Long.MAX_VALUE, 2 ) ).extracting( ChatHistory.Entry::message )
+                .containsExactly( "message 99", "after restart" );
+
+    }
+
+    @Test
+    void oldestSegmentsAreDeletedPastMaxBytes() throws Exception {
+
+        var subject = start( 1024, 4096 );
+        for( int i = 0; i < 500; i++ ) {
+
+            subject.append( "alice", "bob", "message " + i );
+
+        }
+        subject.flush().join();
+
+        var page = subject.history( "alice", "bob", Long.MAX_VALUE, 200 );
+        assertThat( page ).isNotEmpty().hasSizeLessThan( 200 );
+        assertThat( page.getLast().message() ).isEqualTo( "message 499" );
+
+        try( Stream<Path> files = Files.list( this.directory ) ) {
+
+            assertThat( files.mapToLong( path -> path.toFile().length() ).sum() ).isLessThanOrEqualTo( 4096 + 1024 );
+
+        }
+
+    }
+
+    @Test
+    void rereadPagesComeFromTheCache() {
+
+        var subject = start( 1024 * 1024, Long.MAX_VALUE );
+        for( int i = 0; i < 100; i++ ) {
+
+            subject.append( "alice", "bob", "message " + i );
+
+        }
+        subject.flush().join();
+
+        var misses = meterRegistry.get( "tcp.history.cache" ).tag( "result", "miss" ).counter();
+        subject.history( "alice", "bob", Long.MAX_VALUE, 100 );
+        var cold = misses.count();
+        subject.history( "alice", "bob", Long.MAX_VALUE, 100 );
+
+        // only the block still being appended to is read from the file again
+        assertThat( cold ).isGreaterThan( 1 );
+        assertThat( misses.count() - cold ).isLessThanOrEqualTo( 1 );
+
+    }
+
+    private ChatHistory start( long segmentSize, long maxBytes ) {
+
+        var history = new ChatHistory( this.directory, segmentSize, maxBytes, 8, 256, 64, 200, 1024, meterRegistry );
+        history.start();
+        histories.add( history );
+
+        return history;
+    }
+
+    private Path lastSegment() throws Exception {
+
+        try( Stream<Path> files = Files.list( this.directory ) ) {
+
+            return files.sorted().toList().getLast();
+        }
+
+    }
+
+    private static List<String> messages( int from, int to ) {
+
+        var messages = new ArrayList<String>();
+        for( int i = from; i < to; i++ ) {
+
+            messages.add( "message " + i );
+
+        }
+
+        return messages;
+    }
+
+}
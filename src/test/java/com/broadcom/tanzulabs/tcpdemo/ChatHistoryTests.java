@@ -0,0 +1,70 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.Socket;
+import java.nio.file.Path;
+
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.login;
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.port;
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.readFrame;
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.send;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Alice and Bob chat, then Bob pages back through their conversation.
+ */
+class ChatHistoryTests {
+
+    static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void historyPagesBackThroughTheConversation() throws Exception {
+
+        try( var context = ChatServerFixture.start( this.directory ) ) {
+
+            try( var alice = new Socket( "localhost", port( context ) );
+                 var bob = new Socket( "localhost", port( context ) ) ) {
+
+                login( alice, "alice" );
+                login( bob, "bob" );
+
+                for( int i = 0; i < 3; i++ ) {
+
+                    send( alice, "{\"type\":\"chat\",\"payload\":{\"to\":\"bob\",\"message\":\"message %d\"}}".formatted( i ) );
+                    readFrame( bob.getInputStream() );
+
+                }
+                send( bob, "{\"type\":\"chat\",\"payload\":{\"to\":\"alice\",\"message\":\"reply\"}}" );
+                readFrame( alice.getInputStream() );
+
+                // history is written behind the chat, wait for its writer
+                context.getBean( ChatHistory.class ).flush().join();
+
+                send( bob, "{\"type\":\"chat\",\"action\":\"history\",\"payload\":{\"with\":\"alice\",\"limit\":2}}" );
+                var latest = MAPPER.readTree( readFrame( bob.getInputStream() ) );
+                assertThat( latest.path( "type" ).asText() ).isEqualTo( "chatHistory" );
+                assertThat( latest.at( "/payload/with" ).asText() ).isEqualTo( "alice" );
+                assertThat( latest.at( "/payload/messages" ) ).extracting( m -> m.path( "message" ).asText() ).containsExactly( "message 2", "reply" );
+                assertThat( latest.at( "/payload/messages/1/from" ).asText() ).isEqualTo( "bob" );
+
+                var before = latest.at( "/payload/messages/0/timestamp" ).asLong();
+                send( bob, "{\"type\":\"chat\",\"action\":\"history\",\"payload\":{\"with\":\"alice\",\"before\":%d}}".formatted( before ) );
+                var earlier = MAPPER.readTree( readFrame( bob.getInputStream() ) );
+                assertThat( earlier.at( "/payload/messages" ) ).extracting( m -> m.path( "message" ).asText() ).containsExactly( "message 0", "message 1" );
+
+                send( bob, "{\"type\":\"chat\",\"action\":\"history\",\"payload\":{}}" );
+                assertThat( readFrame( bob.getInputStream() ) ).isEqualTo( "{\"status\":\"history unavailable!\"}" );
+
+            }
+
+        }
+
+    }
+
+}
@@ -0,0 +1,131 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.integration.ip.tcp.connection.AbstractServerConnectionFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Starts the server the socket tests talk to, and speaks its CRLF framed JSON as a client.
+ */
+final class ChatServerFixture {
+
+    private ChatServerFixture() { }
+
+    /**
+     * Starts the server on free ports with its files under {@code directory}, and returns once it is listening.
+     * Draining is off so closing the context does not wait out the drain, any of these can be overridden in
+     * {@code properties}.
+     * <p>
+     * They are passed as command line arguments, default properties would lose to application.yaml.
+     */
+    static ConfigurableApplicationContext start( Path directory, String... properties ) throws InterruptedException {
+
+        var defaults = Stream.of(
+                "tcp.server.port=0",
+                "server.port=0",
+                "tcp.server.offline.directory=" + directory.resolve( "offline" ),
+                "tcp.server.history.directory=" + directory.resolve( "history" ),
+                "tcp.server.audit.file=" + directory.resolve( "audit/audit.log" ),
+                "tcp.server.drain.enabled=false",
+                "logging.level.org.springframework.integration=WARN" );
+
+        // a repeated argument would be joined with a comma rather than replaced
+        var arguments = new LinkedHashMap<String, String>();
+        Stream.concat( defaults, Stream.of( properties ) ).forEach( property -> {
+
+            var separator = property.indexOf( '=' );
+            arguments.put( property.substring( 0, separator ), property.substring( separator + 1 ) );
+
+        });
+
+        var context = new SpringApplicationBuilder( TcpDemoApplication.class )
+                .run( arguments.entrySet().stream()
+                        .map( argument -> "--" + argument.getKey() + "=" + argument.getValue() )
+                        .toArray( String[]::new ) );
+
+        var serverConnectionFactory = context.getBean( AbstractServerConnectionFactory.class );
+        for( int i = 0; i < 100 && !serverConnectionFactory.isListening(); i++ ) {
+
+            Thread.sleep( 100 );
+
+        }
+
+        if( !serverConnectionFactory.isListening() ) {
+
+            context.close();
+            throw new IllegalStateException( "start : server did not start listening" );
+        }
+
+        return context;
+    }
+
+    static int port( ConfigurableApplicationContext context ) {
+
+        return context.getBean( AbstractServerConnectionFactory.class ).getPort();
+    }
+
+    static void login( Socket socket, String username ) throws IOException {
+
+        send( socket, "{\"type\":\"command\",\"action\":\"login\",\"payload\":{\"username\":\"%s\"}}".formatted( username ) );
+        assertThat( readFrame( socket.getInputStream() ) ).isEqualTo( "{\"status\":\"login succeeded!\"}" );
+
+    }
+
+    static void chat( Socket socket, String to, String message ) throws IOException {
+
+        send( socket, "{\"type\":\"chat\",\"payload\":{\"to\":\"%s\",\"message\":\"%s\"}}".formatted( to, message ) );
+
+    }
+
+    static void send( Socket socket, String frame ) throws IOException {
+
+        socket.getOutputStream().write( ( frame + "\r\n" ).getBytes( StandardCharsets.UTF_8 ) );
+        socket.getOutputStream().flush();
+
+    }
+
+    static String readFrame( InputStream in ) throws IOException {
+
+        // replies are CRLF terminated and may contain bare newlines
+        var frame = new StringBuilder();
+        int b;
+        while( ( b = in.read() ) != -1 ) {
+
+            if( b == '\n' && !frame.isEmpty() && frame.charAt( frame.length() - 1 ) == '\r' ) {
+
+                frame.setLength( frame.length() - 1 );
+                break;
+            }
+
+            frame.append( (char) b );
+
+        }
+
+        return frame.toString();
+    }
+
+    // polls for up to ten seconds, failing the test if the condition never holds
+    static void waitFor( BooleanSupplier condition ) throws InterruptedException {
+
+        for( int i = 0; i < 100 && !condition.getAsBoolean(); i++ ) {
+
+            Thread.sleep( 100 );
+
+        }
+
+        assertThat( condition.getAsBoolean() ).isTrue();
+
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ClientServiceConcurrencyTests {
+
+    static final int THREADS = 8;
+    static final int OPERATIONS = 50_000;
+    static final int CONNECTIONS = 64;
+    static final int USERS = 32;
+
+    ClientService subject = new ClientService();
+
+    @Test
+    void indexesStayConsistentUnderContention() throws Exception {
+
+        var start = new CountDownLatch( 1 );
+        var futures = new ArrayList<Future<?>>();
+
+        try( ExecutorService executor = Executors.newFixedThreadPool( THREADS ) ) {
+
+            for( int t = 0; t < THREADS; t++ ) {
+
+                futures.add( executor.submit( () -> {
+
+                    start.await();
+
+                    var random = ThreadLocalRandom.current();
+                    for( int i = 0; i < OPERATIONS; i++ ) {
+
+                        var connectionId = "connection-" + random.nextInt( CONNECTIONS );
+                        var username = "user-" + random.nextInt( USERS );
+
+                        switch( random.nextInt( 5 ) ) {
+                            case 0 -> subject.registerConnection( connectionId );
+                            case 1 -> subject.removeConnection( connectionId );
+                            case 2 -> subject.logout( connectionId, username );
+                            default -> subject.login( connectionId, username );
+                        }
+
+                    }
+
+                    return null;
+                }));
+
+            }
+
+            start.countDown();
+            for( var future : futures ) {
+
+                future.get( 1, TimeUnit.MINUTES );
+
+            }
+
+        }
+
+        // every logged in user points at a connection that points back at the user
+        for( int u = 0; u < USERS; u++ ) {
+
+            var username = "user-" + u;
+            var connectionId = subject.getConnection( username );
+            assertThat( connectionId.isPresent() ).isEqualTo( subject.isUserLoggedIn( username ) );
+            connectionId.ifPresent( c -> {
+
+                assertThat( subject.isClientConnected( c ) ).isTrue();
+                assertThat( subject.getUsername( c ) ).contains( username );
+
+            });
+
+        }
+
+        // every connection with a user is the one the reverse index resolves for that user
+        for( int c = 0; c < CONNECTIONS; c++ ) {
+
+            var connectionId = "connection-" + c;
+            subject.getUsername( connectionId )
+                    .ifPresent( username -> assertThat( subject.getConnection( username ) ).contains( connectionId ) );
+
+        }
+
+    }
+
+}
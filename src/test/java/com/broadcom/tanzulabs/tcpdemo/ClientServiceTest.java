@@ -38,6 +38,18 @@ class ClientServiceTest {
 
     }
 
+    @Test
+    void loginReportsWhatItChanged() {
+
+        subject.registerConnection( fakeConnectionId );
+        subject.registerConnection( "otherConnectionId" );
+
+        assertThat( subject.login( fakeConnectionId, fakeUsername ) ).isEqualTo( new SessionDirectory.Login( true, null, false ) );
+        assertThat( subject.login( "otherConnectionId", fakeUsername ) ).isEqualTo( new SessionDirectory.Login( true, null, true ) );
+        assertThat( subject.login( "otherConnectionId", "otherUsername" ) ).isEqualTo( new SessionDirectory.Login( true, fakeUsername, false ) );
+
+    }
+
     @Test
     void logout() {
 
@@ -71,4 +83,54 @@ class ClientServiceTest {
 
     }
 
+    @Test
+    void loginSameUserTwice() {
+
+        subject.registerConnection( fakeConnectionId );
+        subject.registerConnection( "otherConnectionId" );
+        subject.login( fakeConnectionId, fakeUsername );
+        subject.login( "otherConnectionId", fakeUsername );
+
+        assertThat( subject.getConnection( fakeUsername ) ).contains( "otherConnectionId" );
+        assertThat( subject.getUsername( "otherConnectionId" ) ).contains( fakeUsername );
+        assertThat( subject.getUsername( fakeConnectionId ) ).isEmpty();
+
+    }
+
+    @Test
+    void loginAfterConnectionRemoved() {
+
+        subject.registerConnection( fakeConnectionId );
+        subject.removeConnection( fakeConnectionId );
+
+        assertThat( subject.login( fakeConnectionId, fakeUsername ).succeeded() ).isFalse();
+        assertThat( subject.isUserLoggedIn( fakeUsername ) ).isFalse();
+        assertThat( subject.getConnection( fakeUsername ) ).isEmpty();
+
+    }
+
+    @Test
+    void logoutWithMismatchedUsername() {
+
+        subject.registerConnection( fakeConnectionId );
+        subject.login( fakeConnectionId, fakeUsername );
+
+        assertThat( subject.logout( fakeConnectionId, "someoneElse" ) ).isFalse();
+        assertThat( subject.isUserLoggedIn( fakeUsername ) ).isTrue();
+        assertThat( subject.getConnection( fakeUsername ) ).contains( fakeConnectionId );
+
+    }
+
+    @Test
+    void removeConnectionLogsUserOut() {
+
+        subject.registerConnection( fakeConnectionId );
+        subject.login( fakeConnectionId, fakeUsername );
+        subject.removeConnection( fakeConnectionId );
+
+        assertThat( subject.isUserLoggedIn( fakeUsername ) ).isFalse();
+        assertThat( subject.getConnection( fakeUsername ) ).isEmpty();
+
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,103 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+class ClusterFrameTest {
+
+    @Test
+    void roundTrip() {
+
+        var chat = "{\"type\":\"chat\",\"payload\":{\"from\":\"alice\",\"message\":\"héllo\"}}".getBytes( StandardCharsets.UTF_8 );
+        var frame =
+                new ClusterFrame(
+                        "node-a",
+                        List.of(
+                                ClusterFrame.RESET,
+                                new ClusterFrame.Online( "alice" ),
+                                new ClusterFrame.Offline( "bob" ),
+                                new ClusterFrame.Chat( "carol", chat ) ) );
+
+        var actual = ClusterFrame.decode( frame.encode() );
+
+        assertThat( actual.node() ).isEqualTo( "node-a" );
+        assertThat( actual.entries() ).hasSize( 4 );
+        assertThat( actual.entries().subList( 0, 3 ) )
+                .containsExactly( ClusterFrame.RESET, new ClusterFrame.Online( "alice" ), new ClusterFrame.Offline( "bob" ) );
+        assertThat( actual.entries().get( 3 ) ).isInstanceOfSatisfying( ClusterFrame.Chat.class, c -> {
+
+            assertThat( c.to() ).isEqualTo( "carol" );
+            assertThat( c.frame() ).isEqualTo( chat );
+
+        });
+
+    }
+
+    @Test
+    void truncatedFrameIsRejected() {
+
+        var bytes = new ClusterFrame( "node-a", List.of( new ClusterFrame.Chat( "carol", new byte[ 100 ] ) ) ).encode();
+
+        assertThatIllegalArgumentException().isThrownBy( () -> ClusterFrame.decode( Arrays.copyOf( bytes, bytes.length - 10 ) ) );
+
+    }
+
+    @Test
+    void sealedFramesOnlyOpenWithTheSameSecret() {
+
+        var bytes = new ClusterFrame( "node-a", List.of( new ClusterFrame.Online( "alice" ) ) ).encode();
+        var position = new ClusterFrame.Position( 1_700_000_000_000L, 42 );
+        var sealed = ClusterFrame.seal( bytes, position, ClusterFrame.secret( "secret" ) );
+
+        var opened = ClusterFrame.unseal( sealed, ClusterFrame.secret( "secret" ) );
+        assertThat( opened.frame() ).isEqualTo( bytes );
+        assertThat( opened.position() ).isEqualTo( position );
+        assertThatIllegalArgumentException().isThrownBy( () -> ClusterFrame.unseal( sealed, ClusterFrame.secret( "other" ) ) );
+        assertThatIllegalArgumentException().isThrownBy( () -> ClusterFrame.unseal( bytes, ClusterFrame.secret( "secret" ) ) );
+
+    }
+
+    @Test
+    void sealedPositionCannotBeAltered() {
+
+        var bytes = new ClusterFrame( "node-a", List.of( new ClusterFrame.Online( "alice" ) ) ).encode();
+        var sealed = ClusterFrame.seal( bytes, new ClusterFrame.Position( 1, 1 ), ClusterFrame.secret( "secret" ) );
+
+        // bump the sequence to pass a replay off as a newer frame
+        sealed[ 15 ]++;
+
+        assertThatIllegalArgumentException().isThrownBy( () -> ClusterFrame.unseal( sealed, ClusterFrame.secret( "secret" ) ) );
+
+    }
+
+    @Test
+    void positionsFollowByEpochThenSequence() {
+
+        var position = new ClusterFrame.Position( 2, 5 );
+
+        assertThat( new ClusterFrame.Position( 2, 6 ).follows( position ) ).isTrue();
+        assertThat( new ClusterFrame.Position( 3, 1 ).follows( position ) ).isTrue();
+        assertThat( new ClusterFrame.Position( 2, 5 ).follows( position ) ).isFalse();
+        assertThat( new ClusterFrame.Position( 1, 9 ).follows( position ) ).isFalse();
+
+    }
+
+    @Test
+    void peersAreParsed() {
+
+        var actual = ClusterSessionDirectory.peers( "node-a=localhost:9877, node-b=10.0.0.2:9878" );
+
+        assertThat( actual ).containsOnlyKeys( "node-a", "node-b" );
+        assertThat( actual.get( "node-b" ).getHostString() ).isEqualTo( "10.0.0.2" );
+        assertThat( actual.get( "node-b" ).getPort() ).isEqualTo( 9878 );
+        assertThat( ClusterSessionDirectory.peers( "" ) ).isEmpty();
+
+    }
+
+}
@@ -0,0 +1,231 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.chat;
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.login;
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.port;
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.readFrame;
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.send;
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.waitFor;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Three nodes in one JVM on localhost ports, each listing the other two as peers and sharing one secret.
+ */
+class ClusterTests {
+
+    static final int NODES = 3;
+
+    @TempDir
+    Path directory;
+
+    final List<ConfigurableApplicationContext> nodes = new ArrayList<>();
+
+    final List<Socket> sockets = new ArrayList<>();
+
+    @BeforeEach
+    void startNodes() throws Exception {
+
+        var clusterPorts = new int[ NODES ];
+        for( int i = 0; i < NODES; i++ ) {
+
+            try( var socket = new ServerSocket( 0 ) ) {
+
+                clusterPorts[ i ] = socket.getLocalPort();
+
+            }
+
+        }
+
+        var peers = IntStream.range( 0, NODES )
+                .mapToObj( i -> "node-" + i + "=127.0.0.1:" + clusterPorts[ i ] )
+                .collect( Collectors.joining( "," ) );
+
+        for( int i = 0; i < NODES; i++ ) {
+
+            this.nodes.add( ChatServerFixture.start( this.directory.resolve( "node-" + i ),
+                    "tcp.cluster.enabled=true",
+                    "tcp.cluster.node-id=node-" + i,
+                    "tcp.cluster.port=" + clusterPorts[ i ],
+                    "tcp.cluster.peers=" + peers,
+                    "tcp.cluster.secret=cluster-test-secret" ) );
+
+        }
+
+        for( var node : this.nodes ) {
+
+            waitFor( node.getBean( ClusterSessionDirectory.class )::isListening );
+
+        }
+
+    }
+
+    @AfterEach
+    void stopNodes() throws IOException {
+
+        for( var socket : this.sockets ) {
+
+            socket.close();
+
+        }
+        this.nodes.forEach( ConfigurableApplicationContext::close );
+
+    }
+
+    @Test
+    void chatReachesUserAtAnotherNode() throws Exception {
+
+        var alice = connect( 0 );
+        var bob = connect( 2 );
+
+        login( alice, "alice" );
+        login( bob, "bob" );
+
+        var directory = this.nodes.get( 0 ).getBean( ClusterSessionDirectory.class );
+        waitFor( () -> !directory.getNodes( "bob" ).isEmpty() );
+        assertThat( directory.getNodes( "bob" ) ).containsExactly( "node-2" );
+        assertThat( this.nodes.get( 1 ).getBean( ClusterSessionDirectory.class ).isUserLoggedIn( "alice" ) ).isTrue();
+
+        chat( alice, "bob", "Hello from node 0" );
+        var received = readFrame( bob.getInputStream() );
+        assertThat( received ).contains( "\"from\":\"alice\"" ).contains( "Hello from node 0" );
+
+    }
+
+    @Test
+    void logoutIsAnnouncedAndChatIsStoredLocally() throws Exception {
+
+        var alice = connect( 0 );
+        var bob = connect( 1 );
+
+        login( alice, "alice" );
+        login( bob, "bob" );
+
+        var directory = this.nodes.get( 0 ).getBean( ClusterSessionDirectory.class );
+        waitFor( () -> directory.isUserLoggedIn( "bob" ) );
+
+        send( bob, """
+                { "type": "command", "action": "logout", "payload": { "username": "bob" } }""" );
+        assertThat( readFrame( bob.getInputStream() ) ).contains( "logout succeeded!" );
+        waitFor( () -> !directory.isUserLoggedIn( "bob" ) );
+
+        chat( alice, "bob", "Are you there?" );
+        assertThat( readFrame( alice.getInputStream() ) ).contains( "chat queued!" );
+
+    }
+
+    @Test
+    void userAtTwoNodesStaysReachableWhenOneLogsOut() throws Exception {
+
+        var alice = connect( 0 );
+        var bobAtOne = connect( 1 );
+        var bobAtTwo = connect( 2 );
+
+        login( alice, "alice" );
+        login( bobAtOne, "bob" );
+        login( bobAtTwo, "bob" );
+
+        var directory = this.nodes.get( 0 ).getBean( ClusterSessionDirectory.class );
+        waitFor( () -> directory.getNodes( "bob" ).size() == 2 );
+        assertThat( directory.getNodes( "bob" ) ).containsExactlyInAnyOrder( "node-1", "node-2" );
+
+        send( bobAtOne, """
+                { "type": "command", "action": "logout", "payload": { "username": "bob" } }""" );
+        assertThat( readFrame( bobAtOne.getInputStream() ) ).contains( "logout succeeded!" );
+        waitFor( () -> directory.getNodes( "bob" ).size() == 1 );
+
+        // node 1 going offline does not take node 2's session with it
+        assertThat( directory.getNodes( "bob" ) ).containsExactly( "node-2" );
+        assertThat( directory.isUserLoggedIn( "bob" ) ).isTrue();
+
+        chat( alice, "bob", "Still there?" );
+        assertThat( readFrame( bobAtTwo.getInputStream() ) ).contains( "\"from\":\"alice\"" ).contains( "Still there?" );
+
+    }
+
+    @Test
+    void stoppedNodeIsForgotten() throws Exception {
+
+        var bob = connect( 2 );
+        login( bob, "bob" );
+
+        var directory = this.nodes.get( 0 ).getBean( ClusterSessionDirectory.class );
+        waitFor( () -> directory.isUserLoggedIn( "bob" ) );
+
+        this.nodes.get( 2 ).close();
+
+        waitFor( () -> !directory.isUserLoggedIn( "bob" ) );
+
+    }
+
+    @Test
+    void unsignedFramesAreRefused() throws Exception {
+
+        var directory = this.nodes.get( 0 ).getBean( ClusterSessionDirectory.class );
+        try( var intruder = new Socket( "127.0.0.1", directory.getPort() ) ) {
+
+            var frame = new ClusterFrame( "node-1", List.of( new ClusterFrame.Online( "mallory" ) ) ).encode();
+            var out = new DataOutputStream( intruder.getOutputStream() );
+            out.writeInt( frame.length );
+            out.write( frame );
+            out.flush();
+
+            // the node hangs up without taking the announcement
+            assertThat( intruder.getInputStream().read() ).isEqualTo( -1 );
+            assertThat( directory.isUserLoggedIn( "mallory" ) ).isFalse();
+
+        }
+
+    }
+
+    @Test
+    void replayedFramesAreRefused() throws Exception {
+
+        var bob = connect( 1 );
+        login( bob, "bob" );
+
+        var directory = this.nodes.get( 0 ).getBean( ClusterSessionDirectory.class );
+        waitFor( () -> directory.isUserLoggedIn( "bob" ) );
+
+        try( var intruder = new Socket( "127.0.0.1", directory.getPort() ) ) {
+
+            // signed with the secret, but from an epoch before node 1 started, as a recording of an earlier run would be
+            var frame = new ClusterFrame( "node-1", List.of( new ClusterFrame.Online( "mallory" ) ) ).encode();
+            var sealed = ClusterFrame.seal( frame, new ClusterFrame.Position( 1, 1 ), ClusterFrame.secret( "cluster-test-secret" ) );
+            var out = new DataOutputStream( intruder.getOutputStream() );
+            out.writeInt( sealed.length );
+            out.write( sealed );
+            out.flush();
+
+            assertThat( intruder.getInputStream().read() ).isEqualTo( -1 );
+            assertThat( directory.isUserLoggedIn( "mallory" ) ).isFalse();
+            assertThat( directory.isUserLoggedIn( "bob" ) ).isTrue();
+
+        }
+
+    }
+
+    private Socket connect( int node ) throws IOException {
+
+        var socket = new Socket( "localhost", port( this.nodes.get( node ) ) );
+        this.sockets.add( socket );
+
+        return socket;
+    }
+
+}
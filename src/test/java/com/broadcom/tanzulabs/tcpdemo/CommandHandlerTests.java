@@ -13,14 +13,14 @@ import org.springframework.messaging.Message;
 import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
 
-import java.util.Map;
+import java.nio.charset.StandardCharsets;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
-@SpringJUnitConfig( classes = TcpConfig.class )
+@SpringJUnitConfig( classes = { TcpConfig.class, RoomService.class } )
 @SpringIntegrationTest( noAutoStartup = { "reply-tcp-endpoint", "tcp-request-endpoint" } )
 public class CommandHandlerTests {
 
@@ -39,7 +39,8 @@ public class CommandHandlerTests {
     @Test
     void testCommandLogin() {
 
-        when( this.mockClientService.login( fakeConnectionId, fakeUsername ) ).thenReturn( true );
+        // first login of the connection, the user was not online before
+        when( this.mockClientService.login( fakeConnectionId, fakeUsername ) ).thenReturn( new SessionDirectory.Login( true, null, false ) );
 
         ArgumentCaptor<Message<?>> messageArgumentCaptor = MockIntegration.messageArgumentCaptor();
         MockMessageHandler mockMessageHandler =
@@ -49,9 +50,9 @@ public class CommandHandlerTests {
         // Subscribe first to listen for returned messages, otherwise test will fail
         this.replyChannel.subscribe( mockMessageHandler );
 
-        Message<Map<String, String>> fakeMessage =
+        Message<Frame> fakeMessage =
                 MessageBuilder
-                        .withPayload( Map.of( "username", fakeUsername ) )
+                        .withPayload( new Frame( "command", "login", new Frame.Session( fakeUsername, null ) ) )
                         .setHeader( IpHeaders.CONNECTION_ID, fakeConnectionId )
                         .setHeader( "action", "login" )
                         .build();
@@ -60,13 +61,7 @@ public class CommandHandlerTests {
         this.commandChannel.send( fakeMessage );
 
         // Get the Message from the ArgumentCaptor, extract the payload and verify it's contents
-        assertThat( messageArgumentCaptor.getValue().getPayload() ).isEqualTo(
-                """
-                {
-                    'status': 'login succeeded!'
-                }
-                """
-        );
+        assertThat( new String( (byte[]) messageArgumentCaptor.getValue().getPayload(), StandardCharsets.UTF_8 ) ).isEqualTo( "{\"status\":\"login succeeded!\"}" );
 
         verify( this.mockClientService ).login( fakeConnectionId, fakeUsername );
         verifyNoMoreInteractions( this.mockClientService );
@@ -79,6 +74,7 @@ public class CommandHandlerTests {
     void testCommandLogout() {
 
         when( this.mockClientService.logout( fakeConnectionId, fakeUsername ) ).thenReturn( true );
+        when( this.mockClientService.isUserLoggedIn( fakeUsername ) ).thenReturn( false );
 
         ArgumentCaptor<Message<?>> messageArgumentCaptor = MockIntegration.messageArgumentCaptor();
         MockMessageHandler mockMessageHandler =
@@ -88,9 +84,9 @@ public class CommandHandlerTests {
         // Subscribe first to listen for returned messages, otherwise test will fail
         this.replyChannel.subscribe( mockMessageHandler );
 
-        Message<Map<String, String>> fakeMessage =
+        Message<Frame> fakeMessage =
                 MessageBuilder
-                        .withPayload( Map.of( "username", fakeUsername ) )
+                        .withPayload( new Frame( "command", "logout", new Frame.Session( fakeUsername, null ) ) )
                         .setHeader( IpHeaders.CONNECTION_ID, fakeConnectionId )
                         .setHeader( "action", "logout" )
                         .build();
@@ -99,15 +95,40 @@ public class CommandHandlerTests {
         this.commandChannel.send( fakeMessage );
 
         // Get the Message from the ArgumentCaptor, extract the payload and verify it's contents
-        assertThat( messageArgumentCaptor.getValue().getPayload() ).isEqualTo(
-                """
-                {
-                    'status': 'logout succeeded!'
-                }
-                """
-        );
+        assertThat( new String( (byte[]) messageArgumentCaptor.getValue().getPayload(), StandardCharsets.UTF_8 ) ).isEqualTo( "{\"status\":\"logout succeeded!\"}" );
 
         verify( this.mockClientService ).logout( fakeConnectionId, fakeUsername );
+        verify( this.mockClientService ).isUserLoggedIn( fakeUsername );
+        verifyNoMoreInteractions( this.mockClientService );
+
+        this.replyChannel.unsubscribe( mockMessageHandler );
+
+    }
+
+    @Test
+    void testCommandPing() {
+
+        ArgumentCaptor<Message<?>> messageArgumentCaptor = MockIntegration.messageArgumentCaptor();
+        MockMessageHandler mockMessageHandler =
+                MockIntegration.mockMessageHandler( messageArgumentCaptor )
+                        .handleNext( m -> {} );
+
+        // Subscribe first to listen for returned messages, otherwise test will fail
+        this.replyChannel.subscribe( mockMessageHandler );
+
+        Message<Frame> fakeMessage =
+                MessageBuilder
+                        .withPayload( new Frame( "command", "ping", Frame.NONE ) )
+                        .setHeader( IpHeaders.CONNECTION_ID, fakeConnectionId )
+                        .setHeader( "action", "ping" )
+                        .build();
+
+        // Send the message to the Command Channel
+        this.commandChannel.send( fakeMessage );
+
+        // Get the Message from the ArgumentCaptor, extract the payload and verify it's contents
+        assertThat( new String( (byte[]) messageArgumentCaptor.getValue().getPayload(), StandardCharsets.UTF_8 ) ).isEqualTo( "{\"status\":\"pong\"}" );
+
         verifyNoMoreInteractions( this.mockClientService );
 
         this.replyChannel.unsubscribe( mockMessageHandler );
@@ -0,0 +1,265 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DeliveryLogTest {
+
+    @TempDir
+    Path directory;
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    ExecutorService executor = Executors.newCachedThreadPool();
+
+    OutboundWriter outboundWriter = new OutboundWriter( executor, 16, 8, OutboundWriter.Overflow.DROP_OLDEST, 0, meterRegistry );
+
+    OfflineMessageStoreTest.RecordingConnection connection = new OfflineMessageStoreTest.RecordingConnection( "c1" );
+
+    ClientService clientService = new ClientService();
+
+    List<DeliveryLog> logs = new ArrayList<>();
+
+    @BeforeEach
+    void setup() {
+
+        outboundWriter.register( connection );
+        clientService.registerConnection( "c1" );
+
+    }
+
+    @AfterEach
+    void shutdown() {
+
+        logs.forEach( DeliveryLog::stop );
+        executor.shutdownNow();
+
+    }
+
+    @Test
+    void sendsToTheConnectedRecipientWithIds() throws Exception {
+
+        clientService.login( "c1", "client1" );
+        var subject = start( 100, 4096 );
+
+        for( int i = 0; i < 3; i++ ) {
+
+            assertThat( subject.append( "client1", frame( i ) ) ).isTrue();
+
+        }
+
+        assertThat( connection.next( 3 ) ).containsExactly( "{\"id\":1,\"n\":0}", "{\"id\":2,\"n\":1}", "{\"id\":3,\"n\":2}" );
+        assertThat( subject.getUnacked( "client1" ) ).isEqualTo( 3 );
+
+    }
+
+    @Test
+    void ackDropsEverythingUpToTheId() throws Exception {
+
+        clientService.login( "c1", "client1" );
+        var subject = start( 100, 4096 );
+
+        for( int i = 0; i < 3; i++ ) {
+
+            subject.append( "client1", frame( i ) );
+
+        }
+        connection.next( 3 );
+
+        subject.ack( "client1", 2 );
+        subject.flush().get( 5, TimeUnit.SECONDS );
+        assertThat( subject.getUnacked( "client1" ) ).isEqualTo( 1 );
+
+        subject.ack( "client1", 3 );
+        subject.flush().get( 5, TimeUnit.SECONDS );
+        assertThat( subject.getUnacked( "client1" ) ).isZero();
+        assertThat( meterRegistry.get( "tcp.delivery.unacked" ).gauge().value() ).isZero();
+
+    }
+
+    @Test
+    void redeliversWhatIsUnackedAtLogin() throws Exception {
+
+        clientService.login( "c1", "client1" );
+        var subject = start( 100, 4096 );
+
+        for( int i = 0; i < 3; i++ ) {
+
+            subject.append( "client1", frame( i ) );
+
+        }
+        connection.next( 3 );
+        subject.ack( "client1", 1 );
+
+        // logged in again, the two messages it never acknowledged come again
+        subject.deliver( "client1" );
+
+        assertThat( connection.next( 2 ) ).containsExactly( "{\"id\":2,\"n\":1}", "{\"id\":3,\"n\":2}" );
+        assertThat( meterRegistry.get( "tcp.delivery.redelivered" ).counter().count() ).isEqualTo( 2 );
+
+    }
+
+    @Test
+    void holdsMessagesUntilTheRecipientLogsIn() throws Exception {
+
+        var subject = start( 100, 4096 );
+
+        subject.append( "client1", frame( 0 ) );
+        subject.flush().get( 5, TimeUnit.SECONDS );
+        assertThat( connection.frames().poll( 100, TimeUnit.MILLISECONDS ) ).isNull();
+
+        clientService.login( "c1", "client1" );
+        subject.deliver( "client1" );
+
+        assertThat( connection.next( 1 ) ).containsExactly( "{\"id\":1,\"n\":0}" );
+
+    }
+
+    @Test
+    void survivesRestartAndKeepsCountingIds() throws Exception {
+
+        var first = start( 100, 64 );
+        for( int i = 0; i < 5; i++ ) {
+
+            first.append( "clienté", frame( i ) );
+
+        }
+        first.ack( "clienté", 2 );
+        first.flush().get( 5, TimeUnit.SECONDS );
+        first.stop();
+
+        // rolled and compacted along the way, only the live segment is left
+        try( var segments = Files.list( directory ) ) {
+
+            assertThat( segments.filter( p -> p.toString().endsWith( ".wal" ) ).count() ).isEqualTo( 1 );
+
+        }
+
+        var second = start( 100, 64 );
+        assertThat( second.getUnacked( "clienté" ) ).isEqualTo( 3 );
+
+        clientService.login( "c1", "clienté" );
+        second.deliver( "clienté" );
+        assertThat( connection.next( 3 ) ).containsExactly( "{\"id\":3,\"n\":2}", "{\"id\":4,\"n\":3}", "{\"id\":5,\"n\":4}" );
+
+        // nothing left to replay, the next id still follows the last one
+        second.ack( "clienté", 5 );
+        second.flush().get( 5, TimeUnit.SECONDS );
+        second.stop();
+
+        var third = start( 100, 64 );
+        assertThat( third.getUnacked( "clienté" ) ).isZero();
+
+        third.append( "clienté", frame( 5 ) );
+        assertThat( connection.next( 1 ) ).containsExactly( "{\"id\":6,\"n\":5}" );
+
+    }
+
+    @Test
+    void dropsOldestPastTheUnackedLimit() throws Exception {
+
+        var subject = start( 3, 4096 );
+
+        for( int i = 0; i < 5; i++ ) {
+
+            subject.append( "client1", frame( i ) );
+
+        }
+        subject.flush().get( 5, TimeUnit.SECONDS );
+        assertThat( subject.getUnacked( "client1" ) ).isEqualTo( 3 );
+        assertThat( meterRegistry.get( "tcp.delivery.dropped" ).counter().count() ).isEqualTo( 2 );
+
+        clientService.login( "c1", "client1" );
+        subject.deliver( "client1" );
+
+        assertThat( connection.next( 3 ) ).containsExactly( "{\"id\":3,\"n\":2}", "{\"id\":4,\"n\":3}", "{\"id\":5,\"n\":4}" );
+
+    }
+
+    @Test
+    void refusesAppendsPastTheUnackedBytes() throws Exception {
+
+        var subject = start( 100, Long.MAX_VALUE, 4096 );
+        subject.append( "client1", frame( 0 ) );
+        subject.flush().get( 5, TimeUnit.SECONDS );
+
+        var bytes = (long) meterRegistry.get( "tcp.delivery.unacked.bytes" ).gauge().value();
+        assertThat( bytes ).isGreaterThan( frame( 0 ).length );
+        subject.stop();
+
+        var capped = start( 100, 2 * bytes, 4096 );
+        assertThat( capped.append( "client1", frame( 1 ) ) ).isTrue();
+        capped.flush().get( 5, TimeUnit.SECONDS );
+        assertThat( capped.append( "client1", frame( 2 ) ) ).isFalse();
+        assertThat( meterRegistry.get( "tcp.delivery.refused" ).counter().count() ).isEqualTo( 1 );
+
+        // an ack makes room again
+        capped.ack( "client1", 2 );
+        capped.flush().get( 5, TimeUnit.SECONDS );
+        assertThat( capped.append( "client1", frame( 3 ) ) ).isTrue();
+
+    }
+
+    @Test
+    void rollsOnlyOnceMostOfTheSegmentIsAcknowledged() throws Exception {
+
+        var subject = start( 100, 64 );
+        for( int i = 0; i < 5; i++ ) {
+
+            subject.append( "client1", frame( i ) );
+
+        }
+        subject.flush().get( 5, TimeUnit.SECONDS );
+
+        // past the segment size, but all of it is still live
+        assertThat( segmentNames() ).containsExactly( "0000000000000001.wal" );
+
+        subject.ack( "client1", 5 );
+        subject.flush().get( 5, TimeUnit.SECONDS );
+        assertThat( segmentNames() ).containsExactly( "0000000000000002.wal" );
+
+    }
+
+    List<String> segmentNames() throws Exception {
+
+        try( var segments = Files.list( directory ) ) {
+
+            return segments.map( p -> p.getFileName().toString() ).filter( name -> name.endsWith( ".wal" ) ).toList();
+        }
+
+    }
+
+    DeliveryLog start( int maxUnackedPerUser, int segmentSize ) {
+
+        return start( maxUnackedPerUser, Long.MAX_VALUE, segmentSize );
+    }
+
+    DeliveryLog start( int maxUnackedPerUser, long maxUnackedBytes, int segmentSize ) {
+
+        var log = new DeliveryLog( directory, maxUnackedPerUser, maxUnackedBytes, segmentSize, 1024, true, clientService, outboundWriter, meterRegistry );
+        log.start();
+        logs.add( log );
+
+        return log;
+    }
+
+    static byte[] frame( int i ) {
+
+        return ( "{\"n\":" + i + "}" ).getBytes( StandardCharsets.UTF_8 );
+    }
+
+}
@@ -0,0 +1,113 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.login;
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.port;
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.readFrame;
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.send;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * One client floods the server as fast as it can write while another chats with itself at a steady pace, every one
+ * of the steady client's messages has to come back while the flood is what gets rejected. The steady client's p99
+ * round trip is measured alone first, and the flood may only stretch it by {@code MAX_P99_RATIO}.
+ */
+class FloodProtectionTests {
+
+    static final int ROUND_TRIPS = 200;
+
+    static final int MAX_P99_RATIO = 10;
+
+    // below this a p99 is scheduler noise on a loaded build machine rather than the flood
+    static final long MIN_P99_BOUND_NANOS = TimeUnit.MILLISECONDS.toNanos( 10 );
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void floodingClientDoesNotHurtOthers() throws Exception {
+
+        try( var context = ChatServerFixture.start( this.directory,
+                "tcp.server.limits.connection.frames-per-second=100",
+                "tcp.server.limits.connection.burst=100",
+                "tcp.server.limits.policy=drop" ) ) {
+
+            try( var flooder = new Socket( "localhost", port( context ) );
+                 var steady = new Socket( "localhost", port( context ) ) ) {
+
+                // a starved round trip fails the test instead of hanging it
+                steady.setSoTimeout( 5000 );
+                login( steady, "steady" );
+
+                var baseline = p99( steady );
+
+                var flood = Thread.ofPlatform().name( "flooder" ).start( () -> flood( flooder ) );
+                var flooded = p99( steady );
+
+                flooder.close();
+                flood.join();
+
+                var meterRegistry = context.getBean( MeterRegistry.class );
+                assertThat( meterRegistry.get( "tcp.limits.rejected" ).tags( "scope", "connection" ).counter().count() ).isGreaterThan( 1000 );
+                assertThat( flooded )
+                        .as( "p99 round trip with the flood, baseline %d us", TimeUnit.NANOSECONDS.toMicros( baseline ) )
+                        .isLessThanOrEqualTo( Math.max( baseline * MAX_P99_RATIO, MIN_P99_BOUND_NANOS ) );
+
+            }
+
+        }
+
+    }
+
+    private static long p99( Socket steady ) throws Exception {
+
+        var roundTrips = new long[ ROUND_TRIPS ];
+        for( int i = 0; i < ROUND_TRIPS; i++ ) {
+
+            var start = System.nanoTime();
+            send( steady, "{\"type\":\"chat\",\"payload\":{\"to\":\"steady\",\"message\":\"ping %d\"}}".formatted( i ) );
+            assertThat( readFrame( steady.getInputStream() ) ).contains( "ping " + i );
+            roundTrips[ i ] = System.nanoTime() - start;
+
+            // stays inside the 100 frames per second every connection is held to
+            Thread.sleep( 10 );
+
+        }
+
+        Arrays.sort( roundTrips );
+
+        return roundTrips[ (int) Math.ceil( ROUND_TRIPS * 0.99 ) - 1 ];
+    }
+
+    private static void flood( Socket socket ) {
+
+        var frame = "{\"type\":\"command\",\"action\":\"logout\",\"payload\":{\"username\":\"nobody\"}}\r\n".getBytes( StandardCharsets.UTF_8 );
+        try {
+
+            var out = new BufferedOutputStream( socket.getOutputStream(), 64 * 1024 );
+            while( !socket.isClosed() ) {
+
+                out.write( frame );
+
+            }
+
+        } catch( IOException e ) {
+
+            // closed by the test
+
+        }
+
+    }
+
+}
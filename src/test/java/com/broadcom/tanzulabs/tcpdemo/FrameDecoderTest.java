@@ -0,0 +1,182 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.support.GenericMessage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FrameDecoderTest {
+
+    FrameDecoder subject = new FrameDecoder();
+
+    @Test
+    void decodeCommand() throws IOException {
+
+        var actual = subject.decode(
+                """
+                {
+                    "type": "command",
+                    "action": "login",
+                    "payload": {
+                        "username": "client1"
+                     }
+                }
+                """.getBytes( StandardCharsets.UTF_8 ) );
+
+        assertThat( actual ).isEqualTo( new Frame( "command", "login", new Frame.Session( "client1", null ) ) );
+
+    }
+
+    @Test
+    void decodeChatInAnyFieldOrder() throws IOException {
+
+        var actual = subject.decode(
+                """
+                {
+                    "payload": {
+                        "message": "Hello \\"from\\" client1",
+                        "to": "client2"
+                     },
+                    "action": "sendMessage",
+                    "type": "chat"
+                }
+                """.getBytes( StandardCharsets.UTF_8 ) );
+
+        assertThat( actual ).isEqualTo( new Frame( "chat", "sendMessage", new Frame.Chat( "client2", null, "Hello \"from\" client1" ) ) );
+
+    }
+
+    @Test
+    void decodeSkipsUnknownFields() throws IOException {
+
+        var actual = subject.decode(
+                """
+                { "type": "chat", "extra": { "nested": [ 1, 2, { "a": "b" } ] }, "payload": { "to": "client2", "tags": [ "x" ] } }
+                """.getBytes( StandardCharsets.UTF_8 ) );
+
+        assertThat( actual ).isEqualTo( new Frame( "chat", null, new Frame.Chat( "client2", null, null ) ) );
+
+    }
+
+    @Test
+    void decodeSkipsStructuredStringFields() throws IOException {
+
+        var actual = subject.decode(
+                """
+                { "type": "command", "action": "login", "payload": { "username": { "username": "mallory" }, "encoding": [ "x" ], "to": "client1" } }
+                """.getBytes( StandardCharsets.UTF_8 ) );
+
+        assertThat( actual ).isEqualTo( new Frame( "command", "login", new Frame.Session( null, null ) ) );
+
+    }
+
+    @Test
+    void payloadBeforeItsActionStillDecodesToTheActionsRecord() throws IOException {
+
+        var actual = subject.decode(
+                """
+                { "payload": { "with": "client2", "before": 1700000000000, "limit": 20, "to": "ignored" }, "type": "chat", "action": "history" }
+                """.getBytes( StandardCharsets.UTF_8 ) );
+
+        assertThat( actual.payload() ).isEqualTo( new Frame.History( "client2", 1700000000000L, 20 ) );
+
+    }
+
+    @Test
+    void framesWithoutAPayloadGetAnEmptyOne() throws IOException {
+
+        var actual = subject.decode( "{ \"type\": \"command\", \"action\": \"logout\" }".getBytes( StandardCharsets.UTF_8 ) );
+
+        assertThat( actual.payload() ).isEqualTo( new Frame.Session( null, null ) );
+
+    }
+
+    @Test
+    void decodeBatchEntries() throws IOException {
+
+        var actual = subject.decode(
+                """
+                { "type": "chat", "action": "sendBatch", "payload": { "entries": [
+                    { "to": "client2", "message": "one", "extra": [ 1 ] },
+                    "not an entry",
+                    { "message": "no recipient" }
+                ] } }
+                """.getBytes( StandardCharsets.UTF_8 ) );
+
+        assertThat( actual.payload( Frame.Batch.class ).entries() )
+                .containsExactly( new Frame.Entry( "client2", "one" ), Frame.Entry.EMPTY, new Frame.Entry( null, "no recipient" ) );
+
+    }
+
+    @Test
+    void decodePresenceUsers() throws IOException {
+
+        var actual = subject.decode(
+                """
+                { "type": "command", "action": "subscribePresence", "payload": { "users": [ "alice", 42, { "x": 1 }, "bob" ] } }
+                """.getBytes( StandardCharsets.UTF_8 ) );
+
+        assertThat( actual.payload( Frame.Presence.class ).users() ).containsExactly( "alice", "bob" );
+
+    }
+
+    @Test
+    void decodeBinaryEncodings() throws IOException {
+
+        var json =
+                """
+                { "type": "command", "action": "login", "payload": { "username": "client1", "encoding": "cbor" } }
+                """.getBytes( StandardCharsets.UTF_8 );
+        var expected = new Frame( "command", "login", new Frame.Session( "client1", "cbor" ) );
+
+        assertThat( subject.decode( MessageEncoding.SMILE.fromJson( json ) ) ).isEqualTo( expected );
+        assertThat( subject.decode( MessageEncoding.CBOR.fromJson( json ) ) ).isEqualTo( expected );
+
+    }
+
+    @Test
+    void decodeReleasesPooledFrames() {
+
+        var pool = new BufferPool( 64, 1024, 2, true, true, new SimpleMeterRegistry() );
+        var json = "{ \"type\": \"command\", \"action\": \"ping\" }".getBytes( StandardCharsets.UTF_8 );
+        var buffer = pool.acquire( json.length );
+        buffer.write( json, 0, json.length );
+
+        var decoded = subject.handleRequestMessage( new GenericMessage<>( buffer ) );
+
+        assertThat( decoded ).isInstanceOfSatisfying( Message.class, message ->
+                assertThat( message.getPayload() ).isEqualTo( new Frame( "command", "ping", Frame.NONE ) ) );
+        assertThat( pool.getOutstanding() ).isZero();
+
+    }
+
+    @Test
+    void decodeLeavesFailedPooledFramesToTheErrorHandler() {
+
+        var pool = new BufferPool( 64, 1024, 2, true, true, new SimpleMeterRegistry() );
+        var json = "[ 1, 2 ]".getBytes( StandardCharsets.UTF_8 );
+        var buffer = pool.acquire( json.length );
+        buffer.write( json, 0, json.length );
+
+        assertThatThrownBy( () -> subject.handleRequestMessage( new GenericMessage<>( buffer ) ) )
+                .isInstanceOfSatisfying( MessagingException.class, e -> PooledBuffer.release( e.getFailedMessage().getPayload() ) );
+        assertThat( pool.getOutstanding() ).isZero();
+
+    }
+
+    @Test
+    void decodeRejectsNonObject() {
+
+        assertThatThrownBy( () -> subject.decode( "[ 1, 2 ]".getBytes( StandardCharsets.UTF_8 ) ) )
+                .isInstanceOf( IOException.class );
+
+    }
+
+}
@@ -0,0 +1,152 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import org.junit.jupiter.api.Test;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FramingTest {
+
+    static final byte[] FRAME = "{ \"type\": \"chat\" }".getBytes( StandardCharsets.UTF_8 );
+
+    @ParameterizedTest
+    @ValueSource( strings = { "crlf", "length-header", "stx-etx" } )
+    void roundTrip( String framing ) throws IOException {
+
+        var serializer = Framing.of( framing ).serializer( 2048, -1 );
+
+        var out = new ByteArrayOutputStream();
+        serializer.serialize( FRAME, out );
+        serializer.serialize( FRAME, out );
+
+        var in = new ByteArrayInputStream( out.toByteArray() );
+        assertThat( serializer.deserialize( in ) ).isEqualTo( FRAME );
+        assertThat( serializer.deserialize( in ) ).isEqualTo( FRAME );
+
+    }
+
+    @ParameterizedTest
+    @CsvSource( { "crlf,false", "length-header,false", "stx-etx,false", "crlf,true", "length-header,true", "stx-etx,true" } )
+    void pooledRoundTrip( String framing, boolean direct ) throws IOException {
+
+        var pool = new BufferPool( 16, 4096, 4, direct, true, new SimpleMeterRegistry() );
+        var wire = Framing.of( framing ).serializer( 2048, -1 );
+        var subject = new BatchingSerializer( wire, pool );
+
+        // framed the same as the Spring serializer would, single frames and batches alike
+        var out = new ByteArrayOutputStream();
+        subject.serialize( FRAME, out );
+        subject.serialize( new FrameBatch( List.of( FRAME, FRAME ) ), out );
+
+        var expected = new ByteArrayOutputStream();
+        for( int i = 0; i < 3; i++ ) {
+
+            wire.serialize( FRAME, expected );
+
+        }
+        assertThat( out.toByteArray() ).isEqualTo( expected.toByteArray() );
+
+        var deserializer = new PooledFrameDeserializer( Framing.of( framing ), 2048, pool );
+        var in = new ByteArrayInputStream( out.toByteArray() );
+        for( int i = 0; i < 3; i++ ) {
+
+            var frame = deserializer.deserialize( in );
+            assertThat( bytes( frame ) ).isEqualTo( FRAME );
+            assertThat( frame.release() ).isTrue();
+
+        }
+
+        assertThat( pool.getOutstanding() ).isZero();
+
+    }
+
+    @ParameterizedTest
+    @ValueSource( strings = { "crlf", "length-header", "stx-etx" } )
+    void pooledReadRejectsOversizedFrames( String framing ) throws IOException {
+
+        var pool = new BufferPool( 16, 4096, 4, false, true, new SimpleMeterRegistry() );
+
+        var out = new ByteArrayOutputStream();
+        Framing.of( framing ).serializer( 2048, -1 ).serialize( FRAME, out );
+
+        var subject = new PooledFrameDeserializer( Framing.of( framing ), 8, pool );
+        assertThatThrownBy( () -> subject.deserialize( new ByteArrayInputStream( out.toByteArray() ) ) ).isInstanceOf( IOException.class );
+        assertThat( pool.getOutstanding() ).isZero();
+
+    }
+
+    @Test
+    void lengthHeaderCarriesNewlines() throws IOException {
+
+        var serializer = Framing.LENGTH_HEADER.serializer( 2048, -1 );
+        var frame = "line one\r\nline two".getBytes( StandardCharsets.UTF_8 );
+
+        var out = new ByteArrayOutputStream();
+        serializer.serialize( frame, out );
+
+        assertThat( serializer.deserialize( new ByteArrayInputStream( out.toByteArray() ) ) ).isEqualTo( frame );
+
+    }
+
+    @Test
+    void unknownFraming() {
+
+        assertThatThrownBy( () -> Framing.of( "morse" ) ).isInstanceOf( IllegalArgumentException.class );
+
+    }
+
+    @ParameterizedTest
+    @ValueSource( strings = { "crlf", "length-header", "stx-etx" } )
+    void autoDetect( String framing ) throws IOException {
+
+        var serializers = AutoDetectFraming.Serializers.of( 2048, -1 );
+        var wire = Framing.of( framing ).serializer( 2048, -1 );
+
+        var out = new ByteArrayOutputStream();
+        wire.serialize( FRAME, out );
+        wire.serialize( FRAME, out );
+
+        var subject = new AutoDetectFraming( serializers );
+        var in = new ByteArrayInputStream( out.toByteArray() );
+        assertThat( subject.deserialize( in ) ).isEqualTo( FRAME );
+        assertThat( subject.deserialize( in ) ).isEqualTo( FRAME );
+        assertThat( subject.getDetected() ).isEqualTo( Framing.of( framing ) );
+
+        // the same detection reading into pooled buffers
+        var pool = new BufferPool( 16, 4096, 4, false, true, new SimpleMeterRegistry() );
+        var pooled = new AutoDetectFraming( AutoDetectFraming.Serializers.of( 2048, -1, pool ) );
+        var frame = (PooledBuffer) pooled.deserialize( new ByteArrayInputStream( out.toByteArray() ) );
+        assertThat( bytes( frame ) ).isEqualTo( FRAME );
+        frame.release();
+        assertThat( pooled.getDetected() ).isEqualTo( Framing.of( framing ) );
+
+        // replies go back in the framing the client used
+        var expected = new ByteArrayOutputStream();
+        wire.serialize( FRAME, expected );
+
+        var reply = new ByteArrayOutputStream();
+        subject.serialize( FRAME, reply );
+        assertThat( reply.toByteArray() ).isEqualTo( expected.toByteArray() );
+
+    }
+
+    private static byte[] bytes( PooledBuffer frame ) {
+
+        var readable = frame.readable();
+        var bytes = new byte[ readable.remaining() ];
+        readable.get( bytes );
+
+        return bytes;
+    }
+
+}
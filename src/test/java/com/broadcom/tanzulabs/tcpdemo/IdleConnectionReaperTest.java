@@ -0,0 +1,126 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IdleConnectionReaperTest {
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    AtomicLong now = new AtomicLong( TimeUnit.SECONDS.toNanos( 1000 ) );
+
+    List<String> pinged = new ArrayList<>();
+
+    List<String> closed = new ArrayList<>();
+
+    // 30s timeout, ping after 10s, a 16 slot wheel of 1s ticks so checks wrap around it
+    IdleConnectionReaper subject =
+            new IdleConnectionReaper(
+                    Duration.ofSeconds( 30 ), Duration.ofSeconds( 10 ), Duration.ofSeconds( 1 ), 16,
+                    ( connectionId, frame ) -> this.pinged.add( connectionId ), this.closed::add, this.meterRegistry, this.now::get );
+
+    @Test
+    void idleConnectionIsPingedThenClosed() {
+
+        subject.register( "c1" );
+
+        advance( 9 );
+        assertThat( this.pinged ).isEmpty();
+
+        advance( 2 );
+        assertThat( this.pinged ).containsExactly( "c1" );
+        assertThat( this.closed ).isEmpty();
+
+        advance( 20 );
+        assertThat( this.closed ).containsExactly( "c1" );
+        assertThat( subject.getTrackedCount() ).isZero();
+        assertThat( this.meterRegistry.get( "tcp.idle.closed" ).counter().count() ).isEqualTo( 1 );
+
+    }
+
+    @Test
+    void answeredPingKeepsTheConnection() {
+
+        subject.register( "c1" );
+
+        advance( 11 );
+        assertThat( this.pinged ).containsExactly( "c1" );
+
+        subject.touch( "c1" );
+        advance( 25 );
+        assertThat( this.closed ).isEmpty();
+
+        // pinged again 10s after the pong, closed 30s after it
+        assertThat( this.pinged ).containsExactly( "c1", "c1" );
+        advance( 6 );
+        assertThat( this.closed ).containsExactly( "c1" );
+
+    }
+
+    @Test
+    void busyConnectionIsNeverPinged() {
+
+        subject.register( "c1" );
+
+        for( int i = 0; i < 100; i++ ) {
+
+            advance( 5 );
+            subject.touch( "c1" );
+
+        }
+
+        assertThat( this.pinged ).isEmpty();
+        assertThat( this.closed ).isEmpty();
+
+    }
+
+    @Test
+    void closedConnectionIsForgotten() {
+
+        subject.register( "c1" );
+        subject.unregister( "c1" );
+
+        advance( 60 );
+
+        assertThat( this.pinged ).isEmpty();
+        assertThat( this.closed ).isEmpty();
+        assertThat( subject.getTrackedCount() ).isZero();
+
+    }
+
+    @Test
+    void disabledTimeoutTracksNothing() {
+
+        var disabled =
+                new IdleConnectionReaper(
+                        Duration.ZERO, Duration.ofSeconds( 10 ), Duration.ofSeconds( 1 ), 16,
+                        ( connectionId, frame ) -> this.pinged.add( connectionId ), this.closed::add, this.meterRegistry, this.now::get );
+
+        disabled.register( "c1" );
+        disabled.expire( this.now.addAndGet( TimeUnit.SECONDS.toNanos( 60 ) ) );
+
+        assertThat( disabled.getTrackedCount() ).isZero();
+        assertThat( this.closed ).isEmpty();
+
+    }
+
+    // one second at a time, the way the reaper thread ticks
+    private void advance( int seconds ) {
+
+        for( int i = 0; i < seconds; i++ ) {
+
+            subject.expire( this.now.addAndGet( TimeUnit.SECONDS.toNanos( 1 ) ) );
+
+        }
+
+    }
+
+}
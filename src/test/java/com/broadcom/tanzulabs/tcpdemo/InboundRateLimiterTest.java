@@ -0,0 +1,185 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.integration.ip.IpHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class InboundRateLimiterTest {
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    ClientService clientService = new ClientService();
+
+    AtomicLong now = new AtomicLong( TimeUnit.SECONDS.toNanos( 1000 ) );
+
+    List<String> closed = new ArrayList<>();
+
+    @Test
+    void connectionGetsItsBurstThenTheRate() {
+
+        var subject = subject( new InboundRateLimiter.Limit( 10, 5 ), InboundRateLimiter.Limit.NONE, InboundRateLimiter.Policy.DROP );
+
+        assertThat( accepted( subject, "c1", 20 ) ).isEqualTo( 5 );
+
+        // 10 per second, one frame every 100ms
+        this.now.addAndGet( TimeUnit.MILLISECONDS.toNanos( 300 ) );
+        assertThat( accepted( subject, "c1", 20 ) ).isEqualTo( 3 );
+
+        // other connections are not affected
+        assertThat( accepted( subject, "c2", 5 ) ).isEqualTo( 5 );
+        assertThat( this.meterRegistry.get( "tcp.limits.rejected" ).tags( "scope", "connection" ).counter().count() ).isEqualTo( 32 );
+
+    }
+
+    @Test
+    void userLimitIsSharedAcrossConnections() {
+
+        var subject = subject( InboundRateLimiter.Limit.NONE, new InboundRateLimiter.Limit( 10, 4 ), InboundRateLimiter.Policy.DROP );
+        login( "c1", "client1" );
+        assertThat( accepted( subject, "c1", 3 ) ).isEqualTo( 3 );
+
+        // logging in again elsewhere does not start a fresh bucket
+        login( "c2", "client1" );
+        assertThat( accepted( subject, "c2", 3 ) ).isEqualTo( 1 );
+        assertThat( this.meterRegistry.get( "tcp.limits.rejected" ).tags( "scope", "user" ).counter().count() ).isEqualTo( 2 );
+
+    }
+
+    @Test
+    void closePolicyClosesOnce() {
+
+        var subject = subject( new InboundRateLimiter.Limit( 10, 1 ), InboundRateLimiter.Limit.NONE, InboundRateLimiter.Policy.CLOSE );
+
+        accepted( subject, "c1", 3 );
+
+        assertThat( this.closed ).containsExactly( "c1" );
+        assertThat( this.meterRegistry.get( "tcp.limits.connections.closed" ).counter().count() ).isEqualTo( 1 );
+
+    }
+
+    @Test
+    void closePolicyClosesOnceForTheUserLimitToo() {
+
+        var subject = subject( InboundRateLimiter.Limit.NONE, new InboundRateLimiter.Limit( 10, 1 ), InboundRateLimiter.Policy.CLOSE );
+        login( "c1", "client1" );
+
+        accepted( subject, "c1", 3 );
+
+        assertThat( this.closed ).containsExactly( "c1" );
+        assertThat( this.meterRegistry.get( "tcp.limits.connections.closed" ).counter().count() ).isEqualTo( 1 );
+
+    }
+
+    @Test
+    void throttlePolicyWaitsInsteadOfRejecting() {
+
+        var subject =
+                new InboundRateLimiter(
+                        new InboundRateLimiter.Limit( 1000, 1 ), InboundRateLimiter.Limit.NONE, InboundRateLimiter.Policy.THROTTLE,
+                        this.clientService, this.closed::add, this.meterRegistry );
+
+        var start = System.nanoTime();
+        assertThat( accepted( subject, "c1", 11 ) ).isEqualTo( 11 );
+
+        // ten frames past the burst at 1ms each
+        assertThat( System.nanoTime() - start ).isGreaterThanOrEqualTo( TimeUnit.MILLISECONDS.toNanos( 9 ) );
+        assertThat( this.meterRegistry.get( "tcp.limits.throttled" ).timer().count() ).isPositive();
+
+    }
+
+    @Test
+    void refilledUserBucketIsReleasedWithTheConnection() {
+
+        var subject = subject( InboundRateLimiter.Limit.NONE, new InboundRateLimiter.Limit( 10, 2 ), InboundRateLimiter.Policy.DROP );
+        login( "c1", "client1" );
+        login( "c2", "client2" );
+
+        accepted( subject, "c1", 2 );
+        accepted( subject, "c2", 2 );
+
+        subject.removeConnection( "c1", "client1" );
+        assertThat( subject.getUserBucketCount() ).isEqualTo( 2 );
+
+        this.now.addAndGet( TimeUnit.SECONDS.toNanos( 1 ) );
+        subject.removeConnection( "c1", "client1" );
+        assertThat( subject.getUserBucketCount() ).isEqualTo( 1 );
+
+    }
+
+    @Test
+    void bucketsOfUsersThatLoggedOutAreSweptOnceRefilled() {
+
+        var subject = subject( InboundRateLimiter.Limit.NONE, new InboundRateLimiter.Limit( 10, 2 ), InboundRateLimiter.Policy.DROP );
+        login( "c1", "client1" );
+        accepted( subject, "c1", 2 );
+
+        // the close no longer knows the user
+        this.clientService.logout( "c1", "client1" );
+        subject.removeConnection( "c1", null );
+        assertThat( subject.getUserBucketCount() ).isEqualTo( 1 );
+
+        this.now.addAndGet( TimeUnit.SECONDS.toNanos( 11 ) );
+        login( "c2", "client2" );
+        accepted( subject, "c2", 1 );
+        assertThat( subject.getUserBucketCount() ).isEqualTo( 1 );
+
+    }
+
+    @Test
+    void bucketOfAFrameReadAfterTheCloseIsSweptOnceRefilled() {
+
+        var subject = subject( new InboundRateLimiter.Limit( 10, 2 ), InboundRateLimiter.Limit.NONE, InboundRateLimiter.Policy.DROP );
+        accepted( subject, "c1", 2 );
+        subject.removeConnection( "c1", null );
+        assertThat( subject.getConnectionBucketCount() ).isZero();
+
+        // a frame still in flight when the connection was removed
+        accepted( subject, "c1", 1 );
+        assertThat( subject.getConnectionBucketCount() ).isEqualTo( 1 );
+
+        this.now.addAndGet( TimeUnit.SECONDS.toNanos( 11 ) );
+        accepted( subject, "c2", 1 );
+        assertThat( subject.getConnectionBucketCount() ).isEqualTo( 1 );
+
+    }
+
+    private InboundRateLimiter subject( InboundRateLimiter.Limit connectionLimit, InboundRateLimiter.Limit userLimit, InboundRateLimiter.Policy policy ) {
+
+        return new InboundRateLimiter( connectionLimit, userLimit, policy, this.clientService, this.closed::add, this.meterRegistry, this.now::get );
+    }
+
+    private void login( String connectionId, String username ) {
+
+        this.clientService.registerConnection( connectionId );
+        this.clientService.login( connectionId, username );
+
+    }
+
+    private static int accepted( InboundRateLimiter subject, String connectionId, int frames ) {
+
+        Message<byte[]> message = MessageBuilder.withPayload( new byte[ 0 ] ).setHeader( IpHeaders.CONNECTION_ID, connectionId ).build();
+
+        var accepted = 0;
+        for( int i = 0; i < frames; i++ ) {
+
+            if( subject.accept( message ) ) {
+
+                accepted++;
+
+            }
+
+        }
+
+        return accepted;
+    }
+
+}
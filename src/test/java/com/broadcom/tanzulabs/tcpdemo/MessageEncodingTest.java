@@ -0,0 +1,84 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import com.fasterxml.jackson.core.JsonToken;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MessageEncodingTest {
+
+    ResponseEncoder responseEncoder = new ResponseEncoder();
+
+    @ParameterizedTest
+    @EnumSource( MessageEncoding.class )
+    void transcodedFrameKeepsEveryToken( MessageEncoding encoding ) throws IOException {
+
+        var json = this.responseEncoder.roomChatResponse( "lobby", "client1", "Hello \"from\" client1 é中" );
+
+        var encoded = encoding.fromJson( json );
+
+        assertThat( MessageEncoding.detect( encoded ) ).isEqualTo( encoding );
+        assertThat( tokens( encoding, encoded ) ).isEqualTo( tokens( MessageEncoding.JSON, json ) );
+
+    }
+
+    @Test
+    void binaryFramesAreSmaller() throws IOException {
+
+        var json = this.responseEncoder.chatResponse( "client1", "Hello from client1, how is everyone doing today?" );
+
+        assertThat( MessageEncoding.SMILE.fromJson( json ) ).hasSizeLessThan( json.length );
+        assertThat( MessageEncoding.CBOR.fromJson( json ) ).hasSizeLessThan( json.length );
+
+    }
+
+    @Test
+    void jsonIsNotTranscoded() throws IOException {
+
+        assertThat( MessageEncoding.JSON.fromJson( ResponseEncoder.PONG ) ).isSameAs( ResponseEncoder.PONG );
+
+    }
+
+    @Test
+    void detectTextFrames() {
+
+        assertThat( MessageEncoding.detect( "{\"type\":\"chat\"}".getBytes( StandardCharsets.UTF_8 ) ) ).isEqualTo( MessageEncoding.JSON );
+        assertThat( MessageEncoding.detect( "  {}".getBytes( StandardCharsets.UTF_8 ) ) ).isEqualTo( MessageEncoding.JSON );
+        assertThat( MessageEncoding.detect( new byte[ 0 ] ) ).isEqualTo( MessageEncoding.JSON );
+
+    }
+
+    @Test
+    void ofIgnoresCase() {
+
+        assertThat( MessageEncoding.of( "Smile" ) ).isEqualTo( MessageEncoding.SMILE );
+        assertThatThrownBy( () -> MessageEncoding.of( "msgpack" ) ).isInstanceOf( IllegalArgumentException.class );
+
+    }
+
+    private static List<String> tokens( MessageEncoding encoding, byte[] frame ) throws IOException {
+
+        var tokens = new ArrayList<String>();
+        try( var parser = encoding.createParser( frame ) ) {
+
+            JsonToken token;
+            while( ( token = parser.nextToken() ) != null ) {
+
+                tokens.add( token + " " + parser.getText() );
+
+            }
+
+        }
+
+        return tokens;
+    }
+
+}
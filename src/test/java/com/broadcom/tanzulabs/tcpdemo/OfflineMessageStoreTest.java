@@ -0,0 +1,322 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OfflineMessageStoreTest {
+
+    @TempDir
+    Path directory;
+
+    ExecutorService executor = Executors.newCachedThreadPool();
+
+    OutboundWriter outboundWriter = new OutboundWriter( executor, 4, 8, OutboundWriter.Overflow.DROP_OLDEST, 0, new SimpleMeterRegistry() );
+
+    RecordingConnection connection = new RecordingConnection( "c1" );
+
+    // never finishes a write until the test is over
+    CountDownLatch stuck = new CountDownLatch( 1 );
+
+    List<OfflineMessageStore> stores = new ArrayList<>();
+
+    @BeforeEach
+    void setup() {
+
+        outboundWriter.register( connection );
+        outboundWriter.register( new StuckConnection( "stuck", stuck ) );
+
+    }
+
+    @AfterEach
+    void shutdown() {
+
+        stuck.countDown();
+        stores.forEach( OfflineMessageStore::stop );
+        executor.shutdownNow();
+
+    }
+
+    @Test
+    void replaysInOrderOnDeliver() throws Exception {
+
+        var subject = start( 100, Duration.ofHours( 1 ), 4096 );
+        subject.remember( "client1" );
+
+        // more than the outbound queue holds, replay has to pace itself
+        for( int i = 0; i < 20; i++ ) {
+
+            assertThat( subject.append( "client1", frame( i ) ) ).isTrue();
+
+        }
+        assertThat( subject.hasPending( "client1" ) ).isTrue();
+
+        subject.deliver( "client1", "c1" );
+
+        assertThat( connection.next( 20 ) ).containsExactly( texts( 0, 20 ) );
+        subject.flush().get( 5, TimeUnit.SECONDS );
+        assertThat( subject.hasPending( "client1" ) ).isFalse();
+        assertThat( subject.getStoredBytes() ).isZero();
+        assertThat( directory.toFile().list() ).containsExactly( "known-users" );
+
+    }
+
+    @Test
+    void dropsOldestPastTheBacklogLimit() throws Exception {
+
+        var subject = start( 3, Duration.ofHours( 1 ), 4096 );
+        subject.remember( "client1" );
+
+        for( int i = 0; i < 5; i++ ) {
+
+            subject.append( "client1", frame( i ) );
+
+        }
+        subject.flush().get( 5, TimeUnit.SECONDS );
+        assertThat( subject.getPending( "client1" ) ).isEqualTo( 3 );
+
+        subject.deliver( "client1", "c1" );
+
+        assertThat( connection.next( 3 ) ).containsExactly( "2", "3", "4" );
+
+    }
+
+    @Test
+    void discardsExpiredMessages() throws Exception {
+
+        var subject = start( 100, Duration.ofMillis( 1 ), 4096 );
+        subject.remember( "client1" );
+
+        subject.append( "client1", frame( 0 ) );
+        subject.flush().get( 5, TimeUnit.SECONDS );
+        Thread.sleep( 10 );
+
+        subject.deliver( "client1", "c1" );
+        subject.flush().get( 5, TimeUnit.SECONDS );
+
+        assertThat( subject.hasPending( "client1" ) ).isFalse();
+        assertThat( connection.frames.poll( 100, TimeUnit.MILLISECONDS ) ).isNull();
+
+    }
+
+    @Test
+    void survivesRestartAcrossSegments() throws Exception {
+
+        var first = start( 100, Duration.ofHours( 1 ), 64 );
+        first.remember( "clienté" );
+        for( int i = 0; i < 10; i++ ) {
+
+            first.append( "clienté", frame( i ) );
+
+        }
+        first.flush().get( 5, TimeUnit.SECONDS );
+        first.stop();
+
+        try( var segments = Files.walk( directory ) ) {
+
+            assertThat( segments.filter( p -> p.toString().endsWith( ".seg" ) ).count() ).isGreaterThan( 1 );
+
+        }
+
+        var second = start( 100, Duration.ofHours( 1 ), 64 );
+        assertThat( second.getPending( "clienté" ) ).isEqualTo( 10 );
+
+        second.deliver( "clienté", "c1" );
+
+        assertThat( connection.next( 10 ) ).containsExactly( texts( 0, 10 ) );
+
+    }
+
+    @Test
+    void keepsTheRestWhenTheConnectionIsGone() throws Exception {
+
+        var subject = start( 100, Duration.ofHours( 1 ), 4096 );
+        subject.remember( "client1" );
+
+        subject.append( "client1", frame( 0 ) );
+        subject.deliver( "client1", "missing" );
+        subject.flush().get( 5, TimeUnit.SECONDS );
+
+        assertThat( subject.getPending( "client1" ) ).isEqualTo( 1 );
+
+    }
+
+    @Test
+    void storesOnlyForKnownUsersWithinTheCaps() throws Exception {
+
+        var subject = start( 100, 2, 64, Duration.ofHours( 1 ), 4096 );
+
+        assertThat( subject.append( "nobody", frame( 0 ) ) ).isFalse();
+
+        subject.remember( "client1" );
+        subject.remember( "client2" );
+        subject.remember( "client3" );
+        assertThat( subject.append( "client1", frame( 1 ) ) ).isTrue();
+        assertThat( subject.append( "client2", frame( 2 ) ) ).isTrue();
+
+        // a third recipient, then more bytes than the store holds
+        assertThat( subject.append( "client3", frame( 3 ) ) ).isFalse();
+        assertThat( subject.append( "client1", new byte[ 64 ] ) ).isFalse();
+        subject.flush().get( 5, TimeUnit.SECONDS );
+        assertThat( subject.getStoredBytes() ).isEqualTo( 2 * ( 12 + 1 ) );
+
+        // client3 is remembered across a restart and stored for once there is room
+        subject.stop();
+        var second = start( 100, 2, 64, Duration.ofHours( 1 ), 4096 );
+        assertThat( second.getStoredBytes() ).isEqualTo( 2 * ( 12 + 1 ) );
+
+        second.deliver( "client1", "c1" );
+        assertThat( connection.next( 1 ) ).containsExactly( "1" );
+        second.flush().get( 5, TimeUnit.SECONDS );
+
+        assertThat( second.append( "client3", frame( 3 ) ) ).isTrue();
+
+    }
+
+    @Test
+    void aStalledReplayNeitherBlocksTheWriterNorRepeatsAfterARestart() throws Exception {
+
+        var first = start( 100, Duration.ofHours( 1 ), 4096 );
+        first.remember( "client1" );
+        for( int i = 0; i < 20; i++ ) {
+
+            first.append( "client1", frame( i ) );
+
+        }
+
+        first.deliver( "client1", "stuck" );
+
+        // the replay is left waiting for room, the writer keeps going
+        var start = System.nanoTime();
+        first.flush().get( 5, TimeUnit.SECONDS );
+        assertThat( TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ) ).isLessThan( 1000 );
+
+        first.stop();
+        var left = first.getPending( "client1" );
+        assertThat( left ).isBetween( 1, 19 );
+
+        // what was replayed before the restart is not sent again
+        var second = start( 100, Duration.ofHours( 1 ), 4096 );
+        assertThat( second.getPending( "client1" ) ).isEqualTo( left );
+
+        second.deliver( "client1", "c1" );
+
+        assertThat( connection.next( left ) ).containsExactly( texts( 20 - left, 20 ) );
+
+    }
+
+    OfflineMessageStore start( int maxMessagesPerUser, Duration ttl, int segmentSize ) {
+
+        return start( maxMessagesPerUser, 100, Long.MAX_VALUE, ttl, segmentSize );
+    }
+
+    OfflineMessageStore start( int maxMessagesPerUser, int maxRecipients, long maxBytes, Duration ttl, int segmentSize ) {
+
+        var store = new OfflineMessageStore( directory, maxMessagesPerUser, maxRecipients, maxBytes, ttl, segmentSize, 1024, true, outboundWriter );
+        store.start();
+        stores.add( store );
+
+        return store;
+    }
+
+    static byte[] frame( int i ) {
+
+        return String.valueOf( i ).getBytes( StandardCharsets.UTF_8 );
+    }
+
+    static String[] texts( int from, int to ) {
+
+        var texts = new String[ to - from ];
+        for( int i = from; i < to; i++ ) {
+
+            texts[ i - from ] = String.valueOf( i );
+
+        }
+
+        return texts;
+    }
+
+    record StuckConnection( String connectionId, CountDownLatch stuck ) implements OutboundConnection {
+
+        @Override
+        public String getConnectionId() {
+
+            return this.connectionId;
+        }
+
+        @Override
+        public void write( List<byte[]> frames ) throws InterruptedException {
+
+            this.stuck.await();
+
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+    record RecordingConnection( String connectionId, BlockingQueue<String> frames ) implements OutboundConnection {
+
+        RecordingConnection( String connectionId ) {
+
+            this( connectionId, new LinkedBlockingQueue<>() );
+
+        }
+
+        List<String> next( int count ) throws InterruptedException {
+
+            var received = new ArrayList<String>();
+            for( int i = 0; i < count; i++ ) {
+
+                var frame = this.frames.poll( 5, TimeUnit.SECONDS );
+                if( frame == null ) {
+
+                    break;
+                }
+
+                received.add( frame );
+
+            }
+
+            return received;
+        }
+
+        @Override
+        public String getConnectionId() {
+
+            return this.connectionId;
+        }
+
+        @Override
+        public void write( List<byte[]> frames ) {
+
+            frames.forEach( frame -> this.frames.add( new String( frame, StandardCharsets.UTF_8 ) ) );
+
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+}
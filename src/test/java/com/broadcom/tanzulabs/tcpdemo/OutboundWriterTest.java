@@ -0,0 +1,222 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OutboundWriterTest {
+
+    ExecutorService executor = Executors.newCachedThreadPool();
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @AfterEach
+    void shutdown() {
+
+        executor.shutdownNow();
+
+    }
+
+    @Test
+    void coalescesQueuedFrames() throws Exception {
+
+        var subject = new OutboundWriter( executor, 16, 8, OutboundWriter.Overflow.DROP_OLDEST, 0, meterRegistry );
+        var connection = new StubConnection( "c1" );
+        subject.register( connection );
+
+        // the first write stalls, everything queued meanwhile goes out together
+        subject.write( "c1", frame( 0 ) );
+        assertThat( connection.writing.await( 5, TimeUnit.SECONDS ) ).isTrue();
+        for( int i = 1; i <= 5; i++ ) {
+
+            subject.write( "c1", frame( i ) );
+
+        }
+        connection.release.countDown();
+
+        assertThat( connection.writes.poll( 5, TimeUnit.SECONDS ) ).hasSize( 1 );
+        assertThat( connection.writes.poll( 5, TimeUnit.SECONDS ) ).hasSize( 5 );
+        assertThat( subject.getQueueDepth() ).isZero();
+
+    }
+
+    @Test
+    void dropOldestWhenFull() throws Exception {
+
+        var subject = new OutboundWriter( executor, 2, 8, OutboundWriter.Overflow.DROP_OLDEST, 0, meterRegistry );
+        var connection = new StubConnection( "c1" );
+        subject.register( connection );
+
+        subject.write( "c1", frame( 0 ) );
+        assertThat( connection.writing.await( 5, TimeUnit.SECONDS ) ).isTrue();
+        for( int i = 1; i <= 4; i++ ) {
+
+            assertThat( subject.write( "c1", frame( i ) ) ).isTrue();
+
+        }
+        connection.release.countDown();
+
+        connection.writes.poll( 5, TimeUnit.SECONDS );
+        var second = connection.writes.poll( 5, TimeUnit.SECONDS );
+        assertThat( second ).extracting( OutboundWriterTest::text ).containsExactly( "3", "4" );
+        assertThat( meterRegistry.get( "tcp.outbound.frames.dropped" ).tag( "reason", "overflow" ).counter().count() ).isEqualTo( 2 );
+
+    }
+
+    @Test
+    void disconnectSlowConsumer() throws Exception {
+
+        var subject = new OutboundWriter( executor, 1, 8, OutboundWriter.Overflow.DISCONNECT, 0, meterRegistry );
+        var connection = new StubConnection( "c1" );
+        subject.register( connection );
+
+        subject.write( "c1", frame( 0 ) );
+        assertThat( connection.writing.await( 5, TimeUnit.SECONDS ) ).isTrue();
+        assertThat( subject.write( "c1", frame( 1 ) ) ).isTrue();
+        assertThat( subject.write( "c1", frame( 2 ) ) ).isFalse();
+
+        assertThat( connection.closed.await( 5, TimeUnit.SECONDS ) ).isTrue();
+        assertThat( subject.write( "c1", frame( 3 ) ) ).isFalse();
+        assertThat( meterRegistry.get( "tcp.outbound.connections.disconnected" ).counter().count() ).isEqualTo( 1 );
+
+        connection.release.countDown();
+
+    }
+
+    @Test
+    void blockTimesOut() throws Exception {
+
+        var subject = new OutboundWriter( executor, 1, 8, OutboundWriter.Overflow.BLOCK, 50, meterRegistry );
+        var connection = new StubConnection( "c1" );
+        subject.register( connection );
+
+        subject.write( "c1", frame( 0 ) );
+        assertThat( connection.writing.await( 5, TimeUnit.SECONDS ) ).isTrue();
+        assertThat( subject.write( "c1", frame( 1 ) ) ).isTrue();
+        assertThat( subject.write( "c1", frame( 2 ) ) ).isFalse();
+
+        connection.release.countDown();
+
+    }
+
+    @Test
+    void framesQueuedAtUnregisterAreCountedAsDropped() throws Exception {
+
+        var subject = new OutboundWriter( executor, 16, 8, OutboundWriter.Overflow.DROP_OLDEST, 0, meterRegistry );
+        var connection = new StubConnection( "c1" );
+        subject.register( connection );
+
+        subject.write( "c1", frame( 0 ) );
+        assertThat( connection.writing.await( 5, TimeUnit.SECONDS ) ).isTrue();
+        for( int i = 1; i <= 3; i++ ) {
+
+            subject.write( "c1", frame( i ) );
+
+        }
+
+        subject.unregister( "c1" );
+        connection.release.countDown();
+
+        assertThat( meterRegistry.get( "tcp.outbound.frames.dropped" ).tag( "reason", "unregister" ).counter().count() ).isEqualTo( 3 );
+        assertThat( subject.getQueueDepth() ).isZero();
+
+    }
+
+    @Test
+    void broadcastTranscodesOncePerEncoding() throws Exception {
+
+        var subject = new OutboundWriter( executor, 16, 8, OutboundWriter.Overflow.DROP_OLDEST, 0, meterRegistry );
+        var connections = List.of( new StubConnection( "c1" ), new StubConnection( "c2" ), new StubConnection( "c3" ), new StubConnection( "c4" ) );
+        connections.forEach( connection -> {
+
+            subject.register( connection );
+            connection.release.countDown();
+
+        });
+        subject.setEncoding( "c2", MessageEncoding.CBOR );
+        subject.setEncoding( "c3", MessageEncoding.CBOR );
+
+        var frame = "{\"status\":\"pong\"}".getBytes( StandardCharsets.UTF_8 );
+        assertThat( subject.broadcast( List.of( "c1", "c2", "c3", "c4" ), "c4", frame ) ).isEqualTo( 3 );
+
+        var json = connections.get( 0 ).writes.poll( 5, TimeUnit.SECONDS );
+        var cbor = connections.get( 1 ).writes.poll( 5, TimeUnit.SECONDS );
+        var sameCbor = connections.get( 2 ).writes.poll( 5, TimeUnit.SECONDS );
+        assertThat( json ).singleElement().isSameAs( frame );
+        assertThat( cbor ).singleElement().isEqualTo( MessageEncoding.CBOR.fromJson( frame ) );
+        assertThat( sameCbor ).singleElement().isSameAs( cbor.get( 0 ) );
+        assertThat( connections.get( 3 ).writes ).isEmpty();
+
+    }
+
+    @Test
+    void unknownConnection() {
+
+        var subject = new OutboundWriter( executor, 1, 8, OutboundWriter.Overflow.DROP_OLDEST, 0, meterRegistry );
+
+        assertThat( subject.write( "missing", frame( 0 ) ) ).isFalse();
+
+    }
+
+    static byte[] frame( int i ) {
+
+        return String.valueOf( i ).getBytes( StandardCharsets.UTF_8 );
+    }
+
+    static String text( byte[] frame ) {
+
+        return new String( frame, StandardCharsets.UTF_8 );
+    }
+
+    static class StubConnection implements OutboundConnection {
+
+        final String connectionId;
+
+        final BlockingQueue<List<byte[]>> writes = new LinkedBlockingQueue<>();
+
+        final CountDownLatch writing = new CountDownLatch( 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final CountDownLatch closed = new CountDownLatch( 1 );
+
+        StubConnection( String connectionId ) {
+
+            this.connectionId = connectionId;
+
+        }
+
+        @Override
+        public String getConnectionId() {
+
+            return this.connectionId;
+        }
+
+        @Override
+        public void write( List<byte[]> frames ) throws Exception {
+
+            this.writing.countDown();
+            this.release.await();
+            this.writes.add( List.copyOf( frames ) );
+
+        }
+
+        @Override
+        public void close() {
+
+            this.closed.countDown();
+
+        }
+
+    }
+
+}
@@ -0,0 +1,185 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.integration.ip.IpHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PartitionedDispatchChannelTest {
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    QueueChannel errorChannel = new QueueChannel();
+
+    PartitionedDispatchChannel subject;
+
+    @AfterEach
+    void stop() {
+
+        if( this.subject != null ) {
+
+            this.subject.stop();
+
+        }
+
+    }
+
+    @Test
+    void framesOfOneConnectionStayInOrder() throws Exception {
+
+        this.subject = new PartitionedDispatchChannel( 4, 16, this.errorChannel, this.meterRegistry );
+
+        var connections = 32;
+        var frames = 1000;
+        var received = new ConcurrentHashMap<String, List<Integer>>();
+        var threads = ConcurrentHashMap.<String>newKeySet();
+        var done = new CountDownLatch( connections * frames );
+        this.subject.subscribe( message -> {
+
+            var connectionId = message.getHeaders().get( IpHeaders.CONNECTION_ID, String.class );
+            received.computeIfAbsent( connectionId, c -> new ArrayList<>() ).add( (Integer) message.getPayload() );
+            threads.add( Thread.currentThread().getName() );
+            done.countDown();
+
+        });
+        this.subject.start();
+
+        // one reading thread per connection, as in net mode
+        var readers = new ArrayList<Thread>();
+        for( int c = 0; c < connections; c++ ) {
+
+            var connectionId = "connection-" + c;
+            readers.add( Thread.ofPlatform().start( () -> {
+
+                for( int i = 0; i < frames; i++ ) {
+
+                    this.subject.send( frame( connectionId, i ) );
+
+                }
+
+            }) );
+
+        }
+        for( var reader : readers ) {
+
+            reader.join();
+
+        }
+
+        assertThat( done.await( 10, TimeUnit.SECONDS ) ).isTrue();
+        assertThat( received ).hasSize( connections );
+        for( var payloads : received.values() ) {
+
+            assertThat( payloads ).hasSize( frames ).isSorted();
+
+        }
+        assertThat( threads ).hasSizeGreaterThan( 1 ).allMatch( name -> name.startsWith( "inbound-dispatch-" ) );
+
+    }
+
+    @Test
+    void connectionAlwaysMapsToTheSamePartition() {
+
+        this.subject = new PartitionedDispatchChannel( 8, 16, this.errorChannel, this.meterRegistry );
+
+        var partitions = new ConcurrentHashMap<Integer, Set<String>>();
+        for( int c = 0; c < 1000; c++ ) {
+
+            var connectionId = "localhost:9876:%d:%s".formatted( 40000 + c, "0f5c1c1e-8a5e-4a7e-9b1a-" + c );
+            var partition = this.subject.partitionOf( frame( connectionId, 0 ) );
+
+            assertThat( this.subject.partitionOf( frame( connectionId, 1 ) ) ).isEqualTo( partition );
+            partitions.computeIfAbsent( partition, p -> ConcurrentHashMap.newKeySet() ).add( connectionId );
+
+        }
+
+        // every partition gets a fair share
+        assertThat( partitions ).hasSize( 8 );
+        assertThat( partitions.values() ).allMatch( connectionIds -> connectionIds.size() > 60 );
+
+    }
+
+    @Test
+    void fullPartitionHoldsTheReader() throws Exception {
+
+        this.subject = new PartitionedDispatchChannel( 1, 2, this.errorChannel, this.meterRegistry );
+
+        var release = new CountDownLatch( 1 );
+        var handled = new CountDownLatch( 4 );
+        this.subject.subscribe( message -> {
+
+            try {
+
+                release.await();
+
+            } catch( InterruptedException e ) {
+
+                Thread.currentThread().interrupt();
+
+            }
+            handled.countDown();
+
+        });
+        this.subject.start();
+
+        // one being handled, two queued, the fourth waits for room (the third may have too, before the first was taken)
+        var reader = Thread.ofPlatform().start( () -> {
+
+            for( int i = 0; i < 4; i++ ) {
+
+                this.subject.send( frame( "c1", i ) );
+
+            }
+
+        });
+
+        reader.join( 500 );
+        assertThat( reader.isAlive() ).isTrue();
+        assertThat( this.meterRegistry.get( "tcp.dispatch.blocked" ).counter().count() ).isGreaterThanOrEqualTo( 1 );
+
+        release.countDown();
+        reader.join( 5000 );
+        assertThat( handled.await( 5, TimeUnit.SECONDS ) ).isTrue();
+
+    }
+
+    @Test
+    void failuresGoToTheErrorChannel() {
+
+        this.subject = new PartitionedDispatchChannel( 2, 16, this.errorChannel, this.meterRegistry );
+        this.subject.subscribe( message -> {
+
+            throw new IllegalStateException( "handler failed" );
+        });
+        this.subject.start();
+
+        this.subject.send( frame( "c1", 1 ) );
+
+        var error = this.errorChannel.receive( 5000 );
+        assertThat( error ).isNotNull();
+        assertThat( error.getPayload() ).isInstanceOf( MessagingException.class );
+        var failedMessage = ( (MessagingException) error.getPayload() ).getFailedMessage();
+        assertThat( failedMessage.getHeaders() ).containsEntry( IpHeaders.CONNECTION_ID, "c1" );
+
+    }
+
+    private static Message<Integer> frame( String connectionId, int sequence ) {
+
+        return MessageBuilder.withPayload( sequence ).copyHeaders( Map.of( IpHeaders.CONNECTION_ID, connectionId ) ).build();
+    }
+
+}
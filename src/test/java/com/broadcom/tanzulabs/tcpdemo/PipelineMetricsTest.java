@@ -0,0 +1,80 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.messaging.support.GenericMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PipelineMetricsTest {
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    PipelineMetrics subject = new PipelineMetrics( meterRegistry, Map.of( "chat", Set.of( "sendMessage", "join" ) ) );
+
+    @Test
+    void handleIsTaggedByTypeAndAction() {
+
+        subject.recordHandle( "chat", "join", 1_000 );
+
+        assertThat( meterRegistry.get( "tcp.pipeline.handle" ).tags( "type", "chat", "action", "join" ).timer().count() ).isEqualTo( 1 );
+
+    }
+
+    @Test
+    void unexpectedValuesCollapseIntoUnknown() {
+
+        subject.recordHandle( "chat", "client-chosen-" + System.nanoTime(), 1_000 );
+        subject.recordHandle( "other", "join", 1_000 );
+        subject.recordHandle( "chat", null, 1_000 );
+        subject.recordRoute( null, 1_000 );
+
+        assertThat( meterRegistry.get( "tcp.pipeline.handle" ).tags( "type", "chat", "action", PipelineMetrics.UNKNOWN ).timer().count() ).isEqualTo( 1 );
+        assertThat( meterRegistry.get( "tcp.pipeline.handle" ).tags( "type", PipelineMetrics.UNKNOWN ).timer().count() ).isEqualTo( 1 );
+        assertThat( meterRegistry.get( "tcp.pipeline.handle" ).tags( "type", "chat", "action", PipelineMetrics.NONE ).timer().count() ).isEqualTo( 1 );
+        assertThat( meterRegistry.get( "tcp.pipeline.route" ).tags( "type", PipelineMetrics.UNKNOWN ).timer().count() ).isEqualTo( 1 );
+
+        // chat x (sendMessage, join, none, unknown) plus unknown x unknown
+        assertThat( meterRegistry.get( "tcp.pipeline.handle" ).timers() ).hasSize( 5 );
+
+    }
+
+    @Test
+    void decoderRecordsSizeAndErrors() {
+
+        var decoder = new FrameDecoder( subject );
+        var frame = "{ \"type\": \"chat\" }".getBytes( StandardCharsets.UTF_8 );
+
+        decoder.handleRequestMessage( new GenericMessage<>( frame ) );
+
+        assertThat( meterRegistry.get( "tcp.pipeline.decode" ).timer().count() ).isEqualTo( 1 );
+        assertThat( meterRegistry.get( "tcp.inbound.frame.size" ).summary().totalAmount() ).isEqualTo( frame.length );
+
+        assertThatThrownBy( () -> decoder.handleRequestMessage( new GenericMessage<>( "[ 1 ]" ) ) )
+                .isInstanceOf( MessageHandlingException.class );
+        assertThat( meterRegistry.get( "tcp.pipeline.errors" ).tags( "stage", "decode" ).counter().count() ).isEqualTo( 1 );
+
+    }
+
+    @Test
+    void sessionGauges() {
+
+        var clientService = new ClientService();
+        subject.bind( clientService );
+
+        clientService.registerConnection( "c1" );
+        clientService.registerConnection( "c2" );
+        clientService.login( "c1", "client1" );
+
+        assertThat( meterRegistry.get( "tcp.connections.open" ).gauge().value() ).isEqualTo( 2 );
+        assertThat( meterRegistry.get( "tcp.users.logged-in" ).gauge().value() ).isEqualTo( 1 );
+
+    }
+
+}
@@ -0,0 +1,197 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PresenceServiceTest {
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    Set<String> online = ConcurrentHashMap.newKeySet();
+
+    // connectionIds
+    Set<String> loggedIn = ConcurrentHashMap.newKeySet();
+
+    AtomicBoolean accepting = new AtomicBoolean( true );
+
+    // connectionId + " " + frame
+    BlockingQueue<String> sent = new LinkedBlockingQueue<>();
+
+    PresenceService subject =
+            new PresenceService(
+                    Duration.ofMillis( 100 ), 3, this.online::contains, this.loggedIn::contains,
+                    ( connectionId, frame ) -> this.accepting.get() && this.sent.add( connectionId + " " + new String( frame, StandardCharsets.UTF_8 ) ),
+                    new ResponseEncoder(), this.meterRegistry );
+
+    @BeforeEach
+    void start() {
+
+        this.loggedIn.addAll( List.of( "c1", "c2" ) );
+        subject.start();
+
+    }
+
+    @AfterEach
+    void stop() {
+
+        subject.stop();
+
+    }
+
+    @Test
+    void subscribeAnswersWithTheCurrentState() {
+
+        this.online.add( "bob" );
+
+        assertThat( subject.subscribe( "c1", List.of( "bob", "carol" ) ) ).isEqualTo( Map.of( "bob", true, "carol", false ) );
+        assertThat( subject.getSubscriberCount( "bob" ) ).isEqualTo( 1 );
+
+    }
+
+    @Test
+    void changesWithinTheWindowGoOutAsOneFrame() throws InterruptedException {
+
+        subject.subscribe( "c1", List.of( "bob", "carol", "dave" ) );
+
+        subject.changed( "bob", true );
+        subject.changed( "carol", true );
+        subject.changed( "dave", true );
+
+        var frame = this.sent.poll( 5, TimeUnit.SECONDS );
+        assertThat( frame ).startsWith( "c1 {\"type\":\"presence\",\"payload\":{\"online\":[" ).contains( "\"bob\"", "\"carol\"", "\"dave\"" );
+        assertThat( frame ).endsWith( "\"offline\":[]}}" );
+        assertThat( this.sent.poll( 300, TimeUnit.MILLISECONDS ) ).isNull();
+        assertThat( this.meterRegistry.get( "tcp.presence.changes" ).counter().count() ).isEqualTo( 3 );
+        assertThat( this.meterRegistry.get( "tcp.presence.notifications" ).counter().count() ).isEqualTo( 1 );
+
+    }
+
+    @Test
+    void aFlickerWithinTheWindowSendsNothing() throws InterruptedException {
+
+        subject.subscribe( "c1", List.of( "bob" ) );
+
+        subject.changed( "bob", true );
+        subject.changed( "bob", false );
+
+        assertThat( this.sent.poll( 300, TimeUnit.MILLISECONDS ) ).isNull();
+
+        subject.changed( "bob", true );
+        assertThat( this.sent.poll( 5, TimeUnit.SECONDS ) ).isEqualTo( "c1 {\"type\":\"presence\",\"payload\":{\"online\":[\"bob\"],\"offline\":[]}}" );
+
+    }
+
+    @Test
+    void subscribingPastTheLimitFails() {
+
+        assertThat( subject.subscribe( "c1", List.of( "a", "b" ) ) ).isNotNull();
+        assertThat( subject.subscribe( "c1", List.of( "a", "c", "d" ) ) ).isNull();
+        assertThat( subject.subscribe( "c1", List.of( "a", "c" ) ) ).isNotNull();
+        assertThat( subject.getSubscriberCount( "d" ) ).isZero();
+
+    }
+
+    @Test
+    void changesThatCouldNotBeQueuedAreSentLater() throws InterruptedException {
+
+        subject.subscribe( "c1", List.of( "bob" ) );
+        this.accepting.set( false );
+
+        subject.changed( "bob", true );
+        assertThat( this.sent.poll( 300, TimeUnit.MILLISECONDS ) ).isNull();
+
+        this.accepting.set( true );
+        assertThat( this.sent.poll( 5, TimeUnit.SECONDS ) ).isEqualTo( "c1 {\"type\":\"presence\",\"payload\":{\"online\":[\"bob\"],\"offline\":[]}}" );
+
+    }
+
+    @Test
+    void aRetryDoesNotHoldBackWindowsThatEndSooner() throws InterruptedException {
+
+        // c1's first frame is refused, its retry is due well after a 20ms window
+        var refused = new CountDownLatch( 1 );
+        var shortWindow =
+                new PresenceService(
+                        Duration.ofMillis( 20 ), 3, this.online::contains, this.loggedIn::contains,
+                        ( connectionId, frame ) -> {
+
+                            if( connectionId.equals( "c1" ) && refused.getCount() > 0 ) {
+
+                                refused.countDown();
+
+                                return false;
+                            }
+
+                            return this.sent.add( connectionId + " " + new String( frame, StandardCharsets.UTF_8 ) );
+                        },
+                        new ResponseEncoder(), new SimpleMeterRegistry() );
+        shortWindow.start();
+        try {
+
+            shortWindow.subscribe( "c1", List.of( "bob" ) );
+            shortWindow.subscribe( "c2", List.of( "carol" ) );
+
+            shortWindow.changed( "bob", true );
+            assertThat( refused.await( 5, TimeUnit.SECONDS ) ).isTrue();
+            shortWindow.changed( "carol", true );
+
+            assertThat( this.sent.poll( 5, TimeUnit.SECONDS ) ).startsWith( "c2 " );
+            assertThat( this.sent.poll( 5, TimeUnit.SECONDS ) ).startsWith( "c1 " );
+
+        } finally {
+
+            shortWindow.stop();
+
+        }
+
+    }
+
+    @Test
+    void connectionsThatAreGoneCannotSubscribe() {
+
+        this.loggedIn.remove( "c1" );
+        subject.removeConnection( "c1" );
+
+        assertThat( subject.subscribe( "c1", List.of( "bob" ) ) ).isNull();
+        assertThat( subject.getSubscriberCount( "bob" ) ).isZero();
+
+    }
+
+    @Test
+    void unsubscribedAndClosedConnectionsHearNothing() throws InterruptedException {
+
+        subject.subscribe( "c1", List.of( "bob", "carol" ) );
+        subject.subscribe( "c2", List.of( "bob" ) );
+
+        subject.unsubscribe( "c1", List.of( "bob" ) );
+        subject.changed( "bob", true );
+
+        // already parked with c2 when it closes
+        subject.removeConnection( "c2" );
+        assertThat( this.sent.poll( 300, TimeUnit.MILLISECONDS ) ).isNull();
+        assertThat( subject.getSubscriberCount( "bob" ) ).isZero();
+
+        subject.unsubscribe( "c1", null );
+        subject.changed( "carol", true );
+        assertThat( this.sent.poll( 300, TimeUnit.MILLISECONDS ) ).isNull();
+        assertThat( subject.getSubscriberCount( "carol" ) ).isZero();
+
+    }
+
+}
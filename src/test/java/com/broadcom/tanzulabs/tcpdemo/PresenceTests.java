@@ -0,0 +1,82 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.Socket;
+import java.nio.file.Path;
+
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.login;
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.port;
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.readFrame;
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.send;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Alice watches bob, she hears when he logs in and when his connection goes away.
+ */
+class PresenceTests {
+
+    @TempDir
+    Path directory;
+
+    ConfigurableApplicationContext context;
+
+    int port;
+
+    @BeforeEach
+    void start() throws InterruptedException {
+
+        this.context = ChatServerFixture.start( this.directory, "tcp.server.presence.window-millis=50" );
+        this.port = port( this.context );
+
+    }
+
+    @AfterEach
+    void stop() {
+
+        this.context.close();
+
+    }
+
+    @Test
+    void subscriberHearsLoginAndDisconnect() throws Exception {
+
+        try( var alice = new Socket( "localhost", this.port ) ) {
+
+            login( alice, "alice" );
+            send( alice, "{\"type\":\"command\",\"action\":\"subscribePresence\",\"payload\":{\"users\":[\"bob\"]}}" );
+            assertThat( readFrame( alice.getInputStream() ) ).isEqualTo( "{\"type\":\"presence\",\"payload\":{\"online\":[],\"offline\":[\"bob\"]}}" );
+
+            try( var bob = new Socket( "localhost", this.port ) ) {
+
+                login( bob, "bob" );
+                assertThat( readFrame( alice.getInputStream() ) ).isEqualTo( "{\"type\":\"presence\",\"payload\":{\"online\":[\"bob\"],\"offline\":[]}}" );
+
+            }
+
+            assertThat( readFrame( alice.getInputStream() ) ).isEqualTo( "{\"type\":\"presence\",\"payload\":{\"online\":[],\"offline\":[\"bob\"]}}" );
+
+            send( alice, "{\"type\":\"command\",\"action\":\"unsubscribePresence\",\"payload\":{}}" );
+            assertThat( readFrame( alice.getInputStream() ) ).isEqualTo( "{\"status\":\"unsubscribe succeeded!\"}" );
+
+        }
+
+    }
+
+    @Test
+    void subscribingNeedsALogin() throws Exception {
+
+        try( var anonymous = new Socket( "localhost", this.port ) ) {
+
+            send( anonymous, "{\"type\":\"command\",\"action\":\"subscribePresence\",\"payload\":{\"users\":[\"bob\"]}}" );
+            assertThat( readFrame( anonymous.getInputStream() ) ).isEqualTo( "{\"status\":\"subscribe failed!\"}" );
+
+        }
+
+    }
+
+}
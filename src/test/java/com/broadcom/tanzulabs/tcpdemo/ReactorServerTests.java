@@ -0,0 +1,144 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.login;
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.port;
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.readFrame;
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.send;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The same chat over the reactor engine, and a client that stops reading its replies is not read from either, so
+ * none of them has to be dropped.
+ */
+class ReactorServerTests {
+
+    static final int PINGS = 500_000;
+
+    @TempDir
+    Path directory;
+
+    ConfigurableApplicationContext context;
+
+    @AfterEach
+    void stop() {
+
+        if( this.context != null ) {
+
+            this.context.close();
+
+        }
+
+    }
+
+    @Test
+    void chatAndDisconnect() throws Exception {
+
+        var port = start();
+        try( var alice = new Socket( "localhost", port ) ) {
+
+            login( alice, "alice" );
+            try( var bob = new Socket( "localhost", port ) ) {
+
+                login( bob, "bob" );
+                send( alice, "{\"type\":\"chat\",\"payload\":{\"to\":\"bob\",\"message\":\"hi bob\"}}" );
+                assertThat( readFrame( bob.getInputStream() ) ).isEqualTo( "{\"type\":\"chatResponse\",\"payload\":{\"from\":\"alice\",\"message\":\"hi bob\"}}" );
+
+            }
+
+            // the close event logs bob out as in the other modes
+            var clientService = this.context.getBean( ClientService.class );
+            for( int i = 0; i < 50 && clientService.getLoggedInUsers().contains( "bob" ); i++ ) {
+
+                Thread.sleep( 100 );
+
+            }
+            assertThat( clientService.getLoggedInUsers() ).containsExactly( "alice" );
+
+        }
+
+    }
+
+    @Test
+    void aClientThatDoesNotReadIsNotReadFrom() throws Exception {
+
+        var port = start(
+                "tcp.server.outbound.queue-capacity=64",
+                "tcp.server.reactor.write-buffer-low-water-mark=1024",
+                "tcp.server.reactor.write-buffer-high-water-mark=4096" );
+
+        try( var socket = new Socket() ) {
+
+            socket.setReceiveBufferSize( 4096 );
+            socket.connect( new InetSocketAddress( "localhost", port ) );
+
+            // the pings are written while nothing is read, the writer blocks once the server stops reading
+            var failed = new AtomicReference<Exception>();
+            var writer = Thread.ofVirtual().start( () -> {
+
+                try {
+
+                    var out = new BufferedOutputStream( socket.getOutputStream() );
+                    var ping = "{\"type\":\"command\",\"action\":\"ping\"}\r\n".getBytes( StandardCharsets.UTF_8 );
+                    for( int i = 0; i < PINGS; i++ ) {
+
+                        out.write( ping );
+
+                    }
+                    out.flush();
+
+                } catch( IOException e ) {
+
+                    failed.set( e );
+
+                }
+
+            });
+
+            Thread.sleep( 1000 );
+            assertThat( writer.isAlive() ).isTrue();
+
+            InputStream in = new BufferedInputStream( socket.getInputStream() );
+            for( int i = 0; i < PINGS; i++ ) {
+
+                assertThat( readFrame( in ) ).isEqualTo( "{\"status\":\"pong\"}" );
+
+            }
+
+            writer.join();
+            assertThat( failed.get() ).isNull();
+            assertThat( this.context.getBean( MeterRegistry.class ).get( "tcp.outbound.frames.dropped" ).counters() )
+                    .allSatisfy( dropped -> assertThat( dropped.count() ).isZero() );
+
+        }
+
+    }
+
+    private int start( String... properties ) throws InterruptedException {
+
+        var reactor = Stream.of(
+                "tcp.server.mode=reactor",
+                "tcp.server.limits.connection.frames-per-second=0",
+                "tcp.server.limits.user.frames-per-second=0" );
+        this.context = ChatServerFixture.start( this.directory, Stream.concat( reactor, Stream.of( properties ) ).toArray( String[]::new ) );
+
+        return port( this.context );
+    }
+
+}
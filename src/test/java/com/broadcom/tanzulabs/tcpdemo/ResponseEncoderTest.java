@@ -0,0 +1,154 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ResponseEncoderTest {
+
+    ResponseEncoder subject = new ResponseEncoder();
+
+    ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void constantStatus() {
+
+        assertThat( new String( ResponseEncoder.LOGIN_SUCCEEDED, StandardCharsets.UTF_8 ) ).isEqualTo( "{\"status\":\"login succeeded!\"}" );
+        assertThat( new String( ResponseEncoder.CHAT_NOT_SENT, StandardCharsets.UTF_8 ) ).isEqualTo( "{\"status\":\"chat not sent!\"}" );
+
+    }
+
+    @Test
+    void broadcastSent() {
+
+        assertThat( new String( subject.broadcastSent( 42 ), StandardCharsets.UTF_8 ) ).isEqualTo( "{\"status\":\"broadcast sent to 42!\"}" );
+
+    }
+
+    @Test
+    void chatResponseEscapesUserText() throws IOException {
+
+        var message = "say \"hi\" \\ to\nclient2\t\u0001 café € 😀";
+
+        var actual = subject.chatResponse( "client\"1", message );
+
+        assertThat( read( actual ) ).isEqualTo(
+                Map.of( "type", "chatResponse", "payload", Map.of( "from", "client\"1", "message", message ) ) );
+
+    }
+
+    @Test
+    void chatResponseMatchesStringEncoding() {
+
+        var actual = subject.chatResponse( "client1", "café € 😀 \uD800" );
+
+        assertThat( actual ).isEqualTo(
+                "{\"type\":\"chatResponse\",\"payload\":{\"from\":\"client1\",\"message\":\"café € 😀 \uD800\"}}".getBytes( StandardCharsets.UTF_8 ) );
+
+    }
+
+    @Test
+    void roomChatResponse() throws IOException {
+
+        var actual = subject.roomChatResponse( "lobby", "client1", null );
+
+        assertThat( new String( actual, StandardCharsets.UTF_8 ) )
+                .isEqualTo( "{\"type\":\"chatResponse\",\"payload\":{\"room\":\"lobby\",\"from\":\"client1\",\"message\":null}}" );
+        assertThat( read( actual ) ).containsKey( "payload" );
+
+    }
+
+    @Test
+    void chatBatchResponse() throws IOException {
+
+        var actual = subject.chatBatchResponse( "bot", List.of( "one", "two \"quoted\"" ) );
+
+        assertThat( read( actual ) )
+                .isEqualTo( Map.of( "type", "chatBatchResponse", "payload", Map.of( "from", "bot", "messages", List.of( "one", "two \"quoted\"" ) ) ) );
+
+    }
+
+    @Test
+    void batchStatus() {
+
+        var actual = subject.batchStatus(
+                new ResponseEncoder.Delivery[] { ResponseEncoder.Delivery.SENT, ResponseEncoder.Delivery.QUEUED, ResponseEncoder.Delivery.NOT_SENT } );
+
+        assertThat( new String( actual, StandardCharsets.UTF_8 ) )
+                .isEqualTo( "{\"status\":\"batch processed!\",\"results\":[\"sent\",\"queued\",\"not sent\"]}" );
+
+    }
+
+    @Test
+    void withIdPrependsTheId() {
+
+        var frame = subject.chatResponse( "client1", "hi" );
+
+        assertThat( new String( subject.withId( 42, frame ), StandardCharsets.UTF_8 ) )
+                .isEqualTo( "{\"id\":42,\"type\":\"chatResponse\",\"payload\":{\"from\":\"client1\",\"message\":\"hi\"}}" );
+        assertThat( new String( subject.withId( 7, "{}".getBytes( StandardCharsets.UTF_8 ) ), StandardCharsets.UTF_8 ) ).isEqualTo( "{\"id\":7}" );
+
+    }
+
+    @Test
+    void historyResponse() {
+
+        var entries = List.of( new ChatHistory.Entry( "alice", "hi", 1 ), new ChatHistory.Entry( "bob", "\"yo\"", 2 ) );
+
+        assertThat( new String( subject.historyResponse( "bob", entries ), StandardCharsets.UTF_8 ) )
+                .isEqualTo( "{\"type\":\"chatHistory\",\"payload\":{\"with\":\"bob\",\"messages\":["
+                        + "{\"from\":\"alice\",\"message\":\"hi\",\"timestamp\":1},"
+                        + "{\"from\":\"bob\",\"message\":\"\\\"yo\\\"\",\"timestamp\":2}]}}" );
+        assertThat( new String( subject.historyResponse( "bob", List.of() ), StandardCharsets.UTF_8 ) )
+                .isEqualTo( "{\"type\":\"chatHistory\",\"payload\":{\"with\":\"bob\",\"messages\":[]}}" );
+
+    }
+
+    @Test
+    void presence() {
+
+        var online = new LinkedHashMap<String, Boolean>();
+        online.put( "alice", true );
+        online.put( "bob", false );
+        online.put( "carol", true );
+
+        assertThat( new String( subject.presence( online ), StandardCharsets.UTF_8 ) )
+                .isEqualTo( "{\"type\":\"presence\",\"payload\":{\"online\":[\"alice\",\"carol\"],\"offline\":[\"bob\"]}}" );
+        assertThat( new String( subject.presence( Map.of() ), StandardCharsets.UTF_8 ) )
+                .isEqualTo( "{\"type\":\"presence\",\"payload\":{\"online\":[],\"offline\":[]}}" );
+
+    }
+
+    @Test
+    void reconnect() {
+
+        assertThat( new String( subject.reconnect( 2500 ), StandardCharsets.UTF_8 ) ).isEqualTo( "{\"status\":\"reconnect\",\"afterMillis\":2500}" );
+
+    }
+
+    @Test
+    void largeMessageDoesNotLeakIntoNextReply() throws IOException {
+
+        var large = "x".repeat( 100_000 );
+
+        assertThat( read( subject.chatResponse( "client1", large ) ) )
+                .isEqualTo( Map.of( "type", "chatResponse", "payload", Map.of( "from", "client1", "message", large ) ) );
+        assertThat( read( subject.chatResponse( "client1", "small" ) ) )
+                .isEqualTo( Map.of( "type", "chatResponse", "payload", Map.of( "from", "client1", "message", "small" ) ) );
+
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private Map<String, Object> read( byte[] json ) throws IOException {
+
+        return this.objectMapper.readValue( json, Map.class );
+    }
+
+}
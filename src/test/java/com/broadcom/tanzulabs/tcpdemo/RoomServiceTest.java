@@ -0,0 +1,80 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RoomServiceTest {
+
+    RoomService subject = new RoomService();
+
+    String fakeRoom = "fakeRoom";
+    String fakeConnectionId = "fakeConnectionId";
+
+    @BeforeEach
+    void open() {
+
+        subject.registerConnection( fakeConnectionId );
+        subject.registerConnection( "otherConnectionId" );
+
+    }
+
+    @Test
+    void join() {
+
+        assertThat( subject.join( fakeRoom, fakeConnectionId ) ).isTrue();
+        assertThat( subject.isMember( fakeRoom, fakeConnectionId ) ).isTrue();
+        assertThat( subject.getMembers( fakeRoom ) ).containsExactly( fakeConnectionId );
+
+    }
+
+    @Test
+    void joinWithoutRoom() {
+
+        assertThat( subject.join( null, fakeConnectionId ) ).isFalse();
+        assertThat( subject.join( "", fakeConnectionId ) ).isFalse();
+
+    }
+
+    @Test
+    void leave() {
+
+        subject.join( fakeRoom, fakeConnectionId );
+
+        assertThat( subject.leave( fakeRoom, fakeConnectionId ) ).isTrue();
+        assertThat( subject.isMember( fakeRoom, fakeConnectionId ) ).isFalse();
+        assertThat( subject.getMembers( fakeRoom ) ).isEmpty();
+        assertThat( subject.leave( fakeRoom, fakeConnectionId ) ).isFalse();
+
+    }
+
+    @Test
+    void removeConnectionLeavesEveryRoom() {
+
+        subject.join( fakeRoom, fakeConnectionId );
+        subject.join( "otherRoom", fakeConnectionId );
+        subject.join( fakeRoom, "otherConnectionId" );
+
+        assertThat( subject.getRooms( fakeConnectionId ) ).containsExactlyInAnyOrder( fakeRoom, "otherRoom" );
+
+        subject.removeConnection( fakeConnectionId );
+
+        assertThat( subject.getMembers( fakeRoom ) ).containsExactly( "otherConnectionId" );
+        assertThat( subject.getMembers( "otherRoom" ) ).isEmpty();
+        assertThat( subject.getRooms( fakeConnectionId ) ).isEmpty();
+
+    }
+
+    @Test
+    void joinAfterRemoveConnectionFails() {
+
+        subject.removeConnection( fakeConnectionId );
+
+        assertThat( subject.join( fakeRoom, fakeConnectionId ) ).isFalse();
+        assertThat( subject.getMembers( fakeRoom ) ).isEmpty();
+        assertThat( subject.getRooms( fakeConnectionId ) ).isEmpty();
+
+    }
+
+}
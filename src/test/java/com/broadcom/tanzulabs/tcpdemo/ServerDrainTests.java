@@ -0,0 +1,76 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.Socket;
+import java.nio.file.Path;
+
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.login;
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.port;
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.readFrame;
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.send;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Alice is in the lobby when the server shuts down. She is told when to come back, and after the restart she is in
+ * the lobby again without joining it.
+ */
+class ServerDrainTests {
+
+    static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void clientsAreToldToReconnectAndFindTheirRoomsAfterARestart() throws Exception {
+
+        var first = start();
+        try( var alice = new Socket( "localhost", port( first ) ) ) {
+
+            login( alice, "alice" );
+            send( alice, "{\"type\":\"chat\",\"action\":\"join\",\"payload\":{\"room\":\"lobby\"}}" );
+            assertThat( readFrame( alice.getInputStream() ) ).isEqualTo( "{\"status\":\"join succeeded!\"}" );
+
+            first.close();
+
+            var notice = MAPPER.readTree( readFrame( alice.getInputStream() ) );
+            assertThat( notice.path( "status" ).asText() ).isEqualTo( "reconnect" );
+            assertThat( notice.path( "afterMillis" ).asLong() ).isBetween( 100L, 200L );
+
+        }
+
+        try( var second = start();
+             var alice = new Socket( "localhost", port( second ) );
+             var bob = new Socket( "localhost", port( second ) ) ) {
+
+            login( alice, "alice" );
+            login( bob, "bob" );
+            send( bob, "{\"type\":\"chat\",\"action\":\"join\",\"payload\":{\"room\":\"lobby\"}}" );
+            assertThat( readFrame( bob.getInputStream() ) ).isEqualTo( "{\"status\":\"join succeeded!\"}" );
+
+            send( bob, "{\"type\":\"chat\",\"action\":\"broadcast\",\"payload\":{\"room\":\"lobby\",\"message\":\"welcome back\"}}" );
+            assertThat( readFrame( bob.getInputStream() ) ).isEqualTo( "{\"status\":\"broadcast sent to 1!\"}" );
+            assertThat( readFrame( alice.getInputStream() ) )
+                    .isEqualTo( "{\"type\":\"chatResponse\",\"payload\":{\"room\":\"lobby\",\"from\":\"bob\",\"message\":\"welcome back\"}}" );
+
+        }
+
+    }
+
+    private ConfigurableApplicationContext start() throws InterruptedException {
+
+        return ChatServerFixture.start( this.directory,
+                "tcp.server.drain.enabled=true",
+                "tcp.server.drain.reconnect-min-millis=100",
+                "tcp.server.drain.reconnect-max-millis=200",
+                "tcp.server.drain.timeout-seconds=1",
+                "tcp.server.drain.close-grace-millis=100",
+                "tcp.server.snapshot.enabled=true",
+                "tcp.server.snapshot.file=" + this.directory.resolve( "snapshot/sessions.json" ) );
+    }
+
+}
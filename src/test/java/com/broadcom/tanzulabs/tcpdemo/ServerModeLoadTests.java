@@ -0,0 +1,98 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.login;
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.port;
+
+/**
+ * Opens N mostly idle, logged in clients against each server mode and reports the live thread count and heap.
+ * Excluded from the default build, run with {@code ./gradlew loadTest -Ploadtest.clients=50000}.
+ */
+@Tag( "load" )
+class ServerModeLoadTests {
+
+    private static final Logger log = LoggerFactory.getLogger( ServerModeLoadTests.class );
+
+    static final int CLIENTS = Integer.getInteger( "loadtest.clients", 1000 );
+
+    @TempDir
+    Path directory;
+
+    @ParameterizedTest
+    @ValueSource( strings = { "net", "nio", "net-virtual", "reactor" } )
+    void idleClients( String mode ) throws Exception {
+
+        var threads = ManagementFactory.getThreadMXBean();
+        var memory = ManagementFactory.getMemoryMXBean();
+
+        try( var context = ChatServerFixture.start( this.directory,
+                "tcp.server.mode=" + mode,
+                "logging.level.com.broadcom.tanzulabs.tcpdemo=WARN" ) ) {
+
+            System.gc();
+            var threadsBefore = threads.getThreadCount();
+            var heapBefore = memory.getHeapMemoryUsage().getUsed();
+
+            var sockets = new ArrayList<Socket>( CLIENTS );
+            try {
+
+                for( int i = 0; i < CLIENTS; i++ ) {
+
+                    var socket = new Socket( "localhost", port( context ) );
+                    sockets.add( socket );
+
+                    login( socket, "load-" + i );
+
+                }
+
+                System.gc();
+                var threadsAfter = threads.getThreadCount();
+                var heapAfter = memory.getHeapMemoryUsage().getUsed();
+
+                log.warn( "mode [{}] clients [{}] : threads {} -> {} ({} per 1k clients), heap {} MB -> {} MB ({} KB per client)",
+                        mode, CLIENTS,
+                        threadsBefore, threadsAfter, ( threadsAfter - threadsBefore ) * 1000L / CLIENTS,
+                        heapBefore >> 20, heapAfter >> 20, ( ( heapAfter - heapBefore ) >> 10 ) / CLIENTS );
+
+            } finally {
+
+                close( sockets );
+
+            }
+
+        }
+
+    }
+
+    private static void close( List<Socket> sockets ) {
+
+        for( var socket : sockets ) {
+
+            try {
+
+                socket.close();
+
+            } catch( IOException e ) {
+
+                log.debug( "close failed", e );
+
+            }
+
+        }
+
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SessionSnapshotTest {
+
+    @TempDir
+    Path directory;
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void roomsAreRestoredOnceAtTheFirstLoginAfterARestart() throws Exception {
+
+        var file = this.directory.resolve( "snapshot/sessions.json" );
+        new SessionSnapshot( file, Duration.ofMinutes( 5 ), meterRegistry ).write( Map.of( "alice", Set.of( "lobby", "random" ) ) );
+
+        var restarted = new SessionSnapshot( file, Duration.ofMinutes( 5 ), meterRegistry );
+        assertThat( file ).doesNotExist();
+        assertThat( restarted.restore( "alice" ) ).containsExactlyInAnyOrder( "lobby", "random" );
+        assertThat( restarted.restore( "alice" ) ).isEmpty();
+        assertThat( restarted.restore( "bob" ) ).isEmpty();
+        assertThat( meterRegistry.get( "tcp.snapshot.restored" ).counter().count() ).isEqualTo( 1 );
+
+    }
+
+    @Test
+    void oldSnapshotsAreIgnored() throws Exception {
+
+        var file = this.directory.resolve( "sessions.json" );
+        Files.writeString( file, "{\"takenAt\":1,\"rooms\":{\"alice\":[\"lobby\"]}}" );
+
+        var restarted = new SessionSnapshot( file, Duration.ofMinutes( 5 ), meterRegistry );
+        assertThat( restarted.getRestorable() ).isZero();
+        assertThat( restarted.restore( "alice" ) ).isEmpty();
+
+    }
+
+    @Test
+    void aDamagedSnapshotStartsCold() throws Exception {
+
+        var file = this.directory.resolve( "sessions.json" );
+        Files.writeString( file, "{\"takenAt\":" );
+
+        var restarted = new SessionSnapshot( file, Duration.ofMinutes( 5 ), meterRegistry );
+        assertThat( restarted.restore( "alice" ) ).isEmpty();
+        assertThat( file ).doesNotExist();
+
+    }
+
+}
@@ -26,7 +26,7 @@ import java.io.IOException;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
-@SpringBootTest
+@SpringBootTest( properties = "tcp.server.drain.enabled=false" )
 @DirtiesContext
 public class TcpAsyncBiDirectionalTests {
 
@@ -7,7 +7,7 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.integration.test.context.SpringIntegrationTest;
 import org.springframework.test.annotation.DirtiesContext;
 
-@SpringBootTest
+@SpringBootTest( properties = "tcp.server.drain.enabled=false" )
 @SpringIntegrationTest( noAutoStartup = { "client1Adapter", "client2Adapter" } )
 @DirtiesContext
 class TcpDemoApplicationTests {
@@ -0,0 +1,123 @@
+package com.broadcom.tanzulabs.tcpdemo;
+
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.login;
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.port;
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.readFrame;
+import static com.broadcom.tanzulabs.tcpdemo.ChatServerFixture.send;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Clients log in over TLS with a self-signed certificate in every server mode, and a client that reconnects
+ * resumes its session.
+ */
+class TlsTests {
+
+    static final String PASSWORD = "changeit";
+
+    @TempDir
+    Path directory;
+
+    @ParameterizedTest
+    @ValueSource( strings = { "net", "nio", "net-virtual" } )
+    void reconnectingClientsResumeTheirSession( String mode ) throws Exception {
+
+        var keyStore = generateKeyStore( this.directory );
+
+        try( var context = ChatServerFixture.start( this.directory,
+                "tcp.server.mode=" + mode,
+                "tcp.server.tls.enabled=true",
+                "tcp.server.tls.key-store=file:" + keyStore,
+                "tcp.server.tls.key-store-password=" + PASSWORD ) ) {
+
+            var client = clientContext( keyStore );
+            long created;
+            try( var socket = (SSLSocket) client.getSocketFactory().createSocket( "localhost", port( context ) ) ) {
+
+                login( socket, "alice" );
+                created = socket.getSession().getCreationTime();
+                send( socket, "{\"type\":\"command\",\"action\":\"logout\",\"payload\":{\"username\":\"alice\"}}" );
+                assertThat( readFrame( socket.getInputStream() ) ).isEqualTo( "{\"status\":\"logout succeeded!\"}" );
+
+            }
+
+            // a resumed session is the one the first handshake created
+            try( var socket = (SSLSocket) client.getSocketFactory().createSocket( "localhost", port( context ) ) ) {
+
+                send( socket, "{\"type\":\"command\",\"action\":\"ping\"}" );
+                assertThat( readFrame( socket.getInputStream() ) ).isEqualTo( "{\"status\":\"pong\"}" );
+                assertThat( socket.getSession().getCreationTime() ).isEqualTo( created );
+
+            }
+
+        }
+
+    }
+
+    // a PKCS12 key store with a self-signed certificate for localhost, next to a trust store holding just the certificate
+    static Path generateKeyStore( Path directory ) throws Exception {
+
+        var keyStore = directory.resolve( "server.p12" );
+        var certificate = directory.resolve( "server.cer" );
+        keytool( "-genkeypair", "-alias", "server", "-keyalg", "EC", "-groupname", "secp256r1", "-dname", "CN=localhost",
+                "-ext", "SAN=dns:localhost,ip:127.0.0.1", "-validity", "1",
+                "-storetype", "PKCS12", "-keystore", keyStore.toString(), "-storepass", PASSWORD, "-keypass", PASSWORD );
+        keytool( "-exportcert", "-alias", "server", "-keystore", keyStore.toString(), "-storepass", PASSWORD, "-file", certificate.toString() );
+        keytool( "-importcert", "-noprompt", "-alias", "server", "-file", certificate.toString(),
+                "-storetype", "PKCS12", "-keystore", trustStore( keyStore ).toString(), "-storepass", PASSWORD );
+
+        return keyStore;
+    }
+
+    static SSLContext clientContext( Path keyStore ) throws Exception {
+
+        var trusted = KeyStore.getInstance( "PKCS12" );
+        try( var in = Files.newInputStream( trustStore( keyStore ) ) ) {
+
+            trusted.load( in, PASSWORD.toCharArray() );
+
+        }
+
+        var trustManagerFactory = TrustManagerFactory.getInstance( TrustManagerFactory.getDefaultAlgorithm() );
+        trustManagerFactory.init( trusted );
+
+        var context = SSLContext.getInstance( "TLSv1.3" );
+        context.init( null, trustManagerFactory.getTrustManagers(), null );
+
+        return context;
+    }
+
+    private static Path trustStore( Path keyStore ) {
+
+        return keyStore.resolveSibling( "trust.p12" );
+    }
+
+    private static void keytool( String... arguments ) throws Exception {
+
+        var command = new ArrayList<>( List.of( Path.of( System.getProperty( "java.home" ), "bin", "keytool" ).toString() ) );
+        command.addAll( List.of( arguments ) );
+
+        var process = new ProcessBuilder( command ).redirectErrorStream( true ).start();
+        var output = new String( process.getInputStream().readAllBytes(), StandardCharsets.UTF_8 );
+        if( !process.waitFor( 30, TimeUnit.SECONDS ) || process.exitValue() != 0 ) {
+
+            throw new IllegalStateException( "keytool " + arguments[ 0 ] + " failed : " + output );
+        }
+
+    }
+
+}